@@ -65,6 +65,7 @@ ivy.setup()
 
 buildLibraries = new RegExFileSet("lib", ".*\\.jar").recurse()
 		.addExcludeDir("integration")
+		.addExcludeDir("benchmark")
 		.getFullFilePaths()
 
 jp = new JavaProgram()
@@ -457,6 +458,30 @@ def doIntegration(Rule rule)
 	saw.exec("java  -Dhost=${host} -Dport=${port} -cp ${integrationBuildRule.classpath} org.testng.TestNG src/integration-test/testng.xml")
 }
 
+//------------------------------------------------------------------------------
+//Build and run JMH benchmarks
+benchmarkDir = "build/benchmark"
+benchmarkClassPath = new Classpath(jp.getLibraryJars())
+		.addPath(jp.getJarRule().getTarget())
+		.addPath("src/main/resources")
+		.addPaths(new RegExFileSet("lib/ivy/benchmark", ".*\\.jar").getFullFilePaths())
+
+benchmarkBuildRule = new JavaCRule("$benchmarkDir/classes")
+		.addSourceDir("src/benchmark/java")
+		.addClasspath(benchmarkClassPath)
+		.addDepend(jp.getJarRule())
+		.addDepend(ivy.getResolveRule("benchmark"))
+
+new SimpleRule("benchmark").setDescription("Run JMH benchmarks, use -D filter=<regex> to pick benchmarks. Results go to $benchmarkDir/jmh-result.json")
+		.setMakeAction("doBenchmark")
+		.addDepend(benchmarkBuildRule)
+
+def doBenchmark(Rule rule)
+{
+	filter = saw.getProperty("filter", "")
+	saw.exec("java -cp ${benchmarkBuildRule.classpath}:$benchmarkDir/classes org.openjdk.jmh.Main -rf json -rff $benchmarkDir/jmh-result.json ${filter}")
+}
+
 //------------------------------------------------------------------------------
 //Build Docs
 new SimpleRule("docs").setDescription("Build Sphinx Documentation")
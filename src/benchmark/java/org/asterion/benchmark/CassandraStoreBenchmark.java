@@ -0,0 +1,126 @@
+package org.asterion.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import org.asterion.Edge;
+import org.asterion.store.CassandraClientImpl;
+import org.asterion.store.CassandraStore;
+import org.asterion.store.Direction;
+import org.asterion.store.EdgeQuery;
+import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Writes and reads through CassandraStore against the embedded Cassandra of
+ cassandra-unit.  The absolute numbers say little about a real cluster, a
+ single local node has no network hops or replication, but changes to the
+ statements, batching and paging show up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CassandraStoreBenchmark
+{
+	private static final String KEYSPACE = "asterion_benchmark";
+	private static final int EMBEDDED_PORT = 9142;
+	private static final int VERTEX_COUNT = 1000;
+	private static final int HUB_EDGES = 1000;
+	private static final int EDGE_BATCH = 100;
+
+	private CassandraClientImpl m_client;
+	private CassandraStore m_store;
+	private ByteBuffer[] m_vertices;
+	private ByteBuffer m_hub;
+	private final AtomicLong m_nextId = new AtomicLong();
+	private final Random m_random = new Random(42);
+
+	@Setup(Level.Trial)
+	public void startCassandra() throws Exception
+	{
+		EmbeddedCassandraServerHelper.startEmbeddedCassandra();
+
+		m_client = new CassandraClientImpl(KEYSPACE, Collections.singletonList("127.0.0.1"));
+		m_client.setPort(EMBEDDED_PORT);
+		m_store = new CassandraStore(m_client);
+
+		m_vertices = new ByteBuffer[VERTEX_COUNT];
+		for (int i = 0; i < VERTEX_COUNT; i++)
+		{
+			m_vertices[i] = ByteBuffer.wrap(("vertex_" + i).getBytes());
+			m_store.updateVertex(m_vertices[i], ImmutableMap.of("name", "v" + i, "height", "6.2")).get();
+		}
+
+		m_hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>(HUB_EDGES);
+		for (int i = 0; i < HUB_EDGES; i++)
+			edges.add(new Edge(m_hub, m_vertices[i % VERTEX_COUNT], Direction.OUT, "knows", i));
+
+		m_store.addEdges(edges).get();
+	}
+
+	@TearDown(Level.Trial)
+	public void dropKeyspace()
+	{
+		m_store.close();
+		m_client.getSession().execute("DROP KEYSPACE " + KEYSPACE);
+		m_client.close();
+	}
+
+	private ByteBuffer newVertexId()
+	{
+		return (ByteBuffer.wrap(("new_" + m_nextId.incrementAndGet()).getBytes()));
+	}
+
+	@Benchmark
+	public void updateVertex() throws Exception
+	{
+		m_store.updateVertex(newVertexId(), ImmutableMap.of("name", "bob")).get();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void addEdges() throws Exception
+	{
+		ByteBuffer source = newVertexId();
+		List<Edge> edges = new ArrayList<>(EDGE_BATCH);
+		for (int i = 0; i < EDGE_BATCH; i++)
+			edges.add(new Edge(source, m_vertices[i], Direction.OUT, "knows"));
+
+		m_store.addEdges(edges).get();
+	}
+
+	@Benchmark
+	public Map<String, String> getVertexProperties() throws Exception
+	{
+		return (m_store.getVertexProperties(m_vertices[m_random.nextInt(VERTEX_COUNT)]).get());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<ByteBuffer> readEdges() throws Exception
+	{
+		return (m_store.readEdges(new EdgeQuery(m_hub, "knows")).get());
+	}
+}
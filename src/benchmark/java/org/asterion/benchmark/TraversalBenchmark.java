@@ -0,0 +1,103 @@
+package org.asterion.benchmark;
+
+import org.asterion.Edge;
+import org.asterion.store.Direction;
+import org.asterion.store.MemoryStore;
+import org.asterion.traversal.Expansion;
+import org.asterion.traversal.TraversalEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Expansion and shortest path over a random graph held by MemoryStore, so
+ the numbers are the cost of the traversal itself rather than of the
+ cluster.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraversalBenchmark
+{
+	private static final String EDGE_TYPE = "knows";
+
+	@Param({"10000"})
+	public int m_vertexCount;
+
+	@Param({"8"})
+	public int m_degree;
+
+	@Param({"3"})
+	public int m_depth;
+
+	private MemoryStore m_store;
+	private TraversalEngine m_engine;
+	private ByteBuffer[] m_vertices;
+	private Random m_random;
+
+	@Setup(Level.Trial)
+	public void loadGraph() throws Exception
+	{
+		Random random = new Random(42);
+		m_store = new MemoryStore();
+		m_vertices = new ByteBuffer[m_vertexCount];
+
+		for (int i = 0; i < m_vertexCount; i++)
+			m_vertices[i] = ByteBuffer.wrap(("vertex_" + i).getBytes());
+
+		List<Edge> edges = new ArrayList<>();
+		for (int i = 0; i < m_vertexCount; i++)
+		{
+			for (int j = 0; j < m_degree; j++)
+				edges.add(new Edge(m_vertices[i], m_vertices[random.nextInt(m_vertexCount)], Direction.OUT, EDGE_TYPE, 0L));
+		}
+
+		m_store.addEdges(edges).get();
+
+		m_engine = new TraversalEngine(m_store);
+		m_engine.setMaxVisited(m_vertexCount);
+		m_random = new Random(7);
+	}
+
+	@TearDown(Level.Trial)
+	public void close()
+	{
+		m_store.close();
+	}
+
+	private ByteBuffer randomVertex()
+	{
+		return (m_vertices[m_random.nextInt(m_vertexCount)]);
+	}
+
+	@Benchmark
+	public Expansion expand() throws Exception
+	{
+		return (m_engine.expand(randomVertex(), EDGE_TYPE, Direction.OUT, m_depth).get());
+	}
+
+	@Benchmark
+	public List<ByteBuffer> shortestPath() throws Exception
+	{
+		return (m_engine.shortestPath(randomVertex(), randomVertex(), EDGE_TYPE, Direction.BOTH, 6).get());
+	}
+}
@@ -0,0 +1,84 @@
+package org.asterion.benchmark;
+
+import org.asterion.util.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Number parsing and the variable length encoding used by the binary wire
+ format and dump files.  Long.parseLong is measured alongside Util.parseLong
+ as the baseline it has to beat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark
+{
+	@Param({"7", "1425312000000", "-9223372036854775807"})
+	public long m_value;
+
+	private String m_text;
+	private ByteArrayOutputStream m_bytes;
+	private DataOutputStream m_out;
+	private ByteArrayInputStream m_packed;
+	private DataInputStream m_in;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		m_text = Long.toString(m_value);
+
+		m_bytes = new ByteArrayOutputStream(16);
+		m_out = new DataOutputStream(m_bytes);
+
+		Util.packUnsignedLong(m_value, m_out);
+		m_packed = new ByteArrayInputStream(m_bytes.toByteArray());
+		m_in = new DataInputStream(m_packed);
+	}
+
+	@Benchmark
+	public long parseLong()
+	{
+		return (Util.parseLong(m_text));
+	}
+
+	@Benchmark
+	public long jdkParseLong()
+	{
+		return (Long.parseLong(m_text));
+	}
+
+	@Benchmark
+	public int packUnsignedLong() throws IOException
+	{
+		m_bytes.reset();
+		Util.packUnsignedLong(m_value, m_out);
+		return (m_bytes.size());
+	}
+
+	@Benchmark
+	public long unpackUnsignedLong() throws IOException
+	{
+		m_packed.reset();
+		return (Util.unpackUnsignedLong(m_in));
+	}
+}
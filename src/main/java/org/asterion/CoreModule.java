@@ -16,19 +16,41 @@
 
 package org.asterion;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.jvm.BufferPoolMetricSet;
+import com.codahale.metrics.jvm.FileDescriptorRatioGauge;
+import com.codahale.metrics.jvm.GarbageCollectorMetricSet;
+import com.codahale.metrics.jvm.MemoryUsageGaugeSet;
+import com.codahale.metrics.jvm.ThreadStatesGaugeSet;
 import com.google.common.net.InetAddresses;
 import com.google.inject.AbstractModule;
 import com.google.inject.Singleton;
 import com.google.inject.name.Names;
-import org.asterion.store.CassandraStore;
+import org.asterion.dump.GraphExporter;
+import org.asterion.dump.GraphImporter;
+import org.asterion.ingest.BulkLoader;
+import org.asterion.store.AdjacencyCache;
+import org.asterion.store.CassandraClient;
+import org.asterion.store.CassandraClientImpl;
 import org.asterion.store.DataStore;
+import org.asterion.store.GraphScanner;
+import org.asterion.store.TimedDataStore;
+import org.asterion.store.VertexCache;
+import org.asterion.store.WriteBehindStore;
+import org.asterion.store.WriteDeduplicator;
+import org.asterion.traversal.TraversalEngine;
 import org.asterion.util.Util;
 
+import java.lang.management.ManagementFactory;
 import java.util.MissingResourceException;
 import java.util.Properties;
 
 public class CoreModule extends AbstractModule
 {
+	public static final String DATA_STORE_CLASS_PROPERTY = "asterion.store.class";
+	public static final String VERTEX_CACHE_CLASS_PROPERTY = "asterion.cache.vertex.class";
+	public static final String ADJACENCY_CACHE_CLASS_PROPERTY = "asterion.cache.adjacency.class";
+
 	public static final String DATAPOINTS_FACTORY_LONG = "kairosdb.datapoints.factory.long";
 	public static final String DATAPOINTS_FACTORY_DOUBLE = "kairosdb.datapoints.factory.double";
 	private Properties m_props;
@@ -55,11 +77,42 @@ public class CoreModule extends AbstractModule
 		return (klass);
 	}
 
+	private static MetricRegistry createMetricRegistry()
+	{
+		MetricRegistry registry = new MetricRegistry();
+
+		registry.register("jvm.memory", new MemoryUsageGaugeSet());
+		registry.register("jvm.gc", new GarbageCollectorMetricSet());
+		registry.register("jvm.threads", new ThreadStatesGaugeSet());
+		registry.register("jvm.buffers", new BufferPoolMetricSet(ManagementFactory.getPlatformMBeanServer()));
+		registry.register("jvm.fd_usage", new FileDescriptorRatioGauge());
+
+		return (registry);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	protected void configure()
 	{
-		bind(DataStore.class).to(CassandraStore.class).in(Singleton.class);
+		Class dataStoreClass = getClassForProperty(DATA_STORE_CLASS_PROPERTY);
+		bind(DataStore.class).annotatedWith(Names.named(TimedDataStore.DELEGATE)).to(dataStoreClass).in(Singleton.class);
+		if (Boolean.parseBoolean(m_props.getProperty(WriteBehindStore.ENABLED_PROPERTY)))
+		{
+			bind(DataStore.class).annotatedWith(Names.named(WriteBehindStore.DELEGATE)).to(TimedDataStore.class).in(Singleton.class);
+			bind(DataStore.class).to(WriteBehindStore.class).in(Singleton.class);
+		}
+		else
+			bind(DataStore.class).to(TimedDataStore.class).in(Singleton.class);
+		bind(CassandraClient.class).to(CassandraClientImpl.class).in(Singleton.class);
+		bind(VertexCache.class).to(getClassForProperty(VERTEX_CACHE_CLASS_PROPERTY)).in(Singleton.class);
+		bind(AdjacencyCache.class).to(getClassForProperty(ADJACENCY_CACHE_CLASS_PROPERTY)).in(Singleton.class);
+		bind(WriteDeduplicator.class).in(Singleton.class);
+		bind(MetricRegistry.class).toInstance(createMetricRegistry());
+		bind(TraversalEngine.class).in(Singleton.class);
+		bind(BulkLoader.class).in(Singleton.class);
+		bind(GraphExporter.class);
+		bind(GraphImporter.class);
+		bind(GraphScanner.class);
 
 
 
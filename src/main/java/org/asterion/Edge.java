@@ -1,8 +1,63 @@
 package org.asterion;
 
+import org.asterion.store.Direction;
+
+import java.nio.ByteBuffer;
+
 /**
  Created by bhawkins on 7/26/15.
+
+ An edge between two vertices as it is handed to the store.  The store
+ writes it under both vertices, with the opposite direction under the
+ destination vertex.
  */
 public class Edge
 {
+	private final ByteBuffer m_sourceVertexId;
+	private final ByteBuffer m_destVertexId;
+	private final Direction m_direction;
+	private final String m_edgeType;
+	private final long m_when;
+
+	public Edge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType)
+	{
+		this(sourceVertexId, destVertexId, direction, edgeType, System.currentTimeMillis());
+	}
+
+	public Edge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType, long when)
+	{
+		m_sourceVertexId = sourceVertexId;
+		m_destVertexId = destVertexId;
+		m_direction = direction;
+		m_edgeType = edgeType;
+		m_when = when;
+	}
+
+	public ByteBuffer getSourceVertexId()
+	{
+		return m_sourceVertexId;
+	}
+
+	public ByteBuffer getDestVertexId()
+	{
+		return m_destVertexId;
+	}
+
+	public Direction getDirection()
+	{
+		return m_direction;
+	}
+
+	public String getEdgeType()
+	{
+		return m_edgeType;
+	}
+
+	/**
+	 Time of the edge in milliseconds.
+	 */
+	public long getWhen()
+	{
+		return m_when;
+	}
 }
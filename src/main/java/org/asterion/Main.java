@@ -10,7 +10,9 @@ import com.beust.jcommander.Parameter;
 import com.google.gson.Gson;
 import com.google.inject.*;
 import com.google.inject.util.Modules;
-import org.apache.commons.io.FileUtils;
+import org.asterion.dump.GraphExporter;
+import org.asterion.dump.GraphImporter;
+import org.asterion.dump.RecoveryFile;
 import org.asterion.store.DataStore;
 import org.json.JSONException;
 import org.json.JSONWriter;
@@ -29,7 +31,7 @@ public class Main
 	public static final Logger logger = (Logger) LoggerFactory.getLogger(Main.class);
 
 	public static final Charset UTF_8 = Charset.forName("UTF-8");
-	public static final String SERVICE_PREFIX = "kairosdb.service";
+	public static final String SERVICE_PREFIX = "asterion.service";
 
 	private final static Object s_shutdownObject = new Object();
 
@@ -79,7 +81,7 @@ public class Main
 	public Main(File propertiesFile) throws IOException
 	{
 		Properties props = new Properties();
-		InputStream is = getClass().getClassLoader().getResourceAsStream("kairosdb.properties");
+		InputStream is = getClass().getClassLoader().getResourceAsStream("asterion.properties");
 		props.load(is);
 		is.close();
 
@@ -239,6 +241,52 @@ public class Main
 			}
 
 		}
+		else if (arguments.operationCommand.equals("export") || arguments.operationCommand.equals("import"))
+		{
+			if (isNullOrEmpty(arguments.exportFile))
+			{
+				System.out.println("A dump file must be specified with -f");
+				System.exit(1);
+			}
+
+			RecoveryFile recoveryFile = null;
+			try
+			{
+				recoveryFile = new RecoveryFile(isNullOrEmpty(arguments.exportRecoveryFile) ?
+						null : new File(arguments.exportRecoveryFile), arguments.operationCommand);
+
+				if (arguments.operationCommand.equals("export"))
+					main.runExport(new File(arguments.exportFile), recoveryFile, arguments.appendToExportFile);
+				else
+					main.runImport(new File(arguments.exportFile), recoveryFile);
+			}
+			catch (Exception e)
+			{
+				logger.error("Failed to " + arguments.operationCommand, e);
+				System.out.println(e.getMessage());
+				System.exit(1);
+			}
+			finally
+			{
+				if (recoveryFile != null)
+					recoveryFile.close();
+				main.getInjector().getInstance(DataStore.class).close();
+			}
+
+			System.exit(0);
+		}
+	}
+
+	public void runExport(File dumpFile, RecoveryFile recoveryFile, boolean append)
+			throws IOException, InterruptedException, AsterionException
+	{
+		m_injector.getInstance(GraphExporter.class).export(dumpFile, recoveryFile, append);
+	}
+
+	public void runImport(File dumpFile, RecoveryFile recoveryFile)
+			throws IOException, InterruptedException, AsterionException
+	{
+		m_injector.getInstance(GraphImporter.class).importDump(dumpFile, recoveryFile);
 	}
 
 	public Injector getInjector()
@@ -309,53 +357,6 @@ public class Main
 		ds.close();
 	}
 
-	private class RecoveryFile
-	{
-		private final Set<String> metricsExported = new HashSet<String>();
-
-		private File recoveryFile;
-		private PrintWriter writer;
-
-		public RecoveryFile() throws IOException
-		{
-			if (!isNullOrEmpty(arguments.exportRecoveryFile))
-			{
-				recoveryFile = new File(arguments.exportRecoveryFile);
-				logger.info("Tracking exported metric names in " + recoveryFile.getAbsolutePath());
-
-				if (recoveryFile.exists())
-				{
-					logger.info("Skipping metrics found in " + recoveryFile.getAbsolutePath());
-					List<String> list = FileUtils.readLines(recoveryFile);
-					metricsExported.addAll(list);
-				}
-
-				writer = new PrintWriter(new FileOutputStream(recoveryFile, true));
-			}
-		}
-
-		public boolean contains(String metric)
-		{
-			return metricsExported.contains(metric);
-		}
-
-		public void writeMetric(String metric)
-		{
-			if (writer != null)
-			{
-				writer.println(metric);
-				writer.flush();
-			}
-		}
-
-		public void close()
-		{
-			if (writer != null)
-				writer.close();
-		}
-	}
-
-
 	@SuppressWarnings("UnusedDeclaration")
 	private static class Arguments
 	{
@@ -365,14 +366,11 @@ public class Main
 		@Parameter(names = "-f", description = "File to save export to or read from depending on command.")
 		private String exportFile;
 
-		@Parameter(names = "-n", description = "Name of metrics to export. If not specified, then all metrics are exported.")
-		private List<String> exportMetricNames;
-
-		@Parameter(names = "-r", description = "Full path to a recovery file. The file tracks metrics that have been exported. " +
-				"If export fails and is run again it uses this file to pickup where it left off.")
+		@Parameter(names = "-r", description = "Full path to a recovery file. The file tracks the progress of an export or import. " +
+				"If it fails and is run again it uses this file to pickup where it left off.")
 		private String exportRecoveryFile;
 
-		@Parameter(names = "-a", description = "Appends to the export file. By default, the export file is overwritten.")
+		@Parameter(names = "-a", description = "Appends to the export file, needed to resume an export. By default, the export file is overwritten.")
 		private boolean appendToExportFile;
 
 		@Parameter(names = "--help", description = "Help message.", help = true)
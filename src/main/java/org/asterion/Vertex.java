@@ -0,0 +1,29 @@
+package org.asterion;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ A vertex and its properties.
+ */
+public class Vertex
+{
+	private final ByteBuffer m_vertexId;
+	private final Map<String, String> m_properties;
+
+	public Vertex(ByteBuffer vertexId, Map<String, String> properties)
+	{
+		m_vertexId = vertexId;
+		m_properties = properties;
+	}
+
+	public ByteBuffer getVertexId()
+	{
+		return (m_vertexId);
+	}
+
+	public Map<String, String> getProperties()
+	{
+		return (m_properties);
+	}
+}
@@ -0,0 +1,162 @@
+package org.asterion.dump;
+
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.asterion.util.Util.unpackUnsignedLong;
+
+/**
+ Reads the blocks of a dump written by DumpWriter.
+ */
+public class DumpReader implements Closeable
+{
+	/**
+	 Largest block accepted, guards against allocating for a corrupt length.
+	 */
+	private static final int MAX_BLOCK_LENGTH = 256 * 1024 * 1024;
+
+	private final FileInputStream m_file;
+	private final long m_startPosition;
+	private final CountingInputStream m_counter;
+	private final DataInputStream m_in;
+
+	/**
+	 @param position position of the first block to read, 0 to start with
+	 the first block in the dump
+	 */
+	public DumpReader(File file, long position) throws IOException
+	{
+		m_file = new FileInputStream(file);
+
+		DataInputStream header = new DataInputStream(m_file);
+		byte[] magic = new byte[DumpWriter.MAGIC.length];
+		header.readFully(magic);
+		if (!Arrays.equals(magic, DumpWriter.MAGIC))
+			throw new IOException(file + " is not an asterion dump");
+
+		int version = header.readUnsignedByte();
+		if (version != DumpWriter.VERSION)
+			throw new IOException("Unsupported dump version " + version);
+
+		if (position > 0)
+			m_file.getChannel().position(position);
+
+		m_startPosition = m_file.getChannel().position();
+		m_counter = new CountingInputStream(new BufferedInputStream(m_file));
+		m_in = new DataInputStream(m_counter);
+	}
+
+	/**
+	 File position of the next block.
+	 */
+	public long getPosition()
+	{
+		return (m_startPosition + m_counter.getCount());
+	}
+
+	/**
+	 @return the next block or null at the end of the dump
+	 */
+	public Block next() throws IOException
+	{
+		int type = m_in.read();
+		if (type == -1)
+			return (null);
+
+		long recordCount = unpackUnsignedLong(m_in);
+		long length = unpackUnsignedLong(m_in);
+		int crc = m_in.readInt();
+		long compressedLength = unpackUnsignedLong(m_in);
+
+		if (length > MAX_BLOCK_LENGTH || compressedLength > MAX_BLOCK_LENGTH)
+			throw new IOException("Block length is over the limit of " + MAX_BLOCK_LENGTH);
+
+		byte[] compressed = new byte[(int) compressedLength];
+		m_in.readFully(compressed);
+
+		byte[] data = new byte[(int) length];
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(compressed);
+			int read = 0;
+			while (read < data.length && !inflater.finished())
+			{
+				int size = inflater.inflate(data, read, data.length - read);
+				if (size == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+
+				read += size;
+			}
+
+			if (read != data.length)
+				throw new IOException("Block is shorter than its recorded length");
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Block is corrupt", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		CRC32 actual = new CRC32();
+		actual.update(data);
+		if ((int) actual.getValue() != crc)
+			throw new IOException("Block checksum does not match");
+
+		return (new Block((byte) type, (int) recordCount, data));
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		m_in.close();
+	}
+
+	public static class Block
+	{
+		private final byte m_type;
+		private final int m_recordCount;
+		private final byte[] m_data;
+
+		private Block(byte type, int recordCount, byte[] data)
+		{
+			m_type = type;
+			m_recordCount = recordCount;
+			m_data = data;
+		}
+
+		/**
+		 DumpWriter.VERTEX_BLOCK or DumpWriter.EDGE_BLOCK
+		 */
+		public byte getType()
+		{
+			return (m_type);
+		}
+
+		public int getRecordCount()
+		{
+			return (m_recordCount);
+		}
+
+		/**
+		 Uncompressed records.
+		 */
+		public byte[] getData()
+		{
+			return (m_data);
+		}
+	}
+}
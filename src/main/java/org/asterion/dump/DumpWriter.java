@@ -0,0 +1,152 @@
+package org.asterion.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.asterion.util.Util.packUnsignedLong;
+
+/**
+ Writes a graph dump.  A dump is a header followed by blocks, each block
+ holds a batch of vertex or edge records in the BinaryRecordReader format,
+ deflate compressed.
+
+ The header is the magic bytes ASTD and a version byte.  A block is
+ type byte, record count, uncompressed length, CRC32 of the uncompressed
+ data as 4 bytes, compressed length, compressed data
+ where counts and lengths are unsigned varints.
+
+ Blocks are compressed by the calling thread and written whole so several
+ threads can write to one dump.  A segment is a file of blocks without the
+ header, written on its own and appended to a dump whole.
+ */
+public class DumpWriter implements Closeable
+{
+	static final byte[] MAGIC = {'A', 'S', 'T', 'D'};
+	static final int VERSION = 1;
+
+	public static final byte VERTEX_BLOCK = 1;
+	public static final byte EDGE_BLOCK = 2;
+
+	private final FileOutputStream m_file;
+	private final DataOutputStream m_out;
+
+	/**
+	 @param resumePosition if greater than 0 the dump is truncated to this
+	 position and appended to, otherwise a new dump is started
+	 */
+	public DumpWriter(File file, long resumePosition) throws IOException
+	{
+		this(file, resumePosition, true);
+	}
+
+	private DumpWriter(File file, long resumePosition, boolean header) throws IOException
+	{
+		if (!header)
+		{
+			m_file = new FileOutputStream(file);
+			m_out = new DataOutputStream(new BufferedOutputStream(m_file));
+		}
+		else if (resumePosition > 0)
+		{
+			//Drops any blocks written after the last recorded position
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+			{
+				if (raf.length() < resumePosition)
+					throw new IOException("Dump " + file + " is shorter than the recovery position " + resumePosition);
+
+				raf.setLength(resumePosition);
+			}
+
+			m_file = new FileOutputStream(file, true);
+			m_out = new DataOutputStream(new BufferedOutputStream(m_file));
+		}
+		else
+		{
+			m_file = new FileOutputStream(file);
+			m_out = new DataOutputStream(new BufferedOutputStream(m_file));
+			m_out.write(MAGIC);
+			m_out.writeByte(VERSION);
+		}
+	}
+
+	public void writeBlock(byte type, int recordCount, byte[] data, int length) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+		try
+		{
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+
+			byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished())
+			{
+				int size = deflater.deflate(buffer);
+				compressed.write(buffer, 0, size);
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+
+		synchronized (this)
+		{
+			m_out.writeByte(type);
+			packUnsignedLong(recordCount, m_out);
+			packUnsignedLong(length, m_out);
+			m_out.writeInt((int) crc.getValue());
+			packUnsignedLong(compressed.size(), m_out);
+			compressed.writeTo(m_out);
+		}
+	}
+
+	/**
+	 Starts a new segment, see appendSegment.
+	 */
+	public static DumpWriter forSegment(File file) throws IOException
+	{
+		return (new DumpWriter(file, 0, false));
+	}
+
+	/**
+	 Appends the blocks of a closed segment after the blocks written so far
+	 and flushes them to the file.
+	 @return the file position following the segment
+	 */
+	public synchronized long appendSegment(File segment) throws IOException
+	{
+		Files.copy(segment.toPath(), m_out);
+
+		return (flush());
+	}
+
+	/**
+	 Flushes written blocks to the file.
+	 @return the file position following the last block written
+	 */
+	public synchronized long flush() throws IOException
+	{
+		m_out.flush();
+
+		return (m_file.getChannel().position());
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		m_out.close();
+	}
+}
@@ -0,0 +1,283 @@
+package org.asterion.dump;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.AsterionException;
+import org.asterion.Edge;
+import org.asterion.ingest.BinaryRecordWriter;
+import org.asterion.store.DataStore;
+import org.asterion.store.Direction;
+import org.asterion.store.TokenRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Exports the whole graph to a dump.  The token ring is split into ranges
+ and the vertices and edges of each range are scanned in parallel.  Each
+ range is written to a segment file of its own that is appended to the
+ dump once the range is done, so the dump only ever holds whole ranges
+ and the position recorded with a range covers nothing unfinished.
+
+ Every edge is stored under both of its vertices, only one side is
+ exported and the import writes both sides again.
+ */
+public class GraphExporter
+{
+	public static final Logger logger = LoggerFactory.getLogger(GraphExporter.class);
+
+	public static final String TOKEN_RANGES_PROPERTY = "asterion.export.token_ranges";
+	public static final String THREADS_PROPERTY = "asterion.export.threads";
+	public static final String BLOCK_SIZE_PROPERTY = "asterion.export.block_size";
+
+	private final DataStore m_dataStore;
+	private int m_tokenRanges = 256;
+	private int m_threads = 8;
+	private int m_blockSize = 1024 * 1024;
+
+	@Inject
+	public GraphExporter(DataStore dataStore)
+	{
+		m_dataStore = dataStore;
+	}
+
+	@Inject(optional = true)
+	public void setTokenRanges(@Named(TOKEN_RANGES_PROPERTY) int tokenRanges)
+	{
+		checkArgument(tokenRanges > 0, "tokenRanges must be greater than 0");
+		m_tokenRanges = tokenRanges;
+	}
+
+	/**
+	 Number of token ranges scanned at once.
+	 */
+	@Inject(optional = true)
+	public void setThreads(@Named(THREADS_PROPERTY) int threads)
+	{
+		checkArgument(threads > 0, "threads must be greater than 0");
+		m_threads = threads;
+	}
+
+	/**
+	 Uncompressed size in bytes a block is filled to before it is written.
+	 */
+	@Inject(optional = true)
+	public void setBlockSize(@Named(BLOCK_SIZE_PROPERTY) int blockSize)
+	{
+		checkArgument(blockSize > 0, "blockSize must be greater than 0");
+		m_blockSize = blockSize;
+	}
+
+	/**
+	 @param append resume a previous export from the recovery file, the
+	 dump is truncated to the last recorded position and appended to
+	 */
+	public void export(File dumpFile, RecoveryFile recoveryFile, boolean append)
+			throws IOException, InterruptedException, AsterionException
+	{
+		if (!RecoveryFile.EXPORT.equals(recoveryFile.getOperation()))
+			throw new AsterionException("The recovery file is for an " + recoveryFile.getOperation() + ", not an export");
+		if (recoveryFile.isResuming() && !append)
+			throw new AsterionException("The recovery file has progress from an earlier export, use -a to resume it");
+
+		final AtomicLong vertexCount = new AtomicLong();
+		final AtomicLong edgeCount = new AtomicLong();
+		List<Future<?>> results = new ArrayList<>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(m_threads);
+		try (final DumpWriter writer = new DumpWriter(dumpFile, append ? recoveryFile.getPosition() : 0))
+		{
+			for (final TokenRange range : TokenRange.split(m_tokenRanges))
+			{
+				final String vertexTask = "vertices " + range;
+				if (!recoveryFile.isFinished(vertexTask))
+				{
+					results.add(executor.submit(() ->
+					{
+						exportSegment(dumpFile, writer, recoveryFile, vertexTask, DumpWriter.VERTEX_BLOCK,
+								m_dataStore.scanVertices(range), vertexCount, BinaryRecordWriter::writeVertex);
+						return null;
+					}));
+				}
+
+				final String edgeTask = "edges " + range;
+				if (!recoveryFile.isFinished(edgeTask))
+				{
+					results.add(executor.submit(() ->
+					{
+						exportSegment(dumpFile, writer, recoveryFile, edgeTask, DumpWriter.EDGE_BLOCK,
+								new OneSidedEdges(m_dataStore.scanEdges(range)), edgeCount, BinaryRecordWriter::writeEdge);
+						return null;
+					}));
+				}
+			}
+
+			int failed = 0;
+			for (Future<?> result : results)
+			{
+				try
+				{
+					result.get();
+				}
+				catch (ExecutionException e)
+				{
+					failed++;
+					logger.error("Token range export failed", e.getCause());
+				}
+			}
+
+			if (failed != 0)
+				throw new AsterionException(failed + " token ranges failed to export, run again with the " +
+						"recovery file and -a to export them");
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		logger.info("Exported " + vertexCount.get() + " vertices and " + edgeCount.get() + " edges");
+	}
+
+	private interface RecordWriter<T>
+	{
+		public void write(T record, DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 Writes the records to a segment next to the dump, then appends the
+	 segment to the dump and records the task as finished.
+	 */
+	private <T> void exportSegment(File dumpFile, DumpWriter writer, RecoveryFile recoveryFile, String task,
+			byte blockType, Iterator<T> records, AtomicLong counter, RecordWriter<T> recordWriter) throws IOException
+	{
+		File segment = File.createTempFile(dumpFile.getName() + ".", ".segment",
+				dumpFile.getAbsoluteFile().getParentFile());
+		try
+		{
+			long count;
+			try (DumpWriter segmentWriter = DumpWriter.forSegment(segment))
+			{
+				count = exportRange(segmentWriter, blockType, records, recordWriter);
+			}
+
+			//Holding the writer keeps the recorded positions in file order
+			synchronized (writer)
+			{
+				recoveryFile.finished(task, writer.appendSegment(segment));
+			}
+
+			counter.addAndGet(count);
+		}
+		finally
+		{
+			if (!segment.delete())
+				logger.warn("Unable to delete segment " + segment);
+		}
+	}
+
+	private <T> long exportRange(DumpWriter writer, byte blockType, Iterator<T> records,
+			RecordWriter<T> recordWriter) throws IOException
+	{
+		BlockBuffer buffer = new BlockBuffer(m_blockSize + m_blockSize / 4);
+		DataOutputStream out = new DataOutputStream(buffer);
+		long ret = 0;
+		int count = 0;
+
+		while (records.hasNext())
+		{
+			recordWriter.write(records.next(), out);
+			count++;
+
+			if (buffer.size() >= m_blockSize)
+			{
+				writer.writeBlock(blockType, count, buffer.getBuffer(), buffer.size());
+				ret += count;
+				buffer.reset();
+				count = 0;
+			}
+		}
+
+		if (count != 0)
+		{
+			writer.writeBlock(blockType, count, buffer.getBuffer(), buffer.size());
+			ret += count;
+		}
+
+		return (ret);
+	}
+
+	/**
+	 Exposes the buffer so blocks are compressed without a copy.
+	 */
+	private static class BlockBuffer extends ByteArrayOutputStream
+	{
+		private BlockBuffer(int size)
+		{
+			super(size);
+		}
+
+		private byte[] getBuffer()
+		{
+			return (buf);
+		}
+	}
+
+	/**
+	 Drops the stored copy of each edge that is the mirror of another.  An
+	 edge is kept from the side it is outgoing from, edges in both
+	 directions are kept from the side with the lower vertex id.
+	 */
+	private static class OneSidedEdges implements Iterator<Edge>
+	{
+		private final Iterator<Edge> m_edges;
+		private Edge m_next;
+
+		private OneSidedEdges(Iterator<Edge> edges)
+		{
+			m_edges = edges;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (m_next == null && m_edges.hasNext())
+			{
+				Edge edge = m_edges.next();
+
+				if (edge.getDirection() == Direction.OUT ||
+						(edge.getDirection() == Direction.BOTH &&
+								edge.getSourceVertexId().compareTo(edge.getDestVertexId()) <= 0))
+					m_next = edge;
+			}
+
+			return (m_next != null);
+		}
+
+		@Override
+		public Edge next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Edge ret = m_next;
+			m_next = null;
+
+			return (ret);
+		}
+	}
+}
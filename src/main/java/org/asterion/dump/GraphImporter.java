@@ -0,0 +1,77 @@
+package org.asterion.dump;
+
+import com.google.inject.Inject;
+import org.asterion.AsterionException;
+import org.asterion.ingest.BinaryRecordReader;
+import org.asterion.ingest.BulkLoader;
+import org.asterion.ingest.LoadResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ Imports a dump written by GraphExporter.  Blocks are read in order and
+ the records of each are written with the BulkLoader, so the writes of a
+ block run concurrently.  A block is recorded in the recovery file once
+ all of its records are written.
+ */
+public class GraphImporter
+{
+	public static final Logger logger = LoggerFactory.getLogger(GraphImporter.class);
+
+	private static final String IMPORT_TASK = "import";
+
+	private final BulkLoader m_bulkLoader;
+
+	@Inject
+	public GraphImporter(BulkLoader bulkLoader)
+	{
+		m_bulkLoader = bulkLoader;
+	}
+
+	public void importDump(File dumpFile, RecoveryFile recoveryFile)
+			throws IOException, InterruptedException, AsterionException
+	{
+		if (!RecoveryFile.IMPORT.equals(recoveryFile.getOperation()))
+			throw new AsterionException("The recovery file is for an " + recoveryFile.getOperation() + ", not an import");
+
+		long vertexCount = 0;
+		long edgeCount = 0;
+
+		try (DumpReader reader = new DumpReader(dumpFile, recoveryFile.getPosition()))
+		{
+			DumpReader.Block block;
+			while ((block = reader.next()) != null)
+			{
+				LoadResult result;
+				ByteArrayInputStream data = new ByteArrayInputStream(block.getData());
+
+				if (block.getType() == DumpWriter.VERTEX_BLOCK)
+				{
+					result = m_bulkLoader.loadVertices(BinaryRecordReader.forVertices(data));
+					vertexCount += result.getLoaded();
+				}
+				else if (block.getType() == DumpWriter.EDGE_BLOCK)
+				{
+					result = m_bulkLoader.loadEdges(BinaryRecordReader.forEdges(data));
+					edgeCount += result.getLoaded();
+				}
+				else
+					throw new IOException("Unknown block type " + block.getType());
+
+				if (result.getFailed() != 0)
+				{
+					throw new AsterionException(result.getFailed() + " records failed to import, first error: " +
+							result.getErrors().get(0).getMessage() + ". Run again with the recovery file to resume.");
+				}
+
+				recoveryFile.finished(IMPORT_TASK, reader.getPosition());
+			}
+		}
+
+		logger.info("Imported " + vertexCount + " vertices and " + edgeCount + " edges");
+	}
+}
@@ -0,0 +1,129 @@
+package org.asterion.dump;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Tracks the tasks an export or import has finished so a failed run can
+ pick up where it left off.  Each finished task is recorded with the dump
+ file position everything before it was safely written or read up to.
+
+ The first line names the operation the file tracks, positions mean
+ different things to an export and an import so a file is only accepted
+ by the operation that wrote it.  Created without a file nothing is
+ tracked.
+ */
+public class RecoveryFile
+{
+	public static final Logger logger = LoggerFactory.getLogger(RecoveryFile.class);
+
+	public static final String EXPORT = "export";
+	public static final String IMPORT = "import";
+
+	private static final String HEADER_PREFIX = "asterion ";
+
+	private final String m_operation;
+	private final Set<String> m_finished = new HashSet<>();
+	private long m_position = 0;
+	private PrintWriter m_writer;
+
+	/**
+	 @param operation EXPORT or IMPORT
+	 */
+	public RecoveryFile(File recoveryFile, String operation) throws IOException
+	{
+		checkArgument(EXPORT.equals(operation) || IMPORT.equals(operation), "Unknown operation " + operation);
+		m_operation = operation;
+
+		if (recoveryFile != null)
+		{
+			logger.info("Tracking progress in " + recoveryFile.getAbsolutePath());
+
+			boolean empty = !recoveryFile.exists() || recoveryFile.length() == 0;
+			if (!empty)
+			{
+				List<String> lines = FileUtils.readLines(recoveryFile);
+				String header = lines.get(0);
+				if (!header.startsWith(HEADER_PREFIX))
+					throw new IOException(recoveryFile + " is not a recovery file");
+				if (!header.equals(HEADER_PREFIX + operation))
+					throw new IOException(recoveryFile + " is the recovery file of an " +
+							header.substring(HEADER_PREFIX.length()) + ", not an " + operation);
+
+				for (String line : lines.subList(1, lines.size()))
+				{
+					int separator = line.lastIndexOf('\t');
+					if (separator == -1)
+						continue;
+
+					m_finished.add(line.substring(0, separator));
+					m_position = Long.parseLong(line.substring(separator + 1));
+				}
+
+				logger.info("Skipping " + m_finished.size() + " tasks found in " + recoveryFile.getAbsolutePath());
+			}
+
+			m_writer = new PrintWriter(new FileOutputStream(recoveryFile, true));
+			if (empty)
+			{
+				m_writer.println(HEADER_PREFIX + operation);
+				m_writer.flush();
+			}
+		}
+	}
+
+	public String getOperation()
+	{
+		return (m_operation);
+	}
+
+	/**
+	 True if a previous run recorded any progress.
+	 */
+	public synchronized boolean isResuming()
+	{
+		return (!m_finished.isEmpty());
+	}
+
+	public synchronized boolean isFinished(String task)
+	{
+		return (m_finished.contains(task));
+	}
+
+	/**
+	 Dump file position recorded with the last finished task, 0 if none.
+	 */
+	public synchronized long getPosition()
+	{
+		return (m_position);
+	}
+
+	public synchronized void finished(String task, long position)
+	{
+		m_finished.add(task);
+		m_position = position;
+
+		if (m_writer != null)
+		{
+			m_writer.println(task + "\t" + position);
+			m_writer.flush();
+		}
+	}
+
+	public void close()
+	{
+		if (m_writer != null)
+			m_writer.close();
+	}
+}
@@ -0,0 +1,107 @@
+package org.asterion.ingest;
+
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.store.Direction;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.asterion.util.Util.unpackBytes;
+import static org.asterion.util.Util.unpackLong;
+import static org.asterion.util.Util.unpackString;
+import static org.asterion.util.Util.unpackUnsignedLong;
+
+/**
+ Reads records in the binary graph format, records follow one another up
+ to the end of the stream.  Lengths and counts are unsigned varints and
+ times are signed varints, see Util.packUnsignedLong and Util.packLong.
+ Byte strings are a length followed by the bytes, strings are UTF-8 byte
+ strings.
+
+ A vertex record is
+ id, property count, then name and value strings for each property
+ and an edge record is
+ source id, destination id, edge type, direction byte (Direction.getValue), when
+ */
+public abstract class BinaryRecordReader<T> implements RecordReader<T>
+{
+	/**
+	 Longest id or string accepted, guards against allocating for a corrupt
+	 length.
+	 */
+	public static final int MAX_FIELD_LENGTH = 1024 * 1024;
+
+	protected final DataInputStream m_in;
+
+	protected BinaryRecordReader(InputStream in)
+	{
+		m_in = new DataInputStream(new BufferedInputStream(in));
+	}
+
+	public static RecordReader<Vertex> forVertices(InputStream in)
+	{
+		return (new BinaryRecordReader<Vertex>(in)
+		{
+			@Override
+			protected Vertex read() throws IOException
+			{
+				ByteBuffer vertexId = unpackBytes(m_in, MAX_FIELD_LENGTH);
+				long count = unpackUnsignedLong(m_in);
+
+				Map<String, String> properties = new HashMap<>();
+				for (long i = 0; i < count; i++)
+					properties.put(unpackString(m_in, MAX_FIELD_LENGTH), unpackString(m_in, MAX_FIELD_LENGTH));
+
+				return (new Vertex(vertexId, properties));
+			}
+		});
+	}
+
+	public static RecordReader<Edge> forEdges(InputStream in)
+	{
+		return (new BinaryRecordReader<Edge>(in)
+		{
+			@Override
+			protected Edge read() throws IOException
+			{
+				ByteBuffer source = unpackBytes(m_in, MAX_FIELD_LENGTH);
+				ByteBuffer destination = unpackBytes(m_in, MAX_FIELD_LENGTH);
+				String type = unpackString(m_in, MAX_FIELD_LENGTH);
+				int direction = m_in.readUnsignedByte();
+				long when = unpackLong(m_in);
+
+				//Direction is checked once the whole record is read so a bad one can be skipped
+				return (new Edge(source, destination, Direction.fromValue(direction), type, when));
+			}
+		});
+	}
+
+	/**
+	 Reads one record, the stream is not at its end.
+	 */
+	protected abstract T read() throws IOException;
+
+	@Override
+	public T next() throws IOException
+	{
+		m_in.mark(1);
+		if (m_in.read() == -1)
+			return (null);
+
+		m_in.reset();
+
+		return (read());
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		m_in.close();
+	}
+}
@@ -0,0 +1,44 @@
+package org.asterion.ingest;
+
+import org.asterion.Edge;
+import org.asterion.Vertex;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.asterion.util.Util.packBytes;
+import static org.asterion.util.Util.packLong;
+import static org.asterion.util.Util.packString;
+import static org.asterion.util.Util.packUnsignedLong;
+
+/**
+ Writes records in the format read by BinaryRecordReader.
+ */
+public class BinaryRecordWriter
+{
+	private BinaryRecordWriter()
+	{
+	}
+
+	public static void writeVertex(Vertex vertex, DataOutput out) throws IOException
+	{
+		packBytes(vertex.getVertexId(), out);
+		packUnsignedLong(vertex.getProperties().size(), out);
+
+		for (Map.Entry<String, String> property : vertex.getProperties().entrySet())
+		{
+			packString(property.getKey(), out);
+			packString(property.getValue(), out);
+		}
+	}
+
+	public static void writeEdge(Edge edge, DataOutput out) throws IOException
+	{
+		packBytes(edge.getSourceVertexId(), out);
+		packBytes(edge.getDestVertexId(), out);
+		packString(edge.getEdgeType(), out);
+		out.writeByte(edge.getDirection().getValue());
+		packLong(edge.getWhen(), out);
+	}
+}
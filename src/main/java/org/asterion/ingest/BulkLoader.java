@@ -0,0 +1,253 @@
+package org.asterion.ingest;
+
+import com.google.common.base.Throwables;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.store.DataStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Loads vertices and edges from a RecordReader.  Records are handed
+ straight to the data store as they are read so a request is never held
+ in memory.
+
+ Writes are asynchronous, the reading thread blocks once maxInFlight
+ writes are outstanding so a fast client cannot outrun the cluster.
+ */
+public class BulkLoader
+{
+	public static final String MAX_IN_FLIGHT_PROPERTY = "asterion.ingest.max_in_flight";
+	public static final String EDGE_BATCH_SIZE_PROPERTY = "asterion.ingest.edge_batch_size";
+	public static final String MAX_REPORTED_ERRORS_PROPERTY = "asterion.ingest.max_reported_errors";
+
+	private final DataStore m_dataStore;
+	private int m_maxInFlight = 256;
+	private int m_edgeBatchSize = 1000;
+	private int m_maxReportedErrors = 1000;
+
+	@Inject
+	public BulkLoader(DataStore dataStore)
+	{
+		m_dataStore = dataStore;
+	}
+
+	@Inject(optional = true)
+	public void setMaxInFlight(@Named(MAX_IN_FLIGHT_PROPERTY) int maxInFlight)
+	{
+		checkArgument(maxInFlight > 0, "maxInFlight must be greater than 0");
+		m_maxInFlight = maxInFlight;
+	}
+
+	/**
+	 Number of edge records handed to DataStore.addEdges at a time.
+	 */
+	@Inject(optional = true)
+	public void setEdgeBatchSize(@Named(EDGE_BATCH_SIZE_PROPERTY) int edgeBatchSize)
+	{
+		checkArgument(edgeBatchSize > 0, "edgeBatchSize must be greater than 0");
+		m_edgeBatchSize = edgeBatchSize;
+	}
+
+	@Inject(optional = true)
+	public void setMaxReportedErrors(@Named(MAX_REPORTED_ERRORS_PROPERTY) int maxReportedErrors)
+	{
+		m_maxReportedErrors = maxReportedErrors;
+	}
+
+	public LoadResult loadVertices(RecordReader<Vertex> reader) throws InterruptedException
+	{
+		return (await(loadVerticesAsync(reader)));
+	}
+
+	public LoadResult loadEdges(RecordReader<Edge> reader) throws InterruptedException
+	{
+		return (await(loadEdgesAsync(reader)));
+	}
+
+	/**
+	 Reads every record on the calling thread, the returned future completes
+	 once the writes still outstanding at the end of the stream finish.
+	 */
+	public CompletableFuture<LoadResult> loadVerticesAsync(RecordReader<Vertex> reader) throws InterruptedException
+	{
+		return (new VertexLoad().run(reader));
+	}
+
+	public CompletableFuture<LoadResult> loadEdgesAsync(RecordReader<Edge> reader) throws InterruptedException
+	{
+		return (new EdgeLoad().run(reader));
+	}
+
+	private static LoadResult await(CompletableFuture<LoadResult> future) throws InterruptedException
+	{
+		try
+		{
+			return (future.get());
+		}
+		catch (ExecutionException e)
+		{
+			//Write failures are recorded in the result, the future itself never fails
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private abstract class Load<T>
+	{
+		protected final LoadResult m_result = new LoadResult(m_maxReportedErrors);
+		private final Semaphore m_inFlight = new Semaphore(m_maxInFlight);
+		private final CompletableFuture<LoadResult> m_done = new CompletableFuture<>();
+		//Writes not yet finished plus one for the reader
+		private final AtomicInteger m_outstanding = new AtomicInteger(1);
+
+		protected abstract void add(int record, T value) throws InterruptedException;
+
+		/**
+		 Called once all records have been added.
+		 */
+		protected void flush() throws InterruptedException
+		{
+		}
+
+		/**
+		 Starts a write covering the given records, blocks while too many
+		 writes are outstanding.
+		 */
+		protected void write(final List<Integer> records, Supplier<CompletableFuture<Void>> write)
+				throws InterruptedException
+		{
+			m_inFlight.acquire();
+			m_outstanding.incrementAndGet();
+
+			CompletableFuture<Void> future;
+			try
+			{
+				future = write.get();
+			}
+			catch (RuntimeException e)
+			{
+				future = new CompletableFuture<>();
+				future.completeExceptionally(e);
+			}
+
+			future.whenComplete((v, t) ->
+			{
+				if (t != null)
+				{
+					for (Integer record : records)
+						m_result.recordError(record, String.valueOf(t.getMessage()));
+				}
+				else
+					m_result.recordLoaded(records.size());
+
+				m_inFlight.release();
+				finished();
+			});
+		}
+
+		private void finished()
+		{
+			if (m_outstanding.decrementAndGet() == 0)
+				m_done.complete(m_result);
+		}
+
+		public CompletableFuture<LoadResult> run(RecordReader<T> reader) throws InterruptedException
+		{
+			int record = 0;
+
+			try
+			{
+				while (true)
+				{
+					try
+					{
+						T value = reader.next();
+						if (value == null)
+							break;
+
+						add(record, value);
+					}
+					catch (IllegalArgumentException e)
+					{
+						m_result.recordError(record, e.getMessage());
+					}
+
+					record++;
+				}
+			}
+			catch (IOException e)
+			{
+				//Nothing after a broken record can be read so the rest of the
+				//stream is dropped.
+				m_result.recordError(record, e.getMessage());
+			}
+			finally
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException ignore)
+				{
+				}
+			}
+
+			m_result.setRecords(record);
+			flush();
+			finished();
+
+			return (m_done);
+		}
+	}
+
+	private class VertexLoad extends Load<Vertex>
+	{
+		@Override
+		protected void add(int record, final Vertex vertex) throws InterruptedException
+		{
+			write(Collections.singletonList(record),
+					() -> m_dataStore.updateVertex(vertex.getVertexId(), vertex.getProperties()));
+		}
+	}
+
+	private class EdgeLoad extends Load<Edge>
+	{
+		private List<Edge> m_batch = new ArrayList<>();
+		private List<Integer> m_batchRecords = new ArrayList<>();
+
+		@Override
+		protected void add(int record, Edge edge) throws InterruptedException
+		{
+			m_batch.add(edge);
+			m_batchRecords.add(record);
+
+			if (m_batch.size() >= m_edgeBatchSize)
+				flush();
+		}
+
+		@Override
+		protected void flush() throws InterruptedException
+		{
+			if (m_batch.isEmpty())
+				return;
+
+			final List<Edge> batch = m_batch;
+			write(m_batchRecords, () -> m_dataStore.addEdges(batch));
+
+			m_batch = new ArrayList<>();
+			m_batchRecords = new ArrayList<>();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.asterion.ingest;
+
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.store.Direction;
+import org.asterion.util.VertexIds;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ Reads records from either a JSON array of records or records one after
+ another, as in newline delimited JSON.  Only one record is held in
+ memory at a time.
+
+ Vertex records look like
+ {"id": "dmVydGV4", "properties": {"name": "bob"}}
+ and edge records like
+ {"source": "Ym9i", "destination": "ZnJlZA", "type": "knows", "direction": "OUT", "when": 1437955200000}
+ where direction defaults to OUT and when defaults to now.  Vertex ids are
+ url safe base64.
+ */
+public abstract class JsonRecordReader<T> implements RecordReader<T>
+{
+	private static final ObjectMapper s_mapper = new ObjectMapper();
+
+	private final JsonParser m_parser;
+	private boolean m_started = false;
+	private boolean m_array = false;
+
+	protected JsonRecordReader(InputStream in) throws IOException
+	{
+		m_parser = s_mapper.getJsonFactory().createJsonParser(in);
+	}
+
+	public static RecordReader<Vertex> forVertices(InputStream in) throws IOException
+	{
+		return (new JsonRecordReader<Vertex>(in)
+		{
+			@Override
+			protected Vertex parse(JsonNode record)
+			{
+				ByteBuffer vertexId = requiredVertexId(record, "id");
+				Map<String, String> properties = new HashMap<>();
+
+				JsonNode propertiesNode = record.get("properties");
+				if (propertiesNode != null)
+				{
+					if (!propertiesNode.isObject())
+						throw new IllegalArgumentException("properties must be a JSON object");
+
+					Iterator<Map.Entry<String, JsonNode>> fields = propertiesNode.getFields();
+					while (fields.hasNext())
+					{
+						Map.Entry<String, JsonNode> field = fields.next();
+						if (!field.getValue().isValueNode() || field.getValue().isNull())
+							throw new IllegalArgumentException("property " + field.getKey() + " must be a string or number");
+
+						properties.put(field.getKey(), field.getValue().asText());
+					}
+				}
+
+				return (new Vertex(vertexId, properties));
+			}
+		});
+	}
+
+	public static RecordReader<Edge> forEdges(InputStream in) throws IOException
+	{
+		return (new JsonRecordReader<Edge>(in)
+		{
+			@Override
+			protected Edge parse(JsonNode record)
+			{
+				ByteBuffer source = requiredVertexId(record, "source");
+				ByteBuffer destination = requiredVertexId(record, "destination");
+				String type = requiredText(record, "type");
+
+				Direction direction = Direction.OUT;
+				JsonNode directionNode = record.get("direction");
+				if (directionNode != null)
+					direction = Direction.valueOf(directionNode.asText());
+
+				long when = System.currentTimeMillis();
+				JsonNode whenNode = record.get("when");
+				if (whenNode != null)
+				{
+					if (!whenNode.isIntegralNumber())
+						throw new IllegalArgumentException("when must be milliseconds since the epoch");
+
+					when = whenNode.getLongValue();
+				}
+
+				return (new Edge(source, destination, direction, type, when));
+			}
+		});
+	}
+
+	/**
+	 @throws IllegalArgumentException if the record is not valid
+	 */
+	protected abstract T parse(JsonNode record);
+
+	@Override
+	public T next() throws IOException
+	{
+		JsonToken token = m_parser.nextToken();
+
+		if (!m_started)
+		{
+			m_started = true;
+			m_array = (token == JsonToken.START_ARRAY);
+			if (m_array)
+				token = m_parser.nextToken();
+		}
+
+		if (token == null || (m_array && token == JsonToken.END_ARRAY))
+			return (null);
+
+		//Reads the whole record so a bad one can be skipped
+		JsonNode record = s_mapper.readTree(m_parser);
+		if (!record.isObject())
+			throw new IllegalArgumentException("record must be a JSON object");
+
+		return (parse(record));
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		m_parser.close();
+	}
+
+	protected static String requiredText(JsonNode record, String field)
+	{
+		JsonNode value = record.get(field);
+		if (value == null || !value.isTextual() || value.getTextValue().isEmpty())
+			throw new IllegalArgumentException(field + " is required");
+
+		return (value.getTextValue());
+	}
+
+	protected static ByteBuffer requiredVertexId(JsonNode record, String field)
+	{
+		String id = requiredText(record, field);
+		try
+		{
+			return (VertexIds.decode(id));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IllegalArgumentException(field + " is not valid base64: " + id);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.asterion.ingest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ Outcome of a bulk load.  Records are numbered from 0 in the order they
+ appear in the request.  Only the first maxReportedErrors errors are kept,
+ getFailed counts all of them.
+ */
+public class LoadResult
+{
+	private final int m_maxReportedErrors;
+	private final List<RecordError> m_errors = new ArrayList<>();
+	private int m_records;
+	private int m_loaded;
+	private int m_failed;
+
+	public LoadResult(int maxReportedErrors)
+	{
+		m_maxReportedErrors = maxReportedErrors;
+	}
+
+	synchronized void setRecords(int records)
+	{
+		m_records = records;
+	}
+
+	synchronized void recordLoaded(int count)
+	{
+		m_loaded += count;
+	}
+
+	synchronized void recordError(int record, String message)
+	{
+		m_failed++;
+
+		if (m_errors.size() < m_maxReportedErrors)
+			m_errors.add(new RecordError(record, message));
+	}
+
+	public synchronized int getRecords()
+	{
+		return (m_records);
+	}
+
+	public synchronized int getLoaded()
+	{
+		return (m_loaded);
+	}
+
+	public synchronized int getFailed()
+	{
+		return (m_failed);
+	}
+
+	public synchronized List<RecordError> getErrors()
+	{
+		List<RecordError> errors = new ArrayList<>(m_errors);
+		Collections.sort(errors);
+
+		return (errors);
+	}
+
+	public static class RecordError implements Comparable<RecordError>
+	{
+		private final int m_record;
+		private final String m_message;
+
+		public RecordError(int record, String message)
+		{
+			m_record = record;
+			m_message = message;
+		}
+
+		public int getRecord()
+		{
+			return (m_record);
+		}
+
+		public String getMessage()
+		{
+			return (m_message);
+		}
+
+		@Override
+		public int compareTo(RecordError o)
+		{
+			return (Integer.compare(m_record, o.m_record));
+		}
+	}
+}
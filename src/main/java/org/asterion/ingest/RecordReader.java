@@ -0,0 +1,19 @@
+package org.asterion.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ Reads records one at a time from a stream.
+ */
+public interface RecordReader<T> extends Closeable
+{
+	/**
+	 @return the next record or null at the end of the stream
+	 @throws IllegalArgumentException if the record is not valid, the reader
+	 has moved past it and the next call reads the following record
+	 @throws IOException if the stream cannot be read, no further records
+	 can be read
+	 */
+	public T next() throws IOException;
+}
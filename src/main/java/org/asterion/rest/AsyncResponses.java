@@ -0,0 +1,243 @@
+package org.asterion.rest;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Lets resources answer from a store future without holding a Jetty thread
+ while it runs.  The first time a resource method is called it starts the
+ work and suspends the request, when the future completes the request is
+ dispatched again and the same resource method renders the result on a
+ Jetty worker thread.  Rendering this way keeps content negotiation and
+ the JSON providers in Jersey's hands.
+
+ Requests over the pending limit are turned away with a 503 rather than
+ queued.  Containers without async support block for the result.
+ */
+public class AsyncResponses
+{
+	public static final String MAX_PENDING_PROPERTY = "asterion.jetty.async.max_pending";
+	public static final String TIMEOUT_PROPERTY = "asterion.jetty.async.timeout_ms";
+
+	private static final String RESULT_ATTRIBUTE = AsyncResponses.class.getName() + ".result";
+
+	/**
+	 Starts the work for a request, may throw when the request is invalid.
+	 */
+	public interface Call<T>
+	{
+		CompletableFuture<T> start() throws Exception;
+	}
+
+	private final AtomicInteger m_pending = new AtomicInteger(0);
+	private int m_maxPending = 10000;
+	private long m_timeout = 60000;
+
+	/**
+	 Suspended requests allowed at once.
+	 */
+	@Inject(optional = true)
+	public void setMaxPending(@Named(MAX_PENDING_PROPERTY) int maxPending)
+	{
+		checkArgument(maxPending > 0, "Max pending must be greater than 0");
+		m_maxPending = maxPending;
+	}
+
+	/**
+	 Milliseconds a suspended request waits before it is answered with a
+	 503, 0 waits forever.
+	 */
+	@Inject(optional = true)
+	public void setTimeout(@Named(TIMEOUT_PROPERTY) long timeout)
+	{
+		checkArgument(timeout >= 0, "Timeout must not be negative");
+		m_timeout = timeout;
+	}
+
+	public int getPending()
+	{
+		return (m_pending.get());
+	}
+
+	/**
+	 Returns the rendered response once the call has completed, until then
+	 returns null and Jersey leaves the suspended response alone.
+
+	 @param request Request being handled, must be the one passed to the
+	 resource method
+	 @param call Started on the first pass only
+	 @param render Renders the call's result
+	 @param failure Renders an exception thrown by the call or its future
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Response respond(HttpServletRequest request, Call<T> call,
+			Function<T, Response> render, Function<Throwable, Response> failure)
+	{
+		Completion<T> completion = (Completion<T>) request.getAttribute(RESULT_ATTRIBUTE);
+		if (completion != null)
+		{
+			request.removeAttribute(RESULT_ATTRIBUTE);
+			return (completion.render(render, failure));
+		}
+
+		if (!request.isAsyncSupported())
+			return (respondBlocking(call, render, failure));
+
+		if (m_pending.incrementAndGet() > m_maxPending)
+		{
+			m_pending.decrementAndGet();
+			return (unavailable("Too many pending requests"));
+		}
+
+		final AsyncContext context;
+		try
+		{
+			context = request.startAsync();
+		}
+		catch (RuntimeException e)
+		{
+			m_pending.decrementAndGet();
+			throw e;
+		}
+
+		//Whichever of the result or the timeout comes first is dispatched
+		final AtomicBoolean dispatched = new AtomicBoolean(false);
+
+		context.setTimeout(m_timeout);
+		context.addListener(new AsyncListener()
+		{
+			@Override
+			public void onComplete(AsyncEvent event)
+			{
+				m_pending.decrementAndGet();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event)
+			{
+				dispatch(context, dispatched, Completion.<T>timedOut());
+			}
+
+			@Override
+			public void onError(AsyncEvent event)
+			{
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event)
+			{
+			}
+		});
+
+		CompletableFuture<T> future;
+		try
+		{
+			future = call.start();
+		}
+		catch (Exception e)
+		{
+			future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+		}
+
+		future.whenComplete((result, t) -> dispatch(context, dispatched, new Completion<>(result, t)));
+
+		return (null);
+	}
+
+	private static <T> void dispatch(AsyncContext context, AtomicBoolean dispatched, Completion<T> completion)
+	{
+		if (dispatched.compareAndSet(false, true))
+		{
+			//The request handed to the resource is a proxy bound to the
+			//calling thread, the context holds the real one.
+			context.getRequest().setAttribute(RESULT_ATTRIBUTE, completion);
+			context.dispatch();
+		}
+	}
+
+	private static <T> Response respondBlocking(Call<T> call, Function<T, Response> render,
+			Function<Throwable, Response> failure)
+	{
+		try
+		{
+			return (render.apply(call.start().get()));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return (failure.apply(e));
+		}
+		catch (ExecutionException e)
+		{
+			return (failure.apply(e.getCause()));
+		}
+		catch (Exception e)
+		{
+			return (failure.apply(e));
+		}
+	}
+
+	private static Response unavailable(String message)
+	{
+		return (Response.status(Response.Status.SERVICE_UNAVAILABLE)
+				.entity(Collections.singletonMap("errors", Collections.singletonList(message))).build());
+	}
+
+	private static class Completion<T>
+	{
+		private final T m_result;
+		private final Throwable m_error;
+		private final boolean m_timedOut;
+
+		private Completion(T result, Throwable error)
+		{
+			this(result, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error, false);
+		}
+
+		private Completion(T result, Throwable error, boolean timedOut)
+		{
+			m_result = result;
+			m_error = error;
+			m_timedOut = timedOut;
+		}
+
+		static <T> Completion<T> timedOut()
+		{
+			return (new Completion<>(null, null, true));
+		}
+
+		Response render(Function<T, Response> render, Function<Throwable, Response> failure)
+		{
+			if (m_timedOut)
+				return (unavailable("Request timed out"));
+
+			if (m_error != null)
+				return (failure.apply(m_error));
+
+			try
+			{
+				return (render.apply(m_result));
+			}
+			catch (RuntimeException e)
+			{
+				return (failure.apply(e));
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.asterion.rest;
+
+import org.asterion.ingest.LoadResult;
+import org.asterion.traversal.Expansion;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.asterion.util.Util.packBytes;
+import static org.asterion.util.Util.packString;
+import static org.asterion.util.Util.packUnsignedLong;
+
+/**
+ Writes responses in the binary graph format.  Encodings match
+ BinaryRecordReader, lengths and counts are unsigned varints.
+
+ A vertex list is a count followed by the ids.  An expansion is a
+ truncated byte (0 or 1) and a count of levels, each level a vertex list,
+ then a vertex list of the supernodes whose edges were not followed.
+ A path is a vertex list.  A load result is the record, loaded and failed
+ counts then a count of errors, each a record number and message string.
+ */
+public class BinaryResponses
+{
+	private BinaryResponses()
+	{
+	}
+
+	public static StreamingOutput path(final List<ByteBuffer> path)
+	{
+		return (new BinaryOutput()
+		{
+			@Override
+			protected void write(DataOutputStream out) throws IOException
+			{
+				writeVertices(path, out);
+			}
+		});
+	}
+
+	public static StreamingOutput expansion(final Expansion expansion)
+	{
+		return (new BinaryOutput()
+		{
+			@Override
+			protected void write(DataOutputStream out) throws IOException
+			{
+				out.writeByte(expansion.isTruncated() ? 1 : 0);
+				packUnsignedLong(expansion.getLevels().size(), out);
+
+				for (List<ByteBuffer> level : expansion.getLevels())
+					writeVertices(level, out);
+
+				writeVertices(expansion.getSupernodes(), out);
+			}
+		});
+	}
+
+	public static StreamingOutput loadResult(final LoadResult result)
+	{
+		return (new BinaryOutput()
+		{
+			@Override
+			protected void write(DataOutputStream out) throws IOException
+			{
+				packUnsignedLong(result.getRecords(), out);
+				packUnsignedLong(result.getLoaded(), out);
+				packUnsignedLong(result.getFailed(), out);
+
+				List<LoadResult.RecordError> errors = result.getErrors();
+				packUnsignedLong(errors.size(), out);
+				for (LoadResult.RecordError error : errors)
+				{
+					packUnsignedLong(error.getRecord(), out);
+					packString(String.valueOf(error.getMessage()), out);
+				}
+			}
+		});
+	}
+
+	private static void writeVertices(List<ByteBuffer> vertices, DataOutputStream out) throws IOException
+	{
+		packUnsignedLong(vertices.size(), out);
+		for (ByteBuffer vertex : vertices)
+			packBytes(vertex, out);
+	}
+
+	private static abstract class BinaryOutput implements StreamingOutput
+	{
+		protected abstract void write(DataOutputStream out) throws IOException;
+
+		@Override
+		public void write(OutputStream output) throws IOException
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+			write(out);
+			out.flush();
+		}
+	}
+}
@@ -1,8 +1,70 @@
 package org.asterion.rest;
 
+import com.google.inject.Inject;
+import org.asterion.ingest.BinaryRecordReader;
+import org.asterion.ingest.BulkLoader;
+import org.asterion.ingest.JsonRecordReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.util.Collections;
+
 /**
  Created by bhawkins on 2/17/15.
  */
+@Path("/v1/edge")
 public class EdgeResource
 {
+	public static final Logger logger = LoggerFactory.getLogger(EdgeResource.class);
+
+	private final BulkLoader m_bulkLoader;
+	private final AsyncResponses m_async;
+
+	@Inject
+	public EdgeResource(BulkLoader bulkLoader, AsyncResponses async)
+	{
+		m_bulkLoader = bulkLoader;
+		m_async = async;
+	}
+
+	/**
+	 Adds edges from a JSON array or newline delimited JSON
+	 body, see JsonRecordReader for the record format.  Responds with the
+	 number of records loaded and the errors for any that were not.
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+	public Response create(@Context HttpServletRequest request, InputStream body)
+	{
+		return (m_async.respond(request, () -> m_bulkLoader.loadEdgesAsync(JsonRecordReader.forEdges(body)),
+				result -> Response.ok(result).build(), EdgeResource::failure));
+	}
+
+	/**
+	 Adds edges from a binary body, see BinaryRecordReader.
+	 */
+	@POST
+	@Consumes(GraphMediaType.BINARY)
+	@Produces(GraphMediaType.BINARY)
+	public Response createBinary(@Context HttpServletRequest request, InputStream body)
+	{
+		return (m_async.respond(request, () -> m_bulkLoader.loadEdgesAsync(BinaryRecordReader.forEdges(body)),
+				result -> Response.ok(BinaryResponses.loadResult(result)).build(), EdgeResource::failure));
+	}
+
+	private static Response failure(Throwable t)
+	{
+		logger.error("Edge load failed", t);
+		return (Response.serverError()
+				.entity(Collections.singletonMap("errors", Collections.singletonList(String.valueOf(t.getMessage())))).build());
+	}
 }
@@ -0,0 +1,18 @@
+package org.asterion.rest;
+
+/**
+ Media types accepted and produced by the graph resources besides JSON.
+ */
+public class GraphMediaType
+{
+	/**
+	 Compact binary records, see BinaryRecordReader for requests and
+	 BinaryResponses for responses.  Vertex ids are sent as raw bytes rather
+	 than base64.
+	 */
+	public static final String BINARY = "application/x-asterion-graph";
+
+	private GraphMediaType()
+	{
+	}
+}
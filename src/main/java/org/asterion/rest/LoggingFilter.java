@@ -22,7 +22,8 @@ public class LoggingFilter implements Filter
 	@Override
 	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException
 	{
-		if (log.isDebugEnabled())
+		//Async dispatches were logged when they arrived
+		if (log.isDebugEnabled() && servletRequest.getDispatcherType() != DispatcherType.ASYNC)
 		{
 			StringBuilder sb = new StringBuilder();
 
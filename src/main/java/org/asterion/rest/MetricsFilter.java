@@ -0,0 +1,136 @@
+package org.asterion.rest;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.inject.Inject;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ Times every request by path and method, the timer for GET /api/v1/path/expand
+ is rest.api.v1.path.expand.GET.  Responses with a 5xx status also mark the
+ timer's errors meter.  Requests that matched no resource are only counted
+ under rest.unmatched so clients can not create metrics at will.  Requests
+ that go asynchronous are timed until they complete.
+ */
+public class MetricsFilter implements Filter
+{
+	public static final String PREFIX = "rest";
+
+	private final MetricRegistry m_registry;
+	private final Counter m_active;
+	private final Meter m_unmatched;
+
+	@Inject
+	public MetricsFilter(MetricRegistry registry)
+	{
+		m_registry = registry;
+		m_active = registry.counter(MetricRegistry.name(PREFIX, "active_requests"));
+		m_unmatched = registry.meter(MetricRegistry.name(PREFIX, "unmatched"));
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException
+	{
+	}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException
+	{
+		//Already being timed from the original dispatch
+		if (servletRequest.getDispatcherType() == DispatcherType.ASYNC)
+		{
+			filterChain.doFilter(servletRequest, servletResponse);
+			return;
+		}
+
+		final HttpServletRequest request = (HttpServletRequest) servletRequest;
+		final HttpServletResponse response = (HttpServletResponse) servletResponse;
+		final long start = System.nanoTime();
+		boolean failed = true;
+
+		m_active.inc();
+		try
+		{
+			filterChain.doFilter(request, response);
+			failed = false;
+		}
+		finally
+		{
+			if (!failed && request.isAsyncStarted())
+			{
+				//Jetty can report a timeout or error and then complete
+				final AtomicBoolean recorded = new AtomicBoolean(false);
+
+				request.getAsyncContext().addListener(new AsyncListener()
+				{
+					@Override
+					public void onComplete(AsyncEvent event)
+					{
+						if (recorded.compareAndSet(false, true))
+							record(request, response.getStatus(), start);
+					}
+
+					@Override
+					public void onTimeout(AsyncEvent event)
+					{
+						if (recorded.compareAndSet(false, true))
+							record(request, HttpServletResponse.SC_SERVICE_UNAVAILABLE, start);
+					}
+
+					@Override
+					public void onError(AsyncEvent event)
+					{
+						if (recorded.compareAndSet(false, true))
+							record(request, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, start);
+					}
+
+					@Override
+					public void onStartAsync(AsyncEvent event)
+					{
+					}
+				});
+			}
+			else
+				record(request, failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus(), start);
+		}
+	}
+
+	private void record(HttpServletRequest request, int status, long start)
+	{
+		m_active.dec();
+
+		if (status == HttpServletResponse.SC_NOT_FOUND || status == HttpServletResponse.SC_METHOD_NOT_ALLOWED)
+		{
+			m_unmatched.mark();
+			return;
+		}
+
+		String path = request.getRequestURI().replaceAll("^/+|/+$", "").replace('/', '.');
+		String name = MetricRegistry.name(PREFIX, path, request.getMethod());
+
+		m_registry.timer(name).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+		if (status >= 500)
+			m_registry.meter(MetricRegistry.name(name, "errors")).mark();
+	}
+
+	@Override
+	public void destroy()
+	{
+	}
+}
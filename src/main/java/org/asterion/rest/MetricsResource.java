@@ -0,0 +1,118 @@
+package org.asterion.rest;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.inject.Inject;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Current value of every metric in the registry, grouped by type.  Rates
+ are per second and timer durations are in milliseconds.
+ */
+@Path("/v1/metrics")
+public class MetricsResource
+{
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final MetricRegistry m_registry;
+
+	@Inject
+	public MetricsResource(MetricRegistry registry)
+	{
+		m_registry = registry;
+	}
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+	public Response get()
+	{
+		Map<String, Object> ret = new LinkedHashMap<>();
+
+		Map<String, Object> gauges = new TreeMap<>();
+		//The registry hands gauges out as a raw type
+		for (Map.Entry<String, ?> gauge : m_registry.getGauges().entrySet())
+		{
+			try
+			{
+				gauges.put(gauge.getKey(), ((Gauge<?>) gauge.getValue()).getValue());
+			}
+			catch (RuntimeException e)
+			{
+				gauges.put(gauge.getKey(), String.valueOf(e.getMessage()));
+			}
+		}
+		ret.put("gauges", gauges);
+
+		Map<String, Object> counters = new TreeMap<>();
+		for (Map.Entry<String, Counter> counter : m_registry.getCounters().entrySet())
+			counters.put(counter.getKey(), counter.getValue().getCount());
+		ret.put("counters", counters);
+
+		Map<String, Object> histograms = new TreeMap<>();
+		for (Map.Entry<String, Histogram> histogram : m_registry.getHistograms().entrySet())
+		{
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("count", histogram.getValue().getCount());
+			addSnapshot(values, histogram.getValue().getSnapshot(), 1.0);
+			histograms.put(histogram.getKey(), values);
+		}
+		ret.put("histograms", histograms);
+
+		Map<String, Object> meters = new TreeMap<>();
+		for (Map.Entry<String, Meter> meter : m_registry.getMeters().entrySet())
+		{
+			Map<String, Object> values = new LinkedHashMap<>();
+			addRates(values, meter.getValue());
+			meters.put(meter.getKey(), values);
+		}
+		ret.put("meters", meters);
+
+		Map<String, Object> timers = new TreeMap<>();
+		for (Map.Entry<String, Timer> timer : m_registry.getTimers().entrySet())
+		{
+			Map<String, Object> values = new LinkedHashMap<>();
+			addRates(values, timer.getValue());
+			addSnapshot(values, timer.getValue().getSnapshot(), NANOS_PER_MILLI);
+			timers.put(timer.getKey(), values);
+		}
+		ret.put("timers", timers);
+
+		return (Response.ok(ret).build());
+	}
+
+	private static void addRates(Map<String, Object> values, Metered metered)
+	{
+		values.put("count", metered.getCount());
+		values.put("mean_rate", metered.getMeanRate());
+		values.put("m1_rate", metered.getOneMinuteRate());
+		values.put("m5_rate", metered.getFiveMinuteRate());
+		values.put("m15_rate", metered.getFifteenMinuteRate());
+	}
+
+	private static void addSnapshot(Map<String, Object> values, Snapshot snapshot, double divisor)
+	{
+		values.put("min", snapshot.getMin() / divisor);
+		values.put("max", snapshot.getMax() / divisor);
+		values.put("mean", snapshot.getMean() / divisor);
+		values.put("p50", snapshot.getMedian() / divisor);
+		values.put("p75", snapshot.get75thPercentile() / divisor);
+		values.put("p95", snapshot.get95thPercentile() / divisor);
+		values.put("p99", snapshot.get99thPercentile() / divisor);
+		values.put("p999", snapshot.get999thPercentile() / divisor);
+	}
+}
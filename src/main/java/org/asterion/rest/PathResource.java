@@ -1,8 +1,192 @@
 package org.asterion.rest;
 
+import com.google.inject.Inject;
+import org.asterion.store.Direction;
+import org.asterion.traversal.Expansion;
+import org.asterion.traversal.TraversalEngine;
+import org.asterion.util.VertexIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
 /**
- Created by bhawkins on 2/17/15.
+ Multi-hop traversals run on the server, see TraversalEngine.
  */
+@Path("/v1/path")
 public class PathResource
 {
+	public static final Logger logger = LoggerFactory.getLogger(PathResource.class);
+
+	private final TraversalEngine m_traversalEngine;
+	private final AsyncResponses m_async;
+
+	@Inject
+	public PathResource(TraversalEngine traversalEngine, AsyncResponses async)
+	{
+		m_traversalEngine = traversalEngine;
+		m_async = async;
+	}
+
+	/**
+	 Breadth first expansion from a vertex, responds with the vertices
+	 reached at each hop.  With properties=true, or one or more property
+	 parameters naming the properties wanted, the JSON response also maps
+	 each vertex to its properties.  Vertices not expanded for having more
+	 edges than the supernode limit are listed under supernodes.
+	 */
+	@GET
+	@Path("expand")
+	@Produces({MediaType.APPLICATION_JSON + "; charset=UTF-8", GraphMediaType.BINARY})
+	public Response expand(@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam("vertex") String vertex,
+			@QueryParam("edge_type") String edgeType,
+			@QueryParam("direction") @DefaultValue("OUT") String direction,
+			@QueryParam("depth") @DefaultValue("1") int depth,
+			@QueryParam("properties") @DefaultValue("false") boolean properties,
+			@QueryParam("property") List<String> property)
+	{
+		//The binary format has no place for properties
+		final boolean hydrate = (properties || !property.isEmpty()) && !acceptsBinary(headers);
+		final Set<String> propertyNames = property.isEmpty() ? null : new LinkedHashSet<>(property);
+
+		return (m_async.respond(request,
+				() -> m_traversalEngine.expand(VertexIds.decode(required("vertex", vertex)),
+						edgeType, Direction.valueOf(direction), depth).thenCompose(expansion -> hydrate ?
+						m_traversalEngine.hydrate(expansion, propertyNames) : CompletableFuture.completedFuture(expansion)),
+				expansion ->
+				{
+					if (acceptsBinary(headers))
+						return (Response.ok(BinaryResponses.expansion(expansion), GraphMediaType.BINARY).build());
+
+					List<List<String>> levels = new ArrayList<>();
+					for (List<ByteBuffer> level : expansion.getLevels())
+						levels.add(encode(level));
+
+					Map<String, Object> body = new LinkedHashMap<>();
+					body.put("levels", levels);
+					body.put("truncated", expansion.isTruncated());
+
+					List<ByteBuffer> supernodes = expansion.getSupernodes();
+					if (!supernodes.isEmpty())
+						body.put("supernodes", encode(supernodes));
+
+					if (expansion.getProperties() != null)
+					{
+						Map<String, Map<String, String>> vertices = new LinkedHashMap<>();
+						for (Map.Entry<ByteBuffer, Map<String, String>> entry : expansion.getProperties().entrySet())
+							vertices.put(VertexIds.encode(entry.getKey()), entry.getValue());
+
+						body.put("vertices", vertices);
+					}
+
+					return (Response.ok(body).build());
+				},
+				PathResource::failure));
+	}
+
+	/**
+	 Shortest path between two vertices, responds with an empty path if
+	 there is none within max_depth hops.
+	 */
+	@GET
+	@Path("shortest")
+	@Produces({MediaType.APPLICATION_JSON + "; charset=UTF-8", GraphMediaType.BINARY})
+	public Response shortest(@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam("from") String from,
+			@QueryParam("to") String to,
+			@QueryParam("edge_type") String edgeType,
+			@QueryParam("direction") @DefaultValue("OUT") String direction,
+			@QueryParam("max_depth") @DefaultValue("6") int maxDepth)
+	{
+		return (m_async.respond(request,
+				() -> m_traversalEngine.shortestPath(VertexIds.decode(required("from", from)),
+						VertexIds.decode(required("to", to)), edgeType, Direction.valueOf(direction), maxDepth),
+				path ->
+				{
+					if (acceptsBinary(headers))
+						return (Response.ok(BinaryResponses.path(path), GraphMediaType.BINARY).build());
+
+					return (Response.ok(Collections.singletonMap("path", encode(path))).build());
+				},
+				PathResource::failure));
+	}
+
+	/**
+	 True if the client prefers the binary format over JSON.
+	 */
+	private static boolean acceptsBinary(HttpHeaders headers)
+	{
+		MediaType binary = MediaType.valueOf(GraphMediaType.BINARY);
+
+		//Acceptable types are sorted by preference
+		for (MediaType type : headers.getAcceptableMediaTypes())
+		{
+			if (type.isCompatible(MediaType.APPLICATION_JSON_TYPE))
+				return (false);
+			if (type.isCompatible(binary))
+				return (true);
+		}
+
+		return (false);
+	}
+
+	private static String required(String name, String value)
+	{
+		if (value == null || value.isEmpty())
+			throw new IllegalArgumentException(name + " is required");
+
+		return (value);
+	}
+
+	private static List<String> encode(List<ByteBuffer> vertices)
+	{
+		List<String> ret = new ArrayList<>(vertices.size());
+		for (ByteBuffer vertex : vertices)
+			ret.add(VertexIds.encode(vertex));
+
+		return (ret);
+	}
+
+	private static Response failure(Throwable t)
+	{
+		if (t instanceof IllegalArgumentException)
+			return (badRequest(t));
+
+		return (serverError(t));
+	}
+
+	private static Response badRequest(Throwable t)
+	{
+		return (Response.status(Response.Status.BAD_REQUEST)
+				.entity(Collections.singletonMap("errors", Collections.singletonList(t.getMessage()))).build());
+	}
+
+	private static Response serverError(Throwable t)
+	{
+		logger.error("Traversal failed", t);
+
+		return (Response.serverError()
+				.entity(Collections.singletonMap("errors", Collections.singletonList(String.valueOf(t.getMessage())))).build());
+	}
 }
@@ -1,10 +1,30 @@
 package org.asterion.rest;
 
+import com.google.inject.Inject;
+import org.asterion.ingest.BinaryRecordReader;
+import org.asterion.ingest.BulkLoader;
+import org.asterion.ingest.JsonRecordReader;
+import org.asterion.store.DataStore;
+import org.asterion.store.Degrees;
+import org.asterion.store.Direction;
+import org.asterion.util.VertexIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.xml.ws.Response;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  Created by bhawkins on 2/17/15.
@@ -12,11 +32,103 @@ import javax.xml.ws.Response;
 @Path("/v1/vertex")
 public class VertexResource
 {
+	public static final Logger logger = LoggerFactory.getLogger(VertexResource.class);
+
+	private final BulkLoader m_bulkLoader;
+	private final DataStore m_dataStore;
+	private final AsyncResponses m_async;
+
+	@Inject
+	public VertexResource(BulkLoader bulkLoader, DataStore dataStore, AsyncResponses async)
+	{
+		m_bulkLoader = bulkLoader;
+		m_dataStore = dataStore;
+		m_async = async;
+	}
+
+	/**
+	 Creates or updates vertices from a JSON array or newline delimited JSON
+	 body, see JsonRecordReader for the record format.  Responds with the
+	 number of records loaded and the errors for any that were not.
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+	public Response create(@Context HttpServletRequest request, InputStream body)
+	{
+		return (m_async.respond(request, () -> m_bulkLoader.loadVerticesAsync(JsonRecordReader.forVertices(body)),
+				result -> Response.ok(result).build(), VertexResource::failure));
+	}
 
+	/**
+	 Creates or updates vertices from a binary body, see BinaryRecordReader.
+	 */
 	@POST
+	@Consumes(GraphMediaType.BINARY)
+	@Produces(GraphMediaType.BINARY)
+	public Response createBinary(@Context HttpServletRequest request, InputStream body)
+	{
+		return (m_async.respond(request, () -> m_bulkLoader.loadVerticesAsync(BinaryRecordReader.forVertices(body)),
+				result -> Response.ok(BinaryResponses.loadResult(result)).build(), VertexResource::failure));
+	}
+
+	/**
+	 Edge counts of a vertex, in total and by edge type and the direction
+	 the edges are stored with.  See DataStore.getDegrees().
+	 */
+	@GET
+	@Path("degree")
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
-	public Response create()
+	public Response degree(@Context HttpServletRequest request, @QueryParam("vertex") String vertex)
+	{
+		return (m_async.respond(request, () ->
+				{
+					if (vertex == null || vertex.isEmpty())
+						throw new IllegalArgumentException("vertex is required");
+
+					return (m_dataStore.getDegrees(VertexIds.decode(vertex)));
+				},
+				degrees -> Response.ok(degreeBody(degrees)).build(), VertexResource::degreeFailure));
+	}
+
+	private static Map<String, Object> degreeBody(Degrees degrees)
+	{
+		Map<String, Map<String, Long>> edgeTypes = new LinkedHashMap<>();
+		for (String edgeType : degrees.getEdgeTypes())
+		{
+			Map<String, Long> counts = new LinkedHashMap<>();
+			for (Direction direction : Direction.values())
+			{
+				long count = degrees.get(edgeType, direction);
+				if (count != 0)
+					counts.put(direction.name(), count);
+			}
+
+			if (!counts.isEmpty())
+				edgeTypes.put(edgeType, counts);
+		}
+
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("total", degrees.get(null, null));
+		ret.put("edge_types", edgeTypes);
+
+		return (ret);
+	}
+
+	private static Response degreeFailure(Throwable t)
+	{
+		if (t instanceof IllegalArgumentException)
+			return (Response.status(Response.Status.BAD_REQUEST)
+					.entity(Collections.singletonMap("errors", Collections.singletonList(t.getMessage()))).build());
+
+		logger.error("Degree read failed", t);
+		return (Response.serverError()
+				.entity(Collections.singletonMap("errors", Collections.singletonList(String.valueOf(t.getMessage())))).build());
+	}
+
+	private static Response failure(Throwable t)
 	{
-		return (null);
+		logger.error("Vertex load failed", t);
+		return (Response.serverError()
+				.entity(Collections.singletonMap("errors", Collections.singletonList(String.valueOf(t.getMessage())))).build());
 	}
 }
@@ -17,17 +17,23 @@ import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.server.ssl.SslSelectChannelConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.security.Constraint;
 import org.eclipse.jetty.util.security.Credential;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.DispatcherType;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.EnumSet;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.asterion.util.Preconditions.checkNotNullOrEmpty;
 
@@ -46,6 +52,8 @@ public class WebServer implements AsterionService
 	public static final String JETTY_SSL_PORT = "asterion.jetty.ssl.port";
 	public static final String JETTY_SSL_KEYSTORE_PATH = "asterion.jetty.ssl.keystore.path";
 	public static final String JETTY_SSL_KEYSTORE_PASSWORD = "asterion.jetty.ssl.keystore.password";
+	public static final String JETTY_MAX_THREADS_PROPERTY = "asterion.jetty.threads.max";
+	public static final String JETTY_MAX_QUEUED_PROPERTY = "asterion.jetty.threads.max_queued";
 
 	private InetAddress m_address;
 	private int m_port;
@@ -56,6 +64,8 @@ public class WebServer implements AsterionService
 	private int m_sslPort;
 	private String m_keyStorePath;
 	private String m_keyStorePassword;
+	private int m_maxThreads = 254;
+	private int m_maxQueued = -1;
 
 
 	public WebServer(int port, String webRoot)
@@ -95,6 +105,29 @@ public class WebServer implements AsterionService
 		m_keyStorePassword = checkNotNullOrEmpty(keyStorePassword);
 	}
 
+	/**
+	 Jetty worker threads.  Requests waiting on the store do not hold a
+	 thread so this only needs to cover the requests being parsed or
+	 rendered at once.
+	 */
+	@Inject(optional = true)
+	public void setMaxThreads(@Named(JETTY_MAX_THREADS_PROPERTY) int maxThreads)
+	{
+		checkArgument(maxThreads > 0, "Max threads must be greater than 0");
+		m_maxThreads = maxThreads;
+	}
+
+	/**
+	 Requests queued for a worker thread before new connections are
+	 refused, -1 leaves the queue unbounded.
+	 */
+	@Inject(optional = true)
+	public void setMaxQueued(@Named(JETTY_MAX_QUEUED_PROPERTY) int maxQueued)
+	{
+		checkArgument(maxQueued == -1 || maxQueued > 0, "Max queued must be -1 or greater than 0");
+		m_maxQueued = maxQueued;
+	}
+
 	@Override
 	public void start() throws AsterionException
 	{
@@ -105,6 +138,12 @@ public class WebServer implements AsterionService
 			else
 				m_server = new Server();
 
+			QueuedThreadPool threadPool = new QueuedThreadPool(m_maxThreads);
+			threadPool.setMinThreads(Math.min(threadPool.getMinThreads(), m_maxThreads));
+			threadPool.setMaxQueued(m_maxQueued);
+			threadPool.setName("jetty");
+			m_server.setThreadPool(threadPool);
+
 			//Set up SSL
 			if (m_keyStorePath != null && !m_keyStorePath.isEmpty())
 			{
@@ -126,8 +165,15 @@ public class WebServer implements AsterionService
 				servletContextHandler.setContextPath("/");
 			}
 
-			servletContextHandler.addFilter(GuiceFilter.class, "/api/*", null);
-			servletContextHandler.addServlet(DefaultServlet.class, "/api/*");
+			//Async dispatches come back through Guice, see AsyncResponses
+			FilterHolder guiceFilter = new FilterHolder(GuiceFilter.class);
+			guiceFilter.setAsyncSupported(true);
+			servletContextHandler.addFilter(guiceFilter, "/api/*",
+					EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+
+			ServletHolder defaultServlet = new ServletHolder(DefaultServlet.class);
+			defaultServlet.setAsyncSupported(true);
+			servletContextHandler.addServlet(defaultServlet, "/api/*");
 
 			ResourceHandler resourceHandler = new ResourceHandler();
 			resourceHandler.setDirectoriesListed(true);
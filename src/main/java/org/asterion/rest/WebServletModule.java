@@ -29,13 +29,20 @@ public class WebServletModule extends JerseyServletModule
 		//Bind web server
 		bind(WebServer.class);
 
+		bind(AsyncResponses.class).in(Scopes.SINGLETON);
+
 		//Bind resource classes here
 		bind(EdgeResource.class).in(Scopes.SINGLETON);
+		bind(MetricsResource.class).in(Scopes.SINGLETON);
 		bind(PathResource.class).in(Scopes.SINGLETON);
 		bind(VertexResource.class).in(Scopes.SINGLETON);
 
 		bind(GuiceContainer.class);
 
+		//First so the time spent compressing is included
+		bind(MetricsFilter.class).in(Scopes.SINGLETON);
+		filter("/*").through(MetricsFilter.class);
+
 		ImmutableMap<String, String> params = new ImmutableMap.Builder<String, String>()
 				.put("mimeTypes", MediaType.APPLICATION_JSON)
 				.put("methods", "GET,POST")
@@ -48,7 +55,8 @@ public class WebServletModule extends JerseyServletModule
 
 		// hook Jackson into Jersey as the POJO <-> JSON mapper
 		bind(JacksonJsonProvider.class).in(Scopes.SINGLETON);
-		serve("/*").with(GuiceContainer.class);
+		//GuiceFilter only sees /api/*, resources are matched below that prefix
+		serve("/api/*").with(GuiceContainer.class);
 
 
 	}
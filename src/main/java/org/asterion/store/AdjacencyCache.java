@@ -0,0 +1,31 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ Node local cache of the neighbors of a vertex by edge type and direction,
+ sits in front of edge reads that cover all time.  The implementation is
+ chosen with the asterion.cache.adjacency.class property.
+
+ Stamps work as they do for VertexCache, a read that misses takes a stamp
+ before querying the store and the neighbors it read are only cached if
+ no edge of that vertex and type was written in between.
+ */
+public interface AdjacencyCache
+{
+	/**
+	 Returns the neighbors in the order the store returned them or null if
+	 they are not cached.
+	 */
+	public List<ByteBuffer> get(ByteBuffer vertexId, String edgeType, Direction direction);
+
+	public long getStamp(ByteBuffer vertexId, String edgeType);
+
+	public void put(ByteBuffer vertexId, String edgeType, Direction direction, List<ByteBuffer> neighbors, long stamp);
+
+	/**
+	 Drops the neighbors of the vertex in every direction of the edge type.
+	 */
+	public void invalidate(ByteBuffer vertexId, String edgeType);
+}
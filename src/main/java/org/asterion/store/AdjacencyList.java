@@ -0,0 +1,100 @@
+package org.asterion.store;
+
+import java.util.Arrays;
+
+/**
+ The edges of one vertex and edge type held by MemoryStore.  Each edge is
+ a key packing its direction and the interned id of the other vertex, the
+ keys are kept sorted in a primitive array with the edge times alongside.
+ Sorting by direction first puts the edges of each direction together the
+ way vertex_edges clusters them.  Not thread safe.
+ */
+class AdjacencyList
+{
+	private long[] m_keys = new long[4];
+	private long[] m_when = new long[4];
+	private int m_size = 0;
+
+	static long key(int direction, int vertex)
+	{
+		return (((long) direction << 32) | (vertex & 0xFFFFFFFFL));
+	}
+
+	static int direction(long key)
+	{
+		return ((int) (key >>> 32));
+	}
+
+	static int vertex(long key)
+	{
+		return ((int) key);
+	}
+
+	/**
+	 Adds the edge or updates its time if it is already present.
+	 */
+	void add(long key, long when)
+	{
+		int index = Arrays.binarySearch(m_keys, 0, m_size, key);
+		if (index >= 0)
+		{
+			m_when[index] = when;
+			return;
+		}
+
+		index = -index - 1;
+		if (m_size == m_keys.length)
+		{
+			m_keys = Arrays.copyOf(m_keys, m_size * 2);
+			m_when = Arrays.copyOf(m_when, m_size * 2);
+		}
+
+		System.arraycopy(m_keys, index, m_keys, index + 1, m_size - index);
+		System.arraycopy(m_when, index, m_when, index + 1, m_size - index);
+		m_keys[index] = key;
+		m_when[index] = when;
+		m_size++;
+	}
+
+	boolean remove(long key)
+	{
+		int index = Arrays.binarySearch(m_keys, 0, m_size, key);
+		if (index < 0)
+			return (false);
+
+		System.arraycopy(m_keys, index + 1, m_keys, index, m_size - index - 1);
+		System.arraycopy(m_when, index + 1, m_when, index, m_size - index - 1);
+		m_size--;
+
+		return (true);
+	}
+
+	boolean contains(long key)
+	{
+		return (Arrays.binarySearch(m_keys, 0, m_size, key) >= 0);
+	}
+
+	/**
+	 Index of the first edge whose key is greater than the key.
+	 */
+	int indexAfter(long key)
+	{
+		int index = Arrays.binarySearch(m_keys, 0, m_size, key);
+		return (index >= 0 ? index + 1 : -index - 1);
+	}
+
+	long keyAt(int index)
+	{
+		return (m_keys[index]);
+	}
+
+	long whenAt(int index)
+	{
+		return (m_when[index]);
+	}
+
+	int size()
+	{
+		return (m_size);
+	}
+}
@@ -1,5 +1,6 @@
 package org.asterion.store;
 
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Session;
 
 import java.io.Closeable;
@@ -20,5 +21,15 @@ public interface CassandraClient extends Closeable
 
 	public String getKeyspace();
 
+	public ConsistencyLevel getReadConsistency();
+
+	public ConsistencyLevel getWriteConsistency();
+
+	/**
+	 Milliseconds to wait on a read before sending it again, 0 when reads
+	 are never repeated.
+	 */
+	public long getSpeculativeDelay();
+
 	public void close();
 }
@@ -2,44 +2,242 @@ package org.asterion.store;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.ProtocolOptions;
 import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SocketOptions;
 import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import java.util.List;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  Created by bhawkins on 3/4/15.
  */
 public class CassandraClientImpl implements CassandraClient
 {
-	private final Cluster m_cluster;
-	private String m_keyspace;
+	public static final String KEYSPACE_PROPERTY = "asterion.cassandra.keyspace";
+	public static final String HOST_LIST_PROPERTY = "asterion.cassandra.host_list";
+	public static final String PORT_PROPERTY = "asterion.cassandra.port";
+	public static final String CORE_CONNECTIONS_PROPERTY = "asterion.cassandra.core_connections_per_host";
+	public static final String MAX_CONNECTIONS_PROPERTY = "asterion.cassandra.max_connections_per_host";
+	public static final String MAX_REQUESTS_PER_CONNECTION_PROPERTY = "asterion.cassandra.max_requests_per_connection";
+	public static final String COMPRESSION_PROPERTY = "asterion.cassandra.compression";
+	public static final String CONNECT_TIMEOUT_PROPERTY = "asterion.cassandra.connect_timeout_ms";
+	public static final String READ_TIMEOUT_PROPERTY = "asterion.cassandra.read_timeout_ms";
+	public static final String READ_CONSISTENCY_PROPERTY = "asterion.cassandra.read_consistency";
+	public static final String WRITE_CONSISTENCY_PROPERTY = "asterion.cassandra.write_consistency";
+	public static final String LOCAL_DC_PROPERTY = "asterion.cassandra.local_dc";
+	public static final String LATENCY_AWARE_PROPERTY = "asterion.cassandra.latency_aware";
+	public static final String SPECULATIVE_DELAY_PROPERTY = "asterion.cassandra.speculative_delay_ms";
+
+	private final List<String> m_nodes;
+	private final String m_keyspace;
+	private int m_port = ProtocolOptions.DEFAULT_PORT;
+	private final PoolingOptions m_poolingOptions = new PoolingOptions();
+	private final SocketOptions m_socketOptions = new SocketOptions();
+	private ProtocolOptions.Compression m_compression = ProtocolOptions.Compression.NONE;
+	private ConsistencyLevel m_readConsistency = ConsistencyLevel.QUORUM;
+	private ConsistencyLevel m_writeConsistency = ConsistencyLevel.QUORUM;
+	private String m_localDc = null;
+	private boolean m_latencyAware = false;
+	private long m_speculativeDelay = 0;
+
+	//Built on first use so the optional settings are in place first
+	private Cluster m_cluster;
+
+	@Inject
+	public CassandraClientImpl(@Named(KEYSPACE_PROPERTY) String keyspace,
+			@Named(HOST_LIST_PROPERTY) String hostList)
+	{
+		this(keyspace, Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(hostList)));
+	}
 
 	public CassandraClientImpl(String keyspace, List<String> nodes)
 	{
-		final Cluster.Builder builder = new Cluster.Builder()
-				.withLoadBalancingPolicy(new TokenAwarePolicy(new DCAwareRoundRobinPolicy()))
-				.withQueryOptions(new QueryOptions().setConsistencyLevel(ConsistencyLevel.QUORUM));
+		m_keyspace = keyspace;
+		m_nodes = nodes;
+	}
+
+	/**
+	 Native protocol port of the contact points.
+	 */
+	@Inject(optional = true)
+	public void setPort(@Named(PORT_PROPERTY) int port)
+	{
+		checkArgument(port > 0, "Port must be greater than 0");
+		checkNotBuilt();
+		m_port = port;
+	}
 
-		nodes.forEach(n -> builder.addContactPoint(n));
+	/**
+	 Connections opened to each host in the local data center when the
+	 pool starts.
+	 */
+	@Inject(optional = true)
+	public void setCoreConnectionsPerHost(@Named(CORE_CONNECTIONS_PROPERTY) int coreConnections)
+	{
+		checkArgument(coreConnections > 0, "Core connections per host must be greater than 0");
+		checkNotBuilt();
+		//Raise max first, the driver rejects a core above the current max
+		if (coreConnections > m_poolingOptions.getMaxConnectionsPerHost(HostDistance.LOCAL))
+			m_poolingOptions.setMaxConnectionsPerHost(HostDistance.LOCAL, coreConnections);
+		m_poolingOptions.setCoreConnectionsPerHost(HostDistance.LOCAL, coreConnections);
+	}
 
-		m_cluster = builder.build();
-		m_keyspace = keyspace;
+	/**
+	 Connections the pool grows to for each host in the local data center
+	 when the existing ones are busy.
+	 */
+	@Inject(optional = true)
+	public void setMaxConnectionsPerHost(@Named(MAX_CONNECTIONS_PROPERTY) int maxConnections)
+	{
+		checkArgument(maxConnections > 0, "Max connections per host must be greater than 0");
+		checkNotBuilt();
+		if (maxConnections < m_poolingOptions.getCoreConnectionsPerHost(HostDistance.LOCAL))
+			m_poolingOptions.setCoreConnectionsPerHost(HostDistance.LOCAL, maxConnections);
+		m_poolingOptions.setMaxConnectionsPerHost(HostDistance.LOCAL, maxConnections);
+	}
+
+	/**
+	 Simultaneous requests on a connection before the pool opens another.
+	 The v2 protocol allows at most 128 streams per connection.
+	 */
+	@Inject(optional = true)
+	public void setMaxRequestsPerConnection(@Named(MAX_REQUESTS_PER_CONNECTION_PROPERTY) int maxRequests)
+	{
+		checkArgument(maxRequests > 0 && maxRequests <= 128, "Max requests per connection must be between 1 and 128");
+		checkNotBuilt();
+		m_poolingOptions.setMaxSimultaneousRequestsPerConnectionThreshold(HostDistance.LOCAL, maxRequests);
+	}
+
+	/**
+	 Wire compression, one of NONE, SNAPPY or LZ4.  Compression needs the
+	 matching library on the class path.
+	 */
+	@Inject(optional = true)
+	public void setCompression(@Named(COMPRESSION_PROPERTY) String compression)
+	{
+		checkNotBuilt();
+		m_compression = ProtocolOptions.Compression.valueOf(compression.trim().toUpperCase());
+	}
+
+	@Inject(optional = true)
+	public void setConnectTimeout(@Named(CONNECT_TIMEOUT_PROPERTY) int connectTimeout)
+	{
+		checkArgument(connectTimeout > 0, "Connect timeout must be greater than 0");
+		checkNotBuilt();
+		m_socketOptions.setConnectTimeoutMillis(connectTimeout);
+	}
+
+	/**
+	 How long the driver waits on a host before giving up on a request.
+	 */
+	@Inject(optional = true)
+	public void setReadTimeout(@Named(READ_TIMEOUT_PROPERTY) int readTimeout)
+	{
+		checkArgument(readTimeout > 0, "Read timeout must be greater than 0");
+		checkNotBuilt();
+		m_socketOptions.setReadTimeoutMillis(readTimeout);
+	}
+
+	@Inject(optional = true)
+	public void setReadConsistency(@Named(READ_CONSISTENCY_PROPERTY) String readConsistency)
+	{
+		m_readConsistency = ConsistencyLevel.valueOf(readConsistency.trim().toUpperCase());
+	}
+
+	@Inject(optional = true)
+	public void setWriteConsistency(@Named(WRITE_CONSISTENCY_PROPERTY) String writeConsistency)
+	{
+		m_writeConsistency = ConsistencyLevel.valueOf(writeConsistency.trim().toUpperCase());
+	}
+
+	/**
+	 Data center treated as local by the load balancer, when empty the
+	 data center of the first contact point is used.
+	 */
+	@Inject(optional = true)
+	public void setLocalDc(@Named(LOCAL_DC_PROPERTY) String localDc)
+	{
+		checkNotBuilt();
+		m_localDc = localDc.trim().isEmpty() ? null : localDc.trim();
+	}
+
+	/**
+	 Steers requests away from hosts that are responding slower than the
+	 rest of the data center.
+	 */
+	@Inject(optional = true)
+	public void setLatencyAware(@Named(LATENCY_AWARE_PROPERTY) boolean latencyAware)
+	{
+		checkNotBuilt();
+		m_latencyAware = latencyAware;
+	}
+
+	/**
+	 Milliseconds a read waits before the same read is sent again to
+	 another replica, 0 turns speculative reads off.
+	 */
+	@Inject(optional = true)
+	public void setSpeculativeDelay(@Named(SPECULATIVE_DELAY_PROPERTY) long speculativeDelay)
+	{
+		checkArgument(speculativeDelay >= 0, "Speculative delay must not be negative");
+		m_speculativeDelay = speculativeDelay;
+	}
+
+	private void checkNotBuilt()
+	{
+		checkState(m_cluster == null, "Cluster has already been connected");
 	}
 
+	private synchronized Cluster getCluster()
+	{
+		if (m_cluster == null)
+		{
+			LoadBalancingPolicy policy = m_localDc == null ? new DCAwareRoundRobinPolicy() :
+					new DCAwareRoundRobinPolicy(m_localDc);
+
+			if (m_latencyAware)
+				policy = LatencyAwarePolicy.builder(policy).build();
+
+			Cluster.Builder builder = new Cluster.Builder()
+					.withPort(m_port)
+					.withLoadBalancingPolicy(new TokenAwarePolicy(policy))
+					.withPoolingOptions(m_poolingOptions)
+					.withSocketOptions(m_socketOptions)
+					.withCompression(m_compression)
+					.withQueryOptions(new QueryOptions().setConsistencyLevel(m_readConsistency));
+
+			m_nodes.forEach(n -> builder.addContactPoint(n));
+
+			m_cluster = builder.build();
+		}
+
+		return (m_cluster);
+	}
 
 	@Override
 	public Session getKeyspaceSession()
 	{
-		return m_cluster.connect(m_keyspace);
+		return getCluster().connect(m_keyspace);
 	}
 
 	@Override
 	public Session getSession()
 	{
-		return m_cluster.connect();
+		return getCluster().connect();
 	}
 
 	@Override
@@ -49,9 +247,28 @@ public class CassandraClientImpl implements CassandraClient
 	}
 
 	@Override
-	public void close()
+	public ConsistencyLevel getReadConsistency()
+	{
+		return (m_readConsistency);
+	}
+
+	@Override
+	public ConsistencyLevel getWriteConsistency()
+	{
+		return (m_writeConsistency);
+	}
+
+	@Override
+	public long getSpeculativeDelay()
+	{
+		return (m_speculativeDelay);
+	}
+
+	@Override
+	public synchronized void close()
 	{
-		m_cluster.close();
+		if (m_cluster != null)
+			m_cluster.close();
 	}
 
 
@@ -0,0 +1,270 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ Walks the buckets of a vertex and edge type in order.  Each bucket is read
+ with the driver's paging at the query's fetch size.  The next page of the
+ current bucket is requested once half of the current page has been
+ consumed and the first pages of the next buckets are requested ahead of
+ time, so the caller rarely waits on the cluster.
+
+ When the edge_id column holds internal ids a decoder maps them back to
+ vertex ids, the rows of a page are taken together so their ids are
+ decoded in one call rather than one at a time.
+ */
+class CassandraEdgeIterator implements EdgeIterator
+{
+	private static final int PREFETCH_BUCKETS = 2;
+
+	/**
+	 Starts the read of one bucket, after is only set for the bucket a
+	 paging state resumes in.
+	 */
+	interface BucketReader
+	{
+		public ListenableFuture<ResultSet> readBucket(long bucketStart, EdgePosition after);
+
+		/**
+		 Called with the rows a bucket returned once the iterator reaches
+		 the end of it.  Buckets left unfinished are not reported.
+		 */
+		public default void bucketRead(long bucketStart, EdgePosition after, int rows)
+		{
+		}
+	}
+
+	private final EdgeQuery m_query;
+	private final BucketReader m_reader;
+	private final EdgePosition m_resumeFrom;
+	private final int m_prefetchThreshold;
+	private final Function<List<ByteBuffer>, CompletableFuture<List<ByteBuffer>>> m_decoder;
+	private final Deque<Row> m_rows = new ArrayDeque<>();
+	private final Deque<ByteBuffer> m_decodedIds = new ArrayDeque<>();
+	private ByteBuffer m_rowVertexId;
+
+	private CompletableFuture<List<Long>> m_bucketsFuture;
+	private Deque<Long> m_buckets;
+	private final Deque<BucketRead> m_pendingReads = new ArrayDeque<>();
+	private BucketRead m_current;
+
+	private ByteBuffer m_next;
+	private EdgePosition m_nextPosition;
+	private EdgePosition m_lastPosition;
+	private boolean m_exhausted = false;
+
+	CassandraEdgeIterator(EdgeQuery query, CompletableFuture<List<Long>> buckets, BucketReader reader)
+	{
+		this(query, buckets, reader, null);
+	}
+
+	/**
+	 @param decoder maps the edge ids of a page to vertex ids, in order
+	 */
+	CassandraEdgeIterator(EdgeQuery query, CompletableFuture<List<Long>> buckets, BucketReader reader,
+			Function<List<ByteBuffer>, CompletableFuture<List<ByteBuffer>>> decoder)
+	{
+		m_query = query;
+		m_bucketsFuture = buckets;
+		m_reader = reader;
+		m_decoder = decoder;
+		m_prefetchThreshold = Math.max(1, query.getFetchSize() / 2);
+
+		if (query.getPagingState() != null)
+			m_resumeFrom = EdgePosition.decode(query.getPagingState());
+		else
+			m_resumeFrom = null;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (m_next != null)
+			return (true);
+
+		if (m_exhausted)
+			return (false);
+
+		if (m_buckets == null)
+			loadBuckets();
+
+		while (true)
+		{
+			if (m_current == null)
+			{
+				fillPendingReads();
+
+				m_current = m_pendingReads.poll();
+				if (m_current == null)
+				{
+					m_exhausted = true;
+					return (false);
+				}
+
+				try
+				{
+					m_current.m_resultSet = Uninterruptibles.getUninterruptibly(m_current.m_future);
+				}
+				catch (ExecutionException e)
+				{
+					throw Throwables.propagate(e.getCause());
+				}
+				fillPendingReads();
+			}
+
+			ResultSet resultSet = m_current.m_resultSet;
+			if (resultSet.getAvailableWithoutFetching() <= m_prefetchThreshold && !resultSet.isFullyFetched())
+				resultSet.fetchMoreResults();
+
+			Row row = nextRow(resultSet);
+			if (row == null)
+			{
+				m_reader.bucketRead(m_current.m_bucketStart, m_current.m_after, m_current.m_rows);
+				m_current = null;
+				continue;
+			}
+
+			m_current.m_rows++;
+
+			long when = row.getDate(2).getTime();
+			if (when < m_query.getStartTime() || when > m_query.getEndTime())
+				continue;
+
+			m_next = m_rowVertexId;
+			m_nextPosition = new EdgePosition(m_current.m_bucketStart, row.getInt(0), row.getBytesUnsafe(1));
+			return (true);
+		}
+	}
+
+	@Override
+	public ByteBuffer next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		ByteBuffer ret = m_next;
+		m_lastPosition = m_nextPosition;
+		m_next = null;
+		m_nextPosition = null;
+
+		return (ret);
+	}
+
+	@Override
+	public String getPagingState()
+	{
+		if (m_exhausted && m_next == null)
+			return (null);
+
+		if (m_lastPosition == null)
+			return (m_query.getPagingState());
+
+		return (m_lastPosition.encode());
+	}
+
+	/**
+	 Returns the next row of the bucket and sets m_rowVertexId to the
+	 vertex it points to, null at the end of the bucket.
+	 */
+	private Row nextRow(ResultSet resultSet)
+	{
+		if (m_decoder == null)
+		{
+			Row row = resultSet.one();
+			m_rowVertexId = row != null ? row.getBytesUnsafe(1) : null;
+			return (row);
+		}
+
+		if (m_rows.isEmpty())
+		{
+			Row row = resultSet.one();
+			if (row == null)
+				return (null);
+
+			m_rows.add(row);
+			for (int i = resultSet.getAvailableWithoutFetching(); i > 0; i--)
+				m_rows.add(resultSet.one());
+
+			List<ByteBuffer> edgeIds = new ArrayList<>(m_rows.size());
+			for (Row pending : m_rows)
+				edgeIds.add(pending.getBytesUnsafe(1));
+
+			m_decodedIds.addAll(join(m_decoder.apply(edgeIds)));
+		}
+
+		m_rowVertexId = m_decodedIds.poll();
+		return (m_rows.poll());
+	}
+
+	private static <T> T join(CompletableFuture<T> future)
+	{
+		try
+		{
+			return (future.join());
+		}
+		catch (CompletionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	private void loadBuckets()
+	{
+		List<Long> buckets = join(m_bucketsFuture);
+
+		m_buckets = new ArrayDeque<>(buckets.size());
+		for (Long bucket : buckets)
+		{
+			if (m_resumeFrom == null || bucket >= m_resumeFrom.getBucketStart())
+				m_buckets.add(bucket);
+		}
+
+		m_bucketsFuture = null;
+	}
+
+	private void fillPendingReads()
+	{
+		while (m_pendingReads.size() < PREFETCH_BUCKETS && !m_buckets.isEmpty())
+		{
+			long bucketStart = m_buckets.poll();
+			EdgePosition after = null;
+			if (m_resumeFrom != null && m_resumeFrom.getBucketStart() == bucketStart)
+				after = m_resumeFrom;
+
+			m_pendingReads.add(new BucketRead(bucketStart, after, m_reader.readBucket(bucketStart, after)));
+		}
+	}
+
+	private static class BucketRead
+	{
+		private final long m_bucketStart;
+		private final EdgePosition m_after;
+		private final ListenableFuture<ResultSet> m_future;
+		private ResultSet m_resultSet;
+		private int m_rows = 0;
+
+		private BucketRead(long bucketStart, EdgePosition after, ListenableFuture<ResultSet> future)
+		{
+			m_bucketStart = bucketStart;
+			m_after = after;
+			m_future = future;
+		}
+	}
+}
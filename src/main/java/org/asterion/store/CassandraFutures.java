@@ -0,0 +1,95 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ Adapts the driver's guava futures to CompletableFuture so callers of the
+ DataStore never see driver types.
+ */
+public class CassandraFutures
+{
+	private CassandraFutures()
+	{
+	}
+
+	public static <V> CompletableFuture<V> toCompletableFuture(ListenableFuture<V> future)
+	{
+		final CompletableFuture<V> ret = new CompletableFuture<>();
+
+		Futures.addCallback(future, new FutureCallback<V>()
+		{
+			@Override
+			public void onSuccess(V result)
+			{
+				ret.complete(result);
+			}
+
+			@Override
+			public void onFailure(Throwable t)
+			{
+				ret.completeExceptionally(t);
+			}
+		});
+
+		return (ret);
+	}
+
+	/**
+	 Maps the result set once it arrives.  The mapping function runs on the
+	 driver's I/O thread so it must not block, reading rows that are already
+	 fetched is fine.
+	 */
+	public static <T> CompletableFuture<T> map(ListenableFuture<ResultSet> future, Function<ResultSet, T> mapper)
+	{
+		return (toCompletableFuture(future).thenApply(mapper));
+	}
+
+	/**
+	 Reads every row of the result, fetching further pages asynchronously
+	 so no thread blocks waiting on the next page.
+	 */
+	public static <T> CompletableFuture<List<T>> readAll(ListenableFuture<ResultSet> future, Function<Row, T> mapper)
+	{
+		return (toCompletableFuture(future).thenCompose(resultSet -> readPages(resultSet, mapper, new ArrayList<>())));
+	}
+
+	private static <T> CompletableFuture<List<T>> readPages(ResultSet resultSet, Function<Row, T> mapper, List<T> ret)
+	{
+		int available = resultSet.getAvailableWithoutFetching();
+		for (int i = 0; i < available; i++)
+			ret.add(mapper.apply(resultSet.one()));
+
+		if (resultSet.isFullyFetched())
+			return (CompletableFuture.completedFuture(ret));
+
+		return (toCompletableFuture(resultSet.fetchMoreResults())
+				.thenCompose(v -> readPages(resultSet, mapper, ret)));
+	}
+
+	/**
+	 Completes when the write has been acknowledged, the result set is
+	 dropped.
+	 */
+	public static CompletableFuture<Void> done(ListenableFuture<ResultSet> future)
+	{
+		return (toCompletableFuture(future).thenApply(rs -> null));
+	}
+
+	/**
+	 Completes when all of the futures complete, fails if any of them fail.
+	 */
+	public static CompletableFuture<Void> allOf(Collection<? extends CompletableFuture<?>> futures)
+	{
+		return (CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])));
+	}
+}
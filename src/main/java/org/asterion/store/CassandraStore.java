@@ -1,19 +1,66 @@
 package org.asterion.store;
 
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.*;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.util.AsyncThrottle;
+import org.asterion.util.SingleFlight;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  Created by bhawkins on 2/17/15.
  */
 public class CassandraStore implements DataStore
 {
+	public static final String MAX_IN_FLIGHT_BATCHES_PROPERTY = "asterion.cassandra.max_in_flight_batches";
+	public static final String MAX_BATCH_ROWS_PROPERTY = "asterion.cassandra.max_batch_rows";
+	public static final String EDGE_BUCKET_SIZE_PROPERTY = "asterion.cassandra.edge_bucket_size";
+	public static final String MAX_BUCKET_READS_PROPERTY = "asterion.cassandra.max_bucket_reads";
+	public static final String MAX_IN_FLIGHT_PROPERTY_READS_PROPERTY = "asterion.cassandra.max_in_flight_property_reads";
+	public static final String BUCKET_CACHE_SIZE_PROPERTY = "asterion.cassandra.bucket_cache_size";
+	public static final String EDGE_TYPE_CACHE_SIZE_PROPERTY = "asterion.cassandra.edge_type_cache_size";
+	public static final String INDEXED_PROPERTIES_PROPERTY = "asterion.store.indexed_properties";
+	public static final String SCAN_FETCH_SIZE_PROPERTY = "asterion.cassandra.scan_fetch_size";
+	public static final String DELETE_RATE_PROPERTY = "asterion.cassandra.delete_rate";
+	public static final String MAX_IN_FLIGHT_DELETES_PROPERTY = "asterion.cassandra.max_in_flight_deletes";
+	public static final String DELETE_THREADS_PROPERTY = "asterion.cassandra.delete_threads";
+	public static final String ID_DICTIONARY_PROPERTY = "asterion.cassandra.id_dictionary";
+	public static final String ID_BLOCK_SIZE_PROPERTY = "asterion.cassandra.id_block_size";
+	public static final String ID_CACHE_SIZE_PROPERTY = "asterion.cassandra.id_cache_size";
+	public static final String DEGREE_COUNTERS_PROPERTY = "asterion.cassandra.degree_counters";
+	public static final String DEGREE_FLUSH_INTERVAL_PROPERTY = "asterion.cassandra.degree_flush_interval_ms";
+
+	private static final String MAX_CODE_POINT = new String(Character.toChars(Character.MAX_CODE_POINT));
+
 	public static final String CREATE_KEYSPACE = "" +
 			"CREATE KEYSPACE IF NOT EXISTS %s" +
 			"  WITH REPLICATION = {'class': 'SimpleStrategy'," +
@@ -35,6 +82,19 @@ public class CassandraStore implements DataStore
 			"  PRIMARY KEY ((vertex_id, edge_type, bucket_start), direction, edge_id)" +
 			")";
 
+	/**
+	 Lists the buckets of vertex_edges that hold edges for a vertex and edge
+	 type, so reads only visit buckets that exist.
+	 */
+	public static final String VERTEX_EDGE_BUCKETS_TABLE = "" +
+			"CREATE TABLE IF NOT EXISTS vertex_edge_buckets (" +
+			"  vertex_id blob," +
+			"  edge_type text," +
+			"  bucket_start timestamp," +
+			"  empty text," +
+			"  PRIMARY KEY ((vertex_id, edge_type), bucket_start)" +
+			")";
+
 	/**
 	 Holds properties about a vertex, key/value pairs
 	 */
@@ -69,173 +129,1487 @@ public class CassandraStore implements DataStore
 			"  PRIMARY KEY ((property_name), property_value, vertex_id)" +
 			")";
 
+	private static final int WRITE_STAMP_STRIPES = 4096;
+
+	/**
+	 Number of edges of each vertex by type and direction, see
+	 DegreeCounters
+	 */
+	public static final String VERTEX_DEGREES_TABLE = "" +
+			"CREATE TABLE IF NOT EXISTS vertex_degrees (" +
+			"  vertex_id blob," +
+			"  edge_type text," +
+			"  direction int," +
+			"  degree counter," +
+			"  PRIMARY KEY ((vertex_id), edge_type, direction)" +
+			")";
+
+	/**
+	 Internal id of each vertex that has one, see IdDictionary
+	 */
+	public static final String VERTEX_IDS_TABLE = "" +
+			"CREATE TABLE IF NOT EXISTS vertex_ids (" +
+			"  vertex_id blob," +
+			"  internal_id bigint," +
+			"  PRIMARY KEY (vertex_id)" +
+			")";
+
+	/**
+	 Vertex id of each internal id
+	 */
+	public static final String INTERNAL_IDS_TABLE = "" +
+			"CREATE TABLE IF NOT EXISTS internal_ids (" +
+			"  internal_id bigint," +
+			"  vertex_id blob," +
+			"  PRIMARY KEY (internal_id)" +
+			")";
+
+	/**
+	 Next internal id that has not been reserved by a node
+	 */
+	public static final String ID_ALLOCATOR_TABLE = "" +
+			"CREATE TABLE IF NOT EXISTS id_allocator (" +
+			"  name text," +
+			"  next_id bigint," +
+			"  PRIMARY KEY (name)" +
+			")";
+
 	private final CassandraClient m_cassandraClient;
+	private final Session m_session;
+	private final StatementRegistry m_statements;
+	private final SpeculativeReads m_reads;
+	private AsyncThrottle m_batchThrottle = new AsyncThrottle(64);
+	private int m_maxBatchRows = 100;
+	private long m_bucketSize = TimeUnit.DAYS.toMillis(7);
+	private int m_maxBucketReads = 16;
+	private AsyncThrottle m_propertyReadThrottle = new AsyncThrottle(256);
+	private final SingleFlight<PropertyRead, Map<String, String>> m_propertyReads = new SingleFlight<>();
+	//Bumped whenever a vertex's properties change, striped by vertex id
+	private final AtomicLongArray m_writeStamps = new AtomicLongArray(WRITE_STAMP_STRIPES);
+	private int m_scanFetchSize = 1000;
+	private double m_deleteRate = 5000;
+	private int m_maxInFlightDeletes = 64;
+	private int m_deleteThreads = 2;
+	private EdgeCascade m_edgeCascade;
+	private boolean m_idDictionaryEnabled = false;
+	private int m_idBlockSize = 1000;
+	private int m_idCacheSize = 1000000;
+	private IdDictionary m_idDictionary;
+	private boolean m_degreeCountersEnabled = true;
+	private long m_degreeFlushInterval = 1000;
+	private DegreeCounters m_degreeCounters;
+
+	private VertexCache m_vertexCache = new NoVertexCache();
+	private boolean m_cachingVertices = false;
+	private AdjacencyCache m_adjacencyCache = new NoAdjacencyCache();
+	private Set<String> m_indexedProperties = Collections.emptySet();
+	private WriteDeduplicator m_writeDeduplicator = new WriteDeduplicator(0, new MetricRegistry());
+	private StoreMetrics m_metrics = new StoreMetrics(new MetricRegistry());
+
+	//Buckets that are known to be recorded in vertex_edge_buckets
+	private Cache<EdgePartition, Boolean> m_knownBuckets = CacheBuilder.newBuilder()
+			.maximumSize(100000).build();
+
+	//Edge types that are known to be recorded in vertex_edge_types
+	private Cache<VertexEdgeType, Boolean> m_knownEdgeTypes = CacheBuilder.newBuilder()
+			.maximumSize(100000).build();
 
+	@Inject
 	public CassandraStore(CassandraClient cassandraClient)
 	{
 		m_cassandraClient = cassandraClient;
 
 		setupSchema();
+
+		//One session for the life of the store, sessions own the connection
+		//pools so creating one per call is very expensive.
+		m_session = m_cassandraClient.getKeyspaceSession();
+		m_statements = new StatementRegistry(m_session, cassandraClient.getReadConsistency(),
+				cassandraClient.getWriteConsistency());
+		m_reads = new SpeculativeReads(m_session, cassandraClient.getSpeculativeDelay());
+	}
+
+	/**
+	 Maximum number of edge batches addEdges will have outstanding against
+	 the cluster at once, across all callers.
+	 */
+	@Inject(optional = true)
+	public void setMaxInFlightBatches(@Named(MAX_IN_FLIGHT_BATCHES_PROPERTY) int maxInFlightBatches)
+	{
+		m_batchThrottle = new AsyncThrottle(maxInFlightBatches);
+	}
+
+	/**
+	 Maximum vertex property reads outstanding against the cluster at once,
+	 across all callers.
+	 */
+	@Inject(optional = true)
+	public void setMaxInFlightPropertyReads(@Named(MAX_IN_FLIGHT_PROPERTY_READS_PROPERTY) int maxInFlightPropertyReads)
+	{
+		m_propertyReadThrottle = new AsyncThrottle(maxInFlightPropertyReads);
+	}
+
+	/**
+	 Maximum rows in a single unlogged batch, larger partitions are split
+	 into several batches.
+	 */
+	@Inject(optional = true)
+	public void setMaxBatchRows(@Named(MAX_BATCH_ROWS_PROPERTY) int maxBatchRows)
+	{
+		m_maxBatchRows = maxBatchRows;
+	}
+
+	/**
+	 Width in milliseconds of the time buckets edges are partitioned by.
+	 Reads find buckets through vertex_edge_buckets so the size can be
+	 changed without losing existing edges.
+	 */
+	@Inject(optional = true)
+	public void setEdgeBucketSize(@Named(EDGE_BUCKET_SIZE_PROPERTY) long bucketSize)
+	{
+		checkArgument(bucketSize > 0, "Edge bucket size must be greater than 0");
+		m_bucketSize = bucketSize;
+	}
+
+	/**
+	 Maximum number of buckets a single edge read queries concurrently.
+	 */
+	@Inject(optional = true)
+	public void setMaxBucketReads(@Named(MAX_BUCKET_READS_PROPERTY) int maxBucketReads)
+	{
+		m_maxBucketReads = maxBucketReads;
+	}
+
+	/**
+	 Number of recorded edge buckets remembered so vertex_edge_buckets is not
+	 written for every edge.
+	 */
+	@Inject(optional = true)
+	public void setBucketCacheSize(@Named(BUCKET_CACHE_SIZE_PROPERTY) int bucketCacheSize)
+	{
+		m_knownBuckets = CacheBuilder.newBuilder().maximumSize(bucketCacheSize).build();
+	}
+
+	/**
+	 Number of vertex and edge type pairs remembered so vertex_edge_types is
+	 not written for every edge.
+	 */
+	@Inject(optional = true)
+	public void setEdgeTypeCacheSize(@Named(EDGE_TYPE_CACHE_SIZE_PROPERTY) int edgeTypeCacheSize)
+	{
+		m_knownEdgeTypes = CacheBuilder.newBuilder().maximumSize(edgeTypeCacheSize).build();
+	}
+
+	/**
+	 Rows fetched per page by token range scans.
+	 */
+	@Inject(optional = true)
+	public void setScanFetchSize(@Named(SCAN_FETCH_SIZE_PROPERTY) int scanFetchSize)
+	{
+		checkArgument(scanFetchSize > 0, "Scan fetch size must be greater than 0");
+		m_scanFetchSize = scanFetchSize;
+	}
+
+	/**
+	 Rows per second vertex deletes remove edges at, across all deletes.
+	 */
+	@Inject(optional = true)
+	public void setDeleteRate(@Named(DELETE_RATE_PROPERTY) double deleteRate)
+	{
+		checkArgument(deleteRate > 0, "Delete rate must be greater than 0");
+		m_deleteRate = deleteRate;
+	}
+
+	/**
+	 Edge deletes a single vertex delete keeps outstanding.
+	 */
+	@Inject(optional = true)
+	public void setMaxInFlightDeletes(@Named(MAX_IN_FLIGHT_DELETES_PROPERTY) int maxInFlightDeletes)
+	{
+		checkArgument(maxInFlightDeletes > 0, "Max in flight deletes must be greater than 0");
+		m_maxInFlightDeletes = maxInFlightDeletes;
+	}
+
+	/**
+	 Number of vertex deletes that cascade to their edges at once, others
+	 wait their turn.
+	 */
+	@Inject(optional = true)
+	public void setDeleteThreads(@Named(DELETE_THREADS_PROPERTY) int deleteThreads)
+	{
+		checkArgument(deleteThreads > 0, "Delete threads must be greater than 0");
+		m_deleteThreads = deleteThreads;
+	}
+
+	/**
+	 Stores the edge_id column of vertex_edges as the varint packed internal
+	 id of the vertex instead of the vertex id itself, see IdDictionary.
+	 Edges written one way can not be read the other, this has to be set
+	 before any edges are loaded and never changed.
+	 */
+	@Inject(optional = true)
+	public void setIdDictionary(@Named(ID_DICTIONARY_PROPERTY) boolean idDictionary)
+	{
+		m_idDictionaryEnabled = idDictionary;
+	}
+
+	/**
+	 Internal ids a node reserves at a time.
+	 */
+	@Inject(optional = true)
+	public void setIdBlockSize(@Named(ID_BLOCK_SIZE_PROPERTY) int idBlockSize)
+	{
+		checkArgument(idBlockSize > 0, "Id block size must be greater than 0");
+		m_idBlockSize = idBlockSize;
+	}
+
+	/**
+	 Id mappings cached in each direction.
+	 */
+	@Inject(optional = true)
+	public void setIdCacheSize(@Named(ID_CACHE_SIZE_PROPERTY) int idCacheSize)
+	{
+		m_idCacheSize = idCacheSize;
+	}
+
+	/**
+	 Maintains vertex_degrees as edges are added and deleted.  Edges that
+	 were loaded while this was off are not counted.
+	 */
+	@Inject(optional = true)
+	public void setDegreeCounters(@Named(DEGREE_COUNTERS_PROPERTY) boolean degreeCounters)
+	{
+		m_degreeCountersEnabled = degreeCounters;
+	}
+
+	/**
+	 Milliseconds degree changes are summed in memory before they are
+	 written.
+	 */
+	@Inject(optional = true)
+	public void setDegreeFlushInterval(@Named(DEGREE_FLUSH_INTERVAL_PROPERTY) long degreeFlushInterval)
+	{
+		checkArgument(degreeFlushInterval > 0, "Degree flush interval must be greater than 0");
+		m_degreeFlushInterval = degreeFlushInterval;
+	}
+
+	@Inject(optional = true)
+	public void setVertexCache(VertexCache vertexCache)
+	{
+		m_vertexCache = vertexCache;
+		m_cachingVertices = !(vertexCache instanceof NoVertexCache);
+	}
+
+	@Inject(optional = true)
+	public void setAdjacencyCache(AdjacencyCache adjacencyCache)
+	{
+		m_adjacencyCache = adjacencyCache;
+	}
+
+	/**
+	 Comma separated list of vertex properties to maintain in
+	 vertex_indices so vertices can be found by their value.
+	 */
+	@Inject(optional = true)
+	public void setIndexedProperties(@Named(INDEXED_PROPERTIES_PROPERTY) String indexedProperties)
+	{
+		m_indexedProperties = ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+				.split(indexedProperties));
 	}
 
-	public void updateVertex(ByteBuffer vertexId, Map<String, String> properties)
+	@Inject(optional = true)
+	public void setWriteDeduplicator(WriteDeduplicator writeDeduplicator)
+	{
+		m_writeDeduplicator = writeDeduplicator;
+	}
+
+	/**
+	 Registry the query metrics are kept in, see StoreMetrics.
+	 */
+	@Inject(optional = true)
+	public void setMetricRegistry(MetricRegistry metricRegistry)
+	{
+		m_metrics = new StoreMetrics(metricRegistry);
+	}
+
+	@Override
+	public CompletableFuture<Void> updateVertex(final ByteBuffer vertexId, Map<String, String> properties)
 	{
 		/*
 		Typically every vertex will at least have a name property
-		We should store the name property in a cache plugin.
-		The cache can be used to minimize lookups during queries as
-		well as minimize duplicate inserts.
+		Properties written recently with the same value are dropped by the
+		deduplicator.  The vertex cache minimizes lookups during queries,
+		it is invalidated before and after the write so readers never cache
+		properties from before this update.
 		 */
-		try (Session session = m_cassandraClient.getKeyspaceSession())
+		List<CompletableFuture<?>> futures = new ArrayList<>(properties.size());
+
+		for (final Map.Entry<String, String> property : properties.entrySet())
 		{
-			//Prepared statements need to be moved to a place where they
-			//are only "prepared" once.
-			PreparedStatement ps = session.prepare("INSERT INTO vertices (vertex_id, property_name, property_value) VALUES (?, ?, ?);");
+			final String name = property.getKey();
+			final String value = property.getValue();
 
-			for (String name : properties.keySet())
+			final long claim = m_writeDeduplicator.claimWrite(vertexId, name, value);
+			if (claim == WriteDeduplicator.DUPLICATE)
+				continue;
+
+			if (m_indexedProperties.contains(name))
 			{
-				BoundStatement bs = new BoundStatement(ps);
+				//The old value has to be read before it is overwritten so its
+				//index entry can be removed.
+				futures.add(readStoredProperty(vertexId, name).thenCompose(oldValue ->
+						CompletableFuture.allOf(writeProperty(vertexId, name, value, claim),
+								updateIndex(vertexId, name, oldValue, value))));
+			}
+			else
+				futures.add(writeProperty(vertexId, name, value, claim));
+		}
 
-				bs.setBytes(0, vertexId);
-				bs.setString(1, name);
-				bs.setString(2, properties.get(name));
+		if (futures.isEmpty())
+			return (CompletableFuture.completedFuture(null));
 
-				session.executeAsync(bs);
-			}
+		invalidateVertex(vertexId);
 
-		}
+		return (CassandraFutures.allOf(futures).whenComplete((v, t) -> invalidateVertex(vertexId)));
 	}
 
-	public void deleteProperty(ByteBuffer vertexId, String propertyName)
+	/**
+	 @param claim the deduplicator's claim on the property, see
+	 WriteDeduplicator.claimWrite()
+	 */
+	private CompletableFuture<Void> writeProperty(final ByteBuffer vertexId, final String name, final String value,
+			final long claim)
 	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.INSERT_VERTEX_PROPERTY);
+
+		bs.setBytes(0, vertexId);
+		bs.setString(1, name);
+		bs.setString(2, value);
+
+		return (CassandraFutures.done(execute(bs)).whenComplete((v, t) ->
+		{
+			if (t == null)
+				m_writeDeduplicator.recordWrite(vertexId, name, value, claim);
+			else
+				m_writeDeduplicator.release(vertexId, name, claim);
+		}));
 	}
 
-	public void deleteVertex(ByteBuffer vertexId)
+	/**
+	 Points the index entry for the property at the new value.  Two updates
+	 of the same property racing each other can leave a stale entry behind,
+	 callers of the find methods that need certainty should check the
+	 vertex.
+	 */
+	private CompletableFuture<Void> updateIndex(ByteBuffer vertexId, String name, String oldValue, String newValue)
 	{
+		List<CompletableFuture<?>> futures = new ArrayList<>(2);
+
+		if (oldValue != null && !oldValue.equals(newValue))
+		{
+			BoundStatement bs = m_statements.bind(StatementRegistry.Query.DELETE_INDEX);
+
+			bs.setString(0, name);
+			bs.setString(1, oldValue);
+			bs.setBytesUnsafe(2, vertexId);
+
+			futures.add(CassandraFutures.done(execute(bs)));
+		}
+
+		if (newValue != null)
+		{
+			BoundStatement bs = m_statements.bind(StatementRegistry.Query.INSERT_INDEX);
+
+			bs.setString(0, name);
+			bs.setString(1, newValue);
+			bs.setBytesUnsafe(2, vertexId);
+
+			futures.add(CassandraFutures.done(execute(bs)));
+		}
+
+		return (CassandraFutures.allOf(futures));
 	}
 
-	public void addEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType)
+	/**
+	 Reads the property straight from the cluster, bypassing the vertex
+	 cache.
+	 */
+	private CompletableFuture<String> readStoredProperty(ByteBuffer vertexId, String propertyName)
 	{
-		try (Session session = m_cassandraClient.getKeyspaceSession())
-		{
-			//Prepared statements need to be moved to a place where they
-			//are only "prepared" once.
-			PreparedStatement ps = session.prepare("INSERT INTO vertex_edges (vertex_id, edge_type, direction, edge_id, when) " +
-					"VALUES (?, ?, ?, ?, ?);");
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_VERTEX_PROPERTY);
 
-			BoundStatement bs = new BoundStatement(ps);
-			Date now = new Date(System.currentTimeMillis());
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setString(1, propertyName);
 
-			bs.setBytesUnsafe(0, sourceVertexId);
-			bs.setString(1, edgeType);
-			bs.setInt(2, direction.getValue());
-			bs.setBytesUnsafe(3, destVertexId);
-			bs.setDate(4, now);
+		return (readOne(bs).thenApply(row -> row != null ? row.getString(0) : null));
+	}
 
-			//todo: look at execute async
-			session.execute(bs);
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByProperty(String propertyName, String value)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_INDEX);
 
-			bs = new BoundStatement(ps);
+		bs.setString(0, propertyName);
+		bs.setString(1, value);
 
-			bs.setBytesUnsafe(0, destVertexId);
-			bs.setString(1, edgeType);
-			bs.setInt(2, direction.opposite());
-			bs.setBytesUnsafe(3, sourceVertexId);
-			bs.setDate(4, now);
+		return (readAll(bs, row -> row.getBytesUnsafe(0)));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyRange(String propertyName,
+			String startValue, String endValue, int limit)
+	{
+		BoundStatement bs;
 
-			session.execute(bs);
+		if (endValue == null)
+		{
+			bs = m_statements.bind(StatementRegistry.Query.SELECT_INDEX_FROM);
+			bs.setString(0, propertyName);
+			bs.setString(1, startValue);
+			bs.setInt(2, limit);
+		}
+		else
+		{
+			bs = m_statements.bind(StatementRegistry.Query.SELECT_INDEX_RANGE);
+			bs.setString(0, propertyName);
+			bs.setString(1, startValue);
+			bs.setString(2, endValue);
+			bs.setInt(3, limit);
 		}
+
+		return (readAll(bs, row -> row.getBytesUnsafe(1)));
 	}
 
-	public void deleteEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType)
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyPrefix(String propertyName, String prefix, int limit)
 	{
-		try (Session session = m_cassandraClient.getKeyspaceSession())
-		{
+		//Text sorts by its UTF-8 bytes so every value starting with the
+		//prefix sorts before the prefix followed by the largest code point
+		return (findVerticesByPropertyRange(propertyName, prefix, prefix + MAX_CODE_POINT, limit));
+	}
 
+	@Override
+	public CompletableFuture<Void> deleteProperty(final ByteBuffer vertexId, final String propertyName)
+	{
+		m_writeDeduplicator.forget(vertexId, propertyName);
+		invalidateVertex(vertexId);
+
+		CompletableFuture<Void> delete;
+		if (m_indexedProperties.contains(propertyName))
+		{
+			delete = readStoredProperty(vertexId, propertyName).thenCompose(oldValue ->
+					CompletableFuture.allOf(deletePropertyRow(vertexId, propertyName),
+							updateIndex(vertexId, propertyName, oldValue, null)));
 		}
+		else
+			delete = deletePropertyRow(vertexId, propertyName);
+
+		return (delete.whenComplete((v, t) ->
+		{
+			m_writeDeduplicator.forget(vertexId, propertyName);
+			invalidateVertex(vertexId);
+		}));
 	}
 
-	public Map<String, String> getVertexProperties(ByteBuffer vertexId)
+	private CompletableFuture<Void> deletePropertyRow(ByteBuffer vertexId, String propertyName)
 	{
-		ImmutableMap.Builder<String, String> ret = new ImmutableMap.Builder<String, String>();
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.DELETE_VERTEX_PROPERTY);
 
-		try (Session session = m_cassandraClient.getKeyspaceSession())
-		{
-			//Prepared statements need to be moved to a place where they
-			//are only "prepared" once.
-			PreparedStatement ps = session.prepare("SELECT property_name, property_value FROM vertices WHERE vertex_id = ?;");
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setString(1, propertyName);
+
+		return (CassandraFutures.done(execute(bs)));
+	}
 
-			BoundStatement bs = new BoundStatement(ps);
+	/**
+	 Deletes the vertex, its index entries and every edge to or from it.
+	 The properties are removed right away, the edges are removed in the
+	 background at a limited rate, see {@link #DELETE_RATE_PROPERTY}.  The
+	 future completes once everything is gone.
+	 */
+	@Override
+	public CompletableFuture<Void> deleteVertex(final ByteBuffer vertexId)
+	{
+		invalidateVertex(vertexId);
 
-			bs.setBytesUnsafe(0, vertexId);
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_VERTEX_PROPERTIES);
+		bs.setBytesUnsafe(0, vertexId);
 
-			ResultSet resultSet = session.execute(bs);
+		CompletableFuture<Void> properties = readAll(bs,
+				row -> Maps.immutableEntry(row.getString(0), row.getString(1))).thenCompose(stored ->
+		{
+			List<CompletableFuture<?>> futures = new ArrayList<>();
 
-			while (!resultSet.isExhausted())
+			for (Map.Entry<String, String> property : stored)
 			{
-				Row row = resultSet.one();
-				ret.put(row.getString(0), row.getString(1));
+				m_writeDeduplicator.forget(vertexId, property.getKey());
+
+				if (m_indexedProperties.contains(property.getKey()))
+					futures.add(updateIndex(vertexId, property.getKey(), property.getValue(), null));
 			}
 
-		}
+			BoundStatement delete = m_statements.bind(StatementRegistry.Query.DELETE_VERTEX);
+			delete.setBytesUnsafe(0, vertexId);
+			futures.add(CassandraFutures.done(execute(delete)));
+
+			return (CassandraFutures.allOf(futures));
+		});
+
+		CompletableFuture<Void> edges = getEdgeCascade().deleteEdges(vertexId).thenAccept(deleted ->
+		{
+			//Edges added to the vertex again have to record their buckets
+			//and types again
+			for (Map.Entry<String, List<Long>> edgeType : deleted.entrySet())
+			{
+				m_knownEdgeTypes.invalidate(new VertexEdgeType(vertexId, edgeType.getKey()));
+
+				for (Long bucketStart : edgeType.getValue())
+					m_knownBuckets.invalidate(new EdgePartition(vertexId, edgeType.getKey(), bucketStart));
+			}
+		}).thenCompose(v ->
+		{
+			//The cascade counted the edges off the neighbors
+			DegreeCounters counters = getDegreeCounters();
+			return (counters != null ? counters.reset(vertexId) : CompletableFuture.<Void>completedFuture(null));
+		});
 
-		return ret.build();
+		return (CompletableFuture.allOf(properties, edges).whenComplete((v, t) -> invalidateVertex(vertexId)));
 	}
 
-	public String getVertexProperty(ByteBuffer vertexId, String propertyName)
+	private synchronized EdgeCascade getEdgeCascade()
 	{
-		String ret = null;
+		if (m_edgeCascade == null)
+			m_edgeCascade = new EdgeCascade(m_session, m_statements, getIdDictionary(), getDegreeCounters(),
+					m_adjacencyCache, m_deleteRate, m_maxInFlightDeletes, m_scanFetchSize, m_deleteThreads);
 
-		try (Session session = m_cassandraClient.getKeyspaceSession())
-		{
-			//Prepared statements need to be moved to a place where they
-			//are only "prepared" once.
-			PreparedStatement ps = session.prepare("SELECT property_value FROM vertices WHERE vertex_id = ? AND property_name = ?;");
+		return (m_edgeCascade);
+	}
 
-			BoundStatement bs = new BoundStatement(ps);
+	/**
+	 Null unless degree counters are on.
+	 */
+	private synchronized DegreeCounters getDegreeCounters()
+	{
+		if (m_degreeCountersEnabled && m_degreeCounters == null)
+			m_degreeCounters = new DegreeCounters(m_session, m_statements, m_degreeFlushInterval);
 
-			bs.setBytesUnsafe(0, vertexId);
-			bs.setString(1, propertyName);
+		return (m_degreeCounters);
+	}
 
-			ResultSet resultSet = session.execute(bs);
+	/**
+	 Counts the edge on both of its vertices.  Whether the edge already
+	 existed is not read, an edge added again is counted again.
+	 */
+	private void countEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType, Direction direction,
+			long delta)
+	{
+		DegreeCounters counters = getDegreeCounters();
+		if (counters == null)
+			return;
 
-			ret = resultSet.one().getString(0);
+		counters.add(sourceVertexId, edgeType, direction.getValue(), delta);
+		counters.add(destVertexId, edgeType, direction.opposite(), delta);
+	}
 
-		}
+	/**
+	 Null unless the id dictionary is on.
+	 */
+	private synchronized IdDictionary getIdDictionary()
+	{
+		if (m_idDictionaryEnabled && m_idDictionary == null)
+			m_idDictionary = new IdDictionary(m_session, m_statements, m_idBlockSize, m_idCacheSize);
 
-		return ret;
+		return (m_idDictionary);
 	}
 
-	public List<ByteBuffer> getEdges(ByteBuffer vertexId, String edgeType)
+	/**
+	 Maps vertex ids to the values kept for them in the edge_id column, the
+	 vertex id itself unless the id dictionary is on.
+	 @param assign assigns internal ids to vertices that do not have one,
+	 otherwise those vertices map to null
+	 */
+	private CompletableFuture<Function<ByteBuffer, ByteBuffer>> toEdgeIds(Collection<ByteBuffer> vertexIds, boolean assign)
 	{
-		return null;
+		IdDictionary dictionary = getIdDictionary();
+		if (dictionary == null)
+			return (CompletableFuture.completedFuture(Function.identity()));
+
+		return ((assign ? dictionary.getOrAssignIds(vertexIds) : dictionary.getIds(vertexIds)).thenApply(ids ->
+				vertexId ->
+				{
+					Long id = ids.get(vertexId);
+					return (id != null ? IdDictionary.pack(id) : null);
+				}));
 	}
 
-	public List<String> getEdgeTypes(ByteBuffer vertexId)
+	/**
+	 Reverse of toEdgeIds, the vertex ids are in the order of the edge ids.
+	 */
+	private CompletableFuture<List<ByteBuffer>> fromEdgeIds(List<ByteBuffer> edgeIds)
 	{
-		return null;
+		IdDictionary dictionary = getIdDictionary();
+		if (dictionary == null)
+			return (CompletableFuture.completedFuture(edgeIds));
+
+		List<Long> ids = new ArrayList<>(edgeIds.size());
+		for (ByteBuffer edgeId : edgeIds)
+			ids.add(IdDictionary.unpack(edgeId));
+
+		return (dictionary.getVertexIds(ids));
 	}
 
+	@Override
+	public CompletableFuture<Void> addEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType)
+	{
+		long now = System.currentTimeMillis();
+		long bucketStart = getBucketStart(now);
 
-	public void close()
+		CompletableFuture<Void> rows = toEdgeIds(Arrays.asList(sourceVertexId, destVertexId), true)
+				.thenCompose(edgeIds ->
+				{
+					CompletableFuture<Void> forward = CassandraFutures.done(execute(
+							bindEdge(sourceVertexId, edgeType, direction.getValue(), edgeIds.apply(destVertexId), now)));
+
+					CompletableFuture<Void> reverse = CassandraFutures.done(execute(
+							bindEdge(destVertexId, edgeType, direction.opposite(), edgeIds.apply(sourceVertexId), now)));
+
+					return (CompletableFuture.allOf(forward, reverse));
+				}).thenRun(() -> countEdge(sourceVertexId, destVertexId, edgeType, direction, 1))
+				.whenComplete((v, t) -> invalidateEdges(sourceVertexId, destVertexId, edgeType));
+
+		return (CompletableFuture.allOf(rows,
+				recordBucket(new EdgePartition(sourceVertexId, edgeType, bucketStart)),
+				recordBucket(new EdgePartition(destVertexId, edgeType, bucketStart)),
+				recordEdgeType(new VertexEdgeType(sourceVertexId, edgeType)),
+				recordEdgeType(new VertexEdgeType(destVertexId, edgeType))));
+	}
+
+	/**
+	 Writes many edges at once.  The forward and reverse rows of every edge
+	 are grouped by partition into unlogged batches, a batch that stays in
+	 one partition is applied as a single mutation by the replica.  Batches
+	 for different partitions are sent concurrently, limited by
+	 {@link #MAX_IN_FLIGHT_BATCHES_PROPERTY}.
+	 */
+	@Override
+	public CompletableFuture<Void> addEdges(Collection<Edge> edges)
 	{
+		List<ByteBuffer> vertexIds = new ArrayList<>(edges.size() * 2);
+		for (Edge edge : edges)
+		{
+			vertexIds.add(edge.getSourceVertexId());
+			vertexIds.add(edge.getDestVertexId());
+		}
+
+		return (toEdgeIds(vertexIds, true).thenCompose(edgeIds -> writeEdges(edges, edgeIds)));
 	}
 
-	private void setupSchema()
+	private CompletableFuture<Void> writeEdges(Collection<Edge> edges, Function<ByteBuffer, ByteBuffer> edgeIds)
 	{
-		try (Session session = m_cassandraClient.getSession())
+		Map<EdgePartition, List<BoundStatement>> partitions = new HashMap<>();
+
+		for (Edge edge : edges)
 		{
-			session.execute(String.format(CREATE_KEYSPACE, m_cassandraClient.getKeyspace()));
+			long bucketStart = getBucketStart(edge.getWhen());
+
+			partitions.computeIfAbsent(new EdgePartition(edge.getSourceVertexId(), edge.getEdgeType(), bucketStart),
+					k -> new ArrayList<>()).add(bindEdge(edge.getSourceVertexId(), edge.getEdgeType(),
+					edge.getDirection().getValue(), edgeIds.apply(edge.getDestVertexId()), edge.getWhen()));
+
+			partitions.computeIfAbsent(new EdgePartition(edge.getDestVertexId(), edge.getEdgeType(), bucketStart),
+					k -> new ArrayList<>()).add(bindEdge(edge.getDestVertexId(), edge.getEdgeType(),
+					edge.getDirection().opposite(), edgeIds.apply(edge.getSourceVertexId()), edge.getWhen()));
 		}
 
-		try (Session session = m_cassandraClient.getKeyspaceSession())
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+
+		Set<VertexEdgeType> edgeTypes = new HashSet<>();
+		for (EdgePartition partition : partitions.keySet())
 		{
-			//session.execute(CREATE_KEYSPACE);
-			session.execute(VERTEX_EDGES_TABLE);
-			session.execute(VERTICES_TABLES);
-			session.execute(VERTEX_EDGE_TYPES_TABLE);
-			session.execute(VERTEX_INDICES_TABLE);
+			futures.add(recordBucket(partition));
+			edgeTypes.add(new VertexEdgeType(partition.m_vertexId, partition.m_edgeType));
 		}
-	}
 
+		for (VertexEdgeType edgeType : edgeTypes)
+			futures.add(recordEdgeType(edgeType));
+
+		for (List<BoundStatement> rows : partitions.values())
+		{
+			for (int start = 0; start < rows.size(); start += m_maxBatchRows)
+			{
+				final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+				batch.setConsistencyLevel(m_cassandraClient.getWriteConsistency());
+				batch.addAll(rows.subList(start, Math.min(start + m_maxBatchRows, rows.size())));
+
+				futures.add(m_batchThrottle.submit(() -> CassandraFutures.done(execute(batch))));
+			}
+		}
+
+		return (CassandraFutures.allOf(futures).thenRun(() ->
+		{
+			for (Edge edge : edges)
+				countEdge(edge.getSourceVertexId(), edge.getDestVertexId(), edge.getEdgeType(), edge.getDirection(), 1);
+		}).whenComplete((v, t) ->
+		{
+			for (VertexEdgeType edgeType : edgeTypes)
+				m_adjacencyCache.invalidate(edgeType.m_vertexId, edgeType.m_edgeType);
+		}));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteEdge(final ByteBuffer sourceVertexId, final ByteBuffer destVertexId,
+			final String edgeType)
+	{
+		return (toEdgeIds(Arrays.asList(sourceVertexId, destVertexId), false).thenCompose(edgeIds ->
+		{
+			final ByteBuffer sourceEdgeId = edgeIds.apply(sourceVertexId);
+			final ByteBuffer destEdgeId = edgeIds.apply(destVertexId);
+
+			//A vertex without an internal id has never had an edge
+			if (sourceEdgeId == null || destEdgeId == null)
+				return (CompletableFuture.completedFuture(null));
+
+			/*
+			The bucket and direction of the edge are not known, every bucket of
+			the source is checked for the edge in each direction.  Only rows that
+			exist are deleted so no tombstones are written for the misses.
+			 */
+			BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_ALL_EDGE_BUCKETS);
+			bs.setBytesUnsafe(0, sourceVertexId);
+			bs.setString(1, edgeType);
+
+			return (readAll(bs, row -> row.getDate(0).getTime())
+					.thenCompose(buckets ->
+					{
+						AsyncThrottle throttle = new AsyncThrottle(m_maxBucketReads);
+						List<CompletableFuture<?>> futures = new ArrayList<>();
+
+						for (final Long bucketStart : buckets)
+						{
+							for (final Direction direction : Direction.values())
+							{
+								BoundStatement select = m_statements.bind(StatementRegistry.Query.SELECT_EDGE);
+								select.setBytesUnsafe(0, sourceVertexId);
+								select.setString(1, edgeType);
+								select.setDate(2, new Date(bucketStart));
+								select.setInt(3, direction.getValue());
+								select.setBytesUnsafe(4, destEdgeId);
+
+								futures.add(throttle.submit(() -> readOne(select)).thenCompose(row ->
+								{
+									if (row == null)
+										return (CompletableFuture.completedFuture(null));
+
+									return (CompletableFuture.allOf(
+											deleteEdgeRow(sourceVertexId, edgeType, bucketStart, direction.getValue(), destEdgeId),
+											deleteEdgeRow(destVertexId, edgeType, bucketStart, direction.opposite(), sourceEdgeId))
+											.thenRun(() -> countEdge(sourceVertexId, destVertexId, edgeType, direction, -1)));
+								}));
+							}
+						}
+
+						return (CassandraFutures.allOf(futures));
+					})
+					.whenComplete((v, t) -> invalidateEdges(sourceVertexId, destVertexId, edgeType)));
+		}));
+	}
+
+	/**
+	 Drops the cached neighbors of both ends of an edge.  Called once the
+	 write completes, whether or not it failed, which also keeps any read
+	 that overlapped the write from caching what it read.
+	 */
+	private void invalidateEdges(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType)
+	{
+		m_adjacencyCache.invalidate(sourceVertexId, edgeType);
+		m_adjacencyCache.invalidate(destVertexId, edgeType);
+	}
+
+	private CompletableFuture<Void> deleteEdgeRow(ByteBuffer vertexId, String edgeType, long bucketStart,
+			int direction, ByteBuffer edgeId)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.DELETE_EDGE);
+
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setString(1, edgeType);
+		bs.setDate(2, new Date(bucketStart));
+		bs.setInt(3, direction);
+		bs.setBytesUnsafe(4, edgeId);
+
+		return (CassandraFutures.done(execute(bs)));
+	}
+
+	@Override
+	public CompletableFuture<Map<String, String>> getVertexProperties(ByteBuffer vertexId)
+	{
+		return (readProperties(vertexId, null));
+	}
+
+	/**
+	 Each vertex is its own partition so the reads are issued concurrently,
+	 bounded by max_in_flight_property_reads, rather than as one multi
+	 partition query that would load a single coordinator.
+	 */
+	@Override
+	public CompletableFuture<Map<ByteBuffer, Map<String, String>>> getVertexProperties(Collection<ByteBuffer> vertexIds,
+			Set<String> propertyNames)
+	{
+		final Set<String> names = propertyNames == null ? null : ImmutableSet.copyOf(propertyNames);
+		final Map<ByteBuffer, CompletableFuture<Map<String, String>>> reads = new LinkedHashMap<>();
+
+		for (ByteBuffer vertexId : vertexIds)
+		{
+			if (!reads.containsKey(vertexId))
+				reads.put(vertexId, readProperties(vertexId, names));
+		}
+
+		return (CassandraFutures.allOf(new ArrayList<CompletableFuture<?>>(reads.values())).thenApply(v ->
+		{
+			Map<ByteBuffer, Map<String, String>> ret = new LinkedHashMap<>();
+			for (Map.Entry<ByteBuffer, CompletableFuture<Map<String, String>>> read : reads.entrySet())
+				ret.put(read.getKey(), read.getValue().join());
+
+			return (ret);
+		}));
+	}
+
+	/**
+	 Reads the properties of a vertex, from the vertex cache if it has them.
+	 When the cache is on the whole vertex is read so it can be cached,
+	 otherwise only the named properties are.  Concurrent reads of the same
+	 properties share one query as long as the vertex was not written in
+	 between, a read never returns properties from before a write that
+	 completed ahead of it.
+	 @param names properties to return, null for all
+	 */
+	private CompletableFuture<Map<String, String>> readProperties(final ByteBuffer vertexId, final Set<String> names)
+	{
+		Map<String, String> cached = m_vertexCache.get(vertexId);
+		if (cached != null)
+			return (CompletableFuture.completedFuture(project(cached, names)));
+
+		if (names != null && names.isEmpty())
+			return (CompletableFuture.completedFuture(ImmutableMap.<String, String>of()));
+
+		final Set<String> readNames = m_cachingVertices ? null : names;
+		PropertyRead key = new PropertyRead(vertexId, readNames, m_writeStamps.get(writeStripe(vertexId)));
+
+		CompletableFuture<Map<String, String>> read = m_propertyReads.get(key, () ->
+				m_propertyReadThrottle.submit(() -> readNames == null ? loadVertexProperties(vertexId) :
+						loadProjectedProperties(vertexId, readNames)));
+
+		if (readNames == null && names != null)
+			return (read.thenApply(properties -> project(properties, names)));
+
+		return (read);
+	}
+
+	private static Map<String, String> project(Map<String, String> properties, Set<String> names)
+	{
+		if (names == null)
+			return (properties);
+
+		return (ImmutableMap.copyOf(Maps.filterKeys(properties, names::contains)));
+	}
+
+	private CompletableFuture<Map<String, String>> loadProjectedProperties(ByteBuffer vertexId, Set<String> names)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_VERTEX_PROPERTIES_IN);
+
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setList(1, new ArrayList<>(names));
+
+		return (readAll(bs, row -> row).thenApply(rows ->
+		{
+			ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<String, String>();
+
+			for (Row row : rows)
+				builder.put(row.getString(0), row.getString(1));
+
+			return (builder.build());
+		}));
+	}
+
+	private static int writeStripe(ByteBuffer vertexId)
+	{
+		return ((vertexId.hashCode() & Integer.MAX_VALUE) % WRITE_STAMP_STRIPES);
+	}
+
+	/**
+	 Called before and after every write to a vertex's properties, drops
+	 the vertex from the cache and keeps later reads from joining a read
+	 that started before the write.
+	 */
+	private void invalidateVertex(ByteBuffer vertexId)
+	{
+		m_writeStamps.incrementAndGet(writeStripe(vertexId));
+		m_vertexCache.invalidate(vertexId);
+	}
+
+	private CompletableFuture<Map<String, String>> loadVertexProperties(ByteBuffer vertexId)
+	{
+		final long stamp = m_vertexCache.getStamp(vertexId);
+
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_VERTEX_PROPERTIES);
+
+		bs.setBytesUnsafe(0, vertexId);
+
+		return (readAll(bs, row -> row).thenApply(rows ->
+		{
+			ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<String, String>();
+
+			for (Row row : rows)
+				builder.put(row.getString(0), row.getString(1));
+
+			Map<String, String> ret = builder.build();
+			m_vertexCache.put(vertexId, ret, stamp);
+
+			return ret;
+		}));
+	}
+
+	/**
+	 When the vertex cache is on a miss loads the whole vertex into the
+	 cache, a vertex is a single partition so this costs about the same as
+	 reading the one property.
+	 */
+	@Override
+	public CompletableFuture<String> getVertexProperty(ByteBuffer vertexId, String propertyName)
+	{
+		Map<String, String> cached = m_vertexCache.get(vertexId);
+		if (cached != null)
+			return (CompletableFuture.completedFuture(cached.get(propertyName)));
+
+		if (m_cachingVertices)
+			return (readProperties(vertexId, null).thenApply(properties -> properties.get(propertyName)));
+
+		return (readStoredProperty(vertexId, propertyName));
+	}
+
+	@Override
+	public EdgeIterator getEdges(ByteBuffer vertexId, String edgeType)
+	{
+		return (getEdges(new EdgeQuery(vertexId, edgeType)));
+	}
+
+	@Override
+	public EdgeIterator getEdges(final EdgeQuery query)
+	{
+		CassandraEdgeIterator.BucketReader reader = new CassandraEdgeIterator.BucketReader()
+		{
+			@Override
+			public ListenableFuture<ResultSet> readBucket(long bucketStart, EdgePosition after)
+			{
+				return (executeRead(bindEdgeSelect(query, bucketStart, after)));
+			}
+
+			@Override
+			public void bucketRead(long bucketStart, EdgePosition after, int rows)
+			{
+				m_metrics.rowsRead(edgeSelectQuery(query, after), rows);
+			}
+		};
+
+		if (getIdDictionary() == null)
+			return (new CassandraEdgeIterator(query, readBuckets(query), reader));
+
+		return (new CassandraEdgeIterator(query, readBuckets(query), reader, this::fromEdgeIds));
+	}
+
+	/**
+	 Reads the buckets that overlap the time range concurrently and returns
+	 the edges ordered by bucket.  Buckets before the start time are never
+	 read.  Queries in one direction over all time are answered from the
+	 adjacency cache when it has the neighbors.
+	 */
+	@Override
+	public CompletableFuture<List<ByteBuffer>> readEdges(final EdgeQuery query)
+	{
+		final Direction direction = query.getDirection();
+		if (direction == null || query.getStartTime() != 0L || query.getEndTime() != Long.MAX_VALUE)
+			return (readStoredEdges(query));
+
+		List<ByteBuffer> cached = m_adjacencyCache.get(query.getVertexId(), query.getEdgeType(), direction);
+		if (cached != null)
+			return (CompletableFuture.completedFuture(cached));
+
+		final long stamp = m_adjacencyCache.getStamp(query.getVertexId(), query.getEdgeType());
+
+		return (readStoredEdges(query).thenApply(neighbors ->
+		{
+			m_adjacencyCache.put(query.getVertexId(), query.getEdgeType(), direction, neighbors, stamp);
+			return (neighbors);
+		}));
+	}
+
+	private CompletableFuture<List<ByteBuffer>> readStoredEdges(final EdgeQuery query)
+	{
+		return (readBuckets(query).thenCompose(buckets ->
+		{
+			AsyncThrottle throttle = new AsyncThrottle(m_maxBucketReads);
+			List<CompletableFuture<List<ByteBuffer>>> bucketReads = new ArrayList<>(buckets.size());
+
+			for (Long bucketStart : buckets)
+			{
+				bucketReads.add(throttle.submit(() -> readAll(bindEdgeSelect(query, bucketStart, null), row -> row)
+						.thenApply(rows ->
+						{
+							List<ByteBuffer> ret = new ArrayList<>(rows.size());
+
+							for (Row row : rows)
+							{
+								long when = row.getDate(2).getTime();
+								if (when >= query.getStartTime() && when <= query.getEndTime())
+									ret.add(row.getBytesUnsafe(1));
+							}
+
+							return ret;
+						})));
+			}
+
+			return (CassandraFutures.allOf(bucketReads)
+					.thenCompose(v ->
+					{
+						List<ByteBuffer> ret = new ArrayList<>();
+						for (CompletableFuture<List<ByteBuffer>> bucketRead : bucketReads)
+							ret.addAll(bucketRead.join());
+
+						return (fromEdgeIds(ret));
+					}));
+		}));
+	}
+
+	/**
+	 Returns the start of every bucket that holds edges in the query's time
+	 range, in order.
+	 */
+	private CompletableFuture<List<Long>> readBuckets(EdgeQuery query)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_EDGE_BUCKETS);
+
+		bs.setBytesUnsafe(0, query.getVertexId());
+		bs.setString(1, query.getEdgeType());
+		bs.setDate(2, new Date(getBucketStart(query.getStartTime())));
+		bs.setDate(3, new Date(query.getEndTime()));
+
+		return (readAll(bs, row -> row.getDate(0).getTime()));
+	}
+
+	private static StatementRegistry.Query edgeSelectQuery(EdgeQuery query, EdgePosition after)
+	{
+		Direction direction = query.getDirection();
+
+		if (direction == null && after == null)
+			return (StatementRegistry.Query.SELECT_EDGES);
+		else if (direction == null)
+			return (StatementRegistry.Query.SELECT_EDGES_AFTER);
+		else if (after == null)
+			return (StatementRegistry.Query.SELECT_DIRECTED_EDGES);
+		else
+			return (StatementRegistry.Query.SELECT_DIRECTED_EDGES_AFTER);
+	}
+
+	private BoundStatement bindEdgeSelect(EdgeQuery query, long bucketStart, EdgePosition after)
+	{
+		BoundStatement bs = m_statements.bind(edgeSelectQuery(query, after));
+		Direction direction = query.getDirection();
+
+		int index = 0;
+		bs.setBytesUnsafe(index++, query.getVertexId());
+		bs.setString(index++, query.getEdgeType());
+		bs.setDate(index++, new Date(bucketStart));
+
+		if (direction != null)
+			bs.setInt(index++, direction.getValue());
+
+		if (after != null)
+		{
+			if (direction == null)
+				bs.setInt(index++, after.getDirection());
+			bs.setBytesUnsafe(index, after.getEdgeId());
+		}
+
+		bs.setFetchSize(query.getFetchSize());
+
+		return (bs);
+	}
+
+	/**
+	 Single partition read of vertex_edge_types.
+	 */
+	@Override
+	public CompletableFuture<List<String>> getEdgeTypes(ByteBuffer vertexId)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_EDGE_TYPES);
+
+		bs.setBytesUnsafe(0, vertexId);
+
+		return (readAll(bs, row -> row.getString(0)));
+	}
+
+	/**
+	 Single partition read of vertex_degrees plus the changes this node has
+	 not written yet.
+	 */
+	@Override
+	public CompletableFuture<Degrees> getDegrees(ByteBuffer vertexId)
+	{
+		DegreeCounters counters = getDegreeCounters();
+		if (counters == null)
+			return (CompletableFuture.completedFuture(new Degrees()));
+
+		return (counters.read(vertexId));
+	}
+
+	/**
+	 Writes the degree changes summed so far rather than waiting for the
+	 flush interval.
+	 */
+	CompletableFuture<Void> flushDegrees()
+	{
+		DegreeCounters counters = getDegreeCounters();
+		return (counters != null ? counters.flush() : CompletableFuture.<Void>completedFuture(null));
+	}
+
+	@Override
+	public Iterator<Vertex> scanVertices(TokenRange range)
+	{
+		ResultSet resultSet = m_session.execute(bindScan(StatementRegistry.Query.SCAN_VERTICES, range));
+
+		return (new ScanIterator<Vertex>(resultSet, m_scanFetchSize,
+				rows -> m_metrics.rowsRead(StatementRegistry.Query.SCAN_VERTICES, rows))
+		{
+			@Override
+			protected Vertex read(Row first)
+			{
+				ByteBuffer vertexId = first.getBytesUnsafe(0);
+				Map<String, String> properties = new HashMap<>();
+
+				//Rows of a partition are consecutive, gather them until the
+				//next vertex starts
+				Row row = first;
+				while (row != null)
+				{
+					if (!row.getBytesUnsafe(0).equals(vertexId))
+					{
+						pushBack(row);
+						break;
+					}
+
+					if (!row.isNull(2))
+						properties.put(row.getString(1), row.getString(2));
+
+					row = nextRow();
+				}
+
+				return (new Vertex(vertexId, properties));
+			}
+		});
+	}
+
+	@Override
+	public Iterator<Edge> scanEdges(TokenRange range)
+	{
+		ResultSet resultSet = m_session.execute(bindScan(StatementRegistry.Query.SCAN_EDGES, range));
+		final IdDictionary dictionary = getIdDictionary();
+
+		return (new ScanIterator<Edge>(resultSet, m_scanFetchSize,
+				rows -> m_metrics.rowsRead(StatementRegistry.Query.SCAN_EDGES, rows))
+		{
+			@Override
+			protected Edge read(Row row)
+			{
+				ByteBuffer destVertexId = row.getBytesUnsafe(3);
+				if (dictionary != null)
+					destVertexId = dictionary.getVertexId(IdDictionary.unpack(destVertexId)).join();
+
+				return (new Edge(row.getBytesUnsafe(0), destVertexId, Direction.fromValue(row.getInt(2)),
+						row.getString(1), row.getDate(4).getTime()));
+			}
+		});
+	}
+
+	private BoundStatement bindScan(StatementRegistry.Query query, TokenRange range)
+	{
+		BoundStatement bs = m_statements.bind(query);
+
+		bs.setLong(0, range.getStart());
+		bs.setLong(1, range.getEnd());
+		bs.setFetchSize(m_scanFetchSize);
+
+		return (bs);
+	}
+
+	@Override
+	public void close()
+	{
+		synchronized (this)
+		{
+			if (m_edgeCascade != null)
+				m_edgeCascade.close();
+			if (m_degreeCounters != null)
+				m_degreeCounters.close();
+		}
+
+		m_reads.close();
+		m_session.close();
+	}
+
+	private ListenableFuture<ResultSet> execute(Statement statement)
+	{
+		return (m_metrics.track(m_statements.getQuery(statement), m_session.executeAsync(statement)));
+	}
+
+	/**
+	 Reads may be sent twice, see SpeculativeReads, so only idempotent
+	 statements can go through here.
+	 */
+	private ListenableFuture<ResultSet> executeRead(Statement statement)
+	{
+		return (m_metrics.track(m_statements.getQuery(statement), m_reads.execute(statement)));
+	}
+
+	/**
+	 Reads the first row of the result, null when there are none.
+	 */
+	private CompletableFuture<Row> readOne(Statement statement)
+	{
+		StatementRegistry.Query query = m_statements.getQuery(statement);
+
+		return (CassandraFutures.map(executeRead(statement), resultSet ->
+		{
+			Row row = resultSet.one();
+			m_metrics.rowsRead(query, row != null ? 1 : 0);
+			return (row);
+		}));
+	}
+
+	private <T> CompletableFuture<List<T>> readAll(Statement statement, Function<Row, T> mapper)
+	{
+		StatementRegistry.Query query = m_statements.getQuery(statement);
+
+		return (CassandraFutures.readAll(executeRead(statement), mapper).thenApply(rows ->
+		{
+			m_metrics.rowsRead(query, rows.size());
+			return (rows);
+		}));
+	}
+
+	private BoundStatement bindEdge(ByteBuffer vertexId, String edgeType, int direction, ByteBuffer edgeId, long when)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.INSERT_EDGE);
+
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setString(1, edgeType);
+		bs.setDate(2, new Date(getBucketStart(when)));
+		bs.setInt(3, direction);
+		bs.setBytesUnsafe(4, edgeId);
+		bs.setDate(5, new Date(when));
+
+		return (bs);
+	}
+
+	/**
+	 Start of the bucket the time falls in, buckets are aligned to the epoch.
+	 */
+	private long getBucketStart(long when)
+	{
+		return (when - Math.floorMod(when, m_bucketSize));
+	}
+
+	/**
+	 Adds the bucket to vertex_edge_buckets unless we already know it is
+	 there.  A bucket is only remembered once the write succeeds.
+	 */
+	private CompletableFuture<Void> recordBucket(final EdgePartition partition)
+	{
+		if (m_knownBuckets.getIfPresent(partition) != null)
+			return (CompletableFuture.completedFuture(null));
+
+		//Copied now, the caller may reuse its buffer before the write completes
+		final EdgePartition key = new EdgePartition(copyId(partition.m_vertexId), partition.m_edgeType,
+				partition.m_bucketStart);
+
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.INSERT_EDGE_BUCKET);
+
+		bs.setBytesUnsafe(0, key.m_vertexId);
+		bs.setString(1, key.m_edgeType);
+		bs.setDate(2, new Date(key.m_bucketStart));
+
+		return (CassandraFutures.done(execute(bs))
+				.thenRun(() -> m_knownBuckets.put(key, Boolean.TRUE)));
+	}
+
+	/**
+	 Adds the edge type to vertex_edge_types the first time it is seen for
+	 the vertex.  The pair is only remembered once the write succeeds.
+	 */
+	private CompletableFuture<Void> recordEdgeType(final VertexEdgeType edgeType)
+	{
+		if (m_knownEdgeTypes.getIfPresent(edgeType) != null)
+			return (CompletableFuture.completedFuture(null));
+
+		final VertexEdgeType key = new VertexEdgeType(copyId(edgeType.m_vertexId), edgeType.m_edgeType);
+
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.INSERT_EDGE_TYPE);
+
+		bs.setBytesUnsafe(0, key.m_vertexId);
+		bs.setString(1, key.m_edgeType);
+
+		return (CassandraFutures.done(execute(bs))
+				.thenRun(() -> m_knownEdgeTypes.put(key, Boolean.TRUE)));
+	}
+
+	/**
+	 Copy of a vertex id that is safe to keep, such as in a cache key.
+	 */
+	static ByteBuffer copyId(ByteBuffer vertexId)
+	{
+		ByteBuffer ret = ByteBuffer.allocate(vertexId.remaining());
+		ret.put(vertexId.duplicate()).flip();
+
+		return (ret);
+	}
+
+	private void setupSchema()
+	{
+		try (Session session = m_cassandraClient.getSession())
+		{
+			session.execute(String.format(CREATE_KEYSPACE, m_cassandraClient.getKeyspace()));
+		}
+
+		try (Session session = m_cassandraClient.getKeyspaceSession())
+		{
+			//session.execute(CREATE_KEYSPACE);
+			session.execute(VERTEX_EDGES_TABLE);
+			session.execute(VERTEX_EDGE_BUCKETS_TABLE);
+			session.execute(VERTICES_TABLES);
+			session.execute(VERTEX_EDGE_TYPES_TABLE);
+			session.execute(VERTEX_INDICES_TABLE);
+			session.execute(VERTEX_DEGREES_TABLE);
+			session.execute(VERTEX_IDS_TABLE);
+			session.execute(INTERNAL_IDS_TABLE);
+			session.execute(ID_ALLOCATOR_TABLE);
+		}
+	}
+
+	/**
+	 Partition key of the vertex_edges table
+	 */
+	private static class EdgePartition
+	{
+		private final ByteBuffer m_vertexId;
+		private final String m_edgeType;
+		private final long m_bucketStart;
+
+		private EdgePartition(ByteBuffer vertexId, String edgeType, long bucketStart)
+		{
+			m_vertexId = vertexId;
+			m_edgeType = edgeType;
+			m_bucketStart = bucketStart;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+				return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+
+			EdgePartition that = (EdgePartition) o;
+
+			return m_bucketStart == that.m_bucketStart &&
+					m_vertexId.equals(that.m_vertexId) &&
+					m_edgeType.equals(that.m_edgeType);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int result = m_vertexId.hashCode();
+			result = 31 * result + m_edgeType.hashCode();
+			result = 31 * result + (int) (m_bucketStart ^ (m_bucketStart >>> 32));
+			return result;
+		}
+	}
+
+	/**
+	 Key of a vertex property read, reads with the same key may share a
+	 query.
+	 */
+	private static class PropertyRead
+	{
+		private final ByteBuffer m_vertexId;
+		private final Set<String> m_names;
+		private final long m_writeStamp;
+
+		private PropertyRead(ByteBuffer vertexId, Set<String> names, long writeStamp)
+		{
+			m_vertexId = vertexId;
+			m_names = names;
+			m_writeStamp = writeStamp;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+				return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+
+			PropertyRead that = (PropertyRead) o;
+
+			return m_writeStamp == that.m_writeStamp &&
+					m_vertexId.equals(that.m_vertexId) &&
+					(m_names == null ? that.m_names == null : m_names.equals(that.m_names));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int result = m_vertexId.hashCode();
+			result = 31 * result + (m_names != null ? m_names.hashCode() : 0);
+			result = 31 * result + (int) (m_writeStamp ^ (m_writeStamp >>> 32));
+			return result;
+		}
+	}
+
+	/**
+	 Primary key of the vertex_edge_types table
+	 */
+	private static class VertexEdgeType
+	{
+		private final ByteBuffer m_vertexId;
+		private final String m_edgeType;
+
+		private VertexEdgeType(ByteBuffer vertexId, String edgeType)
+		{
+			m_vertexId = vertexId;
+			m_edgeType = edgeType;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+				return true;
+			if (o == null || getClass() != o.getClass())
+				return false;
+
+			VertexEdgeType that = (VertexEdgeType) o;
+
+			return m_vertexId.equals(that.m_vertexId) &&
+					m_edgeType.equals(that.m_edgeType);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int result = m_vertexId.hashCode();
+			result = 31 * result + m_edgeType.hashCode();
+			return result;
+		}
+	}
 }
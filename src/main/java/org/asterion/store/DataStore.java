@@ -1,9 +1,125 @@
 package org.asterion.store;
 
+import org.asterion.Edge;
+import org.asterion.Vertex;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
 /**
  Created by bhawkins on 3/3/15.
+
+ All operations are asynchronous.  Write futures complete once the write
+ has been acknowledged by the store and fail with the store's exception if
+ it was not, callers that need to block can call get() on the future.
  */
 public interface DataStore
 {
+	public CompletableFuture<Void> updateVertex(ByteBuffer vertexId, Map<String, String> properties);
+
+	/**
+	 Returns the vertices whose indexed property has exactly this value.
+	 Only properties configured as indexed can be found.
+	 */
+	public CompletableFuture<List<ByteBuffer>> findVerticesByProperty(String propertyName, String value);
+
+	/**
+	 Returns up to limit vertices whose indexed property value is at least
+	 startValue and less than endValue, ordered by value.
+	 @param endValue exclusive upper bound, null for no upper bound
+	 */
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyRange(String propertyName, String startValue,
+			String endValue, int limit);
+
+	/**
+	 Returns up to limit vertices whose indexed property value starts with
+	 the prefix, ordered by value.
+	 */
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyPrefix(String propertyName, String prefix, int limit);
+
+	public CompletableFuture<Void> deleteProperty(ByteBuffer vertexId, String propertyName);
+
+	/**
+	 Deletes the vertex with its properties and every edge to or from it.
+	 */
+	public CompletableFuture<Void> deleteVertex(ByteBuffer vertexId);
+
+	public CompletableFuture<Void> addEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType);
+
+	/**
+	 Bulk form of addEdge, edges carry their own timestamp.
+	 */
+	public CompletableFuture<Void> addEdges(Collection<Edge> edges);
+
+	/**
+	 Deletes the edge between the vertices in whatever direction it was
+	 added, from both vertices.
+	 */
+	public CompletableFuture<Void> deleteEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType);
+
+	public CompletableFuture<Map<String, String>> getVertexProperties(ByteBuffer vertexId);
+
+	/**
+	 Reads the properties of many vertices at once.  Every vertex asked for
+	 is in the result, with an empty map if it has none of the properties.
+	 @param propertyNames properties to return, null for all of them
+	 */
+	public CompletableFuture<Map<ByteBuffer, Map<String, String>>> getVertexProperties(Collection<ByteBuffer> vertexIds,
+			Set<String> propertyNames);
+
+	/**
+	 Completes with null if the vertex does not have the property.
+	 */
+	public CompletableFuture<String> getVertexProperty(ByteBuffer vertexId, String propertyName);
+
+	/**
+	 Number of edges the vertex has by edge type and direction.  The counts
+	 are maintained as edges are added and deleted so no edges are read.  A
+	 store may count an edge that is added again while a delete only takes
+	 it off once, so counts drift upward wherever edges are sent more than
+	 once: a write-behind log replayed after a crash, a resumed import or a
+	 client re-sending its snapshot.  They are meant for planning
+	 traversals, empty if the store does not keep counts.
+	 */
+	public CompletableFuture<Degrees> getDegrees(ByteBuffer vertexId);
+
+	/**
+	 Streams every edge of the vertex with the given type.
+	 */
+	public EdgeIterator getEdges(ByteBuffer vertexId, String edgeType);
+
+	/**
+	 Streams the edges matching the query, resuming from the query's paging
+	 state if it has one.  Pages are fetched as the iterator is consumed.
+	 */
+	public EdgeIterator getEdges(EdgeQuery query);
+
+	/**
+	 Reads all of the edges matching the query into memory without
+	 blocking.  Meant for vertices with a bounded number of edges, use
+	 getEdges to walk large vertices.  The paging state is ignored.
+	 */
+	public CompletableFuture<List<ByteBuffer>> readEdges(EdgeQuery query);
+
+	public CompletableFuture<List<String>> getEdgeTypes(ByteBuffer vertexId);
+
+	/**
+	 Streams every vertex, with all of its properties, whose partition falls
+	 in the token range.  Pages are fetched as the iterator is consumed.
+	 */
+	public Iterator<Vertex> scanVertices(TokenRange range);
+
+	/**
+	 Streams every stored edge whose partition falls in the token range.
+	 Edges are stored under both of their vertices so each edge is returned
+	 twice over a full scan, once as seen from each end.
+	 */
+	public Iterator<Edge> scanEdges(TokenRange range);
+
 	public void close();
 }
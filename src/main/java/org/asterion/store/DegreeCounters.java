@@ -0,0 +1,314 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.asterion.util.AsyncThrottle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Maintains vertex_degrees, the number of edges of each vertex by edge type
+ and direction.  Changes are summed in memory and written as counter
+ updates every flush interval, a bulk load into a supernode costs a few
+ counter updates rather than one per edge.  Reads add the changes this
+ node has not written yet, including those still being written.
+
+ Counter updates are not idempotent.  An edge added twice is counted twice,
+ see DataStore.getDegrees(), and a flush that times out is not retried since it may have been
+ applied, so the counts are estimates for planning rather than exact.  A
+ read that races an update may also count it twice or not at all.  Resets
+ do not race, see reset().
+ */
+class DegreeCounters
+{
+	public static final Logger logger = LoggerFactory.getLogger(DegreeCounters.class);
+
+	private static final int MAX_IN_FLIGHT_UPDATES = 64;
+
+	private final Session m_session;
+	private final StatementRegistry m_statements;
+	private final ScheduledExecutorService m_executor;
+	private final AsyncThrottle m_throttle = new AsyncThrottle(MAX_IN_FLIGHT_UPDATES);
+
+	//Changes not yet written, counts are indexed by Direction value.
+	//Guarded by this.
+	private Map<ByteBuffer, Map<String, long[]>> m_pending = new HashMap<>();
+	//Changes being written, they leave once their update completes.
+	//Guarded by this.
+	private final Map<ByteBuffer, Map<String, long[]>> m_inFlight = new HashMap<>();
+	//Completes once every update issued so far has.  Guarded by this.
+	private CompletableFuture<Void> m_landed = CompletableFuture.completedFuture(null);
+	//Vertices being reset, flushes leave their changes pending.
+	//Guarded by this.
+	private final Map<ByteBuffer, Integer> m_resetting = new HashMap<>();
+
+	DegreeCounters(Session session, StatementRegistry statements, long flushInterval)
+	{
+		m_session = session;
+		m_statements = statements;
+		m_executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("degree-flush-%d").setDaemon(true).build());
+
+		m_executor.scheduleWithFixedDelay(() ->
+		{
+			try
+			{
+				flush().join();
+			}
+			catch (Exception e)
+			{
+				logger.warn("Degree counter flush failed", e);
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void add(ByteBuffer vertexId, String edgeType, int direction, long delta)
+	{
+		addDelta(m_pending, vertexId, edgeType, direction, delta);
+	}
+
+	CompletableFuture<Degrees> read(final ByteBuffer vertexId)
+	{
+		return (readStored(vertexId).thenApply(stored ->
+		{
+			synchronized (DegreeCounters.this)
+			{
+				addDeltas(stored, m_pending.get(vertexId));
+				addDeltas(stored, m_inFlight.get(vertexId));
+			}
+
+			Degrees ret = new Degrees();
+			for (Map.Entry<String, long[]> edgeType : stored.entrySet())
+			{
+				for (Direction direction : Direction.values())
+					ret.add(edgeType.getKey(), direction, edgeType.getValue()[direction.getValue()]);
+			}
+
+			return (ret);
+		}));
+	}
+
+	/**
+	 Brings the counts of a vertex whose edges were all deleted back to 0.
+	 Counters can not be reliably reused once deleted so they are
+	 decremented instead.
+
+	 The vertex is held back from flushes and the stored counts are read
+	 once every update already issued has completed, so the read sees each
+	 written change exactly once and the rest are still pending.
+	 */
+	CompletableFuture<Void> reset(ByteBuffer id)
+	{
+		final ByteBuffer vertexId = CassandraStore.copyId(id);
+		CompletableFuture<Void> landed;
+		synchronized (this)
+		{
+			m_resetting.merge(vertexId, 1, Integer::sum);
+			landed = m_landed;
+		}
+
+		return (landed.thenCompose(v -> readStored(vertexId)).thenAccept(stored ->
+		{
+			synchronized (DegreeCounters.this)
+			{
+				addDeltas(stored, m_pending.get(vertexId));
+
+				for (Map.Entry<String, long[]> edgeType : stored.entrySet())
+				{
+					for (Direction direction : Direction.values())
+					{
+						long count = edgeType.getValue()[direction.getValue()];
+						if (count != 0)
+							add(vertexId, edgeType.getKey(), direction.getValue(), -count);
+					}
+				}
+			}
+		}).whenComplete((v, t) ->
+		{
+			synchronized (DegreeCounters.this)
+			{
+				if (m_resetting.merge(vertexId, -1, Integer::sum) == 0)
+					m_resetting.remove(vertexId);
+			}
+		}));
+	}
+
+	/**
+	 Writes the changes summed since the last flush.
+	 */
+	CompletableFuture<Void> flush()
+	{
+		return (flush(true));
+	}
+
+	/**
+	 @param holdResets leave the changes of vertices being reset pending
+	 */
+	private CompletableFuture<Void> flush(boolean holdResets)
+	{
+		Map<ByteBuffer, Map<String, long[]>> flushing = new HashMap<>();
+		CompletableFuture<Void> landed = new CompletableFuture<>();
+		synchronized (this)
+		{
+			Iterator<Map.Entry<ByteBuffer, Map<String, long[]>>> it = m_pending.entrySet().iterator();
+			while (it.hasNext())
+			{
+				Map.Entry<ByteBuffer, Map<String, long[]>> vertex = it.next();
+				if (holdResets && m_resetting.containsKey(vertex.getKey()))
+					continue;
+
+				flushing.put(vertex.getKey(), vertex.getValue());
+				for (Map.Entry<String, long[]> edgeType : vertex.getValue().entrySet())
+				{
+					for (Direction direction : Direction.values())
+						addDelta(m_inFlight, vertex.getKey(), edgeType.getKey(), direction.getValue(),
+								edgeType.getValue()[direction.getValue()]);
+				}
+
+				it.remove();
+			}
+
+			if (flushing.isEmpty())
+				return (CompletableFuture.completedFuture(null));
+
+			//Resets started from here on wait for these updates
+			m_landed = m_landed.isDone() ? landed : CompletableFuture.allOf(m_landed, landed);
+		}
+
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		for (Map.Entry<ByteBuffer, Map<String, long[]>> vertex : flushing.entrySet())
+		{
+			for (Map.Entry<String, long[]> edgeType : vertex.getValue().entrySet())
+			{
+				for (Direction direction : Direction.values())
+				{
+					long delta = edgeType.getValue()[direction.getValue()];
+					if (delta != 0)
+						futures.add(update(vertex.getKey(), edgeType.getKey(), direction.getValue(), delta));
+				}
+			}
+		}
+
+		return (CassandraFutures.allOf(futures).whenComplete((v, t) -> landed.complete(null)));
+	}
+
+	private CompletableFuture<Map<String, long[]>> readStored(ByteBuffer vertexId)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_DEGREES);
+		bs.setBytesUnsafe(0, vertexId);
+
+		return (CassandraFutures.readAll(m_session.executeAsync(bs), row -> row).thenApply(rows ->
+		{
+			Map<String, long[]> ret = new HashMap<>();
+			for (Row row : rows)
+				ret.computeIfAbsent(row.getString(0), k -> new long[4])[row.getInt(1)] += row.getLong(2);
+
+			return (ret);
+		}));
+	}
+
+	private CompletableFuture<Void> update(final ByteBuffer vertexId, final String edgeType, final int direction,
+			final long delta)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.UPDATE_DEGREE);
+		bs.setLong(0, delta);
+		bs.setBytesUnsafe(1, vertexId);
+		bs.setString(2, edgeType);
+		bs.setInt(3, direction);
+
+		return (m_throttle.submit(() -> CassandraFutures.done(m_session.executeAsync(bs))).handle((v, t) ->
+		{
+			if (t instanceof CompletionException && t.getCause() != null)
+				t = t.getCause();
+
+			synchronized (DegreeCounters.this)
+			{
+				addDelta(m_inFlight, vertexId, edgeType, direction, -delta);
+
+				//A timed out update may have been applied, anything else is
+				//written with the next flush
+				if (t instanceof WriteTimeoutException)
+					logger.warn("Degree counter update timed out, the count may be off by " + delta);
+				else if (t != null)
+					add(vertexId, edgeType, direction, delta);
+			}
+
+			return (null);
+		}));
+	}
+
+	/**
+	 Adds to the changes of a vertex, dropping counts that come back to 0.
+	 A vertex new to the changes is keyed by a copy of its id, callers may
+	 reuse their buffers.
+	 */
+	private static void addDelta(Map<ByteBuffer, Map<String, long[]>> changes, ByteBuffer vertexId, String edgeType,
+			int direction, long delta)
+	{
+		if (delta == 0)
+			return;
+
+		Map<String, long[]> edgeTypes = changes.get(vertexId);
+		if (edgeTypes == null)
+		{
+			edgeTypes = new HashMap<>();
+			changes.put(CassandraStore.copyId(vertexId), edgeTypes);
+		}
+
+		long[] counts = edgeTypes.computeIfAbsent(edgeType, k -> new long[4]);
+		counts[direction] += delta;
+
+		if (counts[0] == 0 && counts[1] == 0 && counts[2] == 0 && counts[3] == 0)
+		{
+			edgeTypes.remove(edgeType);
+			if (edgeTypes.isEmpty())
+				changes.remove(vertexId);
+		}
+	}
+
+	private static void addDeltas(Map<String, long[]> counts, Map<String, long[]> changes)
+	{
+		if (changes == null)
+			return;
+
+		for (Map.Entry<String, long[]> edgeType : changes.entrySet())
+		{
+			long[] sum = counts.computeIfAbsent(edgeType.getKey(), k -> new long[4]);
+			for (int i = 0; i < sum.length; i++)
+				sum[i] += edgeType.getValue()[i];
+		}
+	}
+
+	/**
+	 Stops flushing and writes what is pending.
+	 */
+	void close()
+	{
+		m_executor.shutdown();
+		try
+		{
+			m_executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		flush(false).join();
+	}
+}
@@ -0,0 +1,60 @@
+package org.asterion.store;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ Number of edges a vertex has, by edge type and the direction the edges
+ are stored with.  See DataStore.getDegrees() for how exact the counts are.
+ */
+public class Degrees
+{
+	//Indexed by Direction value
+	private final Map<String, long[]> m_counts = new TreeMap<>();
+
+	void add(String edgeType, Direction direction, long count)
+	{
+		m_counts.computeIfAbsent(edgeType, k -> new long[4])[direction.getValue()] += count;
+	}
+
+	/**
+	 @param edgeType null for every edge type
+	 @param direction null for every direction
+	 */
+	public long get(String edgeType, Direction direction)
+	{
+		if (edgeType != null)
+			return (count(m_counts.get(edgeType), direction));
+
+		long ret = 0;
+		for (long[] counts : m_counts.values())
+			ret += count(counts, direction);
+
+		return (ret);
+	}
+
+	/**
+	 Edge types the vertex has counted edges for.
+	 */
+	public Set<String> getEdgeTypes()
+	{
+		return (Collections.unmodifiableSet(m_counts.keySet()));
+	}
+
+	private static long count(long[] counts, Direction direction)
+	{
+		if (counts == null)
+			return (0);
+
+		long ret = 0;
+		for (Direction stored : Direction.values())
+		{
+			if (direction == null || direction == stored)
+				ret += Math.max(0, counts[stored.getValue()]);
+		}
+
+		return (ret);
+	}
+}
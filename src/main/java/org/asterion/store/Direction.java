@@ -30,4 +30,23 @@ public enum Direction
 	{
 		return (m_value);
 	}
+
+	/**
+	 Direction of the same edge as seen from the other vertex.
+	 */
+	public Direction reverse()
+	{
+		return (fromValue(opposite()));
+	}
+
+	public static Direction fromValue(int value)
+	{
+		for (Direction direction : values())
+		{
+			if (direction.m_value == value)
+				return (direction);
+		}
+
+		throw new IllegalArgumentException("Unknown direction value " + value);
+	}
 }
@@ -0,0 +1,272 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ Deletes every edge of a vertex, the work a vertex delete cascades to.
+ A supernode can have millions of edges so the edges are paged through on
+ background threads and the delete rate is limited, keeping the cluster
+ from being buried in tombstones all at once.
+
+ The vertex's own edge partitions are each removed with a single
+ partition tombstone.  The mirror of every edge lives in the partition of
+ the other vertex, those rows are deleted one at a time, concurrently up
+ to a limit.  A bucket's partition is only removed once all of its mirror
+ rows are, a failed delete can then be retried without losing track of
+ any mirrors.
+ */
+class EdgeCascade
+{
+	private final Session m_session;
+	private final StatementRegistry m_statements;
+	private final IdDictionary m_idDictionary;
+	private final DegreeCounters m_degreeCounters;
+	private final AdjacencyCache m_adjacencyCache;
+	private final RateLimiter m_rateLimiter;
+	private final int m_maxInFlight;
+	private final int m_fetchSize;
+	private final ExecutorService m_executor;
+
+	/**
+	 @param idDictionary null unless edge ids are internal ids
+	 @param degreeCounters null unless degree counters are kept
+	 @param adjacencyCache neighbors cached for the vertex and the
+	 neighbors it is deleted from are invalidated
+	 @param rowsPerSecond rate deletes are issued at
+	 @param maxInFlight deletes outstanding at once per vertex
+	 @param threads vertices deleted at once
+	 */
+	EdgeCascade(Session session, StatementRegistry statements, IdDictionary idDictionary,
+			DegreeCounters degreeCounters, AdjacencyCache adjacencyCache, double rowsPerSecond, int maxInFlight,
+			int fetchSize, int threads)
+	{
+		m_session = session;
+		m_statements = statements;
+		m_idDictionary = idDictionary;
+		m_degreeCounters = degreeCounters;
+		m_adjacencyCache = adjacencyCache;
+		m_rateLimiter = RateLimiter.create(rowsPerSecond);
+		m_maxInFlight = maxInFlight;
+		m_fetchSize = fetchSize;
+		m_executor = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 Deletes every edge of the vertex and its entries in vertex_edge_types
+	 and vertex_edge_buckets.
+	 @return the buckets deleted, by edge type
+	 */
+	CompletableFuture<Map<String, List<Long>>> deleteEdges(final ByteBuffer vertexId)
+	{
+		CascadeTask task = new CascadeTask(vertexId);
+
+		try
+		{
+			m_executor.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			task.fail(new IllegalStateException("The store is closed", e));
+		}
+
+		return (task.m_result);
+	}
+
+	/**
+	 Lets queued and running cascades finish for up to a minute, then
+	 interrupts the running ones and fails the futures of those that never
+	 started.
+	 */
+	void close()
+	{
+		m_executor.shutdown();
+		try
+		{
+			if (m_executor.awaitTermination(1, TimeUnit.MINUTES))
+				return;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		for (Runnable task : m_executor.shutdownNow())
+			((CascadeTask) task).fail(new IllegalStateException("The store was closed before the edges were deleted"));
+	}
+
+	private Map<String, List<Long>> cascade(ByteBuffer vertexId) throws InterruptedException
+	{
+		Map<String, List<Long>> deleted = new LinkedHashMap<>();
+
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_EDGE_TYPES);
+		bs.setBytesUnsafe(0, vertexId);
+
+		for (Row typeRow : m_session.execute(bs))
+		{
+			String edgeType = typeRow.getString(0);
+			List<Long> buckets = new ArrayList<>();
+
+			bs = m_statements.bind(StatementRegistry.Query.SELECT_ALL_EDGE_BUCKETS);
+			bs.setBytesUnsafe(0, vertexId);
+			bs.setString(1, edgeType);
+
+			for (Row bucketRow : m_session.execute(bs))
+				buckets.add(bucketRow.getDate(0).getTime());
+
+			try
+			{
+				for (Long bucketStart : buckets)
+					deleteBucket(vertexId, edgeType, bucketStart);
+			}
+			finally
+			{
+				m_adjacencyCache.invalidate(vertexId, edgeType);
+			}
+
+			bs = m_statements.bind(StatementRegistry.Query.DELETE_EDGE_BUCKETS);
+			bs.setBytesUnsafe(0, vertexId);
+			bs.setString(1, edgeType);
+			execute(bs);
+
+			deleted.put(edgeType, buckets);
+		}
+
+		bs = m_statements.bind(StatementRegistry.Query.DELETE_EDGE_TYPES);
+		bs.setBytesUnsafe(0, vertexId);
+		execute(bs);
+
+		return (deleted);
+	}
+
+	private void deleteBucket(ByteBuffer vertexId, String edgeType, long bucketStart) throws InterruptedException
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_EDGES);
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setString(1, edgeType);
+		bs.setDate(2, new Date(bucketStart));
+		bs.setFetchSize(m_fetchSize);
+
+		final Semaphore inFlight = new Semaphore(m_maxInFlight);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		ResultSet rows = m_session.execute(bs);
+		ByteBuffer edgeId = null;
+		for (Row row : rows)
+		{
+			if (failure.get() != null)
+				break;
+
+			//The vertex as it is stored in the edge_id column of its neighbors
+			if (edgeId == null)
+				edgeId = toEdgeId(vertexId);
+
+			final ByteBuffer neighbor = fromEdgeId(row.getBytesUnsafe(1));
+			final int direction = Direction.fromValue(row.getInt(0)).opposite();
+
+			BoundStatement mirror = m_statements.bind(StatementRegistry.Query.DELETE_EDGE);
+			mirror.setBytesUnsafe(0, neighbor);
+			mirror.setString(1, edgeType);
+			mirror.setDate(2, new Date(bucketStart));
+			mirror.setInt(3, direction);
+			mirror.setBytesUnsafe(4, edgeId);
+
+			m_rateLimiter.acquire();
+			inFlight.acquire();
+			CassandraFutures.done(m_session.executeAsync(mirror)).whenComplete((v, t) ->
+			{
+				if (t != null)
+					failure.compareAndSet(null, t);
+				else if (m_degreeCounters != null)
+					m_degreeCounters.add(neighbor, edgeType, direction, -1);
+				m_adjacencyCache.invalidate(neighbor, edgeType);
+				inFlight.release();
+			});
+		}
+
+		//Wait for the mirror deletes
+		inFlight.acquire(m_maxInFlight);
+		inFlight.release(m_maxInFlight);
+
+		if (failure.get() != null)
+			throw new IllegalStateException("Failed to delete edges of bucket " + bucketStart, failure.get());
+
+		bs = m_statements.bind(StatementRegistry.Query.DELETE_EDGE_PARTITION);
+		bs.setBytesUnsafe(0, vertexId);
+		bs.setString(1, edgeType);
+		bs.setDate(2, new Date(bucketStart));
+		execute(bs);
+	}
+
+	private ByteBuffer toEdgeId(ByteBuffer vertexId)
+	{
+		if (m_idDictionary == null)
+			return (vertexId);
+
+		Long id = m_idDictionary.getId(vertexId).join();
+		if (id == null)
+			throw new IllegalStateException("Vertex has edges but no internal id");
+
+		return (IdDictionary.pack(id));
+	}
+
+	private ByteBuffer fromEdgeId(ByteBuffer edgeId)
+	{
+		if (m_idDictionary == null)
+			return (edgeId);
+
+		return (m_idDictionary.getVertexId(IdDictionary.unpack(edgeId)).join());
+	}
+
+	private void execute(BoundStatement bs)
+	{
+		m_rateLimiter.acquire();
+		m_session.execute(bs);
+	}
+
+	private class CascadeTask implements Runnable
+	{
+		private final ByteBuffer m_vertexId;
+		private final CompletableFuture<Map<String, List<Long>>> m_result = new CompletableFuture<>();
+
+		private CascadeTask(ByteBuffer vertexId)
+		{
+			m_vertexId = vertexId;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				m_result.complete(cascade(m_vertexId));
+			}
+			catch (Throwable t)
+			{
+				m_result.completeExceptionally(t);
+			}
+		}
+
+		private void fail(Throwable t)
+		{
+			m_result.completeExceptionally(t);
+		}
+	}
+}
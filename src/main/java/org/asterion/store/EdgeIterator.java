@@ -0,0 +1,18 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ Streams the edges of a vertex, a page at a time, so vertices with any
+ number of edges can be walked in constant memory.
+ */
+public interface EdgeIterator extends Iterator<ByteBuffer>
+{
+	/**
+	 Returns a token that resumes the read after the last edge returned by
+	 next(), see {@link EdgeQuery#setPagingState(String)}.  Returns null once
+	 the iterator is exhausted.
+	 */
+	public String getPagingState();
+}
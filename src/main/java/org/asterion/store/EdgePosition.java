@@ -0,0 +1,90 @@
+package org.asterion.store;
+
+import com.google.common.io.BaseEncoding;
+import org.asterion.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ Position of an edge within vertex_edges for a given vertex and edge type,
+ this is what the paging state of an edge read encodes.
+ */
+class EdgePosition
+{
+	private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+	private final long m_bucketStart;
+	private final int m_direction;
+	private final ByteBuffer m_edgeId;
+
+	EdgePosition(long bucketStart, int direction, ByteBuffer edgeId)
+	{
+		m_bucketStart = bucketStart;
+		m_direction = direction;
+		m_edgeId = edgeId;
+	}
+
+	public long getBucketStart()
+	{
+		return m_bucketStart;
+	}
+
+	public int getDirection()
+	{
+		return m_direction;
+	}
+
+	public ByteBuffer getEdgeId()
+	{
+		return m_edgeId;
+	}
+
+	public String encode()
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			Util.packLong(m_bucketStart, out);
+			Util.packUnsignedLong(m_direction, out);
+
+			ByteBuffer edgeId = m_edgeId.duplicate();
+			Util.packUnsignedLong(edgeId.remaining(), out);
+			while (edgeId.hasRemaining())
+				out.writeByte(edgeId.get());
+
+			out.flush();
+			return (ENCODING.encode(bytes.toByteArray()));
+		}
+		catch (IOException e)
+		{
+			//Can't happen writing to memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static EdgePosition decode(String pagingState)
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(ENCODING.decode(pagingState)));
+
+			long bucketStart = Util.unpackLong(in);
+			int direction = (int) Util.unpackUnsignedLong(in);
+			byte[] edgeId = new byte[(int) Util.unpackUnsignedLong(in)];
+			in.readFully(edgeId);
+
+			return (new EdgePosition(bucketStart, direction, ByteBuffer.wrap(edgeId)));
+		}
+		catch (IOException | IllegalArgumentException | NegativeArraySizeException e)
+		{
+			throw new IllegalArgumentException("Invalid paging state: " + pagingState, e);
+		}
+	}
+}
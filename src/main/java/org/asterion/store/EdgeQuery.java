@@ -0,0 +1,110 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ Describes which edges of a vertex to read.  Only the vertex and edge type
+ are required, by default every edge is returned regardless of direction
+ or time.
+ */
+public class EdgeQuery
+{
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private final ByteBuffer m_vertexId;
+	private final String m_edgeType;
+	private Direction m_direction = null;
+	private long m_startTime = 0L;
+	private long m_endTime = Long.MAX_VALUE;
+	private int m_fetchSize = DEFAULT_FETCH_SIZE;
+	private String m_pagingState = null;
+
+	public EdgeQuery(ByteBuffer vertexId, String edgeType)
+	{
+		m_vertexId = checkNotNull(vertexId);
+		m_edgeType = checkNotNull(edgeType);
+	}
+
+	public ByteBuffer getVertexId()
+	{
+		return m_vertexId;
+	}
+
+	public String getEdgeType()
+	{
+		return m_edgeType;
+	}
+
+	public Direction getDirection()
+	{
+		return m_direction;
+	}
+
+	/**
+	 Only return edges stored with this direction.  Edges added with
+	 Direction.BOTH are only returned when filtering on BOTH or when there
+	 is no filter.
+	 @param direction direction to filter on, null returns every direction
+	 */
+	public EdgeQuery setDirection(Direction direction)
+	{
+		m_direction = direction;
+		return (this);
+	}
+
+	public long getStartTime()
+	{
+		return m_startTime;
+	}
+
+	public long getEndTime()
+	{
+		return m_endTime;
+	}
+
+	/**
+	 Only return edges whose time is between startTime and endTime
+	 inclusive, times are in milliseconds.
+	 */
+	public EdgeQuery setTimeRange(long startTime, long endTime)
+	{
+		checkArgument(startTime <= endTime, "startTime must not be after endTime");
+		m_startTime = startTime;
+		m_endTime = endTime;
+		return (this);
+	}
+
+	public int getFetchSize()
+	{
+		return m_fetchSize;
+	}
+
+	/**
+	 Number of edges fetched from the store per page.
+	 */
+	public EdgeQuery setFetchSize(int fetchSize)
+	{
+		checkArgument(fetchSize > 0, "fetchSize must be greater than 0");
+		m_fetchSize = fetchSize;
+		return (this);
+	}
+
+	public String getPagingState()
+	{
+		return m_pagingState;
+	}
+
+	/**
+	 Resume a previous read after the last edge it returned.
+	 @param pagingState value of {@link EdgeIterator#getPagingState()} from
+	 an iterator created with the same query.
+	 */
+	public EdgeQuery setPagingState(String pagingState)
+	{
+		m_pagingState = pagingState;
+		return (this);
+	}
+}
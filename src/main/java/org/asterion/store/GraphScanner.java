@@ -0,0 +1,257 @@
+package org.asterion.store;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Scans the whole graph.  The token ring is split into ranges that are
+ scanned concurrently, each with the driver's paging.  Ranges are started
+ in random order so the load spreads over the nodes of the cluster
+ instead of walking the ring one node at a time.
+
+ Results are handed to the caller through a bounded queue, scanning
+ threads block when the caller falls behind so memory use stays fixed no
+ matter the size of the graph.
+ */
+public class GraphScanner
+{
+	public static final String TOKEN_RANGES_PROPERTY = "asterion.scan.token_ranges";
+	public static final String THREADS_PROPERTY = "asterion.scan.threads";
+	public static final String QUEUE_SIZE_PROPERTY = "asterion.scan.queue_size";
+
+	private final DataStore m_dataStore;
+	private int m_tokenRanges = 256;
+	private int m_threads = 8;
+	private int m_queueSize = 10000;
+
+	@Inject
+	public GraphScanner(DataStore dataStore)
+	{
+		m_dataStore = dataStore;
+	}
+
+	@Inject(optional = true)
+	public void setTokenRanges(@Named(TOKEN_RANGES_PROPERTY) int tokenRanges)
+	{
+		checkArgument(tokenRanges > 0, "tokenRanges must be greater than 0");
+		m_tokenRanges = tokenRanges;
+	}
+
+	/**
+	 Number of token ranges a scan reads at once.
+	 */
+	@Inject(optional = true)
+	public void setThreads(@Named(THREADS_PROPERTY) int threads)
+	{
+		checkArgument(threads > 0, "threads must be greater than 0");
+		m_threads = threads;
+	}
+
+	/**
+	 Number of scanned records buffered ahead of the caller.
+	 */
+	@Inject(optional = true)
+	public void setQueueSize(@Named(QUEUE_SIZE_PROPERTY) int queueSize)
+	{
+		checkArgument(queueSize > 0, "queueSize must be greater than 0");
+		m_queueSize = queueSize;
+	}
+
+	/**
+	 Scans every vertex with its properties, skipping ranges the checkpoint
+	 has finished.
+	 */
+	public Scan<Vertex> scanVertices(ScanCheckpoint checkpoint)
+	{
+		return (new Scan<>(checkpoint, m_dataStore::scanVertices));
+	}
+
+	/**
+	 Scans every stored edge, each edge is returned once from each end.
+	 */
+	public Scan<Edge> scanEdges(ScanCheckpoint checkpoint)
+	{
+		return (new Scan<>(checkpoint, m_dataStore::scanEdges));
+	}
+
+	/**
+	 A running scan.  A token range is recorded in the checkpoint once the
+	 caller has moved past its last record, so a scan resumed after a
+	 failure returns everything the failed one did not finish.  Records of
+	 a range that was partly consumed are returned again.
+
+	 Closing the scan stops it early.  A failed range read fails the scan,
+	 hasNext and next throw the failure.  The workers are daemon threads so
+	 they do not keep the JVM up, but a scan that is abandoned before its
+	 end holds them blocked until it is closed.
+	 */
+	public class Scan<T> implements Iterator<T>, Closeable
+	{
+		private final ScanCheckpoint m_checkpoint;
+		private final BlockingQueue<Entry<T>> m_queue = new ArrayBlockingQueue<>(m_queueSize);
+		private final ExecutorService m_executor;
+		private int m_rangesLeft;
+		private T m_next;
+		private boolean m_closed = false;
+
+		private Scan(ScanCheckpoint checkpoint, final Function<TokenRange, Iterator<T>> rangeScan)
+		{
+			m_checkpoint = checkpoint;
+
+			List<TokenRange> ranges = new ArrayList<>();
+			for (TokenRange range : TokenRange.split(m_tokenRanges))
+			{
+				if (!checkpoint.isFinished(range))
+					ranges.add(range);
+			}
+
+			Collections.shuffle(ranges);
+			m_rangesLeft = ranges.size();
+
+			m_executor = Executors.newFixedThreadPool(m_threads, new ThreadFactoryBuilder()
+					.setNameFormat("graph-scan-%d").setDaemon(true).build());
+			for (final TokenRange range : ranges)
+			{
+				m_executor.execute(() ->
+				{
+					try
+					{
+						Iterator<T> records = rangeScan.apply(range);
+						while (records.hasNext())
+							m_queue.put(new Entry<>(range, records.next(), null));
+
+						m_queue.put(new Entry<>(range, null, null));
+					}
+					catch (InterruptedException e)
+					{
+						//Scan was closed
+					}
+					catch (Throwable t)
+					{
+						//Errors too, a worker that dies silently leaves the consumer
+						//waiting forever
+						try
+						{
+							m_queue.put(new Entry<>(range, null, t));
+						}
+						catch (InterruptedException ignore)
+						{
+						}
+					}
+				});
+			}
+
+			m_executor.shutdown();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (m_next == null)
+			{
+				if (m_closed || m_rangesLeft == 0)
+					return (false);
+
+				Entry<T> entry;
+				try
+				{
+					entry = m_queue.take();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted waiting for scan results", e);
+				}
+
+				if (entry.m_failure != null)
+				{
+					close();
+					throw new IllegalStateException("Scan of token range " + entry.m_range + " failed", entry.m_failure);
+				}
+
+				if (entry.m_record == null)
+				{
+					//Everything of the range has been handed out
+					m_checkpoint.finished(entry.m_range);
+					m_rangesLeft--;
+				}
+				else
+					m_next = entry.m_record;
+			}
+
+			return (true);
+		}
+
+		@Override
+		public T next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			T ret = m_next;
+			m_next = null;
+
+			return (ret);
+		}
+
+		/**
+		 Token ranges not yet finished.
+		 */
+		public int getRangesLeft()
+		{
+			return (m_rangesLeft);
+		}
+
+		@Override
+		public void close()
+		{
+			if (m_closed)
+				return;
+
+			m_closed = true;
+			m_executor.shutdownNow();
+			m_queue.clear();
+
+			try
+			{
+				m_executor.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class Entry<T>
+	{
+		private final TokenRange m_range;
+		private final T m_record;
+		private final Throwable m_failure;
+
+		private Entry(TokenRange range, T record, Throwable failure)
+		{
+			m_range = range;
+			m_record = record;
+			m_failure = failure;
+		}
+	}
+}
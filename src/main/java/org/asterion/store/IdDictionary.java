@@ -0,0 +1,355 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.asterion.util.AsyncThrottle;
+import org.asterion.util.SingleFlight;
+import org.asterion.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Assigns dense 64 bit internal ids to vertex ids.  The mapping is kept in
+ vertex_ids and internal_ids and never changes once assigned, so both
+ directions are cached locally without invalidation.
+
+ Ids are handed out from blocks each node reserves in id_allocator with a
+ lightweight transaction, so assigning an id is normally two writes and no
+ coordination.  Two nodes assigning the same vertex at once race on a
+ conditional insert into vertex_ids, the loser adopts the winner's id and
+ leaves an unused id behind.  Ids left in a block when a node stops are
+ never used, the ids are dense but not gapless.
+ */
+public class IdDictionary
+{
+	private static final String ALLOCATOR = "vertex";
+	private static final int MAX_IN_FLIGHT_LOOKUPS = 256;
+
+	private final Session m_session;
+	private final StatementRegistry m_statements;
+	private final int m_blockSize;
+	private final Cache<ByteBuffer, Long> m_ids;
+	private final Cache<Long, ByteBuffer> m_vertexIds;
+	private final SingleFlight<ByteBuffer, Long> m_assignments = new SingleFlight<>();
+	private final SingleFlight<Long, ByteBuffer> m_lookups = new SingleFlight<>();
+	private final AsyncThrottle m_throttle = new AsyncThrottle(MAX_IN_FLIGHT_LOOKUPS);
+
+	//Ids left in the reserved block, guarded by this
+	private long m_nextId = 0;
+	private long m_blockEnd = 0;
+	private CompletableFuture<Void> m_reservation;
+
+	/**
+	 @param blockSize ids reserved at a time
+	 @param cacheSize mappings cached in each direction
+	 */
+	public IdDictionary(Session session, StatementRegistry statements, int blockSize, int cacheSize)
+	{
+		checkArgument(blockSize > 0, "Block size must be greater than 0");
+
+		m_session = session;
+		m_statements = statements;
+		m_blockSize = blockSize;
+		m_ids = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+		m_vertexIds = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+	}
+
+	/**
+	 Packs an internal id the way it is stored in a blob column, as an
+	 unsigned varint.
+	 */
+	public static ByteBuffer pack(long id)
+	{
+		ByteArrayDataOutput out = ByteStreams.newDataOutput(10);
+		try
+		{
+			Util.packUnsignedLong(id, out);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		return (ByteBuffer.wrap(out.toByteArray()));
+	}
+
+	public static long unpack(ByteBuffer packed)
+	{
+		byte[] bytes = new byte[packed.remaining()];
+		packed.duplicate().get(bytes);
+
+		try
+		{
+			return (Util.unpackUnsignedLong(ByteStreams.newDataInput(bytes)));
+		}
+		catch (IOException e)
+		{
+			throw new IllegalArgumentException("Invalid internal id", e);
+		}
+	}
+
+	/**
+	 Completes with the internal id of the vertex, null if it has not been
+	 assigned one.
+	 */
+	public CompletableFuture<Long> getId(ByteBuffer vertexId)
+	{
+		Long cached = m_ids.getIfPresent(vertexId);
+		if (cached != null)
+			return (CompletableFuture.completedFuture(cached));
+
+		//The caller may reuse its buffer before the read is issued
+		final ByteBuffer key = CassandraStore.copyId(vertexId);
+		return (m_throttle.submit(() -> readId(key)));
+	}
+
+	/**
+	 Completes with the internal id of the vertex, assigning one if it does
+	 not have one yet.
+	 */
+	public CompletableFuture<Long> getOrAssignId(ByteBuffer vertexId)
+	{
+		Long cached = m_ids.getIfPresent(vertexId);
+		if (cached != null)
+			return (CompletableFuture.completedFuture(cached));
+
+		final ByteBuffer key = CassandraStore.copyId(vertexId);
+		return (m_assignments.get(key, () -> m_throttle.submit(() -> readId(key))
+				.thenCompose(id -> id != null ? CompletableFuture.completedFuture(id) : assign(key))));
+	}
+
+	/**
+	 Bulk form of getId, vertices without an internal id are left out.
+	 */
+	public CompletableFuture<Map<ByteBuffer, Long>> getIds(Collection<ByteBuffer> vertexIds)
+	{
+		return (collect(vertexIds, false));
+	}
+
+	/**
+	 Bulk form of getOrAssignId.
+	 */
+	public CompletableFuture<Map<ByteBuffer, Long>> getOrAssignIds(Collection<ByteBuffer> vertexIds)
+	{
+		return (collect(vertexIds, true));
+	}
+
+	private CompletableFuture<Map<ByteBuffer, Long>> collect(Collection<ByteBuffer> vertexIds, boolean assign)
+	{
+		final Map<ByteBuffer, CompletableFuture<Long>> reads = new HashMap<>();
+		for (ByteBuffer vertexId : new LinkedHashSet<>(vertexIds))
+			reads.put(vertexId, assign ? getOrAssignId(vertexId) : getId(vertexId));
+
+		return (CassandraFutures.allOf(new ArrayList<CompletableFuture<?>>(reads.values())).thenApply(v ->
+		{
+			Map<ByteBuffer, Long> ret = new HashMap<>();
+			for (Map.Entry<ByteBuffer, CompletableFuture<Long>> read : reads.entrySet())
+			{
+				Long id = read.getValue().join();
+				if (id != null)
+					ret.put(read.getKey(), id);
+			}
+
+			return (ret);
+		}));
+	}
+
+	/**
+	 Completes with the vertex id the internal id was assigned to, fails if
+	 it was never assigned.  Each caller gets its own view of the id.
+	 */
+	public CompletableFuture<ByteBuffer> getVertexId(final long id)
+	{
+		ByteBuffer cached = m_vertexIds.getIfPresent(id);
+		if (cached != null)
+			return (CompletableFuture.completedFuture(cached.duplicate()));
+
+		return (m_lookups.get(id, () -> m_throttle.submit(() ->
+		{
+			BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_VERTEX_ID);
+			bs.setLong(0, id);
+
+			return (CassandraFutures.map(m_session.executeAsync(bs), resultSet ->
+			{
+				Row row = resultSet.one();
+				if (row == null)
+					throw new IllegalStateException("Internal id " + id + " is not assigned");
+
+				//The row's buffer is a view of the whole response
+				ByteBuffer vertexId = CassandraStore.copyId(row.getBytes(0));
+				remember(vertexId, id);
+
+				return (vertexId);
+			}));
+		})).thenApply(ByteBuffer::duplicate));
+	}
+
+	/**
+	 Bulk form of getVertexId, the vertex ids are in the order of the
+	 internal ids.
+	 */
+	public CompletableFuture<List<ByteBuffer>> getVertexIds(List<Long> ids)
+	{
+		final List<CompletableFuture<ByteBuffer>> lookups = new ArrayList<>(ids.size());
+		for (Long id : ids)
+			lookups.add(getVertexId(id));
+
+		return (CassandraFutures.allOf(new ArrayList<CompletableFuture<?>>(lookups)).thenApply(v ->
+		{
+			List<ByteBuffer> ret = new ArrayList<>(lookups.size());
+			for (CompletableFuture<ByteBuffer> lookup : lookups)
+				ret.add(lookup.join());
+
+			return (ret);
+		}));
+	}
+
+	/**
+	 The vertex id is kept as is, callers pass a buffer of their own.
+	 */
+	private void remember(ByteBuffer vertexId, long id)
+	{
+		m_ids.put(vertexId, id);
+		m_vertexIds.put(id, vertexId);
+	}
+
+	private CompletableFuture<Long> readId(ByteBuffer vertexId)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.SELECT_INTERNAL_ID);
+		bs.setBytesUnsafe(0, vertexId);
+
+		return (CassandraFutures.map(m_session.executeAsync(bs), resultSet ->
+		{
+			Row row = resultSet.one();
+			if (row == null)
+				return (null);
+
+			long id = row.getLong(0);
+			remember(vertexId, id);
+
+			return (id);
+		}));
+	}
+
+	/**
+	 The reverse mapping is written first, the id is this node's alone so it
+	 can not conflict.  If another node claims the vertex first the row is
+	 left pointing from an id nothing uses.
+	 */
+	private CompletableFuture<Long> assign(final ByteBuffer vertexId)
+	{
+		return (nextId().thenCompose(id ->
+		{
+			BoundStatement reverse = m_statements.bind(StatementRegistry.Query.INSERT_VERTEX_ID);
+			reverse.setLong(0, id);
+			reverse.setBytesUnsafe(1, vertexId);
+
+			return (CassandraFutures.done(m_session.executeAsync(reverse)).thenCompose(v ->
+			{
+				BoundStatement claim = m_statements.bind(StatementRegistry.Query.INSERT_INTERNAL_ID);
+				claim.setBytesUnsafe(0, vertexId);
+				claim.setLong(1, id);
+
+				return (CassandraFutures.map(m_session.executeAsync(claim), resultSet ->
+				{
+					Row row = resultSet.one();
+					long ret = row.getBool("[applied]") ? id : row.getLong("internal_id");
+					remember(vertexId, ret);
+
+					return (ret);
+				}));
+			}));
+		}));
+	}
+
+	private CompletableFuture<Long> nextId()
+	{
+		CompletableFuture<Void> reservation;
+
+		synchronized (this)
+		{
+			if (m_nextId < m_blockEnd)
+				return (CompletableFuture.completedFuture(m_nextId++));
+
+			//Callers that run out while a block is being reserved wait for it
+			if (m_reservation == null)
+			{
+				final CompletableFuture<Void> started = reserveBlock().thenAccept(start ->
+				{
+					synchronized (IdDictionary.this)
+					{
+						m_nextId = start;
+						m_blockEnd = start + m_blockSize;
+					}
+				});
+				m_reservation = started;
+				started.whenComplete((v, t) ->
+				{
+					synchronized (IdDictionary.this)
+					{
+						if (m_reservation == started)
+							m_reservation = null;
+					}
+				});
+			}
+
+			reservation = m_reservation;
+		}
+
+		return (reservation.thenCompose(v -> nextId()));
+	}
+
+	/**
+	 Moves id_allocator past a new block, completes with the first id of
+	 the block.
+	 */
+	private CompletableFuture<Long> reserveBlock()
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.INSERT_ID_ALLOCATOR);
+		bs.setString(0, ALLOCATOR);
+		bs.setLong(1, m_blockSize);
+
+		return (CassandraFutures.toCompletableFuture(m_session.executeAsync(bs)).thenCompose(resultSet ->
+		{
+			Row row = resultSet.one();
+			if (row.getBool("[applied]"))
+				return (CompletableFuture.completedFuture(0L));
+
+			return (advanceAllocator(row.getLong("next_id")));
+		}));
+	}
+
+	private CompletableFuture<Long> advanceAllocator(final long current)
+	{
+		BoundStatement bs = m_statements.bind(StatementRegistry.Query.UPDATE_ID_ALLOCATOR);
+		bs.setLong(0, current + m_blockSize);
+		bs.setString(1, ALLOCATOR);
+		bs.setLong(2, current);
+
+		return (CassandraFutures.toCompletableFuture(m_session.executeAsync(bs)).thenCompose(resultSet ->
+		{
+			Row row = resultSet.one();
+			if (row.getBool("[applied]"))
+				return (CompletableFuture.completedFuture(current));
+
+			//Another node reserved a block first, try again after it
+			return (advanceAllocator(row.getLong("next_id")));
+		}));
+	}
+}
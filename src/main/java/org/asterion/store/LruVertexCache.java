@@ -0,0 +1,129 @@
+package org.asterion.store;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Size bounded vertex cache that evicts the least recently used vertices.
+ Writes made through other nodes are not seen here, entries expire after
+ the ttl so they are not stale for longer than that.  Hits, misses and
+ evictions are reported to the metric registry.
+ */
+public class LruVertexCache implements VertexCache
+{
+	public static final String CACHE_SIZE_PROPERTY = "asterion.cache.vertex.size";
+	public static final String TTL_PROPERTY = "asterion.cache.vertex.ttl_ms";
+
+	private static final int STAMP_STRIPES = 1024;
+
+	private final Cache<ByteBuffer, Map<String, String>> m_cache;
+
+	//Bumped when a vertex in the stripe is invalidated
+	private final AtomicLongArray m_stamps = new AtomicLongArray(STAMP_STRIPES);
+
+	private final Counter m_hits;
+	private final Counter m_misses;
+	private final Counter m_evictions;
+
+	@Inject
+	public LruVertexCache(@Named(CACHE_SIZE_PROPERTY) long maxVertices,
+			@Named(TTL_PROPERTY) long ttl,
+			MetricRegistry metricRegistry)
+	{
+		this(maxVertices, ttl, metricRegistry, Ticker.systemTicker());
+	}
+
+	/**
+	 @param ticker time source for expiry
+	 */
+	LruVertexCache(long maxVertices, long ttl, MetricRegistry metricRegistry, Ticker ticker)
+	{
+		checkArgument(ttl > 0, "ttl must be greater than 0");
+
+		m_hits = metricRegistry.counter(MetricRegistry.name(VertexCache.class, "hits"));
+		m_misses = metricRegistry.counter(MetricRegistry.name(VertexCache.class, "misses"));
+		m_evictions = metricRegistry.counter(MetricRegistry.name(VertexCache.class, "evictions"));
+
+		m_cache = CacheBuilder.newBuilder()
+				.maximumSize(maxVertices)
+				.expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.<ByteBuffer, Map<String, String>>removalListener(notification ->
+				{
+					if (notification.getCause() == RemovalCause.SIZE)
+						m_evictions.inc();
+				})
+				.build();
+
+		metricRegistry.register(MetricRegistry.name(VertexCache.class, "size"), new Gauge<Long>()
+		{
+			@Override
+			public Long getValue()
+			{
+				return (m_cache.size());
+			}
+		});
+	}
+
+	@Override
+	public Map<String, String> get(ByteBuffer vertexId)
+	{
+		Map<String, String> ret = m_cache.getIfPresent(vertexId);
+
+		if (ret != null)
+			m_hits.inc();
+		else
+			m_misses.inc();
+
+		return (ret);
+	}
+
+	@Override
+	public long getStamp(ByteBuffer vertexId)
+	{
+		return (m_stamps.get(stripe(vertexId)));
+	}
+
+	@Override
+	public void put(ByteBuffer vertexId, Map<String, String> properties, long stamp)
+	{
+		if (m_stamps.get(stripe(vertexId)) != stamp)
+			return;
+
+		//Copy the id so the caller is free to reuse its buffer
+		ByteBuffer key = ByteBuffer.allocate(vertexId.remaining());
+		key.put(vertexId.duplicate()).flip();
+
+		m_cache.put(key, properties);
+
+		//An invalidate may have slipped in between the check and the put
+		if (m_stamps.get(stripe(vertexId)) != stamp)
+			m_cache.invalidate(vertexId);
+	}
+
+	@Override
+	public void invalidate(ByteBuffer vertexId)
+	{
+		m_stamps.incrementAndGet(stripe(vertexId));
+		m_cache.invalidate(vertexId);
+	}
+
+	private static int stripe(ByteBuffer vertexId)
+	{
+		return ((vertexId.hashCode() & 0x7fffffff) % STAMP_STRIPES);
+	}
+}
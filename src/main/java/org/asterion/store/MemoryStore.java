@@ -0,0 +1,835 @@
+package org.asterion.store;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.util.IdInterner;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ Keeps the whole graph in the heap of this process.  Vertex ids are
+ interned to ints and the edges of each vertex and edge type are held in a
+ sorted primitive AdjacencyList, so an edge costs about 16 bytes per end.
+ Every operation completes before it returns.
+
+ Meant for graphs that fit in memory, where it answers in microseconds, and
+ as an offline backend for tests and benchmarks.  Nothing is persisted,
+ the graph is gone when the process exits.  Select it with
+ asterion.store.class=org.asterion.store.MemoryStore.
+ */
+public class MemoryStore implements DataStore
+{
+	private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+	private final IdInterner m_ids = new IdInterner();
+
+	//Indexed by interned id
+	private final List<VertexData> m_vertices = new ArrayList<>();
+
+	//Property name to value to the interned ids of the vertices with it
+	private final Map<String, TreeMap<String, TreeSet<Integer>>> m_index = new HashMap<>();
+
+	private Set<String> m_indexedProperties = Collections.emptySet();
+
+	@Inject
+	public MemoryStore()
+	{
+	}
+
+	/**
+	 Comma separated list of vertex properties that can be found by their
+	 value, the same setting CassandraStore uses.
+	 */
+	@Inject(optional = true)
+	public void setIndexedProperties(@Named(CassandraStore.INDEXED_PROPERTIES_PROPERTY) String indexedProperties)
+	{
+		m_indexedProperties = ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+				.split(indexedProperties));
+	}
+
+	private static class VertexData
+	{
+		private final long m_token;
+		private final Map<String, String> m_properties = new HashMap<>();
+		private final TreeMap<String, AdjacencyList> m_edges = new TreeMap<>();
+
+		private VertexData(long token)
+		{
+			m_token = token;
+		}
+	}
+
+	/**
+	 Partition token Cassandra would give the vertex, so token range scans
+	 split the graph the same way for either store.
+	 */
+	static long token(ByteBuffer vertexId)
+	{
+		byte[] bytes = new byte[vertexId.remaining()];
+		vertexId.duplicate().get(bytes);
+
+		long token = Hashing.murmur3_128().hashBytes(bytes).asLong();
+
+		//The minimum token is the start of the ring and is in no range,
+		//Cassandra maps it to the maximum
+		return (token == Long.MIN_VALUE ? Long.MAX_VALUE : token);
+	}
+
+	/**
+	 Returns the interned id of the vertex, adding it if it is new.  Must
+	 hold the write lock.
+	 */
+	private int addVertex(ByteBuffer vertexId)
+	{
+		int id = m_ids.intern(vertexId);
+		if (id == m_vertices.size())
+			m_vertices.add(new VertexData(token(vertexId)));
+
+		return (id);
+	}
+
+	/**
+	 Must hold the read or write lock.
+	 */
+	private VertexData findVertex(ByteBuffer vertexId)
+	{
+		int id = m_ids.lookup(vertexId);
+		return (id == -1 ? null : m_vertices.get(id));
+	}
+
+	@Override
+	public CompletableFuture<Void> updateVertex(ByteBuffer vertexId, Map<String, String> properties)
+	{
+		m_lock.writeLock().lock();
+		try
+		{
+			int id = addVertex(vertexId);
+			VertexData vertex = m_vertices.get(id);
+
+			for (Map.Entry<String, String> property : properties.entrySet())
+			{
+				String name = property.getKey();
+				String value = property.getValue();
+
+				String oldValue;
+				if (value == null)
+					oldValue = vertex.m_properties.remove(name);
+				else
+					oldValue = vertex.m_properties.put(name, value);
+
+				if (m_indexedProperties.contains(name))
+					updateIndex(id, name, oldValue, value);
+			}
+		}
+		finally
+		{
+			m_lock.writeLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(null));
+	}
+
+	/**
+	 Must hold the write lock.
+	 */
+	private void updateIndex(int id, String name, String oldValue, String newValue)
+	{
+		TreeMap<String, TreeSet<Integer>> values = m_index.computeIfAbsent(name, k -> new TreeMap<>());
+
+		if (oldValue != null && !oldValue.equals(newValue))
+		{
+			TreeSet<Integer> ids = values.get(oldValue);
+			if (ids != null)
+			{
+				ids.remove(id);
+				if (ids.isEmpty())
+					values.remove(oldValue);
+			}
+		}
+
+		if (newValue != null)
+			values.computeIfAbsent(newValue, k -> new TreeSet<>()).add(id);
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByProperty(String propertyName, String value)
+	{
+		List<ByteBuffer> ret = new ArrayList<>();
+
+		m_lock.readLock().lock();
+		try
+		{
+			TreeMap<String, TreeSet<Integer>> values = m_index.get(propertyName);
+			if (values != null && values.containsKey(value))
+			{
+				for (Integer id : values.get(value))
+					ret.add(m_ids.get(id));
+			}
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(ret));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyRange(String propertyName, String startValue,
+			String endValue, int limit)
+	{
+		List<ByteBuffer> ret = new ArrayList<>();
+
+		m_lock.readLock().lock();
+		try
+		{
+			TreeMap<String, TreeSet<Integer>> values = m_index.get(propertyName);
+			if (values == null || (endValue != null && startValue.compareTo(endValue) >= 0))
+				return (CompletableFuture.completedFuture(ret));
+
+			NavigableMap<String, TreeSet<Integer>> range;
+			if (endValue == null)
+				range = values.tailMap(startValue, true);
+			else
+				range = values.subMap(startValue, true, endValue, false);
+
+			collect(range, null, limit, ret);
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(ret));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyPrefix(String propertyName, String prefix, int limit)
+	{
+		List<ByteBuffer> ret = new ArrayList<>();
+
+		m_lock.readLock().lock();
+		try
+		{
+			TreeMap<String, TreeSet<Integer>> values = m_index.get(propertyName);
+			if (values != null)
+				collect(values.tailMap(prefix, true), prefix, limit, ret);
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(ret));
+	}
+
+	/**
+	 Adds vertices in value order until the limit is reached or, when
+	 prefix is set, a value does not start with it.
+	 */
+	private void collect(NavigableMap<String, TreeSet<Integer>> values, String prefix, int limit,
+			List<ByteBuffer> ret)
+	{
+		for (Map.Entry<String, TreeSet<Integer>> entry : values.entrySet())
+		{
+			if (prefix != null && !entry.getKey().startsWith(prefix))
+				return;
+
+			for (Integer id : entry.getValue())
+			{
+				if (ret.size() >= limit)
+					return;
+
+				ret.add(m_ids.get(id));
+			}
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteProperty(ByteBuffer vertexId, String propertyName)
+	{
+		m_lock.writeLock().lock();
+		try
+		{
+			int id = m_ids.lookup(vertexId);
+			if (id != -1)
+			{
+				String oldValue = m_vertices.get(id).m_properties.remove(propertyName);
+
+				if (m_indexedProperties.contains(propertyName))
+					updateIndex(id, propertyName, oldValue, null);
+			}
+		}
+		finally
+		{
+			m_lock.writeLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(null));
+	}
+
+	/**
+	 Removes the properties and every edge of the vertex.  The interned id
+	 is kept and reused if the vertex is added again.
+	 */
+	@Override
+	public CompletableFuture<Void> deleteVertex(ByteBuffer vertexId)
+	{
+		m_lock.writeLock().lock();
+		try
+		{
+			int id = m_ids.lookup(vertexId);
+			if (id != -1)
+			{
+				VertexData vertex = m_vertices.get(id);
+
+				for (Map.Entry<String, String> property : vertex.m_properties.entrySet())
+				{
+					if (m_indexedProperties.contains(property.getKey()))
+						updateIndex(id, property.getKey(), property.getValue(), null);
+				}
+				vertex.m_properties.clear();
+
+				for (Map.Entry<String, AdjacencyList> edgeType : vertex.m_edges.entrySet())
+				{
+					AdjacencyList edges = edgeType.getValue();
+					for (int i = 0; i < edges.size(); i++)
+					{
+						long key = edges.keyAt(i);
+						int other = AdjacencyList.vertex(key);
+
+						//Edges to itself are dropped with the vertex's own list
+						if (other != id)
+							removeEdge(other, edgeType.getKey(), AdjacencyList.key(
+									Direction.fromValue(AdjacencyList.direction(key)).opposite(), id));
+					}
+				}
+				vertex.m_edges.clear();
+			}
+		}
+		finally
+		{
+			m_lock.writeLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(null));
+	}
+
+	@Override
+	public CompletableFuture<Void> addEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType)
+	{
+		return (addEdges(Collections.singletonList(new Edge(sourceVertexId, destVertexId, direction, edgeType))));
+	}
+
+	@Override
+	public CompletableFuture<Void> addEdges(Collection<Edge> edges)
+	{
+		m_lock.writeLock().lock();
+		try
+		{
+			for (Edge edge : edges)
+			{
+				int source = addVertex(edge.getSourceVertexId());
+				int dest = addVertex(edge.getDestVertexId());
+
+				m_vertices.get(source).m_edges.computeIfAbsent(edge.getEdgeType(), k -> new AdjacencyList())
+						.add(AdjacencyList.key(edge.getDirection().getValue(), dest), edge.getWhen());
+
+				m_vertices.get(dest).m_edges.computeIfAbsent(edge.getEdgeType(), k -> new AdjacencyList())
+						.add(AdjacencyList.key(edge.getDirection().opposite(), source), edge.getWhen());
+			}
+		}
+		finally
+		{
+			m_lock.writeLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(null));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType)
+	{
+		m_lock.writeLock().lock();
+		try
+		{
+			int source = m_ids.lookup(sourceVertexId);
+			int dest = m_ids.lookup(destVertexId);
+
+			if (source != -1 && dest != -1)
+			{
+				for (Direction direction : Direction.values())
+				{
+					if (removeEdge(source, edgeType, AdjacencyList.key(direction.getValue(), dest)))
+						removeEdge(dest, edgeType, AdjacencyList.key(direction.opposite(), source));
+				}
+			}
+		}
+		finally
+		{
+			m_lock.writeLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(null));
+	}
+
+	/**
+	 Removes one end of an edge, dropping the edge type from the vertex when
+	 it was the last edge of that type.  Must hold the write lock.
+	 */
+	private boolean removeEdge(int id, String edgeType, long key)
+	{
+		Map<String, AdjacencyList> vertexEdges = m_vertices.get(id).m_edges;
+		AdjacencyList edges = vertexEdges.get(edgeType);
+		if (edges == null || !edges.remove(key))
+			return (false);
+
+		if (edges.size() == 0)
+			vertexEdges.remove(edgeType);
+
+		return (true);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, String>> getVertexProperties(ByteBuffer vertexId)
+	{
+		m_lock.readLock().lock();
+		try
+		{
+			VertexData vertex = findVertex(vertexId);
+			Map<String, String> ret = vertex == null ? ImmutableMap.<String, String>of() :
+					ImmutableMap.copyOf(vertex.m_properties);
+
+			return (CompletableFuture.completedFuture(ret));
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public CompletableFuture<Map<ByteBuffer, Map<String, String>>> getVertexProperties(Collection<ByteBuffer> vertexIds,
+			Set<String> propertyNames)
+	{
+		Map<ByteBuffer, Map<String, String>> ret = new HashMap<>();
+
+		m_lock.readLock().lock();
+		try
+		{
+			for (ByteBuffer vertexId : vertexIds)
+			{
+				VertexData vertex = findVertex(vertexId);
+				if (vertex == null)
+				{
+					ret.put(vertexId, ImmutableMap.<String, String>of());
+					continue;
+				}
+
+				ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+				for (Map.Entry<String, String> property : vertex.m_properties.entrySet())
+				{
+					if (propertyNames == null || propertyNames.contains(property.getKey()))
+						properties.put(property);
+				}
+
+				ret.put(vertexId, properties.build());
+			}
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(ret));
+	}
+
+	@Override
+	public CompletableFuture<String> getVertexProperty(ByteBuffer vertexId, String propertyName)
+	{
+		m_lock.readLock().lock();
+		try
+		{
+			VertexData vertex = findVertex(vertexId);
+			return (CompletableFuture.completedFuture(vertex == null ? null : vertex.m_properties.get(propertyName)));
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public EdgeIterator getEdges(ByteBuffer vertexId, String edgeType)
+	{
+		return (getEdges(new EdgeQuery(vertexId, edgeType)));
+	}
+
+	@Override
+	public EdgeIterator getEdges(EdgeQuery query)
+	{
+		return (new MemoryEdgeIterator(query));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> readEdges(EdgeQuery query)
+	{
+		List<ByteBuffer> ret = new ArrayList<>();
+
+		m_lock.readLock().lock();
+		try
+		{
+			AdjacencyList edges = findEdges(query);
+			if (edges != null)
+			{
+				int end = directionEnd(edges, query.getDirection());
+				for (int i = directionStart(edges, query.getDirection()); i < end; i++)
+				{
+					if (inTimeRange(query, edges.whenAt(i)))
+						ret.add(m_ids.get(AdjacencyList.vertex(edges.keyAt(i))));
+				}
+			}
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+
+		return (CompletableFuture.completedFuture(ret));
+	}
+
+	/**
+	 Must hold the read or write lock.
+	 */
+	private AdjacencyList findEdges(EdgeQuery query)
+	{
+		VertexData vertex = findVertex(query.getVertexId());
+		return (vertex == null ? null : vertex.m_edges.get(query.getEdgeType()));
+	}
+
+	private static int directionStart(AdjacencyList edges, Direction direction)
+	{
+		if (direction == null)
+			return (0);
+
+		return (edges.indexAfter(AdjacencyList.key(direction.getValue(), 0) - 1));
+	}
+
+	private static int directionEnd(AdjacencyList edges, Direction direction)
+	{
+		if (direction == null)
+			return (edges.size());
+
+		return (edges.indexAfter(AdjacencyList.key(direction.getValue(), -1)));
+	}
+
+	private static boolean inTimeRange(EdgeQuery query, long when)
+	{
+		return (when >= query.getStartTime() && when <= query.getEndTime());
+	}
+
+	@Override
+	public CompletableFuture<List<String>> getEdgeTypes(ByteBuffer vertexId)
+	{
+		m_lock.readLock().lock();
+		try
+		{
+			VertexData vertex = findVertex(vertexId);
+			List<String> ret = vertex == null ? new ArrayList<>() : new ArrayList<>(vertex.m_edges.keySet());
+
+			return (CompletableFuture.completedFuture(ret));
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 Counted exactly from the adjacency lists, each direction is a sorted
+	 run so counting it is two binary searches.
+	 */
+	@Override
+	public CompletableFuture<Degrees> getDegrees(ByteBuffer vertexId)
+	{
+		m_lock.readLock().lock();
+		try
+		{
+			Degrees ret = new Degrees();
+
+			VertexData vertex = findVertex(vertexId);
+			if (vertex != null)
+			{
+				for (Map.Entry<String, AdjacencyList> edgeType : vertex.m_edges.entrySet())
+				{
+					for (Direction direction : Direction.values())
+					{
+						int count = directionEnd(edgeType.getValue(), direction) - directionStart(edgeType.getValue(), direction);
+						if (count != 0)
+							ret.add(edgeType.getKey(), direction, count);
+					}
+				}
+			}
+
+			return (CompletableFuture.completedFuture(ret));
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Iterator<Vertex> scanVertices(TokenRange range)
+	{
+		return (new TokenScan<Vertex>(range)
+		{
+			@Override
+			protected void read(int id, VertexData vertex, Deque<Vertex> buffer)
+			{
+				if (!vertex.m_properties.isEmpty())
+					buffer.add(new Vertex(m_ids.get(id), new HashMap<>(vertex.m_properties)));
+			}
+		});
+	}
+
+	@Override
+	public Iterator<Edge> scanEdges(TokenRange range)
+	{
+		return (new TokenScan<Edge>(range)
+		{
+			@Override
+			protected void read(int id, VertexData vertex, Deque<Edge> buffer)
+			{
+				ByteBuffer vertexId = m_ids.get(id);
+
+				for (Map.Entry<String, AdjacencyList> edgeType : vertex.m_edges.entrySet())
+				{
+					AdjacencyList edges = edgeType.getValue();
+					for (int i = 0; i < edges.size(); i++)
+					{
+						long key = edges.keyAt(i);
+						buffer.add(new Edge(vertexId, m_ids.get(AdjacencyList.vertex(key)),
+								Direction.fromValue(AdjacencyList.direction(key)), edgeType.getKey(), edges.whenAt(i)));
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public void close()
+	{
+	}
+
+	/**
+	 Walks the vertices in interned id order a vertex at a time, taking the
+	 read lock only while a vertex is copied out.  Vertices added behind
+	 the scan are not returned.
+	 */
+	private abstract class TokenScan<T> extends AbstractIterator<T>
+	{
+		private final TokenRange m_range;
+		private final Deque<T> m_buffer = new ArrayDeque<>();
+		private int m_nextId = 0;
+
+		private TokenScan(TokenRange range)
+		{
+			m_range = range;
+		}
+
+		protected abstract void read(int id, VertexData vertex, Deque<T> buffer);
+
+		@Override
+		protected T computeNext()
+		{
+			while (m_buffer.isEmpty())
+			{
+				m_lock.readLock().lock();
+				try
+				{
+					if (m_nextId >= m_vertices.size())
+						return (endOfData());
+
+					VertexData vertex = m_vertices.get(m_nextId);
+					if (vertex.m_token > m_range.getStart() && vertex.m_token <= m_range.getEnd())
+						read(m_nextId, vertex, m_buffer);
+
+					m_nextId++;
+				}
+				finally
+				{
+					m_lock.readLock().unlock();
+				}
+			}
+
+			return (m_buffer.poll());
+		}
+	}
+
+	/**
+	 Copies a page of fetch size edges out under the read lock at a time,
+	 the next page starts after the last edge looked at so edges added or
+	 removed between pages do not disturb the walk.
+	 */
+	private class MemoryEdgeIterator implements EdgeIterator
+	{
+		private final EdgeQuery m_query;
+		private final long[] m_pageKeys;
+		private final ByteBuffer[] m_pageIds;
+		private int m_pageSize = 0;
+		private int m_pageIndex = 0;
+
+		private boolean m_started;
+		private long m_after;
+		private boolean m_lastPage = false;
+		private boolean m_exhausted = false;
+		private long m_lastKey;
+		private ByteBuffer m_lastId = null;
+
+		private MemoryEdgeIterator(EdgeQuery query)
+		{
+			m_query = query;
+			m_pageKeys = new long[query.getFetchSize()];
+			m_pageIds = new ByteBuffer[query.getFetchSize()];
+
+			if (query.getPagingState() != null)
+			{
+				EdgePosition position = EdgePosition.decode(query.getPagingState());
+
+				int id;
+				m_lock.readLock().lock();
+				try
+				{
+					id = m_ids.lookup(position.getEdgeId());
+				}
+				finally
+				{
+					m_lock.readLock().unlock();
+				}
+
+				if (id == -1)
+					throw new IllegalArgumentException("Invalid paging state: " + query.getPagingState());
+
+				m_started = true;
+				m_after = AdjacencyList.key(position.getDirection(), id);
+			}
+			else
+				m_started = false;
+		}
+
+		private void fetchPage()
+		{
+			m_pageSize = 0;
+			m_pageIndex = 0;
+
+			m_lock.readLock().lock();
+			try
+			{
+				AdjacencyList edges = findEdges(m_query);
+				if (edges == null)
+				{
+					m_lastPage = true;
+					return;
+				}
+
+				int start = directionStart(edges, m_query.getDirection());
+				if (m_started)
+					start = Math.max(start, edges.indexAfter(m_after));
+
+				int end = directionEnd(edges, m_query.getDirection());
+
+				int i = start;
+				for (; i < end && m_pageSize < m_pageKeys.length; i++)
+				{
+					if (!inTimeRange(m_query, edges.whenAt(i)))
+						continue;
+
+					long key = edges.keyAt(i);
+					m_pageKeys[m_pageSize] = key;
+					m_pageIds[m_pageSize] = m_ids.get(AdjacencyList.vertex(key));
+					m_pageSize++;
+				}
+
+				if (i > start)
+				{
+					m_started = true;
+					m_after = edges.keyAt(i - 1);
+				}
+
+				if (i >= end)
+					m_lastPage = true;
+			}
+			finally
+			{
+				m_lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			while (m_pageIndex == m_pageSize)
+			{
+				if (m_lastPage)
+				{
+					m_exhausted = true;
+					return (false);
+				}
+
+				fetchPage();
+			}
+
+			return (true);
+		}
+
+		@Override
+		public ByteBuffer next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			m_lastKey = m_pageKeys[m_pageIndex];
+			m_lastId = m_pageIds[m_pageIndex];
+			m_pageIds[m_pageIndex] = null;
+			m_pageIndex++;
+
+			return (m_lastId);
+		}
+
+		@Override
+		public String getPagingState()
+		{
+			if (m_exhausted)
+				return (null);
+
+			if (m_lastId == null)
+				return (m_query.getPagingState());
+
+			return (new EdgePosition(0L, AdjacencyList.direction(m_lastKey), m_lastId).encode());
+		}
+	}
+}
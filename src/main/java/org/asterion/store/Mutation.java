@@ -0,0 +1,302 @@
+package org.asterion.store;
+
+import org.asterion.Edge;
+import org.asterion.util.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ A DataStore write as it is kept in the write behind log.  Each record is
+ a type byte followed by the fields of the write, ids and strings are
+ length prefixed and numbers are varints as in the binary record format.
+ */
+abstract class Mutation
+{
+	private static final int MAX_FIELD_LENGTH = 1024 * 1024;
+
+	private static final byte UPDATE_VERTEX = 1;
+	private static final byte DELETE_PROPERTY = 2;
+	private static final byte DELETE_VERTEX = 3;
+	private static final byte ADD_EDGES = 4;
+	private static final byte DELETE_EDGE = 5;
+
+	abstract CompletableFuture<Void> apply(DataStore dataStore);
+
+	abstract void write(DataOutput out) throws IOException;
+
+	/**
+	 Vertices whose properties the write changes.
+	 */
+	Collection<ByteBuffer> getPropertyVertices()
+	{
+		return (Collections.emptyList());
+	}
+
+	/**
+	 Vertices whose edges the write changes.
+	 */
+	Collection<ByteBuffer> getEdgeVertices()
+	{
+		return (Collections.emptyList());
+	}
+
+	/**
+	 True if the write may be reordered with other edge adds.
+	 */
+	boolean isEdgeAdd()
+	{
+		return (false);
+	}
+
+	/**
+	 True if the write touches data beyond the vertices it names and so
+	 can not be reordered with any other write.
+	 */
+	boolean isBarrier()
+	{
+		return (false);
+	}
+
+	static Mutation read(DataInput in) throws IOException
+	{
+		byte type = in.readByte();
+
+		switch (type)
+		{
+			case UPDATE_VERTEX:
+			{
+				ByteBuffer vertexId = Util.unpackBytes(in, MAX_FIELD_LENGTH);
+				int count = (int) Util.unpackUnsignedLong(in);
+				Map<String, String> properties = new LinkedHashMap<>();
+				for (int i = 0; i < count; i++)
+					properties.put(Util.unpackString(in, MAX_FIELD_LENGTH), Util.unpackString(in, MAX_FIELD_LENGTH));
+
+				return (new UpdateVertex(vertexId, properties));
+			}
+			case DELETE_PROPERTY:
+				return (new DeleteProperty(Util.unpackBytes(in, MAX_FIELD_LENGTH), Util.unpackString(in, MAX_FIELD_LENGTH)));
+			case DELETE_VERTEX:
+				return (new DeleteVertex(Util.unpackBytes(in, MAX_FIELD_LENGTH)));
+			case ADD_EDGES:
+			{
+				int count = (int) Util.unpackUnsignedLong(in);
+				List<Edge> edges = new ArrayList<>(count);
+				for (int i = 0; i < count; i++)
+				{
+					edges.add(new Edge(Util.unpackBytes(in, MAX_FIELD_LENGTH), Util.unpackBytes(in, MAX_FIELD_LENGTH),
+							Direction.valueOf(Util.unpackString(in, MAX_FIELD_LENGTH)),
+							Util.unpackString(in, MAX_FIELD_LENGTH), Util.unpackLong(in)));
+				}
+
+				return (new AddEdges(edges));
+			}
+			case DELETE_EDGE:
+				return (new DeleteEdge(Util.unpackBytes(in, MAX_FIELD_LENGTH), Util.unpackBytes(in, MAX_FIELD_LENGTH),
+						Util.unpackString(in, MAX_FIELD_LENGTH)));
+			default:
+				throw new IOException("Unknown mutation type " + type);
+		}
+	}
+
+	static class UpdateVertex extends Mutation
+	{
+		private final ByteBuffer m_vertexId;
+		private final Map<String, String> m_properties;
+
+		UpdateVertex(ByteBuffer vertexId, Map<String, String> properties)
+		{
+			m_vertexId = vertexId;
+			m_properties = properties;
+		}
+
+		@Override
+		CompletableFuture<Void> apply(DataStore dataStore)
+		{
+			return (dataStore.updateVertex(m_vertexId, m_properties));
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException
+		{
+			out.writeByte(UPDATE_VERTEX);
+			Util.packBytes(m_vertexId, out);
+			Util.packUnsignedLong(m_properties.size(), out);
+			for (Map.Entry<String, String> property : m_properties.entrySet())
+			{
+				Util.packString(property.getKey(), out);
+				Util.packString(property.getValue(), out);
+			}
+		}
+
+		@Override
+		Collection<ByteBuffer> getPropertyVertices()
+		{
+			return (Collections.singletonList(m_vertexId));
+		}
+	}
+
+	static class DeleteProperty extends Mutation
+	{
+		private final ByteBuffer m_vertexId;
+		private final String m_propertyName;
+
+		DeleteProperty(ByteBuffer vertexId, String propertyName)
+		{
+			m_vertexId = vertexId;
+			m_propertyName = propertyName;
+		}
+
+		@Override
+		CompletableFuture<Void> apply(DataStore dataStore)
+		{
+			return (dataStore.deleteProperty(m_vertexId, m_propertyName));
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException
+		{
+			out.writeByte(DELETE_PROPERTY);
+			Util.packBytes(m_vertexId, out);
+			Util.packString(m_propertyName, out);
+		}
+
+		@Override
+		Collection<ByteBuffer> getPropertyVertices()
+		{
+			return (Collections.singletonList(m_vertexId));
+		}
+	}
+
+	static class DeleteVertex extends Mutation
+	{
+		private final ByteBuffer m_vertexId;
+
+		DeleteVertex(ByteBuffer vertexId)
+		{
+			m_vertexId = vertexId;
+		}
+
+		@Override
+		CompletableFuture<Void> apply(DataStore dataStore)
+		{
+			return (dataStore.deleteVertex(m_vertexId));
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException
+		{
+			out.writeByte(DELETE_VERTEX);
+			Util.packBytes(m_vertexId, out);
+		}
+
+		/**
+		 The delete cascades to the edges on every neighbor.
+		 */
+		@Override
+		boolean isBarrier()
+		{
+			return (true);
+		}
+	}
+
+	static class AddEdges extends Mutation
+	{
+		private final Collection<Edge> m_edges;
+
+		AddEdges(Collection<Edge> edges)
+		{
+			m_edges = edges;
+		}
+
+		Collection<Edge> getEdges()
+		{
+			return (m_edges);
+		}
+
+		@Override
+		CompletableFuture<Void> apply(DataStore dataStore)
+		{
+			return (dataStore.addEdges(m_edges));
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException
+		{
+			out.writeByte(ADD_EDGES);
+			Util.packUnsignedLong(m_edges.size(), out);
+			for (Edge edge : m_edges)
+			{
+				Util.packBytes(edge.getSourceVertexId(), out);
+				Util.packBytes(edge.getDestVertexId(), out);
+				Util.packString(edge.getDirection().name(), out);
+				Util.packString(edge.getEdgeType(), out);
+				Util.packLong(edge.getWhen(), out);
+			}
+		}
+
+		@Override
+		Collection<ByteBuffer> getEdgeVertices()
+		{
+			List<ByteBuffer> ret = new ArrayList<>(m_edges.size() * 2);
+			for (Edge edge : m_edges)
+			{
+				ret.add(edge.getSourceVertexId());
+				ret.add(edge.getDestVertexId());
+			}
+
+			return (ret);
+		}
+
+		@Override
+		boolean isEdgeAdd()
+		{
+			return (true);
+		}
+	}
+
+	static class DeleteEdge extends Mutation
+	{
+		private final ByteBuffer m_sourceVertexId;
+		private final ByteBuffer m_destVertexId;
+		private final String m_edgeType;
+
+		DeleteEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType)
+		{
+			m_sourceVertexId = sourceVertexId;
+			m_destVertexId = destVertexId;
+			m_edgeType = edgeType;
+		}
+
+		@Override
+		CompletableFuture<Void> apply(DataStore dataStore)
+		{
+			return (dataStore.deleteEdge(m_sourceVertexId, m_destVertexId, m_edgeType));
+		}
+
+		@Override
+		void write(DataOutput out) throws IOException
+		{
+			out.writeByte(DELETE_EDGE);
+			Util.packBytes(m_sourceVertexId, out);
+			Util.packBytes(m_destVertexId, out);
+			Util.packString(m_edgeType, out);
+		}
+
+		@Override
+		Collection<ByteBuffer> getEdgeVertices()
+		{
+			return (Arrays.asList(m_sourceVertexId, m_destVertexId));
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package org.asterion.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Append only log kept in memory mapped segment files.  An append is a
+ copy into the mapping, force() flushes the mappings to disk.  Records
+ are read back in the order they were appended and the reader commits
+ the position it has finished with to a checkpoint file, segments wholly
+ behind the checkpoint are deleted.
+
+ A record is its length, a CRC32 of the payload and the payload.  Segment
+ files are zero filled when created so a length of 0 marks the end of the
+ records in a segment.  When the log is opened the last segment is checked
+ and a record that fails its CRC, from a crash part way through an append,
+ ends the log.
+
+ A position packs the segment number in the high 32 bits and the offset
+ within the segment in the low 32, positions compare in log order.
+ */
+class MutationLog
+{
+	public static final Logger logger = LoggerFactory.getLogger(MutationLog.class);
+
+	private static final int HEADER_SIZE = 8;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	static class Entry
+	{
+		private final byte[] m_payload;
+		private final long m_end;
+
+		private Entry(byte[] payload, long end)
+		{
+			m_payload = payload;
+			m_end = end;
+		}
+
+		byte[] getPayload()
+		{
+			return (m_payload);
+		}
+
+		/**
+		 Position just after the record, commit this once it is applied.
+		 */
+		long getEnd()
+		{
+			return (m_end);
+		}
+	}
+
+	private final File m_directory;
+	private final int m_segmentSize;
+	private final TreeMap<Integer, MappedByteBuffer> m_segments = new TreeMap<>();
+	private final MappedByteBuffer m_checkpoint;
+	private final CRC32 m_crc = new CRC32();
+	private long m_writePosition;
+	private long m_forcedPosition;
+	private long m_readPosition;
+	private long m_committedPosition;
+
+	/**
+	 Opens the log in the directory, creating it if needed.
+	 @param segmentSize size of new segment files, existing segments keep
+	 the size they were created with
+	 */
+	MutationLog(File directory, int segmentSize) throws IOException
+	{
+		checkArgument(segmentSize > HEADER_SIZE, "Segment size must be greater than " + HEADER_SIZE);
+
+		m_directory = directory;
+		m_segmentSize = segmentSize;
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory);
+
+		m_checkpoint = map(new File(directory, CHECKPOINT_FILE), 8);
+		m_committedPosition = m_checkpoint.getLong(0);
+
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Unable to list " + directory);
+
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+				continue;
+
+			int segment = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+					name.length() - SEGMENT_SUFFIX.length()), 16);
+
+			if (segment < segment(m_committedPosition))
+				delete(file);
+			else
+				m_segments.put(segment, map(file, 0));
+		}
+
+		if (m_segments.isEmpty())
+		{
+			int segment = segment(m_committedPosition);
+			m_segments.put(segment, map(segmentFile(segment), m_segmentSize));
+			m_writePosition = position(segment, 0);
+		}
+		else
+			m_writePosition = recover(m_segments.lastKey());
+
+		if (m_committedPosition < position(m_segments.firstKey(), 0))
+			m_committedPosition = position(m_segments.firstKey(), 0);
+		if (m_committedPosition > m_writePosition)
+			m_committedPosition = m_writePosition;
+
+		m_forcedPosition = m_writePosition;
+		m_readPosition = m_committedPosition;
+	}
+
+	static int segment(long position)
+	{
+		return ((int) (position >>> 32));
+	}
+
+	static int offset(long position)
+	{
+		return ((int) position);
+	}
+
+	static long position(int segment, int offset)
+	{
+		return (((long) segment << 32) | (offset & 0xFFFFFFFFL));
+	}
+
+	private File segmentFile(int segment)
+	{
+		return (new File(m_directory, String.format("%s%08x%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX)));
+	}
+
+	/**
+	 Maps the whole file, extending it to size first if it is shorter.
+	 */
+	private static MappedByteBuffer map(File file, int size) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			if (raf.length() < size)
+				raf.setLength(size);
+
+			return (raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+		}
+	}
+
+	private static void delete(File file)
+	{
+		if (!file.delete())
+			logger.warn("Unable to delete " + file);
+	}
+
+	/**
+	 Finds the end of the records in the segment, zeroing anything after a
+	 damaged record so later appends are not mixed with its remains.
+	 */
+	private long recover(int segment)
+	{
+		MappedByteBuffer buffer = m_segments.get(segment);
+		int offset = 0;
+
+		while (true)
+		{
+			int length = recordLength(buffer, offset);
+			if (length == 0)
+				break;
+
+			ByteBuffer payload = buffer.duplicate();
+			payload.position(offset + HEADER_SIZE);
+			payload.limit(offset + HEADER_SIZE + length);
+
+			if (crc(payload) != buffer.getInt(offset + 4))
+			{
+				logger.warn("Damaged record at " + offset + " in " + segmentFile(segment) + ", the log ends there");
+
+				for (int i = offset; i < buffer.capacity(); i++)
+					buffer.put(i, (byte) 0);
+				break;
+			}
+
+			offset += HEADER_SIZE + length;
+		}
+
+		return (position(segment, offset));
+	}
+
+	/**
+	 Length of the record at the offset, 0 if there are no more records in
+	 the segment.
+	 */
+	private static int recordLength(ByteBuffer buffer, int offset)
+	{
+		if (offset + HEADER_SIZE > buffer.capacity())
+			return (0);
+
+		int length = buffer.getInt(offset);
+		if (length < 0 || length > buffer.capacity() - offset - HEADER_SIZE)
+			return (0);
+
+		return (length);
+	}
+
+	private int crc(ByteBuffer payload)
+	{
+		m_crc.reset();
+		m_crc.update(payload);
+
+		return ((int) m_crc.getValue());
+	}
+
+	/**
+	 Copies the record into the log, it is durable once force() returns a
+	 position at or past the returned end.
+	 @return position just after the record
+	 */
+	synchronized long append(byte[] payload) throws IOException
+	{
+		checkArgument(payload.length > 0, "Empty records can not be logged");
+		checkArgument(payload.length <= m_segmentSize - HEADER_SIZE, "Record of " + payload.length +
+				" bytes does not fit in a segment");
+
+		int segment = segment(m_writePosition);
+		int offset = offset(m_writePosition);
+		MappedByteBuffer buffer = m_segments.get(segment);
+
+		if (offset + HEADER_SIZE + payload.length > buffer.capacity())
+		{
+			//The rest of the old segment is already zero
+			buffer.force();
+
+			segment++;
+			offset = 0;
+			buffer = map(segmentFile(segment), m_segmentSize);
+			m_segments.put(segment, buffer);
+		}
+
+		ByteBuffer record = buffer.duplicate();
+		record.position(offset + HEADER_SIZE);
+		record.put(payload);
+
+		//Length last, a reader never sees a length without its payload
+		buffer.putInt(offset + 4, crc(ByteBuffer.wrap(payload)));
+		buffer.putInt(offset, payload.length);
+
+		m_writePosition = position(segment, offset + HEADER_SIZE + payload.length);
+
+		return (m_writePosition);
+	}
+
+	/**
+	 Flushes appended records to disk.
+	 @return position the log is durable up to
+	 */
+	long force()
+	{
+		long position;
+		List<MappedByteBuffer> unforced = new ArrayList<>();
+
+		synchronized (this)
+		{
+			position = m_writePosition;
+			if (position == m_forcedPosition)
+				return (position);
+
+			//Segments rolled past were forced when they filled
+			unforced.add(m_segments.get(segment(position)));
+		}
+
+		for (MappedByteBuffer buffer : unforced)
+			buffer.force();
+
+		synchronized (this)
+		{
+			if (position > m_forcedPosition)
+				m_forcedPosition = position;
+		}
+
+		return (position);
+	}
+
+	/**
+	 Returns up to max records following those already read.
+	 */
+	synchronized List<Entry> read(int max)
+	{
+		List<Entry> ret = new ArrayList<>();
+
+		while (ret.size() < max && m_readPosition < m_writePosition)
+		{
+			int segment = segment(m_readPosition);
+			int offset = offset(m_readPosition);
+			MappedByteBuffer buffer = m_segments.get(segment);
+
+			int length = recordLength(buffer, offset);
+			if (length == 0)
+			{
+				m_readPosition = position(segment + 1, 0);
+				continue;
+			}
+
+			byte[] payload = new byte[length];
+			ByteBuffer record = buffer.duplicate();
+			record.position(offset + HEADER_SIZE);
+			record.get(payload);
+
+			m_readPosition = position(segment, offset + HEADER_SIZE + length);
+			ret.add(new Entry(payload, m_readPosition));
+		}
+
+		return (ret);
+	}
+
+	/**
+	 Moves the next read back to the checkpoint, records read since the
+	 last commit are read again.
+	 */
+	synchronized void rewind()
+	{
+		m_readPosition = m_committedPosition;
+	}
+
+	/**
+	 Records that everything before the position has been applied.
+	 */
+	synchronized void commit(long position)
+	{
+		m_committedPosition = position;
+		m_checkpoint.putLong(0, position);
+
+		int segment = segment(position);
+		while (m_segments.firstKey() < segment)
+		{
+			Map.Entry<Integer, MappedByteBuffer> first = m_segments.pollFirstEntry();
+			delete(segmentFile(first.getKey()));
+		}
+	}
+
+	/**
+	 True if every appended record has been committed.
+	 */
+	synchronized boolean isDrained()
+	{
+		return (m_committedPosition >= m_writePosition);
+	}
+
+	/**
+	 Bytes appended but not yet committed, an estimate once the backlog
+	 spans segments of different sizes.
+	 */
+	synchronized long getBacklog()
+	{
+		return ((long) (segment(m_writePosition) - segment(m_committedPosition)) * m_segmentSize +
+				offset(m_writePosition) - offset(m_committedPosition));
+	}
+
+	synchronized void close()
+	{
+		force();
+		m_checkpoint.force();
+	}
+}
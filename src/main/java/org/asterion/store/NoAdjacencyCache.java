@@ -0,0 +1,32 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ Turns adjacency caching off.
+ */
+public class NoAdjacencyCache implements AdjacencyCache
+{
+	@Override
+	public List<ByteBuffer> get(ByteBuffer vertexId, String edgeType, Direction direction)
+	{
+		return (null);
+	}
+
+	@Override
+	public long getStamp(ByteBuffer vertexId, String edgeType)
+	{
+		return (0L);
+	}
+
+	@Override
+	public void put(ByteBuffer vertexId, String edgeType, Direction direction, List<ByteBuffer> neighbors, long stamp)
+	{
+	}
+
+	@Override
+	public void invalidate(ByteBuffer vertexId, String edgeType)
+	{
+	}
+}
@@ -0,0 +1,32 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ Turns vertex caching off.
+ */
+public class NoVertexCache implements VertexCache
+{
+	@Override
+	public Map<String, String> get(ByteBuffer vertexId)
+	{
+		return (null);
+	}
+
+	@Override
+	public long getStamp(ByteBuffer vertexId)
+	{
+		return (0L);
+	}
+
+	@Override
+	public void put(ByteBuffer vertexId, Map<String, String> properties, long stamp)
+	{
+	}
+
+	@Override
+	public void invalidate(ByteBuffer vertexId)
+	{
+	}
+}
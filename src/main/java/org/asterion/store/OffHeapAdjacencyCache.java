@@ -0,0 +1,328 @@
+package org.asterion.store;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Adjacency cache that keeps each neighbor list in pages of a PageArena, a
+ hot vertex with thousands of neighbors costs the collector a couple of
+ objects rather than thousands.  A list is encoded as a varint count
+ followed by each neighbor as a varint length and its bytes.
+
+ The arena is the bound, the direct memory used never exceeds the cache
+ bytes.  Entries are weighed by their pages and the least recently used
+ are evicted once they fill all but an eighth of the arena, the rest is
+ room for the next put.  Lists larger than that, or longer than the
+ neighbor limit, are not cached so a single supernode can not flush
+ everything else.  An entry's pages go back to the arena once it is
+ removed and no read still holds it.  Writes made through other nodes are
+ not seen here, entries expire after the ttl so they are not stale for
+ longer than that.
+ */
+public class OffHeapAdjacencyCache implements AdjacencyCache
+{
+	public static final String CACHE_BYTES_PROPERTY = "asterion.cache.adjacency.bytes";
+	public static final String MAX_NEIGHBORS_PROPERTY = "asterion.cache.adjacency.max_neighbors";
+	public static final String TTL_PROPERTY = "asterion.cache.adjacency.ttl_ms";
+
+	private static final int STAMP_STRIPES = 1024;
+
+	private final PageArena m_arena;
+	private final Cache<AdjacencyKey, Neighbors> m_cache;
+	private final int m_maxNeighbors;
+	private final int m_maxPages;
+
+	//Bumped when a vertex and edge type in the stripe is invalidated
+	private final AtomicLongArray m_stamps = new AtomicLongArray(STAMP_STRIPES);
+	private final AtomicLong m_bytes = new AtomicLong();
+
+	private final Counter m_hits;
+	private final Counter m_misses;
+	private final Counter m_evictions;
+
+	@Inject
+	public OffHeapAdjacencyCache(@Named(CACHE_BYTES_PROPERTY) long maxBytes,
+			@Named(MAX_NEIGHBORS_PROPERTY) int maxNeighbors,
+			@Named(TTL_PROPERTY) long ttl,
+			MetricRegistry metricRegistry)
+	{
+		checkArgument(maxBytes >= 0, "maxBytes must not be negative");
+		checkArgument(maxNeighbors >= 0, "maxNeighbors must not be negative");
+		checkArgument(ttl > 0, "ttl must be greater than 0");
+
+		m_maxNeighbors = maxNeighbors;
+		m_arena = new PageArena(maxBytes);
+		m_maxPages = m_arena.getPageCount() / 8;
+
+		m_hits = metricRegistry.counter(MetricRegistry.name(AdjacencyCache.class, "hits"));
+		m_misses = metricRegistry.counter(MetricRegistry.name(AdjacencyCache.class, "misses"));
+		m_evictions = metricRegistry.counter(MetricRegistry.name(AdjacencyCache.class, "evictions"));
+
+		m_cache = CacheBuilder.newBuilder()
+				.maximumWeight((long) (m_arena.getPageCount() - m_maxPages) * PageArena.PAGE_SIZE)
+				.<AdjacencyKey, Neighbors>weigher((key, neighbors) -> neighbors.m_pages.length * PageArena.PAGE_SIZE)
+				.expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+				.<AdjacencyKey, Neighbors>removalListener(notification ->
+				{
+					notification.getValue().release();
+
+					if (notification.getCause() == RemovalCause.SIZE)
+						m_evictions.inc();
+				})
+				.build();
+
+		metricRegistry.register(MetricRegistry.name(AdjacencyCache.class, "size"), new Gauge<Long>()
+		{
+			@Override
+			public Long getValue()
+			{
+				return (m_cache.size());
+			}
+		});
+
+		metricRegistry.register(MetricRegistry.name(AdjacencyCache.class, "bytes"), new Gauge<Long>()
+		{
+			@Override
+			public Long getValue()
+			{
+				return (m_bytes.get());
+			}
+		});
+	}
+
+	@Override
+	public List<ByteBuffer> get(ByteBuffer vertexId, String edgeType, Direction direction)
+	{
+		Neighbors neighbors = m_cache.getIfPresent(new AdjacencyKey(vertexId, edgeType, direction));
+
+		//An entry removed since the lookup may have its pages reused
+		if (neighbors == null || !neighbors.retain())
+		{
+			m_misses.inc();
+			return (null);
+		}
+
+		try
+		{
+			m_hits.inc();
+			return (decode(ByteBuffer.wrap(m_arena.read(neighbors.m_pages, neighbors.m_length))));
+		}
+		finally
+		{
+			neighbors.release();
+		}
+	}
+
+	@Override
+	public long getStamp(ByteBuffer vertexId, String edgeType)
+	{
+		return (m_stamps.get(stripe(vertexId, edgeType)));
+	}
+
+	@Override
+	public void put(ByteBuffer vertexId, String edgeType, Direction direction, List<ByteBuffer> neighbors, long stamp)
+	{
+		int stripe = stripe(vertexId, edgeType);
+		if (neighbors.size() > m_maxNeighbors || m_stamps.get(stripe) != stamp)
+			return;
+
+		//Copy the id so the caller is free to reuse its buffer
+		ByteBuffer copy = ByteBuffer.allocate(vertexId.remaining());
+		copy.put(vertexId.duplicate()).flip();
+
+		byte[] encoded = encode(neighbors);
+		int pageCount = PageArena.pagesFor(encoded.length);
+		if (pageCount > m_maxPages)
+			return;
+
+		//Only short of pages while removed entries are still being read
+		int[] pages = m_arena.allocate(pageCount);
+		if (pages == null)
+			return;
+
+		m_arena.write(pages, encoded);
+		m_bytes.addAndGet(pages.length * PageArena.PAGE_SIZE);
+		m_cache.put(new AdjacencyKey(copy, edgeType, direction), new Neighbors(pages, encoded.length));
+
+		//An invalidate may have slipped in between the check and the put
+		if (m_stamps.get(stripe) != stamp)
+			m_cache.invalidate(new AdjacencyKey(vertexId, edgeType, direction));
+	}
+
+	@Override
+	public void invalidate(ByteBuffer vertexId, String edgeType)
+	{
+		m_stamps.incrementAndGet(stripe(vertexId, edgeType));
+
+		for (Direction direction : Direction.values())
+			m_cache.invalidate(new AdjacencyKey(vertexId, edgeType, direction));
+	}
+
+	private static int stripe(ByteBuffer vertexId, String edgeType)
+	{
+		return (((31 * vertexId.hashCode() + edgeType.hashCode()) & 0x7fffffff) % STAMP_STRIPES);
+	}
+
+	private static byte[] encode(List<ByteBuffer> neighbors)
+	{
+		int size = varintSize(neighbors.size());
+		for (ByteBuffer neighbor : neighbors)
+			size += varintSize(neighbor.remaining()) + neighbor.remaining();
+
+		ByteBuffer ret = ByteBuffer.allocate(size);
+		putVarint(ret, neighbors.size());
+		for (ByteBuffer neighbor : neighbors)
+		{
+			putVarint(ret, neighbor.remaining());
+			ret.put(neighbor.duplicate());
+		}
+
+		return (ret.array());
+	}
+
+	/**
+	 Decodes a copy of the pages, callers may hold on to the neighbors after
+	 the list is evicted.
+	 */
+	private static List<ByteBuffer> decode(ByteBuffer encoded)
+	{
+		int count = getVarint(encoded);
+		List<ByteBuffer> ret = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			byte[] neighbor = new byte[getVarint(encoded)];
+			encoded.get(neighbor);
+			ret.add(ByteBuffer.wrap(neighbor));
+		}
+
+		return (ret);
+	}
+
+	private static int varintSize(int value)
+	{
+		int ret = 1;
+		while ((value >>>= 7) != 0)
+			ret++;
+
+		return (ret);
+	}
+
+	private static void putVarint(ByteBuffer buffer, int value)
+	{
+		while ((value & ~0x7f) != 0)
+		{
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer buffer)
+	{
+		int ret = 0;
+		int shift = 0;
+		byte b;
+
+		do
+		{
+			b = buffer.get();
+			ret |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return (ret);
+	}
+
+	/**
+	 A cached list and the reads holding it, the cache holds one reference
+	 until it removes the entry.  The pages are freed with the last.
+	 */
+	private class Neighbors
+	{
+		private final int[] m_pages;
+		private final int m_length;
+		private final AtomicInteger m_references = new AtomicInteger(1);
+
+		private Neighbors(int[] pages, int length)
+		{
+			m_pages = pages;
+			m_length = length;
+		}
+
+		private boolean retain()
+		{
+			int references;
+			do
+			{
+				references = m_references.get();
+				if (references == 0)
+					return (false);
+			} while (!m_references.compareAndSet(references, references + 1));
+
+			return (true);
+		}
+
+		private void release()
+		{
+			if (m_references.decrementAndGet() == 0)
+			{
+				m_arena.free(m_pages);
+				m_bytes.addAndGet(-m_pages.length * PageArena.PAGE_SIZE);
+			}
+		}
+	}
+
+	private static class AdjacencyKey
+	{
+		private final ByteBuffer m_vertexId;
+		private final String m_edgeType;
+		private final Direction m_direction;
+
+		private AdjacencyKey(ByteBuffer vertexId, String edgeType, Direction direction)
+		{
+			m_vertexId = vertexId;
+			m_edgeType = edgeType;
+			m_direction = direction;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			AdjacencyKey that = (AdjacencyKey) o;
+
+			return m_direction == that.m_direction &&
+					m_vertexId.equals(that.m_vertexId) &&
+					m_edgeType.equals(that.m_edgeType);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int result = m_vertexId.hashCode();
+			result = 31 * result + m_edgeType.hashCode();
+			result = 31 * result + m_direction.hashCode();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Fixed size pages carved out of direct buffers, the direct memory in use
+ never exceeds the size the arena was created with.  Slabs are allocated
+ as pages are first needed and are kept for the life of the arena, freed
+ pages are handed out again rather than left for the collector.
+ */
+class PageArena
+{
+	public static final int PAGE_SIZE = 256;
+
+	private static final int PAGES_PER_SLAB = 4096;
+
+	private final int m_pageCount;
+	private final ByteBuffer[] m_slabs;
+
+	//Guarded by this
+	private final int[] m_freePages;
+	private int m_freeCount = 0;
+	//Pages below this have been handed out at least once
+	private int m_nextPage = 0;
+
+	PageArena(long maxBytes)
+	{
+		checkArgument(maxBytes >= 0, "maxBytes must not be negative");
+		checkArgument(maxBytes / PAGE_SIZE <= Integer.MAX_VALUE, "maxBytes is too large");
+
+		m_pageCount = (int) (maxBytes / PAGE_SIZE);
+		m_slabs = new ByteBuffer[(m_pageCount + PAGES_PER_SLAB - 1) / PAGES_PER_SLAB];
+		m_freePages = new int[m_pageCount];
+	}
+
+	int getPageCount()
+	{
+		return (m_pageCount);
+	}
+
+	static int pagesFor(int bytes)
+	{
+		return ((bytes + PAGE_SIZE - 1) / PAGE_SIZE);
+	}
+
+	/**
+	 Returns the pages or null if the arena does not have that many free.
+	 */
+	synchronized int[] allocate(int count)
+	{
+		if (count > m_freeCount + (m_pageCount - m_nextPage))
+			return (null);
+
+		int[] ret = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			if (m_freeCount > 0)
+				ret[i] = m_freePages[--m_freeCount];
+			else
+			{
+				int slab = m_nextPage / PAGES_PER_SLAB;
+				if (m_slabs[slab] == null)
+				{
+					int pages = Math.min(PAGES_PER_SLAB, m_pageCount - slab * PAGES_PER_SLAB);
+					m_slabs[slab] = ByteBuffer.allocateDirect(pages * PAGE_SIZE);
+				}
+
+				ret[i] = m_nextPage++;
+			}
+		}
+
+		return (ret);
+	}
+
+	synchronized void free(int[] pages)
+	{
+		for (int page : pages)
+			m_freePages[m_freeCount++] = page;
+	}
+
+	/**
+	 Copies bytes into the pages, filling each page before the next.
+	 */
+	void write(int[] pages, byte[] bytes)
+	{
+		for (int i = 0; i < pages.length; i++)
+		{
+			int offset = i * PAGE_SIZE;
+			page(pages[i]).put(bytes, offset, Math.min(PAGE_SIZE, bytes.length - offset));
+		}
+	}
+
+	byte[] read(int[] pages, int length)
+	{
+		byte[] ret = new byte[length];
+		for (int i = 0; i < pages.length; i++)
+		{
+			int offset = i * PAGE_SIZE;
+			page(pages[i]).get(ret, offset, Math.min(PAGE_SIZE, length - offset));
+		}
+
+		return (ret);
+	}
+
+	/**
+	 Slabs are shared, each caller gets its own view of the page.  The
+	 pages reach readers after the allocate() that created their slab so
+	 the slab is always visible.
+	 */
+	private ByteBuffer page(int page)
+	{
+		ByteBuffer slab = m_slabs[page / PAGES_PER_SLAB];
+
+		ByteBuffer ret = slab.duplicate();
+		int start = (page % PAGES_PER_SLAB) * PAGE_SIZE;
+		ret.limit(start + PAGE_SIZE).position(start);
+		return (ret);
+	}
+}
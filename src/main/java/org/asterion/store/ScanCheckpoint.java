@@ -0,0 +1,69 @@
+package org.asterion.store;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ Records the token ranges a GraphScanner scan has finished.  Backed by a
+ file the checkpoint outlives the process, a scan started with the same
+ file skips the ranges an earlier scan finished.
+ */
+public class ScanCheckpoint
+{
+	private final Set<TokenRange> m_finished = new HashSet<>();
+	private PrintWriter m_writer;
+
+	/**
+	 Checkpoint that is only kept in memory.
+	 */
+	public ScanCheckpoint()
+	{
+	}
+
+	public ScanCheckpoint(File checkpointFile) throws IOException
+	{
+		if (checkpointFile.exists())
+		{
+			for (String line : FileUtils.readLines(checkpointFile))
+			{
+				if (!line.isEmpty())
+					m_finished.add(TokenRange.parse(line));
+			}
+		}
+
+		m_writer = new PrintWriter(new FileOutputStream(checkpointFile, true));
+	}
+
+	public synchronized boolean isFinished(TokenRange range)
+	{
+		return (m_finished.contains(range));
+	}
+
+	public synchronized int getFinishedCount()
+	{
+		return (m_finished.size());
+	}
+
+	public synchronized void finished(TokenRange range)
+	{
+		m_finished.add(range);
+
+		if (m_writer != null)
+		{
+			m_writer.println(range);
+			m_writer.flush();
+		}
+	}
+
+	public synchronized void close()
+	{
+		if (m_writer != null)
+			m_writer.close();
+	}
+}
@@ -0,0 +1,93 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+
+/**
+ Iterates the rows of a token range scan, turning one or more consecutive
+ rows into each value.  The next page is requested once half of the
+ current page has been consumed.  The rows the scan returned are reported
+ once it reaches the end.
+ */
+abstract class ScanIterator<T> implements Iterator<T>
+{
+	private final ResultSet m_resultSet;
+	private final int m_prefetchThreshold;
+	private final IntConsumer m_rowsRead;
+	private Row m_pushedBack;
+	private T m_next;
+	private int m_rows = 0;
+	private boolean m_finished = false;
+
+	ScanIterator(ResultSet resultSet, int fetchSize, IntConsumer rowsRead)
+	{
+		m_resultSet = resultSet;
+		m_prefetchThreshold = Math.max(1, fetchSize / 2);
+		m_rowsRead = rowsRead;
+	}
+
+	/**
+	 Builds the next value starting with the given row.  Rows read past
+	 the value are handed back with pushBack.
+	 */
+	protected abstract T read(Row first);
+
+	protected Row nextRow()
+	{
+		if (m_pushedBack != null)
+		{
+			Row row = m_pushedBack;
+			m_pushedBack = null;
+			return (row);
+		}
+
+		if (m_resultSet.getAvailableWithoutFetching() <= m_prefetchThreshold && !m_resultSet.isFullyFetched())
+			m_resultSet.fetchMoreResults();
+
+		Row row = m_resultSet.one();
+		if (row != null)
+			m_rows++;
+		else if (!m_finished)
+		{
+			m_finished = true;
+			m_rowsRead.accept(m_rows);
+		}
+
+		return (row);
+	}
+
+	protected void pushBack(Row row)
+	{
+		m_pushedBack = row;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (m_next != null)
+			return (true);
+
+		Row row = nextRow();
+		if (row == null)
+			return (false);
+
+		m_next = read(row);
+		return (true);
+	}
+
+	@Override
+	public T next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		T ret = m_next;
+		m_next = null;
+
+		return (ret);
+	}
+}
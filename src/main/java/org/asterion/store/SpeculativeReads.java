@@ -0,0 +1,98 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ Sends a read a second time when the first attempt has not answered within
+ the delay, whichever attempt answers first wins.  The token aware load
+ balancer moves on to the next replica for the second attempt so a single
+ slow replica does not hold up the read.  Only idempotent reads may go
+ through here.
+ */
+class SpeculativeReads
+{
+	private final Session m_session;
+	private final long m_delay;
+	private final ScheduledExecutorService m_timer;
+
+	SpeculativeReads(Session session, long delay)
+	{
+		m_session = session;
+		m_delay = delay;
+
+		if (delay > 0)
+			m_timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("speculative-read-%d").setDaemon(true).build());
+		else
+			m_timer = null;
+	}
+
+	public ListenableFuture<ResultSet> execute(final Statement statement)
+	{
+		if (m_timer == null)
+			return (m_session.executeAsync(statement));
+
+		final SettableFuture<ResultSet> ret = SettableFuture.create();
+		final AtomicInteger outstanding = new AtomicInteger(1);
+
+		forward(m_session.executeAsync(statement), ret, outstanding);
+
+		final ScheduledFuture<?> retry = m_timer.schedule(() ->
+		{
+			if (ret.isDone())
+				return;
+
+			outstanding.incrementAndGet();
+			forward(m_session.executeAsync(statement), ret, outstanding);
+		}, m_delay, TimeUnit.MILLISECONDS);
+
+		ret.addListener(() -> retry.cancel(false), MoreExecutors.sameThreadExecutor());
+
+		return (ret);
+	}
+
+	/**
+	 A failed attempt only fails the read when no other attempt is still
+	 outstanding.  A failure before the second attempt starts is reported
+	 right away, it was not slow and the driver has already retried it.
+	 */
+	private static void forward(ListenableFuture<ResultSet> attempt, final SettableFuture<ResultSet> ret,
+			final AtomicInteger outstanding)
+	{
+		Futures.addCallback(attempt, new FutureCallback<ResultSet>()
+		{
+			@Override
+			public void onSuccess(ResultSet result)
+			{
+				ret.set(result);
+			}
+
+			@Override
+			public void onFailure(Throwable t)
+			{
+				if (outstanding.decrementAndGet() == 0)
+					ret.setException(t);
+			}
+		});
+	}
+
+	public void close()
+	{
+		if (m_timer != null)
+			m_timer.shutdownNow();
+	}
+}
@@ -0,0 +1,119 @@
+package org.asterion.store;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ Prepares every statement used by CassandraStore once, against a single
+ long-lived session, and hands out bound statements for them.  Preparing is
+ a server round trip so it must never happen on the request path.
+ Reads and writes each get their own consistency level, bound statements
+ inherit it from the prepared statement.
+ */
+public class StatementRegistry
+{
+	public enum Query
+	{
+		INSERT_VERTEX_PROPERTY("INSERT INTO vertices (vertex_id, property_name, property_value) VALUES (?, ?, ?);"),
+		SELECT_VERTEX_PROPERTIES("SELECT property_name, property_value FROM vertices WHERE vertex_id = ?;"),
+		SELECT_VERTEX_PROPERTY("SELECT property_value FROM vertices WHERE vertex_id = ? AND property_name = ?;"),
+		SELECT_VERTEX_PROPERTIES_IN("SELECT property_name, property_value FROM vertices WHERE vertex_id = ? AND property_name IN ?;"),
+		DELETE_VERTEX_PROPERTY("DELETE FROM vertices WHERE vertex_id = ? AND property_name = ?;"),
+		DELETE_VERTEX("DELETE FROM vertices WHERE vertex_id = ?;"),
+		INSERT_INDEX("INSERT INTO vertex_indices (property_name, property_value, vertex_id) VALUES (?, ?, ?);"),
+		DELETE_INDEX("DELETE FROM vertex_indices WHERE property_name = ? AND property_value = ? AND vertex_id = ?;"),
+		SELECT_INDEX("SELECT vertex_id FROM vertex_indices WHERE property_name = ? AND property_value = ?;"),
+		SELECT_INDEX_FROM("SELECT property_value, vertex_id FROM vertex_indices WHERE property_name = ? AND property_value >= ? LIMIT ?;"),
+		SELECT_INDEX_RANGE("SELECT property_value, vertex_id FROM vertex_indices WHERE property_name = ? AND property_value >= ? AND property_value < ? LIMIT ?;"),
+		INSERT_EDGE("INSERT INTO vertex_edges (vertex_id, edge_type, bucket_start, direction, edge_id, when) VALUES (?, ?, ?, ?, ?, ?);"),
+		SELECT_EDGES("SELECT direction, edge_id, when FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ?;"),
+		SELECT_EDGES_AFTER("SELECT direction, edge_id, when FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ? AND (direction, edge_id) > (?, ?);"),
+		SELECT_DIRECTED_EDGES("SELECT direction, edge_id, when FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ? AND direction = ?;"),
+		SELECT_DIRECTED_EDGES_AFTER("SELECT direction, edge_id, when FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ? AND direction = ? AND edge_id > ?;"),
+		SELECT_EDGE("SELECT when FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ? AND direction = ? AND edge_id = ?;"),
+		DELETE_EDGE("DELETE FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ? AND direction = ? AND edge_id = ?;"),
+		DELETE_EDGE_PARTITION("DELETE FROM vertex_edges WHERE vertex_id = ? AND edge_type = ? AND bucket_start = ?;"),
+		INSERT_EDGE_TYPE("INSERT INTO vertex_edge_types (vertex_id, edge_type) VALUES (?, ?);"),
+		SELECT_EDGE_TYPES("SELECT edge_type FROM vertex_edge_types WHERE vertex_id = ?;"),
+		DELETE_EDGE_TYPES("DELETE FROM vertex_edge_types WHERE vertex_id = ?;"),
+		INSERT_EDGE_BUCKET("INSERT INTO vertex_edge_buckets (vertex_id, edge_type, bucket_start) VALUES (?, ?, ?);"),
+		SELECT_EDGE_BUCKETS("SELECT bucket_start FROM vertex_edge_buckets WHERE vertex_id = ? AND edge_type = ? AND bucket_start >= ? AND bucket_start <= ?;"),
+		SELECT_ALL_EDGE_BUCKETS("SELECT bucket_start FROM vertex_edge_buckets WHERE vertex_id = ? AND edge_type = ?;"),
+		DELETE_EDGE_BUCKETS("DELETE FROM vertex_edge_buckets WHERE vertex_id = ? AND edge_type = ?;"),
+		SELECT_INTERNAL_ID("SELECT internal_id FROM vertex_ids WHERE vertex_id = ?;"),
+		INSERT_INTERNAL_ID("INSERT INTO vertex_ids (vertex_id, internal_id) VALUES (?, ?) IF NOT EXISTS;"),
+		SELECT_VERTEX_ID("SELECT vertex_id FROM internal_ids WHERE internal_id = ?;"),
+		INSERT_VERTEX_ID("INSERT INTO internal_ids (internal_id, vertex_id) VALUES (?, ?);"),
+		INSERT_ID_ALLOCATOR("INSERT INTO id_allocator (name, next_id) VALUES (?, ?) IF NOT EXISTS;"),
+		UPDATE_ID_ALLOCATOR("UPDATE id_allocator SET next_id = ? WHERE name = ? IF next_id = ?;"),
+		UPDATE_DEGREE("UPDATE vertex_degrees SET degree = degree + ? WHERE vertex_id = ? AND edge_type = ? AND direction = ?;"),
+		SELECT_DEGREES("SELECT edge_type, direction, degree FROM vertex_degrees WHERE vertex_id = ?;"),
+		SCAN_VERTICES("SELECT vertex_id, property_name, property_value FROM vertices WHERE token(vertex_id) > ? AND token(vertex_id) <= ?;"),
+		SCAN_EDGES("SELECT vertex_id, edge_type, direction, edge_id, when FROM vertex_edges WHERE token(vertex_id, edge_type, bucket_start) > ? AND token(vertex_id, edge_type, bucket_start) <= ?;");
+
+		private final String m_cql;
+
+		Query(String cql)
+		{
+			m_cql = cql;
+		}
+
+		public String getCql()
+		{
+			return (m_cql);
+		}
+
+		public boolean isRead()
+		{
+			return (m_cql.startsWith("SELECT"));
+		}
+	}
+
+	private final Map<Query, PreparedStatement> m_statements = new EnumMap<>(Query.class);
+	private final Map<PreparedStatement, Query> m_queries = new IdentityHashMap<>();
+
+	public StatementRegistry(Session session, ConsistencyLevel readConsistency,
+			ConsistencyLevel writeConsistency)
+	{
+		for (Query query : Query.values())
+		{
+			PreparedStatement statement = session.prepare(query.getCql());
+			statement.setConsistencyLevel(query.isRead() ? readConsistency : writeConsistency);
+			m_statements.put(query, statement);
+			m_queries.put(statement, query);
+		}
+	}
+
+	public PreparedStatement get(Query query)
+	{
+		return (m_statements.get(query));
+	}
+
+	/**
+	 Returns a new bound statement for the query.  Bound statements are
+	 not thread safe so a new one is needed for every execution.
+	 */
+	public BoundStatement bind(Query query)
+	{
+		return (new BoundStatement(m_statements.get(query)));
+	}
+
+	/**
+	 Returns the query a statement was bound from, null if it was not bound
+	 by this registry.
+	 */
+	public Query getQuery(Statement statement)
+	{
+		if (statement instanceof BoundStatement)
+			return (m_queries.get(((BoundStatement) statement).preparedStatement()));
+
+		return (null);
+	}
+}
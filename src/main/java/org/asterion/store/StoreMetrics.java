@@ -0,0 +1,65 @@
+package org.asterion.store;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ Metrics kept by CassandraStore.  Queries are counted per prepared
+ statement, along with the queries outstanding against the cluster and the
+ rows each read returns.  A rows read histogram is registered the first
+ time its query reports, queries read outside of CassandraStore never
+ show one.  Operations are timed by TimedDataStore.
+ */
+class StoreMetrics
+{
+	private final MetricRegistry m_registry;
+	private final Counter m_inFlight;
+	private final Map<StatementRegistry.Query, Meter> m_executions = new EnumMap<>(StatementRegistry.Query.class);
+	private final ConcurrentMap<StatementRegistry.Query, Histogram> m_rowsRead = new ConcurrentHashMap<>();
+
+	StoreMetrics(MetricRegistry registry)
+	{
+		m_registry = registry;
+		m_inFlight = registry.counter(MetricRegistry.name(CassandraStore.class, "in_flight_queries"));
+
+		for (StatementRegistry.Query query : StatementRegistry.Query.values())
+			m_executions.put(query, registry.meter(MetricRegistry.name(StatementRegistry.class, query.name(), "executions")));
+	}
+
+	/**
+	 Counts a query sent to the cluster, query is null for batches.
+	 */
+	ListenableFuture<ResultSet> track(StatementRegistry.Query query, ListenableFuture<ResultSet> future)
+	{
+		if (query != null)
+			m_executions.get(query).mark();
+
+		m_inFlight.inc();
+		future.addListener(m_inFlight::dec, MoreExecutors.sameThreadExecutor());
+
+		return (future);
+	}
+
+	/**
+	 Records the rows a read returned, called once the read has been
+	 consumed.
+	 */
+	void rowsRead(StatementRegistry.Query query, int rows)
+	{
+		if (query == null)
+			return;
+
+		m_rowsRead.computeIfAbsent(query, q ->
+				m_registry.histogram(MetricRegistry.name(CassandraStore.class, "rows_read", q.name()))).update(rows);
+	}
+}
@@ -0,0 +1,195 @@
+package org.asterion.store;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ Sits in front of another DataStore and times its operations.  Each
+ operation has a timer named after the wrapped store's class and the
+ DataStore method, the collection form of getVertexProperties is
+ multiGetVertexProperties, and an errors meter.  An operation is timed
+ until its future completes.  Iterators are handed out untimed.
+ */
+public class TimedDataStore implements DataStore
+{
+	/**
+	 Name the wrapped store is bound under.
+	 */
+	public static final String DELEGATE = "asterion.store.timed.delegate";
+
+	private final DataStore m_dataStore;
+	private final MetricRegistry m_registry;
+
+	@Inject
+	public TimedDataStore(@Named(DELEGATE) DataStore dataStore, MetricRegistry metricRegistry)
+	{
+		m_dataStore = dataStore;
+		m_registry = metricRegistry;
+	}
+
+	private <T> CompletableFuture<T> time(String operation, Supplier<CompletableFuture<T>> call)
+	{
+		Timer.Context context = m_registry.timer(MetricRegistry.name(m_dataStore.getClass(), operation)).time();
+
+		CompletableFuture<T> ret;
+		try
+		{
+			ret = call.get();
+		}
+		catch (RuntimeException e)
+		{
+			context.stop();
+			markError(operation);
+			throw e;
+		}
+
+		return (ret.whenComplete((v, t) ->
+		{
+			context.stop();
+			if (t != null)
+				markError(operation);
+		}));
+	}
+
+	private void markError(String operation)
+	{
+		m_registry.meter(MetricRegistry.name(m_dataStore.getClass(), operation, "errors")).mark();
+	}
+
+	@Override
+	public CompletableFuture<Void> updateVertex(ByteBuffer vertexId, Map<String, String> properties)
+	{
+		return (time("updateVertex", () -> m_dataStore.updateVertex(vertexId, properties)));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByProperty(String propertyName, String value)
+	{
+		return (time("findVerticesByProperty", () -> m_dataStore.findVerticesByProperty(propertyName, value)));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyRange(String propertyName, String startValue,
+			String endValue, int limit)
+	{
+		return (time("findVerticesByPropertyRange", () ->
+				m_dataStore.findVerticesByPropertyRange(propertyName, startValue, endValue, limit)));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyPrefix(String propertyName, String prefix, int limit)
+	{
+		return (time("findVerticesByPropertyPrefix", () ->
+				m_dataStore.findVerticesByPropertyPrefix(propertyName, prefix, limit)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteProperty(ByteBuffer vertexId, String propertyName)
+	{
+		return (time("deleteProperty", () -> m_dataStore.deleteProperty(vertexId, propertyName)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteVertex(ByteBuffer vertexId)
+	{
+		return (time("deleteVertex", () -> m_dataStore.deleteVertex(vertexId)));
+	}
+
+	@Override
+	public CompletableFuture<Void> addEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType)
+	{
+		return (time("addEdge", () -> m_dataStore.addEdge(sourceVertexId, destVertexId, direction, edgeType)));
+	}
+
+	@Override
+	public CompletableFuture<Void> addEdges(Collection<Edge> edges)
+	{
+		return (time("addEdges", () -> m_dataStore.addEdges(edges)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType)
+	{
+		return (time("deleteEdge", () -> m_dataStore.deleteEdge(sourceVertexId, destVertexId, edgeType)));
+	}
+
+	@Override
+	public CompletableFuture<Map<String, String>> getVertexProperties(ByteBuffer vertexId)
+	{
+		return (time("getVertexProperties", () -> m_dataStore.getVertexProperties(vertexId)));
+	}
+
+	@Override
+	public CompletableFuture<Map<ByteBuffer, Map<String, String>>> getVertexProperties(Collection<ByteBuffer> vertexIds,
+			Set<String> propertyNames)
+	{
+		return (time("multiGetVertexProperties", () -> m_dataStore.getVertexProperties(vertexIds, propertyNames)));
+	}
+
+	@Override
+	public CompletableFuture<String> getVertexProperty(ByteBuffer vertexId, String propertyName)
+	{
+		return (time("getVertexProperty", () -> m_dataStore.getVertexProperty(vertexId, propertyName)));
+	}
+
+	@Override
+	public CompletableFuture<Degrees> getDegrees(ByteBuffer vertexId)
+	{
+		return (time("getDegrees", () -> m_dataStore.getDegrees(vertexId)));
+	}
+
+	@Override
+	public EdgeIterator getEdges(ByteBuffer vertexId, String edgeType)
+	{
+		return (m_dataStore.getEdges(vertexId, edgeType));
+	}
+
+	@Override
+	public EdgeIterator getEdges(EdgeQuery query)
+	{
+		return (m_dataStore.getEdges(query));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> readEdges(EdgeQuery query)
+	{
+		return (time("readEdges", () -> m_dataStore.readEdges(query)));
+	}
+
+	@Override
+	public CompletableFuture<List<String>> getEdgeTypes(ByteBuffer vertexId)
+	{
+		return (time("getEdgeTypes", () -> m_dataStore.getEdgeTypes(vertexId)));
+	}
+
+	@Override
+	public Iterator<Vertex> scanVertices(TokenRange range)
+	{
+		return (m_dataStore.scanVertices(range));
+	}
+
+	@Override
+	public Iterator<Edge> scanEdges(TokenRange range)
+	{
+		return (m_dataStore.scanEdges(range));
+	}
+
+	@Override
+	public void close()
+	{
+		m_dataStore.close();
+	}
+}
@@ -0,0 +1,96 @@
+package org.asterion.store;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ A range of the Murmur3Partitioner token ring, start exclusive and end
+ inclusive.  Scanning every range returned by split covers every
+ partition exactly once.
+ */
+public class TokenRange
+{
+	private final long m_start;
+	private final long m_end;
+
+	public TokenRange(long start, long end)
+	{
+		checkArgument(start < end, "start must be less than end");
+		m_start = start;
+		m_end = end;
+	}
+
+	/**
+	 Splits the whole ring into count ranges of equal width.
+	 */
+	public static List<TokenRange> split(int count)
+	{
+		checkArgument(count > 0, "count must be greater than 0");
+
+		BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+		BigInteger width = BigInteger.valueOf(Long.MAX_VALUE).subtract(min);
+
+		List<TokenRange> ranges = new ArrayList<>(count);
+		long start = Long.MIN_VALUE;
+		for (int i = 1; i <= count; i++)
+		{
+			long end = width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count)).add(min).longValue();
+			ranges.add(new TokenRange(start, end));
+			start = end;
+		}
+
+		return (ranges);
+	}
+
+	/**
+	 Parses the form written by toString.
+	 */
+	public static TokenRange parse(String range)
+	{
+		int separator = range.indexOf(':', 1);
+		checkArgument(separator != -1, "Not a token range: %s", range);
+
+		return (new TokenRange(Long.parseLong(range.substring(0, separator)),
+				Long.parseLong(range.substring(separator + 1))));
+	}
+
+	public long getStart()
+	{
+		return (m_start);
+	}
+
+	public long getEnd()
+	{
+		return (m_end);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (o == null || getClass() != o.getClass())
+			return false;
+
+		TokenRange that = (TokenRange) o;
+
+		return (m_start == that.m_start && m_end == that.m_end);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = (int) (m_start ^ (m_start >>> 32));
+		result = 31 * result + (int) (m_end ^ (m_end >>> 32));
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (m_start + ":" + m_end);
+	}
+}
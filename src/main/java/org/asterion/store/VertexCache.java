@@ -0,0 +1,26 @@
+package org.asterion.store;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ Cache of vertex properties that sits in front of the store reads.  The
+ implementation is chosen with the asterion.cache.vertex.class property.
+
+ Reads that miss take a stamp before querying the store and hand it back
+ with the result, a result is only cached if the vertex was not
+ invalidated in between so a slow read can not cache stale properties.
+ */
+public interface VertexCache
+{
+	/**
+	 Returns all of the properties of the vertex or null if it is not cached.
+	 */
+	public Map<String, String> get(ByteBuffer vertexId);
+
+	public long getStamp(ByteBuffer vertexId);
+
+	public void put(ByteBuffer vertexId, Map<String, String> properties, long stamp);
+
+	public void invalidate(ByteBuffer vertexId);
+}
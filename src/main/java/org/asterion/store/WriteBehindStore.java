@@ -0,0 +1,554 @@
+package org.asterion.store;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Sits in front of another DataStore and takes writes at memory speed.
+ Each write is appended to a local memory mapped log, see MutationLog, and
+ its future completes once the log has been flushed to disk instead of
+ once the cluster has it.  A background thread drains the log to the
+ wrapped store in batches, retrying until the store takes them, and
+ whatever is left in the log after a crash is drained when the store is
+ next opened.  close() returns once the log is empty.
+
+ The log is applied in order except where reordering can not be seen:
+ a batch is cut wherever a write touches the same vertex properties or
+ edges as an earlier write in the batch, edge adds are the exception and
+ are combined into larger addEdges calls.  A vertex delete is a batch of its
+ own as it cascades to every neighbor.  Writes can be applied more than
+ once after a crash.  The data they write is the same each time, but edge
+ adds applied twice inflate the degree counts, see
+ DataStore.getDegrees().
+
+ Reads go straight to the wrapped store and do not see writes still in
+ the log.
+ */
+public class WriteBehindStore implements DataStore
+{
+	public static final Logger logger = LoggerFactory.getLogger(WriteBehindStore.class);
+
+	/**
+	 Name the wrapped store is bound under.
+	 */
+	public static final String DELEGATE = "asterion.store.write_behind.delegate";
+
+	public static final String ENABLED_PROPERTY = "asterion.store.write_behind.enabled";
+	public static final String DIRECTORY_PROPERTY = "asterion.store.write_behind.directory";
+	public static final String SEGMENT_SIZE_PROPERTY = "asterion.store.write_behind.segment_size";
+	public static final String SYNC_INTERVAL_PROPERTY = "asterion.store.write_behind.sync_interval_ms";
+	public static final String BATCH_SIZE_PROPERTY = "asterion.store.write_behind.batch_size";
+	public static final String CLOSE_TIMEOUT_PROPERTY = "asterion.store.write_behind.close_timeout_ms";
+
+	private static final long MAX_RETRY_DELAY = 30000;
+	//Edge adds are combined up to this many edges per addEdges call
+	private static final int EDGES_PER_CALL = 1000;
+
+	private final DataStore m_dataStore;
+	private final MutationLog m_log;
+	private final long m_syncInterval;
+	private final int m_batchSize;
+	private final long m_closeTimeout;
+	private final Meter m_drainFailures;
+
+	//Writes waiting on the next force, in log order
+	private final Deque<Ack> m_unforced = new ArrayDeque<>();
+	private final Object m_drainSignal = new Object();
+	private final Thread m_syncThread;
+	private final Thread m_drainThread;
+	private volatile boolean m_closed = false;
+	//Set while the drain thread waits so writers only signal when needed
+	private volatile boolean m_drainIdle = false;
+
+	/**
+	 @param syncInterval milliseconds between flushes of the log, writes are
+	 acknowledged by the flush that covers them.  0 acknowledges writes once
+	 they are in the mapping, they then survive the process failing but
+	 not the machine.
+	 @param batchSize log records applied to the wrapped store at once
+	 @param closeTimeout milliseconds close waits for the log to drain, 0
+	 waits until it has.  Records left behind are drained on the next start.
+	 */
+	@Inject
+	public WriteBehindStore(@Named(DELEGATE) DataStore dataStore,
+			@Named(DIRECTORY_PROPERTY) String directory,
+			@Named(SEGMENT_SIZE_PROPERTY) int segmentSize,
+			@Named(SYNC_INTERVAL_PROPERTY) long syncInterval,
+			@Named(BATCH_SIZE_PROPERTY) int batchSize,
+			@Named(CLOSE_TIMEOUT_PROPERTY) long closeTimeout,
+			MetricRegistry metricRegistry) throws IOException
+	{
+		checkArgument(syncInterval >= 0, "Sync interval must not be negative");
+		checkArgument(batchSize > 0, "Batch size must be greater than 0");
+		checkArgument(closeTimeout >= 0, "Close timeout must not be negative");
+
+		m_dataStore = dataStore;
+		m_log = new MutationLog(new File(directory), segmentSize);
+		m_syncInterval = syncInterval;
+		m_batchSize = batchSize;
+		m_closeTimeout = closeTimeout;
+
+		m_drainFailures = metricRegistry.meter(MetricRegistry.name(WriteBehindStore.class, "drain_failures"));
+		metricRegistry.register(MetricRegistry.name(WriteBehindStore.class, "backlog_bytes"),
+				(Gauge<Long>) m_log::getBacklog);
+
+		if (!m_log.isDrained())
+			logger.info("Replaying " + m_log.getBacklog() + " bytes of writes left in " + directory);
+
+		if (m_syncInterval > 0)
+		{
+			m_syncThread = new Thread(this::syncLoop, "write-behind-sync");
+			m_syncThread.setDaemon(true);
+			m_syncThread.start();
+		}
+		else
+			m_syncThread = null;
+
+		m_drainThread = new Thread(this::drainLoop, "write-behind-drain");
+		m_drainThread.setDaemon(true);
+		m_drainThread.start();
+	}
+
+	private CompletableFuture<Void> log(Mutation mutation)
+	{
+		CompletableFuture<Void> ret = new CompletableFuture<>();
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			mutation.write(out);
+			out.flush();
+
+			//Appends and acks are queued together so acks stay in log order
+			synchronized (m_unforced)
+			{
+				if (m_closed)
+					throw new IllegalStateException("Store is closed");
+
+				long end = m_log.append(bytes.toByteArray());
+
+				if (m_syncThread != null)
+					m_unforced.add(new Ack(end, ret));
+			}
+
+			if (m_syncThread == null)
+				ret.complete(null);
+
+			if (m_drainIdle)
+			{
+				synchronized (m_drainSignal)
+				{
+					m_drainSignal.notifyAll();
+				}
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			ret.completeExceptionally(e);
+		}
+
+		return (ret);
+	}
+
+	private void syncLoop()
+	{
+		while (true)
+		{
+			boolean last = m_closed;
+			long forced = m_log.force();
+
+			while (true)
+			{
+				Ack ack;
+				synchronized (m_unforced)
+				{
+					ack = m_unforced.peek();
+					if (ack == null || ack.m_end > forced)
+						break;
+					m_unforced.poll();
+				}
+
+				ack.m_future.complete(null);
+			}
+
+			if (last)
+				break;
+
+			try
+			{
+				Thread.sleep(m_syncInterval);
+			}
+			catch (InterruptedException e)
+			{
+				//close() wakes the thread for a last flush
+			}
+		}
+	}
+
+	private void drainLoop()
+	{
+		long retryDelay = 0;
+
+		while (true)
+		{
+			List<MutationLog.Entry> entries = m_log.read(m_batchSize);
+
+			if (entries.isEmpty())
+			{
+				if (m_closed && m_log.isDrained())
+					break;
+
+				synchronized (m_drainSignal)
+				{
+					m_drainIdle = true;
+					try
+					{
+						m_drainSignal.wait(100);
+					}
+					catch (InterruptedException e)
+					{
+						break;
+					}
+					finally
+					{
+						m_drainIdle = false;
+					}
+				}
+				continue;
+			}
+
+			try
+			{
+				apply(entries);
+				retryDelay = 0;
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+			catch (Exception e)
+			{
+				m_drainFailures.mark();
+				retryDelay = Math.min(Math.max(retryDelay * 2, 100), MAX_RETRY_DELAY);
+				logger.warn("Unable to drain writes, retrying in " + retryDelay + "ms", e);
+
+				//Batches applied before the failure were committed
+				m_log.rewind();
+
+				try
+				{
+					Thread.sleep(retryDelay);
+				}
+				catch (InterruptedException ie)
+				{
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 Applies the records batch by batch, committing each batch once the
+	 wrapped store has taken it.
+	 */
+	private void apply(List<MutationLog.Entry> entries) throws Exception
+	{
+		Batch batch = new Batch();
+
+		for (MutationLog.Entry entry : entries)
+		{
+			Mutation mutation = Mutation.read(new DataInputStream(new ByteArrayInputStream(entry.getPayload())));
+
+			if (!batch.add(mutation, entry.getEnd()))
+			{
+				batch.apply();
+				batch = new Batch();
+				batch.add(mutation, entry.getEnd());
+			}
+		}
+
+		batch.apply();
+	}
+
+	/**
+	 Writes that can be applied together without their order showing.
+	 */
+	private class Batch
+	{
+		private final List<Mutation> m_mutations = new ArrayList<>();
+		private final List<List<Edge>> m_edges = new ArrayList<>();
+		private final Set<ByteBuffer> m_properties = new HashSet<>();
+		//Vertices with edges written, true if only edge adds
+		private final Map<ByteBuffer, Boolean> m_edgeVertices = new HashMap<>();
+		private boolean m_barrier = false;
+		private long m_end = -1;
+
+		/**
+		 Returns false if the mutation has to wait for a later batch.
+		 */
+		boolean add(Mutation mutation, long end)
+		{
+			boolean empty = m_end == -1;
+
+			if (!empty && (m_barrier || mutation.isBarrier()))
+				return (false);
+
+			for (ByteBuffer vertex : mutation.getPropertyVertices())
+			{
+				if (m_properties.contains(vertex))
+					return (false);
+			}
+
+			for (ByteBuffer vertex : mutation.getEdgeVertices())
+			{
+				Boolean onlyAdds = m_edgeVertices.get(vertex);
+				if (onlyAdds != null && !(onlyAdds && mutation.isEdgeAdd()))
+					return (false);
+			}
+
+			m_barrier = mutation.isBarrier();
+			m_properties.addAll(mutation.getPropertyVertices());
+			for (ByteBuffer vertex : mutation.getEdgeVertices())
+				m_edgeVertices.put(vertex, mutation.isEdgeAdd());
+
+			if (mutation instanceof Mutation.AddEdges)
+			{
+				Collection<Edge> edges = ((Mutation.AddEdges) mutation).getEdges();
+				if (m_edges.isEmpty() || m_edges.get(m_edges.size() - 1).size() + edges.size() > EDGES_PER_CALL)
+					m_edges.add(new ArrayList<>());
+
+				m_edges.get(m_edges.size() - 1).addAll(edges);
+			}
+			else
+				m_mutations.add(mutation);
+
+			m_end = end;
+			return (true);
+		}
+
+		void apply() throws Exception
+		{
+			if (m_end == -1)
+				return;
+
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (List<Edge> edges : m_edges)
+				futures.add(m_dataStore.addEdges(edges));
+
+			for (Mutation mutation : m_mutations)
+				futures.add(mutation.apply(m_dataStore));
+
+			CassandraFutures.allOf(futures).get();
+
+			m_log.commit(m_end);
+		}
+	}
+
+	private static class Ack
+	{
+		private final long m_end;
+		private final CompletableFuture<Void> m_future;
+
+		private Ack(long end, CompletableFuture<Void> future)
+		{
+			m_end = end;
+			m_future = future;
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> updateVertex(ByteBuffer vertexId, Map<String, String> properties)
+	{
+		return (log(new Mutation.UpdateVertex(vertexId, properties)));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByProperty(String propertyName, String value)
+	{
+		return (m_dataStore.findVerticesByProperty(propertyName, value));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyRange(String propertyName, String startValue,
+			String endValue, int limit)
+	{
+		return (m_dataStore.findVerticesByPropertyRange(propertyName, startValue, endValue, limit));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> findVerticesByPropertyPrefix(String propertyName, String prefix, int limit)
+	{
+		return (m_dataStore.findVerticesByPropertyPrefix(propertyName, prefix, limit));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteProperty(ByteBuffer vertexId, String propertyName)
+	{
+		return (log(new Mutation.DeleteProperty(vertexId, propertyName)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteVertex(ByteBuffer vertexId)
+	{
+		return (log(new Mutation.DeleteVertex(vertexId)));
+	}
+
+	@Override
+	public CompletableFuture<Void> addEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, Direction direction, String edgeType)
+	{
+		//Logged with the time now so a replay writes the same edge
+		return (log(new Mutation.AddEdges(Collections.singletonList(
+				new Edge(sourceVertexId, destVertexId, direction, edgeType)))));
+	}
+
+	@Override
+	public CompletableFuture<Void> addEdges(Collection<Edge> edges)
+	{
+		return (log(new Mutation.AddEdges(edges)));
+	}
+
+	@Override
+	public CompletableFuture<Void> deleteEdge(ByteBuffer sourceVertexId, ByteBuffer destVertexId, String edgeType)
+	{
+		return (log(new Mutation.DeleteEdge(sourceVertexId, destVertexId, edgeType)));
+	}
+
+	@Override
+	public CompletableFuture<Map<String, String>> getVertexProperties(ByteBuffer vertexId)
+	{
+		return (m_dataStore.getVertexProperties(vertexId));
+	}
+
+	@Override
+	public CompletableFuture<Map<ByteBuffer, Map<String, String>>> getVertexProperties(Collection<ByteBuffer> vertexIds,
+			Set<String> propertyNames)
+	{
+		return (m_dataStore.getVertexProperties(vertexIds, propertyNames));
+	}
+
+	/**
+	 Counts of the wrapped store, edges still in the log are not counted.
+	 */
+	@Override
+	public CompletableFuture<Degrees> getDegrees(ByteBuffer vertexId)
+	{
+		return (m_dataStore.getDegrees(vertexId));
+	}
+
+	@Override
+	public CompletableFuture<String> getVertexProperty(ByteBuffer vertexId, String propertyName)
+	{
+		return (m_dataStore.getVertexProperty(vertexId, propertyName));
+	}
+
+	@Override
+	public EdgeIterator getEdges(ByteBuffer vertexId, String edgeType)
+	{
+		return (m_dataStore.getEdges(vertexId, edgeType));
+	}
+
+	@Override
+	public EdgeIterator getEdges(EdgeQuery query)
+	{
+		return (m_dataStore.getEdges(query));
+	}
+
+	@Override
+	public CompletableFuture<List<ByteBuffer>> readEdges(EdgeQuery query)
+	{
+		return (m_dataStore.readEdges(query));
+	}
+
+	@Override
+	public CompletableFuture<List<String>> getEdgeTypes(ByteBuffer vertexId)
+	{
+		return (m_dataStore.getEdgeTypes(vertexId));
+	}
+
+	@Override
+	public Iterator<Vertex> scanVertices(TokenRange range)
+	{
+		return (m_dataStore.scanVertices(range));
+	}
+
+	@Override
+	public Iterator<Edge> scanEdges(TokenRange range)
+	{
+		return (m_dataStore.scanEdges(range));
+	}
+
+	/**
+	 Stops taking writes, flushes the log and waits for it to drain into
+	 the wrapped store before closing it.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (m_unforced)
+		{
+			m_closed = true;
+		}
+
+		try
+		{
+			if (m_syncThread != null)
+			{
+				m_syncThread.interrupt();
+				m_syncThread.join();
+			}
+
+			synchronized (m_drainSignal)
+			{
+				m_drainSignal.notifyAll();
+			}
+
+			logger.info("Draining " + m_log.getBacklog() + " bytes of writes");
+			m_drainThread.join(m_closeTimeout);
+
+			if (m_drainThread.isAlive())
+			{
+				logger.warn(m_log.getBacklog() + " bytes of writes were not drained, they will be replayed on the next start");
+				m_drainThread.interrupt();
+				m_drainThread.join(TimeUnit.SECONDS.toMillis(10));
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		m_log.close();
+		m_dataStore.close();
+	}
+}
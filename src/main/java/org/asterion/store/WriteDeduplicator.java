@@ -0,0 +1,186 @@
+package org.asterion.store;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ Remembers a digest of recently written vertex properties so a property
+ that is written again with the same value can be dropped before it goes
+ to the cluster.
+
+ Digests are kept in a fixed size table of longs indexed by the vertex and
+ property name, a newer write for the same slot replaces the older one.
+ A collision can only cost an extra write, never a lost one, because a
+ write is only dropped when the full 64 bit digest of vertex, name and
+ value matches.
+
+ A write claims its slot when it is issued and only records its digest
+ when acknowledged if the slot still holds its claim.  While a write is in
+ flight nothing matches the slot, so a write of the previous value issued
+ meanwhile is not dropped.  Claims have the low bit set and digests clear
+ so the two can never be mistaken for each other.
+ */
+public class WriteDeduplicator
+{
+	public static final String DEDUP_SIZE_PROPERTY = "asterion.store.dedup_size";
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	/**
+	 Returned by claimWrite when the write should be skipped.
+	 */
+	public static final long DUPLICATE = 0L;
+
+	private final AtomicLongArray m_digests;
+	private final int m_mask;
+	private final Meter m_written;
+	private final Meter m_suppressed;
+	private final AtomicLong m_claims = new AtomicLong();
+
+	/**
+	 @param size number of properties to remember, rounded up to a power of
+	 two.  0 turns deduplication off.
+	 */
+	@Inject
+	public WriteDeduplicator(@Named(DEDUP_SIZE_PROPERTY) int size, MetricRegistry metricRegistry)
+	{
+		if (size > 0)
+		{
+			int slots = Integer.highestOneBit(size);
+			if (slots < size)
+				slots <<= 1;
+
+			m_digests = new AtomicLongArray(slots);
+			m_mask = slots - 1;
+		}
+		else
+		{
+			m_digests = null;
+			m_mask = 0;
+		}
+
+		m_written = metricRegistry.meter(MetricRegistry.name(WriteDeduplicator.class, "written"));
+		m_suppressed = metricRegistry.meter(MetricRegistry.name(WriteDeduplicator.class, "suppressed"));
+
+		metricRegistry.register(MetricRegistry.name(WriteDeduplicator.class, "suppression_ratio"), new RatioGauge()
+		{
+			@Override
+			protected Ratio getRatio()
+			{
+				return (Ratio.of(m_suppressed.getCount(), m_suppressed.getCount() + m_written.getCount()));
+			}
+		});
+	}
+
+	/**
+	 Call before issuing a write.  Returns DUPLICATE if the same value was
+	 recently written for the property, in which case the write should be
+	 skipped, otherwise a claim to hand to recordWrite or release once the
+	 write completes.
+	 */
+	public long claimWrite(ByteBuffer vertexId, String propertyName, String value)
+	{
+		long claim = (m_claims.incrementAndGet() << 1) | 1L;
+
+		if (m_digests == null || value == null)
+		{
+			m_written.mark();
+			return (claim);
+		}
+
+		long key = keyHash(vertexId, propertyName);
+		int slot = slot(key);
+		long digest = digest(key, value);
+
+		while (true)
+		{
+			long current = m_digests.get(slot);
+			if (current == digest)
+			{
+				m_suppressed.mark();
+				return (DUPLICATE);
+			}
+
+			if (m_digests.compareAndSet(slot, current, claim))
+			{
+				m_written.mark();
+				return (claim);
+			}
+		}
+	}
+
+	/**
+	 Call once the write has been acknowledged, the value is remembered
+	 unless another write or a delete has taken the slot since.
+	 */
+	public void recordWrite(ByteBuffer vertexId, String propertyName, String value, long claim)
+	{
+		if (m_digests == null || value == null)
+			return;
+
+		long key = keyHash(vertexId, propertyName);
+		m_digests.compareAndSet(slot(key), claim, digest(key, value));
+	}
+
+	/**
+	 Call when a write fails, clears the slot if it still holds the claim.
+	 */
+	public void release(ByteBuffer vertexId, String propertyName, long claim)
+	{
+		if (m_digests == null)
+			return;
+
+		m_digests.compareAndSet(slot(keyHash(vertexId, propertyName)), claim, 0L);
+	}
+
+	/**
+	 Forgets the property, call when a delete of it is issued and again once
+	 it completes.  Writes in flight lose their claim and are not recorded.
+	 */
+	public void forget(ByteBuffer vertexId, String propertyName)
+	{
+		if (m_digests == null)
+			return;
+
+		m_digests.set(slot(keyHash(vertexId, propertyName)), 0L);
+	}
+
+	private int slot(long keyHash)
+	{
+		return ((int) keyHash & m_mask);
+	}
+
+	private static long keyHash(ByteBuffer vertexId, String propertyName)
+	{
+		ByteBuffer id = vertexId.duplicate();
+		byte[] bytes = new byte[id.remaining()];
+		id.get(bytes);
+
+		return (HASH.newHasher()
+				.putBytes(bytes)
+				.putString(propertyName, Charsets.UTF_8)
+				.hash().asLong());
+	}
+
+	private static long digest(long keyHash, String value)
+	{
+		long ret = HASH.newHasher()
+				.putLong(keyHash)
+				.putString(value, Charsets.UTF_8)
+				.hash().asLong();
+
+		//0 marks an empty slot and the low bit marks a claim
+		ret &= ~1L;
+		return (ret == 0L ? 2L : ret);
+	}
+}
@@ -0,0 +1,71 @@
+package org.asterion.traversal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Result of a k-hop expansion.  Level 0 is the start vertex, level n holds
+ the vertices first reached after n hops.
+ */
+public class Expansion
+{
+	private final List<List<ByteBuffer>> m_levels = new ArrayList<>();
+	private boolean m_truncated = false;
+	private Map<ByteBuffer, Map<String, String>> m_properties;
+	private final List<ByteBuffer> m_supernodes = new ArrayList<>();
+
+	void addLevel(List<ByteBuffer> vertices)
+	{
+		m_levels.add(Collections.unmodifiableList(vertices));
+	}
+
+	void setProperties(Map<ByteBuffer, Map<String, String>> properties)
+	{
+		m_properties = properties;
+	}
+
+	synchronized void addSupernode(ByteBuffer vertexId)
+	{
+		m_supernodes.add(vertexId);
+	}
+
+	void setTruncated()
+	{
+		m_truncated = true;
+	}
+
+	public List<List<ByteBuffer>> getLevels()
+	{
+		return (Collections.unmodifiableList(m_levels));
+	}
+
+	/**
+	 True if the expansion stopped early because it reached the visited
+	 vertex limit.
+	 */
+	public boolean isTruncated()
+	{
+		return (m_truncated);
+	}
+
+	/**
+	 Vertices that were reached but not expanded because they have more
+	 edges than the supernode limit, see TraversalEngine.
+	 */
+	public synchronized List<ByteBuffer> getSupernodes()
+	{
+		return (new ArrayList<>(m_supernodes));
+	}
+
+	/**
+	 Properties of every vertex in the expansion, null unless it was
+	 hydrated with TraversalEngine.hydrate().
+	 */
+	public Map<ByteBuffer, Map<String, String>> getProperties()
+	{
+		return (m_properties);
+	}
+}
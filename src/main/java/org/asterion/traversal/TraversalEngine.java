@@ -0,0 +1,487 @@
+package org.asterion.traversal;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.asterion.store.CassandraFutures;
+import org.asterion.store.DataStore;
+import org.asterion.store.Degrees;
+import org.asterion.store.Direction;
+import org.asterion.store.EdgeQuery;
+import org.asterion.util.AsyncThrottle;
+import org.asterion.util.LongHashSet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Runs multi-hop traversals inside the server so a client does not need a
+ round trip per hop.  Traversals are breadth first, every vertex of a
+ frontier is read with concurrent asynchronous queries.
+
+ Directions are relative to the vertex being expanded.  Edges stored as
+ Direction.BOTH are followed in either direction.  A null edge type
+ follows every edge type of each vertex.
+
+ With a supernode limit set the degree counts of each frontier are read
+ before it is expanded.  Vertices with more edges to follow than the limit
+ are not expanded, edge reads are sized to the edges expected and path
+ searches expand the side with fewer edges rather than fewer vertices.
+ */
+public class TraversalEngine
+{
+	public static final String MAX_CONCURRENT_QUERIES_PROPERTY = "asterion.traversal.max_concurrent_queries";
+	public static final String MAX_VISITED_PROPERTY = "asterion.traversal.max_visited";
+	public static final String SUPERNODE_DEGREE_PROPERTY = "asterion.traversal.supernode_degree";
+
+	private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+	private static final int MAX_FETCH_SIZE = 10000;
+
+	private final DataStore m_dataStore;
+	private int m_maxConcurrentQueries = 64;
+	private int m_maxVisited = 1000000;
+	private long m_supernodeDegree = 0;
+
+	@Inject
+	public TraversalEngine(DataStore dataStore)
+	{
+		m_dataStore = dataStore;
+	}
+
+	/**
+	 Maximum edge queries a single traversal has outstanding at once.
+	 */
+	@Inject(optional = true)
+	public void setMaxConcurrentQueries(@Named(MAX_CONCURRENT_QUERIES_PROPERTY) int maxConcurrentQueries)
+	{
+		checkArgument(maxConcurrentQueries > 0, "maxConcurrentQueries must be greater than 0");
+		m_maxConcurrentQueries = maxConcurrentQueries;
+	}
+
+	/**
+	 Maximum vertices a single traversal visits before it gives up.
+	 */
+	@Inject(optional = true)
+	public void setMaxVisited(@Named(MAX_VISITED_PROPERTY) int maxVisited)
+	{
+		checkArgument(maxVisited > 0, "maxVisited must be greater than 0");
+		m_maxVisited = maxVisited;
+	}
+
+	/**
+	 Vertices with more edges to follow than this are not expanded, 0 turns
+	 the check off and degrees are not read.
+	 */
+	@Inject(optional = true)
+	public void setSupernodeDegree(@Named(SUPERNODE_DEGREE_PROPERTY) long supernodeDegree)
+	{
+		checkArgument(supernodeDegree >= 0, "supernodeDegree must not be negative");
+		m_supernodeDegree = supernodeDegree;
+	}
+
+	/**
+	 Breadth first expansion up to depth hops from the start vertex.  Each
+	 vertex is reported once, at the level it is first reached.
+	 */
+	public CompletableFuture<Expansion> expand(ByteBuffer start, String edgeType, Direction direction, int depth)
+	{
+		checkArgument(depth >= 0, "depth must not be negative");
+
+		//Only 64 bit fingerprints of visited vertices are kept, at a million
+		//vertices the odds of a collision are around 1 in 10^7.
+		LongHashSet visited = new LongHashSet();
+		visited.add(fingerprint(start));
+
+		Expansion expansion = new Expansion();
+		expansion.addLevel(Collections.singletonList(start));
+
+		return (expandLevel(new AsyncThrottle(m_maxConcurrentQueries), expansion, visited,
+				Collections.singletonList(start), edgeType, direction, depth));
+	}
+
+	/**
+	 Reads the properties of every vertex reached by the expansion with a
+	 single multi-get rather than a read per vertex.
+	 @param propertyNames properties to read, null for all of them
+	 */
+	public CompletableFuture<Expansion> hydrate(final Expansion expansion, Set<String> propertyNames)
+	{
+		List<ByteBuffer> vertices = new ArrayList<>();
+		for (List<ByteBuffer> level : expansion.getLevels())
+			vertices.addAll(level);
+
+		return (m_dataStore.getVertexProperties(vertices, propertyNames).thenApply(properties ->
+		{
+			expansion.setProperties(properties);
+			return (expansion);
+		}));
+	}
+
+	private CompletableFuture<Expansion> expandLevel(final AsyncThrottle throttle, final Expansion expansion,
+			final LongHashSet visited, List<ByteBuffer> frontier, final String edgeType,
+			final Direction direction, final int remainingDepth)
+	{
+		if (remainingDepth == 0 || frontier.isEmpty())
+			return (CompletableFuture.completedFuture(expansion));
+
+		CompletableFuture<Map<ByteBuffer, Degrees>> degrees;
+		if (m_supernodeDegree > 0)
+			degrees = readDegrees(throttle, frontier, new ConcurrentHashMap<>());
+		else
+			degrees = CompletableFuture.completedFuture(null);
+
+		return (degrees.thenCompose(frontierDegrees -> readNeighbors(throttle, frontier, edgeType, direction,
+				frontierDegrees, expansion::addSupernode)).thenCompose(neighborLists ->
+		{
+			List<ByteBuffer> next = new ArrayList<>();
+
+			levels:
+			for (List<ByteBuffer> neighbors : neighborLists)
+			{
+				for (ByteBuffer neighbor : neighbors)
+				{
+					if (visited.add(fingerprint(neighbor)))
+					{
+						if (visited.size() > m_maxVisited)
+						{
+							expansion.setTruncated();
+							break levels;
+						}
+
+						next.add(neighbor);
+					}
+				}
+			}
+
+			expansion.addLevel(next);
+
+			if (expansion.isTruncated())
+				return (CompletableFuture.completedFuture(expansion));
+
+			return (expandLevel(throttle, expansion, visited, next, edgeType, direction, remainingDepth - 1));
+		}));
+	}
+
+	/**
+	 Finds a shortest path between two vertices following edges in the
+	 given direction.  The search runs from both ends at once, always
+	 expanding the side with the smaller frontier, so it visits far fewer
+	 vertices than a search from one end.
+	 @return the vertices of the path including both ends, or an empty list
+	 if there is no path within maxDepth hops
+	 */
+	public CompletableFuture<List<ByteBuffer>> shortestPath(ByteBuffer from, ByteBuffer to, String edgeType,
+			Direction direction, int maxDepth)
+	{
+		checkArgument(maxDepth >= 0, "maxDepth must not be negative");
+
+		if (from.equals(to))
+			return (CompletableFuture.completedFuture(Collections.singletonList(from)));
+
+		PathSearch search = new PathSearch(new AsyncThrottle(m_maxConcurrentQueries), edgeType, direction, maxDepth,
+				m_supernodeDegree > 0);
+		search.m_forward.m_visited.put(from, new PathNode(null, 0));
+		search.m_forward.m_frontier.add(from);
+		search.m_backward.m_visited.put(to, new PathNode(null, 0));
+		search.m_backward.m_frontier.add(to);
+
+		return (searchLevel(search));
+	}
+
+	private CompletableFuture<List<ByteBuffer>> searchLevel(final PathSearch search)
+	{
+		if (search.m_degrees == null)
+			return (searchSide(search));
+
+		List<ByteBuffer> frontiers = new ArrayList<>(search.m_forward.m_frontier);
+		frontiers.addAll(search.m_backward.m_frontier);
+
+		return (readDegrees(search.m_throttle, frontiers, search.m_degrees).thenCompose(v -> searchSide(search)));
+	}
+
+	/**
+	 Expands whichever side of the search is cheaper, by its count of edges
+	 to follow when degrees are read and by frontier size otherwise.
+	 Supernodes are not expanded so a path through one is not found.
+	 */
+	private CompletableFuture<List<ByteBuffer>> searchSide(final PathSearch search)
+	{
+		final SearchSide side;
+		final SearchSide other;
+
+		boolean forward;
+		if (search.m_degrees != null)
+			forward = search.frontierDegree(search.m_forward) <= search.frontierDegree(search.m_backward);
+		else
+			forward = search.m_forward.m_frontier.size() <= search.m_backward.m_frontier.size();
+
+		if (forward)
+		{
+			side = search.m_forward;
+			other = search.m_backward;
+		}
+		else
+		{
+			side = search.m_backward;
+			other = search.m_forward;
+		}
+
+		if (side.m_frontier.isEmpty() || side.m_depth + other.m_depth >= search.m_maxDepth)
+			return (CompletableFuture.completedFuture(Collections.<ByteBuffer>emptyList()));
+
+		final List<ByteBuffer> frontier = side.m_frontier;
+
+		return (readNeighbors(search.m_throttle, frontier, search.m_edgeType, side.m_direction, search.m_degrees,
+				vertexId -> {})
+				.thenCompose(neighborLists ->
+				{
+					List<ByteBuffer> next = new ArrayList<>();
+					ByteBuffer meeting = null;
+					int meetingLength = Integer.MAX_VALUE;
+
+					for (int i = 0; i < frontier.size(); i++)
+					{
+						for (ByteBuffer neighbor : neighborLists.get(i))
+						{
+							if (side.m_visited.containsKey(neighbor))
+								continue;
+
+							side.m_visited.put(neighbor, new PathNode(frontier.get(i), side.m_depth + 1));
+							next.add(neighbor);
+
+							PathNode otherNode = other.m_visited.get(neighbor);
+							if (otherNode != null && side.m_depth + 1 + otherNode.m_depth < meetingLength)
+							{
+								meeting = neighbor;
+								meetingLength = side.m_depth + 1 + otherNode.m_depth;
+							}
+						}
+					}
+
+					if (meeting != null)
+						return (CompletableFuture.completedFuture(search.buildPath(meeting)));
+
+					if (search.m_forward.m_visited.size() + search.m_backward.m_visited.size() > m_maxVisited)
+						return (CompletableFuture.completedFuture(Collections.<ByteBuffer>emptyList()));
+
+					side.m_frontier = next;
+					side.m_depth++;
+
+					return (searchLevel(search));
+				}));
+	}
+
+	/**
+	 Reads the degrees of the vertices not already in the map into it.
+	 */
+	private CompletableFuture<Map<ByteBuffer, Degrees>> readDegrees(AsyncThrottle throttle,
+			List<ByteBuffer> vertices, final Map<ByteBuffer, Degrees> degrees)
+	{
+		List<CompletableFuture<?>> reads = new ArrayList<>();
+
+		for (final ByteBuffer vertexId : vertices)
+		{
+			if (!degrees.containsKey(vertexId))
+				reads.add(throttle.submit(() -> m_dataStore.getDegrees(vertexId))
+						.thenAccept(vertexDegrees -> degrees.put(vertexId, vertexDegrees)));
+		}
+
+		return (CassandraFutures.allOf(reads).thenApply(v -> degrees));
+	}
+
+	/**
+	 Edges a traversal in the direction follows from a vertex.
+	 */
+	private static long followedDegree(Degrees degrees, String edgeType, Direction direction)
+	{
+		long ret = 0;
+		for (Direction filter : storedDirections(direction))
+			ret += degrees.get(edgeType, filter);
+
+		return (ret);
+	}
+
+	/**
+	 Fetch size that reads the expected edges in one page, never less than
+	 the default since the counts are estimates.
+	 */
+	private static int fetchSize(long expectedEdges)
+	{
+		return ((int) Math.max(EdgeQuery.DEFAULT_FETCH_SIZE, Math.min(expectedEdges + 1, MAX_FETCH_SIZE)));
+	}
+
+	/**
+	 Reads the neighbors of every vertex in the frontier, the result lists
+	 are in frontier order.
+	 @param degrees degrees of the frontier, null if they were not read
+	 @param supernodes receives the vertices skipped for having too many
+	 edges
+	 */
+	private CompletableFuture<List<List<ByteBuffer>>> readNeighbors(final AsyncThrottle throttle,
+			List<ByteBuffer> frontier, final String edgeType, final Direction direction,
+			Map<ByteBuffer, Degrees> degrees, Consumer<ByteBuffer> supernodes)
+	{
+		final List<CompletableFuture<List<ByteBuffer>>> reads = new ArrayList<>(frontier.size());
+
+		for (final ByteBuffer vertexId : frontier)
+		{
+			final Degrees vertexDegrees = degrees != null ? degrees.get(vertexId) : null;
+			if (vertexDegrees != null && followedDegree(vertexDegrees, edgeType, direction) > m_supernodeDegree)
+			{
+				supernodes.accept(vertexId);
+				reads.add(CompletableFuture.completedFuture(Collections.<ByteBuffer>emptyList()));
+				continue;
+			}
+
+			CompletableFuture<List<String>> edgeTypes;
+			if (edgeType != null)
+				edgeTypes = CompletableFuture.completedFuture(Collections.singletonList(edgeType));
+			else
+				edgeTypes = throttle.submit(() -> m_dataStore.getEdgeTypes(vertexId));
+
+			reads.add(edgeTypes.thenCompose(types ->
+			{
+				List<CompletableFuture<List<ByteBuffer>>> typeReads = new ArrayList<>();
+
+				for (String type : types)
+				{
+					for (Direction filter : storedDirections(direction))
+					{
+						EdgeQuery query = new EdgeQuery(vertexId, type).setDirection(filter);
+						if (vertexDegrees != null)
+							query.setFetchSize(fetchSize(vertexDegrees.get(type, filter)));
+						typeReads.add(throttle.submit(() -> m_dataStore.readEdges(query)));
+					}
+				}
+
+				return (concat(typeReads));
+			}));
+		}
+
+		return (CassandraFutures.allOf(reads).thenApply(v ->
+		{
+			List<List<ByteBuffer>> ret = new ArrayList<>(reads.size());
+			for (CompletableFuture<List<ByteBuffer>> read : reads)
+				ret.add(read.join());
+
+			return ret;
+		}));
+	}
+
+	private static CompletableFuture<List<ByteBuffer>> concat(final List<CompletableFuture<List<ByteBuffer>>> futures)
+	{
+		return (CassandraFutures.allOf(futures).thenApply(v ->
+		{
+			List<ByteBuffer> ret = new ArrayList<>();
+			for (CompletableFuture<List<ByteBuffer>> future : futures)
+				ret.addAll(future.join());
+
+			return ret;
+		}));
+	}
+
+	/**
+	 Edge query direction filters needed to follow edges in the direction,
+	 null means no filter.
+	 */
+	private static Direction[] storedDirections(Direction direction)
+	{
+		if (direction == Direction.BOTH)
+			return (new Direction[]{null});
+		else
+			return (new Direction[]{direction, Direction.BOTH});
+	}
+
+	private static long fingerprint(ByteBuffer vertexId)
+	{
+		ByteBuffer id = vertexId.duplicate();
+		byte[] bytes = new byte[id.remaining()];
+		id.get(bytes);
+
+		return (FINGERPRINT.hashBytes(bytes).asLong());
+	}
+
+	private static class PathNode
+	{
+		private final ByteBuffer m_parent;
+		private final int m_depth;
+
+		private PathNode(ByteBuffer parent, int depth)
+		{
+			m_parent = parent;
+			m_depth = depth;
+		}
+	}
+
+	private static class SearchSide
+	{
+		private final Direction m_direction;
+		private final Map<ByteBuffer, PathNode> m_visited = new HashMap<>();
+		private List<ByteBuffer> m_frontier = new ArrayList<>();
+		private int m_depth = 0;
+
+		private SearchSide(Direction direction)
+		{
+			m_direction = direction;
+		}
+	}
+
+	private static class PathSearch
+	{
+		private final AsyncThrottle m_throttle;
+		private final String m_edgeType;
+		private final int m_maxDepth;
+		private final SearchSide m_forward;
+		//The backward side walks edges against the direction of the search
+		private final SearchSide m_backward;
+		//Degrees of the frontier vertices, null if they are not read
+		private final Map<ByteBuffer, Degrees> m_degrees;
+
+		private PathSearch(AsyncThrottle throttle, String edgeType, Direction direction, int maxDepth,
+				boolean readDegrees)
+		{
+			m_throttle = throttle;
+			m_edgeType = edgeType;
+			m_maxDepth = maxDepth;
+			m_forward = new SearchSide(direction);
+			m_backward = new SearchSide(direction.reverse());
+			m_degrees = readDegrees ? new ConcurrentHashMap<>() : null;
+		}
+
+		private long frontierDegree(SearchSide side)
+		{
+			long ret = 0;
+			for (ByteBuffer vertexId : side.m_frontier)
+				ret += followedDegree(m_degrees.get(vertexId), m_edgeType, side.m_direction);
+
+			return (ret);
+		}
+
+		private List<ByteBuffer> buildPath(ByteBuffer meeting)
+		{
+			List<ByteBuffer> ret = new ArrayList<>();
+
+			for (ByteBuffer vertex = meeting; vertex != null; vertex = m_forward.m_visited.get(vertex).m_parent)
+				ret.add(vertex);
+
+			Collections.reverse(ret);
+
+			for (ByteBuffer vertex = m_backward.m_visited.get(meeting).m_parent; vertex != null;
+					vertex = m_backward.m_visited.get(vertex).m_parent)
+				ret.add(vertex);
+
+			return (ret);
+		}
+	}
+}
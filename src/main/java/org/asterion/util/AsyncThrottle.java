@@ -0,0 +1,132 @@
+package org.asterion.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Limits how many asynchronous operations are outstanding at once.  Tasks
+ submitted over the limit are queued and started, in order, as earlier
+ tasks complete.  Submitting never blocks the caller.
+ */
+public class AsyncThrottle
+{
+	private final int m_maxInFlight;
+	private final Deque<Runnable> m_pending = new ArrayDeque<>();
+	private int m_inFlight = 0;
+
+	//Tasks that complete synchronously would otherwise start the next task
+	//recursively, this flattens that into a loop per thread.
+	private final ThreadLocal<Deque<Runnable>> m_trampoline = new ThreadLocal<>();
+
+	public AsyncThrottle(int maxInFlight)
+	{
+		checkArgument(maxInFlight > 0, "maxInFlight must be greater than 0");
+		m_maxInFlight = maxInFlight;
+	}
+
+	public int getMaxInFlight()
+	{
+		return (m_maxInFlight);
+	}
+
+	public synchronized int getInFlight()
+	{
+		return (m_inFlight);
+	}
+
+	public synchronized int getPending()
+	{
+		return (m_pending.size());
+	}
+
+	/**
+	 Starts the task now if under the limit, otherwise when a slot frees up.
+	 The returned future completes with the result of the task's future.
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task)
+	{
+		final CompletableFuture<T> ret = new CompletableFuture<>();
+
+		Runnable start = () ->
+		{
+			CompletableFuture<T> future;
+			try
+			{
+				future = task.get();
+			}
+			catch (Throwable t)
+			{
+				future = new CompletableFuture<>();
+				future.completeExceptionally(t);
+			}
+
+			future.whenComplete((result, t) ->
+			{
+				release();
+
+				if (t != null)
+					ret.completeExceptionally(t);
+				else
+					ret.complete(result);
+			});
+		};
+
+		boolean runNow;
+		synchronized (this)
+		{
+			runNow = m_inFlight < m_maxInFlight;
+			if (runNow)
+				m_inFlight++;
+			else
+				m_pending.add(start);
+		}
+
+		if (runNow)
+			run(start);
+
+		return (ret);
+	}
+
+	private void release()
+	{
+		Runnable next;
+		synchronized (this)
+		{
+			next = m_pending.poll();
+			if (next == null)
+				m_inFlight--;
+		}
+
+		if (next != null)
+			run(next);
+	}
+
+	private void run(Runnable task)
+	{
+		Deque<Runnable> queue = m_trampoline.get();
+		if (queue != null)
+		{
+			queue.add(task);
+			return;
+		}
+
+		queue = new ArrayDeque<>();
+		m_trampoline.set(queue);
+		try
+		{
+			while (task != null)
+			{
+				task.run();
+				task = queue.poll();
+			}
+		}
+		finally
+		{
+			m_trampoline.remove();
+		}
+	}
+}
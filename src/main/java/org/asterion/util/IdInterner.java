@@ -0,0 +1,155 @@
+package org.asterion.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ Maps variable length ids to dense ints, the first id interned is 0, the
+ next 1 and so on.  Holding ints instead of ids lets adjacency lists and
+ visited sets use primitive arrays.  The ids are kept once, as byte arrays,
+ with an open addressed int table to find them.  Ids are never removed.
+ Not thread safe.
+ */
+public class IdInterner
+{
+	private static final int EMPTY = -1;
+
+	private byte[][] m_ids;
+	private int[] m_hashes;
+	private int[] m_table;
+	private int m_mask;
+	private int m_size = 0;
+
+	public IdInterner()
+	{
+		this(16);
+	}
+
+	public IdInterner(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+		m_table = new int[capacity];
+		Arrays.fill(m_table, EMPTY);
+		m_mask = capacity - 1;
+
+		m_ids = new byte[capacity / 2][];
+		m_hashes = new int[capacity / 2];
+	}
+
+	/**
+	 Returns the int for the id, assigning the next one if the id has not
+	 been seen before.
+	 */
+	public int intern(ByteBuffer id)
+	{
+		int hash = hash(id);
+		int slot = hash & m_mask;
+
+		while (m_table[slot] != EMPTY)
+		{
+			int existing = m_table[slot];
+			if (m_hashes[existing] == hash && matches(m_ids[existing], id))
+				return (existing);
+
+			slot = (slot + 1) & m_mask;
+		}
+
+		byte[] bytes = new byte[id.remaining()];
+		id.duplicate().get(bytes);
+
+		int ret = m_size++;
+		m_ids[ret] = bytes;
+		m_hashes[ret] = hash;
+		m_table[slot] = ret;
+
+		//m_ids only holds as many ids as the load limit allows
+		if (m_size * 2 >= m_table.length)
+			resize();
+
+		return (ret);
+	}
+
+	/**
+	 Returns the int for the id or -1 if it has not been interned.
+	 */
+	public int lookup(ByteBuffer id)
+	{
+		int hash = hash(id);
+		int slot = hash & m_mask;
+
+		while (m_table[slot] != EMPTY)
+		{
+			int existing = m_table[slot];
+			if (m_hashes[existing] == hash && matches(m_ids[existing], id))
+				return (existing);
+
+			slot = (slot + 1) & m_mask;
+		}
+
+		return (-1);
+	}
+
+	/**
+	 Returns a new buffer over the id, the bytes are shared and must not be
+	 modified.
+	 */
+	public ByteBuffer get(int id)
+	{
+		return (ByteBuffer.wrap(m_ids[id]));
+	}
+
+	public int size()
+	{
+		return (m_size);
+	}
+
+	private static boolean matches(byte[] bytes, ByteBuffer id)
+	{
+		if (bytes.length != id.remaining())
+			return (false);
+
+		int position = id.position();
+		for (int i = 0; i < bytes.length; i++)
+		{
+			if (bytes[i] != id.get(position + i))
+				return (false);
+		}
+
+		return (true);
+	}
+
+	private static int hash(ByteBuffer id)
+	{
+		int h = 1;
+		for (int i = id.position(); i < id.limit(); i++)
+			h = 31 * h + id.get(i);
+
+		//Murmur3 finalizer, ids often share long prefixes
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+
+		return (h);
+	}
+
+	private void resize()
+	{
+		m_table = new int[m_table.length * 2];
+		Arrays.fill(m_table, EMPTY);
+		m_mask = m_table.length - 1;
+
+		for (int id = 0; id < m_size; id++)
+		{
+			int slot = m_hashes[id] & m_mask;
+			while (m_table[slot] != EMPTY)
+				slot = (slot + 1) & m_mask;
+
+			m_table[slot] = id;
+		}
+
+		m_ids = Arrays.copyOf(m_ids, m_table.length / 2);
+		m_hashes = Arrays.copyOf(m_hashes, m_table.length / 2);
+	}
+}
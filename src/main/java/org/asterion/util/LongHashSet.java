@@ -0,0 +1,109 @@
+package org.asterion.util;
+
+/**
+ Set of primitive longs using open addressing with linear probing.  Costs
+ about 16 bytes per entry, a fraction of a HashSet of boxed values, so it
+ can hold millions of entries.  Not thread safe.
+ */
+public class LongHashSet
+{
+	private static final long EMPTY = 0L;
+
+	private long[] m_table;
+	private int m_mask;
+	private int m_size = 0;
+	private boolean m_containsEmpty = false;
+
+	public LongHashSet()
+	{
+		this(16);
+	}
+
+	public LongHashSet(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+		m_table = new long[capacity];
+		m_mask = capacity - 1;
+	}
+
+	/**
+	 @return true if the value was not already in the set
+	 */
+	public boolean add(long value)
+	{
+		if (value == EMPTY)
+		{
+			if (m_containsEmpty)
+				return (false);
+
+			m_containsEmpty = true;
+			m_size++;
+			return (true);
+		}
+
+		int slot = slot(value);
+		while (m_table[slot] != EMPTY)
+		{
+			if (m_table[slot] == value)
+				return (false);
+
+			slot = (slot + 1) & m_mask;
+		}
+
+		m_table[slot] = value;
+		m_size++;
+
+		if (m_size * 2 > m_table.length)
+			resize();
+
+		return (true);
+	}
+
+	public boolean contains(long value)
+	{
+		if (value == EMPTY)
+			return (m_containsEmpty);
+
+		int slot = slot(value);
+		while (m_table[slot] != EMPTY)
+		{
+			if (m_table[slot] == value)
+				return (true);
+
+			slot = (slot + 1) & m_mask;
+		}
+
+		return (false);
+	}
+
+	public int size()
+	{
+		return (m_size);
+	}
+
+	private int slot(long value)
+	{
+		//Spread the bits, values are not assumed to be hashes already
+		long h = value * 0x9E3779B97F4A7C15L;
+		return ((int) (h ^ (h >>> 32)) & m_mask);
+	}
+
+	private void resize()
+	{
+		long[] old = m_table;
+		m_table = new long[old.length * 2];
+		m_mask = m_table.length - 1;
+
+		for (long value : old)
+		{
+			if (value == EMPTY)
+				continue;
+
+			int slot = slot(value);
+			while (m_table[slot] != EMPTY)
+				slot = (slot + 1) & m_mask;
+
+			m_table[slot] = value;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.asterion.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ Merges concurrent loads of the same key, callers asking for a key that
+ is already being loaded share the load in flight instead of starting
+ another.  A key is forgotten as soon as its load completes so the next
+ caller starts a fresh load, nothing is cached.
+ */
+public class SingleFlight<K, V>
+{
+	private final ConcurrentMap<K, CompletableFuture<V>> m_inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 Returns the load in flight for the key or starts one.
+	 */
+	public CompletableFuture<V> get(K key, Supplier<CompletableFuture<V>> load)
+	{
+		CompletableFuture<V> ret = m_inFlight.get(key);
+		if (ret != null)
+			return (ret);
+
+		final CompletableFuture<V> flight = new CompletableFuture<>();
+		ret = m_inFlight.putIfAbsent(key, flight);
+		if (ret != null)
+			return (ret);
+
+		CompletableFuture<V> future;
+		try
+		{
+			future = load.get();
+		}
+		catch (Throwable t)
+		{
+			future = new CompletableFuture<>();
+			future.completeExceptionally(t);
+		}
+
+		future.whenComplete((v, t) ->
+		{
+			//Removed first so no one joins a load that has finished
+			m_inFlight.remove(key, flight);
+
+			if (t != null)
+				flight.completeExceptionally(t);
+			else
+				flight.complete(v);
+		});
+
+		return (flight);
+	}
+
+	public int getInFlight()
+	{
+		return (m_inFlight.size());
+	}
+}
@@ -23,6 +23,8 @@ import com.google.common.collect.ImmutableList;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.List;
 
@@ -31,6 +33,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 public class Util
 {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	/**
 	 Special thanks to Nadeau software consulting for publishing this code.
 	 http://nadeausoftware.com/node/97
@@ -169,6 +173,52 @@ public class Util
 		return ((value >>> 1) ^ -(value & 1));
 	}
 
+	/**
+	 Writes the remaining bytes of the buffer prefixed with their length as
+	 an unsigned varint.  The buffer position is not changed.
+	 */
+	public static void packBytes(ByteBuffer value, DataOutput buffer) throws IOException
+	{
+		ByteBuffer bytes = value.duplicate();
+		packUnsignedLong(bytes.remaining(), buffer);
+
+		if (bytes.hasArray())
+			buffer.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		else
+		{
+			while (bytes.hasRemaining())
+				buffer.writeByte(bytes.get());
+		}
+	}
+
+	/**
+	 Reads bytes written by packBytes.
+	 @throws IOException if the length is over maxLength
+	 */
+	public static ByteBuffer unpackBytes(DataInput buffer, int maxLength) throws IOException
+	{
+		long length = unpackUnsignedLong(buffer);
+		if (length > maxLength)
+			throw new IOException("Length " + length + " is over the limit of " + maxLength);
+
+		byte[] bytes = new byte[(int) length];
+		buffer.readFully(bytes);
+
+		return (ByteBuffer.wrap(bytes));
+	}
+
+	public static void packString(String value, DataOutput buffer) throws IOException
+	{
+		packBytes(ByteBuffer.wrap(value.getBytes(UTF_8)), buffer);
+	}
+
+	public static String unpackString(DataInput buffer, int maxLength) throws IOException
+	{
+		ByteBuffer bytes = unpackBytes(buffer, maxLength);
+
+		return (new String(bytes.array(), UTF_8));
+	}
+
 	public static InetAddress findPublicIp()
 	{
 		// Check if local host address is a good v4 address
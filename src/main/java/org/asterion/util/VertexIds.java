@@ -0,0 +1,34 @@
+package org.asterion.util;
+
+import com.google.common.io.BaseEncoding;
+
+import java.nio.ByteBuffer;
+
+/**
+ Vertex ids are passed over REST as url safe base64 without padding.
+ */
+public class VertexIds
+{
+	private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+	private VertexIds()
+	{
+	}
+
+	/**
+	 @throws IllegalArgumentException if the id is not valid base64
+	 */
+	public static ByteBuffer decode(String vertexId)
+	{
+		return (ByteBuffer.wrap(ENCODING.decode(vertexId)));
+	}
+
+	public static String encode(ByteBuffer vertexId)
+	{
+		ByteBuffer id = vertexId.duplicate();
+		byte[] bytes = new byte[id.remaining()];
+		id.get(bytes);
+
+		return (ENCODING.encode(bytes));
+	}
+}
@@ -0,0 +1,188 @@
+package org.asterion.rest;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestAsyncResponses
+{
+	private AsyncResponses m_async;
+	private Server m_server;
+	private int m_port;
+
+	//Handed to the next request, each test sets its own
+	private volatile CompletableFuture<String> m_result;
+
+	@Before
+	public void startServer() throws Exception
+	{
+		m_async = new AsyncResponses();
+
+		ServletHolder servlet = new ServletHolder(new HttpServlet()
+		{
+			@Override
+			protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException
+			{
+				final CompletableFuture<String> result = m_result;
+				Response ret = m_async.respond(request, () -> result,
+						value -> Response.ok(value).build(),
+						t -> Response.status(Response.Status.BAD_REQUEST).entity(t.getMessage()).build());
+
+				//Suspended, rendered when dispatched again
+				if (ret == null)
+					return;
+
+				response.setStatus(ret.getStatus());
+				response.getWriter().print(ret.getEntity());
+			}
+		});
+		servlet.setAsyncSupported(true);
+
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(servlet, "/*");
+
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(0);
+
+		m_server = new Server();
+		m_server.addConnector(connector);
+		m_server.setHandler(context);
+		m_server.start();
+		m_port = connector.getLocalPort();
+	}
+
+	@After
+	public void stopServer() throws Exception
+	{
+		m_server.stop();
+	}
+
+	private HttpURLConnection get() throws IOException
+	{
+		return ((HttpURLConnection) new URL("http://localhost:" + m_port + "/").openConnection());
+	}
+
+	/**
+	 The pending count drops once the container completes the response,
+	 which can be after the client has read it.  Tests time out otherwise.
+	 */
+	private void awaitPending(int pending)
+	{
+		while (m_async.getPending() != pending)
+		{
+			try
+			{
+				Thread.sleep(10);
+			}
+			catch (InterruptedException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static String body(HttpURLConnection connection) throws IOException
+	{
+		InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+		try (Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A"))
+		{
+			return (scanner.hasNext() ? scanner.next() : "");
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void test_completesAfterSuspend() throws Exception
+	{
+		m_result = new CompletableFuture<>();
+		final CompletableFuture<String> result = m_result;
+
+		//Completes only once the request is suspended
+		new Thread(() ->
+		{
+			awaitPending(1);
+			result.complete("done");
+		}).start();
+
+		HttpURLConnection connection = get();
+		assertThat(connection.getResponseCode(), equalTo(200));
+		assertThat(body(connection), equalTo("done"));
+		awaitPending(0);
+	}
+
+	@Test(timeout = 10000)
+	public void test_overPendingLimit() throws Exception
+	{
+		m_async.setMaxPending(1);
+		m_result = new CompletableFuture<>();
+		final CompletableFuture<String> first = m_result;
+
+		HttpURLConnection held = get();
+		Thread request = new Thread(() ->
+		{
+			try
+			{
+				held.getResponseCode();
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		});
+		request.start();
+
+		awaitPending(1);
+
+		HttpURLConnection connection = get();
+		assertThat(connection.getResponseCode(), equalTo(503));
+		assertThat(body(connection), containsString("Too many pending requests"));
+
+		first.complete("done");
+		request.join();
+		assertThat(held.getResponseCode(), equalTo(200));
+	}
+
+	@Test(timeout = 10000)
+	public void test_timeout() throws Exception
+	{
+		m_async.setTimeout(100);
+		m_result = new CompletableFuture<>();
+
+		HttpURLConnection connection = get();
+		assertThat(connection.getResponseCode(), equalTo(503));
+		assertThat(body(connection), containsString("Request timed out"));
+
+		//A result arriving after the timeout is dropped
+		m_result.complete("late");
+		awaitPending(0);
+	}
+
+	@Test(timeout = 10000)
+	public void test_failure() throws Exception
+	{
+		m_result = new CompletableFuture<>();
+		m_result.completeExceptionally(new IllegalArgumentException("bad vertex"));
+
+		HttpURLConnection connection = get();
+		assertThat(connection.getResponseCode(), equalTo(400));
+		assertThat(body(connection), equalTo("bad vertex"));
+	}
+}
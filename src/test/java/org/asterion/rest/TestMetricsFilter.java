@@ -0,0 +1,141 @@
+package org.asterion.rest;
+
+import com.codahale.metrics.MetricRegistry;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestMetricsFilter
+{
+	private MetricRegistry m_registry;
+	private Server m_server;
+	private int m_port;
+
+	//Completes the next asynchronous request
+	private final CompletableFuture<AsyncContext> m_suspended = new CompletableFuture<>();
+
+	@Before
+	public void startServer() throws Exception
+	{
+		m_registry = new MetricRegistry();
+
+		ServletHolder servlet = new ServletHolder(new HttpServlet()
+		{
+			@Override
+			protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException
+			{
+				switch (request.getPathInfo())
+				{
+					case "/v1/ok":
+						response.setStatus(HttpServletResponse.SC_OK);
+						break;
+					case "/v1/broken":
+						response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+						break;
+					case "/v1/async":
+						m_suspended.complete(request.startAsync());
+						break;
+					default:
+						response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				}
+			}
+		});
+		servlet.setAsyncSupported(true);
+
+		FilterHolder filter = new FilterHolder(new MetricsFilter(m_registry));
+		filter.setAsyncSupported(true);
+
+		ServletContextHandler context = new ServletContextHandler();
+		context.addFilter(filter, "/api/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+		context.addServlet(servlet, "/api/*");
+
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(0);
+
+		m_server = new Server();
+		m_server.addConnector(connector);
+		m_server.setHandler(context);
+		m_server.start();
+		m_port = connector.getLocalPort();
+	}
+
+	@After
+	public void stopServer() throws Exception
+	{
+		m_server.stop();
+	}
+
+	private int get(String path) throws IOException
+	{
+		return (((HttpURLConnection) new URL("http://localhost:" + m_port + path).openConnection()).getResponseCode());
+	}
+
+	@Test
+	public void test_timedByPath() throws Exception
+	{
+		assertThat(get("/api/v1/ok"), equalTo(200));
+		assertThat(get("/api/v1/broken"), equalTo(500));
+
+		assertThat(m_registry.timer("rest.api.v1.ok.GET").getCount(), equalTo(1L));
+		assertThat(m_registry.meter("rest.api.v1.ok.GET.errors").getCount(), equalTo(0L));
+		assertThat(m_registry.timer("rest.api.v1.broken.GET").getCount(), equalTo(1L));
+		assertThat(m_registry.meter("rest.api.v1.broken.GET.errors").getCount(), equalTo(1L));
+	}
+
+	@Test
+	public void test_unmatchedNotNamed() throws Exception
+	{
+		assertThat(get("/api/v1/unknown"), equalTo(404));
+
+		assertThat(m_registry.meter("rest.unmatched").getCount(), equalTo(1L));
+		assertThat(m_registry.getTimers().containsKey("rest.api.v1.unknown.GET"), equalTo(false));
+	}
+
+	@Test(timeout = 10000)
+	public void test_asyncTimedUntilComplete() throws Exception
+	{
+		CompletableFuture<Integer> status = CompletableFuture.supplyAsync(() ->
+		{
+			try
+			{
+				return (get("/api/v1/async"));
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		});
+
+		AsyncContext context = m_suspended.get(5, TimeUnit.SECONDS);
+		assertThat(m_registry.timer("rest.api.v1.async.GET").getCount(), equalTo(0L));
+		assertThat(m_registry.counter("rest.active_requests").getCount(), equalTo(1L));
+
+		((HttpServletResponse) context.getResponse()).setStatus(HttpServletResponse.SC_OK);
+		context.complete();
+
+		assertThat(status.get(), equalTo(200));
+		while (m_registry.timer("rest.api.v1.async.GET").getCount() == 0)
+			Thread.sleep(10);
+		assertThat(m_registry.counter("rest.active_requests").getCount(), equalTo(0L));
+	}
+}
@@ -1,5 +1,6 @@
 package org.asterion.store;
 
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Session;
 import org.cassandraunit.CassandraCQLUnit;
 import org.cassandraunit.dataset.CQLDataSet;
@@ -37,6 +38,24 @@ public class CassandraTestClient implements CassandraClient
 		return ("test");
 	}
 
+	@Override
+	public ConsistencyLevel getReadConsistency()
+	{
+		return (ConsistencyLevel.ONE);
+	}
+
+	@Override
+	public ConsistencyLevel getWriteConsistency()
+	{
+		return (ConsistencyLevel.ONE);
+	}
+
+	@Override
+	public long getSpeculativeDelay()
+	{
+		return (0);
+	}
+
 	@Override
 	public void close()
 	{
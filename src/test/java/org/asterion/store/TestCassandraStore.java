@@ -1,6 +1,30 @@
 package org.asterion.store;
 
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.Session;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.dump.DumpReader;
+import org.asterion.dump.DumpWriter;
+import org.asterion.dump.GraphExporter;
+import org.asterion.dump.GraphImporter;
+import org.asterion.dump.RecoveryFile;
+import org.asterion.ingest.BinaryRecordReader;
+import org.asterion.ingest.BulkLoader;
+import org.asterion.ingest.JsonRecordReader;
+import org.asterion.ingest.LoadResult;
+import org.asterion.traversal.Expansion;
+import org.asterion.traversal.TraversalEngine;
+import org.asterion.util.Util;
 import org.cassandraunit.CassandraCQLUnit;
 import org.cassandraunit.dataset.CQLDataSet;
 import org.junit.After;
@@ -8,14 +32,26 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 
 /**
  Created by bhawkins on 3/4/15.
@@ -72,7 +108,7 @@ public class TestCassandraStore
 	}
 
 	@Test
-	public void test_updateVertex()
+	public void test_updateVertex() throws Exception
 	{
 		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
 
@@ -80,11 +116,633 @@ public class TestCassandraStore
 		props.put("name", "bob");
 		props.put("height", "6.2");
 
-		m_cassandraStore.updateVertex(vertexId, props);
+		m_cassandraStore.updateVertex(vertexId, props).get();
 
-		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name"), equalTo("bob"));
-		assertThat(m_cassandraStore.getVertexProperties(vertexId), equalTo(props));
+		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name").get(), equalTo("bob"));
+		assertThat(m_cassandraStore.getVertexProperties(vertexId).get(), equalTo(props));
 	}
 
+	/**
+	 Every query is prepared once and each bind reuses that statement.
+	 */
+	@Test
+	public void test_statementsPreparedOnce() throws Exception
+	{
+		try (Session session = m_cassandraClient.getKeyspaceSession())
+		{
+			StatementRegistry registry = new StatementRegistry(session, ConsistencyLevel.ONE, ConsistencyLevel.QUORUM);
+
+			BoundStatement first = registry.bind(StatementRegistry.Query.INSERT_VERTEX_PROPERTY);
+			BoundStatement second = registry.bind(StatementRegistry.Query.INSERT_VERTEX_PROPERTY);
+
+			assertThat(first, not(sameInstance(second)));
+			assertThat(first.preparedStatement(), sameInstance(second.preparedStatement()));
+			assertThat(first.preparedStatement(), sameInstance(registry.get(StatementRegistry.Query.INSERT_VERTEX_PROPERTY)));
+			assertThat(registry.getQuery(first), equalTo(StatementRegistry.Query.INSERT_VERTEX_PROPERTY));
+			assertThat(first.getConsistencyLevel(), equalTo(ConsistencyLevel.QUORUM));
+			assertThat(registry.bind(StatementRegistry.Query.SELECT_VERTEX_PROPERTY).getConsistencyLevel(),
+					equalTo(ConsistencyLevel.ONE));
+		}
+	}
+
+	@Test
+	public void test_addEdges() throws Exception
+	{
+		ByteBuffer hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>();
+
+		for (int i = 0; i < 250; i++)
+			edges.add(new Edge(hub, ByteBuffer.wrap(("spoke_" + i).getBytes()), Direction.OUT, "knows", 0L));
+
+		m_cassandraStore.setMaxBatchRows(100);
+		m_cassandraStore.addEdges(edges).get();
+
+		assertThat(Iterators.size(m_cassandraStore.getEdges(hub, "knows")), equalTo(250));
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(ByteBuffer.wrap("spoke_7".getBytes()), "knows")),
+				equalTo(Collections.singletonList(hub)));
+	}
+
+	@Test
+	public void test_getEdgesTimeRange() throws Exception
+	{
+		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
+		List<Edge> edges = new ArrayList<>();
+
+		m_cassandraStore.setEdgeBucketSize(1000L);
+		for (int i = 0; i < 10; i++)
+			edges.add(new Edge(vertexId, ByteBuffer.wrap(("edge_" + i).getBytes()), Direction.OUT, "knows", i * 500L));
+
+		m_cassandraStore.addEdges(edges).get();
+
+		assertThat(Iterators.size(m_cassandraStore.getEdges(vertexId, "knows")), equalTo(10));
+
+		List<ByteBuffer> expected = Arrays.asList(ByteBuffer.wrap("edge_3".getBytes()),
+				ByteBuffer.wrap("edge_4".getBytes()), ByteBuffer.wrap("edge_5".getBytes()),
+				ByteBuffer.wrap("edge_6".getBytes()));
+
+		EdgeQuery query = new EdgeQuery(vertexId, "knows").setTimeRange(1500L, 3000L);
+		assertThat(m_cassandraStore.readEdges(query).get(), equalTo(expected));
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(query)), equalTo(expected));
+	}
+
+	@Test
+	public void test_getEdgesPaging() throws Exception
+	{
+		ByteBuffer hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>();
+
+		m_cassandraStore.setEdgeBucketSize(100L);
+		for (int i = 0; i < 250; i++)
+			edges.add(new Edge(hub, ByteBuffer.wrap(String.format("spoke_%03d", i).getBytes()), Direction.OUT, "knows", i));
+
+		m_cassandraStore.addEdges(edges).get();
+
+		EdgeIterator it = m_cassandraStore.getEdges(new EdgeQuery(hub, "knows").setFetchSize(10));
+		List<ByteBuffer> read = new ArrayList<>();
+		for (int i = 0; i < 125; i++)
+			read.add(it.next());
+
+		EdgeQuery resume = new EdgeQuery(hub, "knows").setFetchSize(10).setPagingState(it.getPagingState());
+		it = m_cassandraStore.getEdges(resume);
+		while (it.hasNext())
+			read.add(it.next());
+
+		assertThat(it.getPagingState(), equalTo(null));
+		assertThat(read.size(), equalTo(250));
+		for (int i = 0; i < 250; i++)
+			assertThat(read.get(i), equalTo(edges.get(i).getDestVertexId()));
+
+		assertThat(Iterators.size(m_cassandraStore.getEdges(new EdgeQuery(hub, "knows").setDirection(Direction.OUT))),
+				equalTo(250));
+		assertThat(m_cassandraStore.getEdges(new EdgeQuery(hub, "knows").setDirection(Direction.IN)).hasNext(),
+				equalTo(false));
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(new EdgeQuery(edges.get(0).getDestVertexId(), "knows")
+				.setDirection(Direction.IN))), equalTo(Collections.singletonList(hub)));
+	}
+
+	@Test
+	public void test_vertexCache() throws Exception
+	{
+		MetricRegistry metricRegistry = new MetricRegistry();
+		m_cassandraStore.setVertexCache(new LruVertexCache(1, 60000, metricRegistry));
+
+		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
+		Map<String, String> props = new HashMap<>();
+		props.put("name", "bob");
+		m_cassandraStore.updateVertex(vertexId, props).get();
+
+		assertThat(m_cassandraStore.getVertexProperties(vertexId).get(), equalTo(props));
+		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name").get(), equalTo("bob"));
+		assertThat(metricRegistry.counter(MetricRegistry.name(VertexCache.class, "hits")).getCount(), equalTo(1L));
+
+		props.put("name", "fred");
+		m_cassandraStore.updateVertex(vertexId, props).get();
+		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name").get(), equalTo("fred"));
+
+		m_cassandraStore.getVertexProperties(ByteBuffer.wrap("other".getBytes())).get();
+		assertThat(metricRegistry.counter(MetricRegistry.name(VertexCache.class, "evictions")).getCount(), equalTo(1L));
+	}
+
+	@Test
+	public void test_vertexCacheExpires() throws Exception
+	{
+		final AtomicLong now = new AtomicLong();
+		m_cassandraStore.setVertexCache(new LruVertexCache(100, 1000, new MetricRegistry(), new Ticker()
+		{
+			@Override
+			public long read()
+			{
+				return (now.get());
+			}
+		}));
+
+		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
+		m_cassandraStore.updateVertex(vertexId, ImmutableMap.of("name", "bob")).get();
+		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name").get(), equalTo("bob"));
+
+		//A write through another node is not seen until the entry expires
+		CassandraStore otherNode = new CassandraStore(m_cassandraClient);
+		otherNode.updateVertex(vertexId, ImmutableMap.of("name", "fred")).get();
+		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name").get(), equalTo("bob"));
+
+		now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+		assertThat(m_cassandraStore.getVertexProperty(vertexId, "name").get(), equalTo("fred"));
+	}
+
+	@Test
+	public void test_adjacencyCache() throws Exception
+	{
+		MetricRegistry metricRegistry = new MetricRegistry();
+		m_cassandraStore.setAdjacencyCache(new OffHeapAdjacencyCache(1024 * 1024, 100, 60000, metricRegistry));
+
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		ByteBuffer sam = ByteBuffer.wrap("sam".getBytes());
+		EdgeQuery query = new EdgeQuery(bob, "knows").setDirection(Direction.OUT);
+
+		m_cassandraStore.addEdge(bob, fred, Direction.OUT, "knows").get();
+
+		assertThat(m_cassandraStore.readEdges(query).get(), equalTo(Collections.singletonList(fred)));
+		assertThat(m_cassandraStore.readEdges(query).get(), equalTo(Collections.singletonList(fred)));
+		assertThat(metricRegistry.counter(MetricRegistry.name(AdjacencyCache.class, "hits")).getCount(), equalTo(1L));
+
+		m_cassandraStore.addEdge(bob, sam, Direction.OUT, "knows").get();
+		assertThat(new HashSet<>(m_cassandraStore.readEdges(query).get()), equalTo((Set<ByteBuffer>) ImmutableSet.of(fred, sam)));
+
+		m_cassandraStore.deleteEdge(bob, fred, "knows").get();
+		assertThat(m_cassandraStore.readEdges(query).get(), equalTo(Collections.singletonList(sam)));
+
+		EdgeQuery reverse = new EdgeQuery(sam, "knows").setDirection(Direction.IN);
+		assertThat(m_cassandraStore.readEdges(reverse).get(), equalTo(Collections.singletonList(bob)));
+		m_cassandraStore.deleteVertex(bob).get();
+		assertThat(m_cassandraStore.readEdges(reverse).get().isEmpty(), equalTo(true));
+		assertThat(m_cassandraStore.readEdges(query).get().isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_multiGetVertexProperties() throws Exception
+	{
+		List<ByteBuffer> vertices = new ArrayList<>();
+		for (int i = 0; i < 500; i++)
+		{
+			ByteBuffer vertexId = ByteBuffer.wrap(("vertex_" + i).getBytes());
+			vertices.add(vertexId);
+			m_cassandraStore.updateVertex(vertexId, ImmutableMap.of("name", "name_" + i, "index", String.valueOf(i))).get();
+		}
+		ByteBuffer missing = ByteBuffer.wrap("missing".getBytes());
+		vertices.add(missing);
+
+		Map<ByteBuffer, Map<String, String>> properties = m_cassandraStore.getVertexProperties(vertices, null).get();
+		assertThat(properties.size(), equalTo(501));
+		assertThat(properties.get(vertices.get(7)), equalTo((Map<String, String>) ImmutableMap.of("name", "name_7", "index", "7")));
+		assertThat(properties.get(missing).isEmpty(), equalTo(true));
+
+		properties = m_cassandraStore.getVertexProperties(vertices, ImmutableSet.of("index")).get();
+		assertThat(properties.get(vertices.get(7)), equalTo((Map<String, String>) ImmutableMap.of("index", "7")));
+
+		//Reads issued after a write see it even while earlier reads are in flight
+		m_cassandraStore.getVertexProperties(vertices, null);
+		m_cassandraStore.updateVertex(vertices.get(7), ImmutableMap.of("name", "seven")).get();
+		assertThat(m_cassandraStore.getVertexProperties(Collections.singletonList(vertices.get(7)), ImmutableSet.of("name"))
+				.get().get(vertices.get(7)), equalTo((Map<String, String>) ImmutableMap.of("name", "seven")));
+	}
+
+	@Test
+	public void test_updateVertexSkipsUnchangedProperties() throws Exception
+	{
+		MetricRegistry metricRegistry = new MetricRegistry();
+		m_cassandraStore.setWriteDeduplicator(new WriteDeduplicator(1024, metricRegistry));
+		Meter suppressed = metricRegistry.meter(MetricRegistry.name(WriteDeduplicator.class, "suppressed"));
+
+		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
+		Map<String, String> props = new HashMap<>();
+		props.put("name", "bob");
+		props.put("height", "6.2");
+
+		m_cassandraStore.updateVertex(vertexId, props).get();
+		m_cassandraStore.updateVertex(vertexId, props).get();
+		assertThat(suppressed.getCount(), equalTo(2L));
+
+		props.put("height", "6.3");
+		m_cassandraStore.updateVertex(vertexId, props).get();
+		assertThat(suppressed.getCount(), equalTo(3L));
+		assertThat(m_cassandraStore.getVertexProperties(vertexId).get(), equalTo(props));
+	}
+
+	/**
+	 Rows are recorded for reads that are iterated as well as those read
+	 whole.
+	 */
+	@Test
+	public void test_rowsReadMetrics() throws Exception
+	{
+		MetricRegistry metricRegistry = new MetricRegistry();
+		m_cassandraStore.setMetricRegistry(metricRegistry);
+
+		ByteBuffer hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>();
+		for (int i = 0; i < 25; i++)
+			edges.add(new Edge(hub, ByteBuffer.wrap(("spoke_" + i).getBytes()), Direction.OUT, "knows", 0L));
+
+		m_cassandraStore.addEdges(edges).get();
+		m_cassandraStore.updateVertex(hub, ImmutableMap.of("name", "hub")).get();
+
+		assertThat(Iterators.size(m_cassandraStore.getEdges(hub, "knows")), equalTo(25));
+		assertThat(Iterators.size(m_cassandraStore.scanVertices(new TokenRange(Long.MIN_VALUE, Long.MAX_VALUE))),
+				equalTo(1));
+
+		Histogram edgeRows = metricRegistry.histogram(MetricRegistry.name(CassandraStore.class, "rows_read",
+				StatementRegistry.Query.SELECT_EDGES.name()));
+		assertThat(edgeRows.getCount(), equalTo(1L));
+		assertThat(edgeRows.getSnapshot().getMax(), equalTo(25L));
+
+		Histogram scanRows = metricRegistry.histogram(MetricRegistry.name(CassandraStore.class, "rows_read",
+				StatementRegistry.Query.SCAN_VERTICES.name()));
+		assertThat(scanRows.getCount(), equalTo(1L));
+		assertThat(scanRows.getSnapshot().getMax(), equalTo(1L));
+
+		//Read by the id dictionary rather than the store, never reported
+		assertThat(metricRegistry.getHistograms().containsKey(MetricRegistry.name(CassandraStore.class, "rows_read",
+				StatementRegistry.Query.SELECT_VERTEX_ID.name())), equalTo(false));
+	}
+
+	@Test
+	public void test_findVerticesByProperty() throws Exception
+	{
+		m_cassandraStore.setIndexedProperties("name");
+
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer bill = ByteBuffer.wrap("bill".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		m_cassandraStore.updateVertex(bob, ImmutableMap.of("name", "bob", "height", "6.2")).get();
+		m_cassandraStore.updateVertex(bill, ImmutableMap.of("name", "bill")).get();
+		m_cassandraStore.updateVertex(fred, ImmutableMap.of("name", "fred")).get();
+
+		assertThat(m_cassandraStore.findVerticesByProperty("name", "bob").get(), equalTo(Collections.singletonList(bob)));
+		assertThat(m_cassandraStore.findVerticesByProperty("height", "6.2").get().isEmpty(), equalTo(true));
+		assertThat(m_cassandraStore.findVerticesByPropertyPrefix("name", "b", 10).get(), equalTo(Arrays.asList(bill, bob)));
+		assertThat(m_cassandraStore.findVerticesByPropertyRange("name", "bob", null, 10).get(), equalTo(Arrays.asList(bob, fred)));
+
+		//Changing the value moves the index entry
+		m_cassandraStore.updateVertex(bob, ImmutableMap.of("name", "robert")).get();
+		assertThat(m_cassandraStore.findVerticesByProperty("name", "bob").get().isEmpty(), equalTo(true));
+		assertThat(m_cassandraStore.findVerticesByProperty("name", "robert").get(), equalTo(Collections.singletonList(bob)));
+	}
+
+	@Test
+	public void test_getEdgeTypes() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
 
+		assertThat(m_cassandraStore.getEdgeTypes(bob).get().isEmpty(), equalTo(true));
+
+		m_cassandraStore.addEdge(bob, fred, Direction.OUT, "knows").get();
+		m_cassandraStore.addEdges(Arrays.asList(new Edge(bob, fred, Direction.OUT, "likes"),
+				new Edge(bob, fred, Direction.OUT, "knows"))).get();
+
+		assertThat(m_cassandraStore.getEdgeTypes(bob).get(), equalTo(Arrays.asList("knows", "likes")));
+		assertThat(m_cassandraStore.getEdgeTypes(fred).get(), equalTo(Arrays.asList("knows", "likes")));
+	}
+
+	@Test
+	public void test_getEdgeTypesReusedBuffer() throws Exception
+	{
+		byte[] source = "bob".getBytes();
+		ByteBuffer sourceId = ByteBuffer.wrap(source);
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		m_cassandraStore.addEdge(sourceId, fred, Direction.OUT, "knows").get();
+
+		//The store must not have kept the caller's buffer
+		System.arraycopy("sam".getBytes(), 0, source, 0, source.length);
+		m_cassandraStore.addEdge(sourceId, fred, Direction.OUT, "knows").get();
+
+		assertThat(m_cassandraStore.getEdgeTypes(ByteBuffer.wrap("bob".getBytes())).get(),
+				equalTo(Collections.singletonList("knows")));
+		assertThat(m_cassandraStore.getEdgeTypes(ByteBuffer.wrap("sam".getBytes())).get(),
+				equalTo(Collections.singletonList("knows")));
+	}
+
+	@Test
+	public void test_traversal() throws Exception
+	{
+		ByteBuffer a = ByteBuffer.wrap("a".getBytes());
+		ByteBuffer b = ByteBuffer.wrap("b".getBytes());
+		ByteBuffer c = ByteBuffer.wrap("c".getBytes());
+		ByteBuffer d = ByteBuffer.wrap("d".getBytes());
+
+		m_cassandraStore.addEdges(Arrays.asList(new Edge(a, b, Direction.OUT, "knows"),
+				new Edge(b, c, Direction.OUT, "knows"),
+				new Edge(c, d, Direction.OUT, "knows"),
+				new Edge(a, c, Direction.OUT, "likes"))).get();
+
+		TraversalEngine engine = new TraversalEngine(m_cassandraStore);
+
+		Expansion expansion = engine.expand(a, "knows", Direction.OUT, 2).get();
+		assertThat(expansion.getLevels(), equalTo(Arrays.asList(Collections.singletonList(a),
+				Collections.singletonList(b), Collections.singletonList(c))));
+
+		assertThat(engine.shortestPath(a, d, "knows", Direction.OUT, 6).get(), equalTo(Arrays.asList(a, b, c, d)));
+		assertThat(engine.shortestPath(a, d, null, Direction.OUT, 6).get(), equalTo(Arrays.asList(a, c, d)));
+		assertThat(engine.shortestPath(d, a, "knows", Direction.OUT, 6).get().isEmpty(), equalTo(true));
+		assertThat(engine.shortestPath(a, d, "knows", Direction.OUT, 2).get().isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_bulkLoad() throws Exception
+	{
+		BulkLoader loader = new BulkLoader(m_cassandraStore);
+
+		String vertices = "{\"id\": \"Ym9i\", \"properties\": {\"name\": \"bob\", \"age\": 42}}\n" +
+				"{\"properties\": {\"name\": \"nobody\"}}\n" +
+				"{\"id\": \"ZnJlZA\", \"properties\": {\"name\": \"fred\"}}\n";
+
+		LoadResult result = loader.loadVertices(JsonRecordReader.forVertices(
+				new ByteArrayInputStream(vertices.getBytes("UTF-8"))));
+		assertThat(result.getRecords(), equalTo(3));
+		assertThat(result.getLoaded(), equalTo(2));
+		assertThat(result.getErrors().get(0).getRecord(), equalTo(1));
+
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		assertThat(m_cassandraStore.getVertexProperty(bob, "age").get(), equalTo("42"));
+
+		String edges = "[{\"source\": \"Ym9i\", \"destination\": \"ZnJlZA\", \"type\": \"knows\"}," +
+				"{\"source\": \"Ym9i\", \"destination\": \"ZnJlZA\", \"type\": \"knows\", \"direction\": \"SIDEWAYS\"}]";
+
+		result = loader.loadEdges(JsonRecordReader.forEdges(new ByteArrayInputStream(edges.getBytes("UTF-8"))));
+		assertThat(result.getRecords(), equalTo(2));
+		assertThat(result.getLoaded(), equalTo(1));
+		assertThat(result.getFailed(), equalTo(1));
+
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(bob, "knows")), equalTo(Collections.singletonList(fred)));
+	}
+
+	@Test
+	public void test_bulkLoadBinary() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Util.packBytes(bob, out);
+		Util.packBytes(fred, out);
+		Util.packString("knows", out);
+		out.writeByte(Direction.OUT.getValue());
+		Util.packLong(1000L, out);
+		//Second record has a bad direction
+		Util.packBytes(bob, out);
+		Util.packBytes(fred, out);
+		Util.packString("knows", out);
+		out.writeByte(7);
+		Util.packLong(2000L, out);
+		out.flush();
+
+		LoadResult result = new BulkLoader(m_cassandraStore).loadEdges(
+				BinaryRecordReader.forEdges(new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(result.getRecords(), equalTo(2));
+		assertThat(result.getLoaded(), equalTo(1));
+		assertThat(result.getErrors().get(0).getRecord(), equalTo(1));
+
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(bob, "knows")), equalTo(Collections.singletonList(fred)));
+	}
+
+	@Test
+	public void test_exportImport() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		m_cassandraStore.updateVertex(bob, ImmutableMap.of("name", "bob")).get();
+		m_cassandraStore.updateVertex(fred, ImmutableMap.of("name", "fred")).get();
+		m_cassandraStore.addEdge(bob, fred, Direction.OUT, "knows").get();
+
+		File dump = File.createTempFile("asterion", ".dump");
+		dump.deleteOnExit();
+
+		GraphExporter exporter = new GraphExporter(m_cassandraStore);
+		exporter.setTokenRanges(16);
+		exporter.export(dump, new RecoveryFile(null, RecoveryFile.EXPORT), false);
+
+		Map<Byte, Integer> counts = new HashMap<>();
+		try (DumpReader reader = new DumpReader(dump, 0))
+		{
+			DumpReader.Block block;
+			while ((block = reader.next()) != null)
+			{
+				Integer count = counts.get(block.getType());
+				counts.put(block.getType(), (count == null ? 0 : count) + block.getRecordCount());
+			}
+		}
+
+		//The edge is stored under both vertices but exported once
+		assertThat(counts.get(DumpWriter.VERTEX_BLOCK), equalTo(2));
+		assertThat(counts.get(DumpWriter.EDGE_BLOCK), equalTo(1));
+
+		new GraphImporter(new BulkLoader(m_cassandraStore)).importDump(dump, new RecoveryFile(null, RecoveryFile.IMPORT));
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(fred, "knows")), equalTo(Collections.singletonList(bob)));
+	}
+
+	@Test
+	public void test_graphScan() throws Exception
+	{
+		for (int i = 0; i < 100; i++)
+			m_cassandraStore.updateVertex(ByteBuffer.wrap(("vertex_" + i).getBytes()), ImmutableMap.of("name", "v" + i)).get();
+
+		GraphScanner scanner = new GraphScanner(m_cassandraStore);
+		scanner.setTokenRanges(32);
+		scanner.setQueueSize(4);
+
+		ScanCheckpoint checkpoint = new ScanCheckpoint();
+		int count = 0;
+		try (GraphScanner.Scan<Vertex> scan = scanner.scanVertices(checkpoint))
+		{
+			while (scan.hasNext())
+			{
+				assertThat(scan.next().getProperties().size(), equalTo(1));
+				count++;
+			}
+		}
+
+		assertThat(count, equalTo(100));
+		assertThat(checkpoint.getFinishedCount(), equalTo(32));
+
+		//Every range is finished so a resumed scan has nothing left
+		try (GraphScanner.Scan<Vertex> scan = scanner.scanVertices(checkpoint))
+		{
+			assertThat(scan.hasNext(), equalTo(false));
+		}
+	}
+
+	@Test
+	public void test_delete() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		ByteBuffer sam = ByteBuffer.wrap("sam".getBytes());
+
+		m_cassandraStore.setIndexedProperties("name");
+		m_cassandraStore.updateVertex(bob, ImmutableMap.of("name", "bob", "height", "6.2")).get();
+		m_cassandraStore.addEdges(Arrays.asList(new Edge(bob, fred, Direction.OUT, "knows"),
+				new Edge(sam, bob, Direction.OUT, "knows"),
+				new Edge(sam, fred, Direction.OUT, "knows"))).get();
+
+		m_cassandraStore.deleteProperty(bob, "height").get();
+		assertThat(m_cassandraStore.getVertexProperties(bob).get(), equalTo((Map<String, String>) ImmutableMap.of("name", "bob")));
+
+		m_cassandraStore.deleteEdge(sam, fred, "knows").get();
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(sam, "knows")), equalTo(Collections.singletonList(bob)));
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(fred, "knows")), equalTo(Collections.singletonList(bob)));
+
+		m_cassandraStore.deleteVertex(bob).get();
+		assertThat(m_cassandraStore.getVertexProperties(bob).get().isEmpty(), equalTo(true));
+		assertThat(m_cassandraStore.findVerticesByProperty("name", "bob").get().isEmpty(), equalTo(true));
+		assertThat(m_cassandraStore.getEdgeTypes(bob).get().isEmpty(), equalTo(true));
+		assertThat(m_cassandraStore.getEdges(fred, "knows").hasNext(), equalTo(false));
+		assertThat(m_cassandraStore.getEdges(sam, "knows").hasNext(), equalTo(false));
+	}
+
+	@Test
+	public void test_idDictionary() throws Exception
+	{
+		m_cassandraStore.setIdDictionary(true);
+		//Small blocks so several are reserved
+		m_cassandraStore.setIdBlockSize(7);
+
+		ByteBuffer hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>();
+		Set<ByteBuffer> spokes = new HashSet<>();
+		for (int i = 0; i < 50; i++)
+		{
+			ByteBuffer spoke = ByteBuffer.wrap(String.format("spoke_%03d", i).getBytes());
+			edges.add(new Edge(hub, spoke, Direction.OUT, "knows", i));
+			spokes.add(spoke);
+		}
+
+		m_cassandraStore.addEdges(edges).get();
+
+		assertThat(new HashSet<>(m_cassandraStore.readEdges(new EdgeQuery(hub, "knows")).get()), equalTo(spokes));
+
+		EdgeIterator it = m_cassandraStore.getEdges(new EdgeQuery(hub, "knows").setFetchSize(10));
+		Set<ByteBuffer> read = new HashSet<>();
+		for (int i = 0; i < 25; i++)
+			read.add(it.next());
+		it = m_cassandraStore.getEdges(new EdgeQuery(hub, "knows").setFetchSize(10).setPagingState(it.getPagingState()));
+		while (it.hasNext())
+			read.add(it.next());
+		assertThat(read, equalTo(spokes));
+
+		ByteBuffer spoke = edges.get(0).getDestVertexId();
+		assertThat(Lists.newArrayList(m_cassandraStore.getEdges(spoke, "knows")), equalTo(Collections.singletonList(hub)));
+
+		m_cassandraStore.deleteEdge(hub, spoke, "knows").get();
+		assertThat(m_cassandraStore.getEdges(spoke, "knows").hasNext(), equalTo(false));
+		m_cassandraStore.deleteEdge(hub, ByteBuffer.wrap("unknown".getBytes()), "knows").get();
+
+		m_cassandraStore.deleteVertex(hub).get();
+		assertThat(m_cassandraStore.getEdges(edges.get(1).getDestVertexId(), "knows").hasNext(), equalTo(false));
+	}
+
+	@Test
+	public void test_idDictionaryReusedBuffer() throws Exception
+	{
+		m_cassandraStore.setIdDictionary(true);
+
+		byte[] source = "bob".getBytes();
+		ByteBuffer sourceId = ByteBuffer.wrap(source);
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		m_cassandraStore.addEdge(sourceId, fred, Direction.OUT, "knows").get();
+
+		//The dictionary must not have kept the caller's buffer
+		System.arraycopy("sam".getBytes(), 0, source, 0, source.length);
+		m_cassandraStore.addEdge(sourceId, fred, Direction.OUT, "knows").get();
+
+		assertThat(m_cassandraStore.readEdges(new EdgeQuery(ByteBuffer.wrap("bob".getBytes()), "knows")).get(),
+				equalTo(Collections.singletonList(fred)));
+		assertThat(m_cassandraStore.readEdges(new EdgeQuery(ByteBuffer.wrap("sam".getBytes()), "knows")).get(),
+				equalTo(Collections.singletonList(fred)));
+
+		//Reading a returned id does not move the cached one
+		m_cassandraStore.readEdges(new EdgeQuery(ByteBuffer.wrap("bob".getBytes()), "knows")).get().get(0).get();
+		assertThat(m_cassandraStore.readEdges(new EdgeQuery(ByteBuffer.wrap("sam".getBytes()), "knows")).get(),
+				equalTo(Collections.singletonList(fred)));
+	}
+
+	@Test
+	public void test_degrees() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		ByteBuffer sam = ByteBuffer.wrap("sam".getBytes());
+
+		m_cassandraStore.addEdges(Arrays.asList(new Edge(bob, fred, Direction.OUT, "knows"),
+				new Edge(bob, sam, Direction.OUT, "knows"),
+				new Edge(sam, bob, Direction.OUT, "knows"))).get();
+		m_cassandraStore.addEdge(bob, fred, Direction.BOTH, "likes").get();
+
+		//Counts are read back once flushed as well as before
+		Degrees degrees = m_cassandraStore.getDegrees(bob).get();
+		assertThat(degrees.get(null, null), equalTo(4L));
+		m_cassandraStore.flushDegrees().get();
+		degrees = m_cassandraStore.getDegrees(bob).get();
+		assertThat(degrees.get(null, null), equalTo(4L));
+		assertThat(degrees.get("knows", Direction.OUT), equalTo(2L));
+		assertThat(degrees.get("knows", Direction.IN), equalTo(1L));
+		assertThat(degrees.get("likes", Direction.BOTH), equalTo(1L));
+		assertThat(m_cassandraStore.getDegrees(fred).get().get("knows", Direction.IN), equalTo(1L));
+
+		m_cassandraStore.deleteEdge(bob, sam, "knows").get();
+		assertThat(m_cassandraStore.getDegrees(bob).get().get("knows", Direction.OUT), equalTo(1L));
+		assertThat(m_cassandraStore.getDegrees(sam).get().get("knows", null), equalTo(1L));
+
+		m_cassandraStore.deleteVertex(bob).get();
+		assertThat(m_cassandraStore.getDegrees(bob).get().get(null, null), equalTo(0L));
+		assertThat(m_cassandraStore.getDegrees(fred).get().get(null, null), equalTo(0L));
+		assertThat(m_cassandraStore.getDegrees(sam).get().get(null, null), equalTo(0L));
+
+		//The reset is written as well, not only summed in memory
+		m_cassandraStore.flushDegrees().get();
+		assertThat(m_cassandraStore.getDegrees(bob).get().get(null, null), equalTo(0L));
+	}
+
+	@Test
+	public void test_degreesReusedBuffer() throws Exception
+	{
+		byte[] source = "ann".getBytes();
+		ByteBuffer sourceId = ByteBuffer.wrap(source);
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		m_cassandraStore.addEdge(sourceId, fred, Direction.OUT, "knows").get();
+
+		//The pending change must stay with ann
+		System.arraycopy("joe".getBytes(), 0, source, 0, source.length);
+		m_cassandraStore.flushDegrees().get();
+
+		assertThat(m_cassandraStore.getDegrees(ByteBuffer.wrap("ann".getBytes())).get().get(null, null), equalTo(1L));
+		assertThat(m_cassandraStore.getDegrees(ByteBuffer.wrap("joe".getBytes())).get().get(null, null), equalTo(0L));
+	}
 }
@@ -0,0 +1,433 @@
+package org.asterion.store;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.asterion.AsterionException;
+import org.asterion.Edge;
+import org.asterion.Vertex;
+import org.asterion.dump.DumpReader;
+import org.asterion.dump.DumpWriter;
+import org.asterion.dump.GraphExporter;
+import org.asterion.dump.RecoveryFile;
+import org.asterion.traversal.Expansion;
+import org.asterion.traversal.TraversalEngine;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+/**
+ Runs without a cluster, covers the same behavior TestCassandraStore
+ checks against Cassandra.
+ */
+public class TestMemoryStore
+{
+	private MemoryStore m_store;
+
+	@Before
+	public void createStore()
+	{
+		m_store = new MemoryStore();
+		m_store.setIndexedProperties("name");
+	}
+
+	@Test
+	public void test_updateVertex() throws Exception
+	{
+		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
+
+		m_store.updateVertex(vertexId, ImmutableMap.of("name", "bob", "height", "6.2")).get();
+		m_store.updateVertex(vertexId, ImmutableMap.of("height", "6.3")).get();
+
+		assertThat(m_store.getVertexProperty(vertexId, "name").get(), equalTo("bob"));
+		assertThat(m_store.getVertexProperties(vertexId).get(),
+				equalTo((Map<String, String>) ImmutableMap.of("name", "bob", "height", "6.3")));
+		assertThat(m_store.getVertexProperties(ByteBuffer.wrap("missing".getBytes())).get().isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_multiGetVertexProperties() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		ByteBuffer missing = ByteBuffer.wrap("missing".getBytes());
+
+		m_store.updateVertex(bob, ImmutableMap.of("name", "bob", "height", "6.2")).get();
+		m_store.updateVertex(fred, ImmutableMap.of("name", "fred")).get();
+
+		Map<ByteBuffer, Map<String, String>> properties = m_store.getVertexProperties(
+				Arrays.asList(bob, fred, missing), null).get();
+		assertThat(properties.get(bob), equalTo((Map<String, String>) ImmutableMap.of("name", "bob", "height", "6.2")));
+		assertThat(properties.get(fred), equalTo((Map<String, String>) ImmutableMap.of("name", "fred")));
+		assertThat(properties.get(missing).isEmpty(), equalTo(true));
+
+		properties = m_store.getVertexProperties(Arrays.asList(bob, fred), ImmutableSet.of("height")).get();
+		assertThat(properties.get(bob), equalTo((Map<String, String>) ImmutableMap.of("height", "6.2")));
+		assertThat(properties.get(fred).isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_getEdgesPaging() throws Exception
+	{
+		ByteBuffer hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>();
+
+		for (int i = 0; i < 250; i++)
+			edges.add(new Edge(hub, ByteBuffer.wrap(String.format("spoke_%03d", i).getBytes()), Direction.OUT, "knows", i));
+
+		m_store.addEdges(edges).get();
+
+		EdgeIterator it = m_store.getEdges(new EdgeQuery(hub, "knows").setFetchSize(10));
+		List<ByteBuffer> read = new ArrayList<>();
+		for (int i = 0; i < 125; i++)
+			read.add(it.next());
+
+		EdgeQuery resume = new EdgeQuery(hub, "knows").setFetchSize(10).setPagingState(it.getPagingState());
+		it = m_store.getEdges(resume);
+		while (it.hasNext())
+			read.add(it.next());
+
+		assertThat(it.getPagingState(), equalTo(null));
+		assertThat(read.size(), equalTo(250));
+		for (int i = 0; i < 250; i++)
+			assertThat(read.get(i), equalTo(edges.get(i).getDestVertexId()));
+
+		assertThat(Iterators.size(m_store.getEdges(new EdgeQuery(hub, "knows").setDirection(Direction.OUT))),
+				equalTo(250));
+		assertThat(m_store.getEdges(new EdgeQuery(hub, "knows").setDirection(Direction.IN)).hasNext(),
+				equalTo(false));
+		assertThat(Lists.newArrayList(m_store.getEdges(new EdgeQuery(edges.get(0).getDestVertexId(), "knows")
+				.setDirection(Direction.IN))), equalTo(Collections.singletonList(hub)));
+	}
+
+	@Test
+	public void test_getEdgesTimeRange() throws Exception
+	{
+		ByteBuffer vertexId = ByteBuffer.wrap("vertex_id".getBytes());
+		List<Edge> edges = new ArrayList<>();
+
+		for (int i = 0; i < 10; i++)
+			edges.add(new Edge(vertexId, ByteBuffer.wrap(("edge_" + i).getBytes()), Direction.OUT, "knows", i * 500L));
+
+		m_store.addEdges(edges).get();
+
+		List<ByteBuffer> expected = Arrays.asList(ByteBuffer.wrap("edge_3".getBytes()),
+				ByteBuffer.wrap("edge_4".getBytes()), ByteBuffer.wrap("edge_5".getBytes()),
+				ByteBuffer.wrap("edge_6".getBytes()));
+
+		EdgeQuery query = new EdgeQuery(vertexId, "knows").setTimeRange(1500L, 3000L).setFetchSize(3);
+		assertThat(m_store.readEdges(query).get(), equalTo(expected));
+		assertThat(Lists.newArrayList(m_store.getEdges(query)), equalTo(expected));
+	}
+
+	@Test
+	public void test_findVerticesByProperty() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer bill = ByteBuffer.wrap("bill".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+
+		m_store.updateVertex(bob, ImmutableMap.of("name", "bob", "height", "6.2")).get();
+		m_store.updateVertex(bill, ImmutableMap.of("name", "bill")).get();
+		m_store.updateVertex(fred, ImmutableMap.of("name", "fred")).get();
+
+		assertThat(m_store.findVerticesByProperty("name", "bob").get(), equalTo(Collections.singletonList(bob)));
+		assertThat(m_store.findVerticesByProperty("height", "6.2").get().isEmpty(), equalTo(true));
+		assertThat(m_store.findVerticesByPropertyPrefix("name", "b", 10).get(), equalTo(Arrays.asList(bill, bob)));
+		assertThat(m_store.findVerticesByPropertyRange("name", "bob", null, 10).get(), equalTo(Arrays.asList(bob, fred)));
+		assertThat(m_store.findVerticesByPropertyRange("name", "a", "c", 1).get(), equalTo(Collections.singletonList(bill)));
+
+		m_store.updateVertex(bob, ImmutableMap.of("name", "robert")).get();
+		assertThat(m_store.findVerticesByProperty("name", "bob").get().isEmpty(), equalTo(true));
+		assertThat(m_store.findVerticesByProperty("name", "robert").get(), equalTo(Collections.singletonList(bob)));
+	}
+
+	@Test
+	public void test_delete() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		ByteBuffer sam = ByteBuffer.wrap("sam".getBytes());
+
+		m_store.updateVertex(bob, ImmutableMap.of("name", "bob", "height", "6.2")).get();
+		m_store.addEdges(Arrays.asList(new Edge(bob, fred, Direction.OUT, "knows"),
+				new Edge(sam, bob, Direction.OUT, "knows"),
+				new Edge(sam, fred, Direction.OUT, "knows"),
+				new Edge(bob, bob, Direction.BOTH, "likes"))).get();
+
+		m_store.deleteProperty(bob, "height").get();
+		assertThat(m_store.getVertexProperties(bob).get(), equalTo((Map<String, String>) ImmutableMap.of("name", "bob")));
+
+		m_store.deleteEdge(sam, fred, "knows").get();
+		assertThat(Lists.newArrayList(m_store.getEdges(sam, "knows")), equalTo(Collections.singletonList(bob)));
+		assertThat(Lists.newArrayList(m_store.getEdges(fred, "knows")), equalTo(Collections.singletonList(bob)));
+
+		m_store.deleteVertex(bob).get();
+		assertThat(m_store.getVertexProperties(bob).get().isEmpty(), equalTo(true));
+		assertThat(m_store.findVerticesByProperty("name", "bob").get().isEmpty(), equalTo(true));
+		assertThat(m_store.getEdgeTypes(bob).get().isEmpty(), equalTo(true));
+		assertThat(m_store.getEdges(fred, "knows").hasNext(), equalTo(false));
+		assertThat(m_store.getEdges(sam, "knows").hasNext(), equalTo(false));
+	}
+
+	@Test
+	public void test_degrees() throws Exception
+	{
+		ByteBuffer bob = ByteBuffer.wrap("bob".getBytes());
+		ByteBuffer fred = ByteBuffer.wrap("fred".getBytes());
+		ByteBuffer sam = ByteBuffer.wrap("sam".getBytes());
+
+		m_store.addEdges(Arrays.asList(new Edge(bob, fred, Direction.OUT, "knows"),
+				new Edge(bob, sam, Direction.OUT, "knows"),
+				new Edge(sam, bob, Direction.OUT, "knows"),
+				new Edge(bob, fred, Direction.BOTH, "likes"))).get();
+
+		Degrees degrees = m_store.getDegrees(bob).get();
+		assertThat(degrees.get(null, null), equalTo(4L));
+		assertThat(degrees.get("knows", Direction.OUT), equalTo(2L));
+		assertThat(degrees.get("knows", Direction.IN), equalTo(1L));
+		assertThat(degrees.get("likes", null), equalTo(1L));
+		assertThat(m_store.getDegrees(fred).get().get("knows", Direction.IN), equalTo(1L));
+
+		m_store.deleteEdge(bob, sam, "knows").get();
+		assertThat(m_store.getDegrees(bob).get().get("knows", Direction.OUT), equalTo(1L));
+
+		m_store.deleteVertex(bob).get();
+		assertThat(m_store.getDegrees(bob).get().get(null, null), equalTo(0L));
+		assertThat(m_store.getDegrees(fred).get().get(null, null), equalTo(0L));
+		assertThat(m_store.getDegrees(sam).get().get(null, null), equalTo(0L));
+	}
+
+	@Test
+	public void test_graphScan() throws Exception
+	{
+		for (int i = 0; i < 100; i++)
+		{
+			ByteBuffer vertexId = ByteBuffer.wrap(("vertex_" + i).getBytes());
+			m_store.updateVertex(vertexId, ImmutableMap.of("name", "v" + i)).get();
+			m_store.addEdge(vertexId, ByteBuffer.wrap("hub".getBytes()), Direction.OUT, "knows").get();
+		}
+
+		GraphScanner scanner = new GraphScanner(m_store);
+		scanner.setTokenRanges(32);
+
+		int vertices = 0;
+		try (GraphScanner.Scan<Vertex> scan = scanner.scanVertices(new ScanCheckpoint()))
+		{
+			while (scan.hasNext())
+			{
+				assertThat(scan.next().getProperties().size(), equalTo(1));
+				vertices++;
+			}
+		}
+
+		//Each edge is seen from both of its ends
+		int edges;
+		try (GraphScanner.Scan<Edge> scan = scanner.scanEdges(new ScanCheckpoint()))
+		{
+			edges = Iterators.size(scan);
+		}
+
+		assertThat(vertices, equalTo(100));
+		assertThat(edges, equalTo(200));
+	}
+
+	@Test(timeout = 30000)
+	public void test_graphScanError() throws Exception
+	{
+		MemoryStore store = new MemoryStore()
+		{
+			@Override
+			public Iterator<Vertex> scanVertices(TokenRange range)
+			{
+				throw new AssertionError("Driver assertion");
+			}
+		};
+		store.updateVertex(ByteBuffer.wrap("bob".getBytes()), ImmutableMap.of("name", "bob")).get();
+
+		GraphScanner scanner = new GraphScanner(store);
+		try (GraphScanner.Scan<Vertex> scan = scanner.scanVertices(new ScanCheckpoint()))
+		{
+			scan.hasNext();
+			fail("The scan should have failed");
+		}
+		catch (IllegalStateException e)
+		{
+			assertThat(e.getCause() instanceof AssertionError, equalTo(true));
+		}
+	}
+
+	/**
+	 Half of the edge ranges fail part way through the first export, the
+	 way they would if it was killed.  Resuming has to leave every record
+	 in the dump exactly once.
+	 */
+	@Test
+	public void test_exportResume() throws Exception
+	{
+		ScanFailingStore store = new ScanFailingStore();
+		for (int i = 0; i < 200; i++)
+		{
+			ByteBuffer vertexId = ByteBuffer.wrap(("vertex_" + i).getBytes());
+			store.updateVertex(vertexId, ImmutableMap.of("name", "v" + i)).get();
+			store.addEdge(vertexId, ByteBuffer.wrap(("vertex_" + (i + 1) % 200).getBytes()), Direction.OUT, "knows").get();
+		}
+
+		File dump = File.createTempFile("asterion", ".dump");
+		dump.deleteOnExit();
+		File recovery = File.createTempFile("asterion", ".recovery");
+		recovery.deleteOnExit();
+
+		GraphExporter exporter = new GraphExporter(store);
+		exporter.setTokenRanges(16);
+		exporter.setThreads(4);
+		//Small blocks so every range writes several
+		exporter.setBlockSize(64);
+
+		RecoveryFile recoveryFile = new RecoveryFile(recovery, RecoveryFile.EXPORT);
+		try
+		{
+			exporter.export(dump, recoveryFile, false);
+			fail("The export should have failed");
+		}
+		catch (AsterionException e)
+		{
+		}
+		finally
+		{
+			recoveryFile.close();
+		}
+
+		//A killed export can leave part of a block behind
+		try (FileOutputStream out = new FileOutputStream(dump, true))
+		{
+			out.write(new byte[]{DumpWriter.EDGE_BLOCK, 5, 1});
+		}
+
+		store.m_failing = false;
+		recoveryFile = new RecoveryFile(recovery, RecoveryFile.EXPORT);
+		exporter.export(dump, recoveryFile, true);
+		recoveryFile.close();
+
+		Map<Byte, Integer> counts = new HashMap<>();
+		try (DumpReader reader = new DumpReader(dump, 0))
+		{
+			DumpReader.Block block;
+			while ((block = reader.next()) != null)
+			{
+				Integer count = counts.get(block.getType());
+				counts.put(block.getType(), (count == null ? 0 : count) + block.getRecordCount());
+			}
+		}
+
+		assertThat(counts.get(DumpWriter.VERTEX_BLOCK), equalTo(200));
+		assertThat(counts.get(DumpWriter.EDGE_BLOCK), equalTo(200));
+
+		//Import positions mean something else, the export's file is refused
+		try
+		{
+			new RecoveryFile(recovery, RecoveryFile.IMPORT);
+			fail("An export recovery file should not be accepted by an import");
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	@Test
+	public void test_traversal() throws Exception
+	{
+		ByteBuffer a = ByteBuffer.wrap("a".getBytes());
+		ByteBuffer b = ByteBuffer.wrap("b".getBytes());
+		ByteBuffer c = ByteBuffer.wrap("c".getBytes());
+		ByteBuffer d = ByteBuffer.wrap("d".getBytes());
+
+		m_store.addEdges(Arrays.asList(new Edge(a, b, Direction.OUT, "knows"),
+				new Edge(b, c, Direction.OUT, "knows"),
+				new Edge(c, d, Direction.OUT, "knows"),
+				new Edge(a, c, Direction.OUT, "likes"))).get();
+
+		TraversalEngine engine = new TraversalEngine(m_store);
+
+		assertThat(engine.shortestPath(a, d, "knows", Direction.OUT, 6).get(), equalTo(Arrays.asList(a, b, c, d)));
+		assertThat(engine.shortestPath(a, d, null, Direction.OUT, 6).get(), equalTo(Arrays.asList(a, c, d)));
+		assertThat(engine.shortestPath(d, a, "knows", Direction.OUT, 6).get().isEmpty(), equalTo(true));
+	}
+
+	/**
+	 Every other edge scan fails after a few edges while m_failing is set.
+	 */
+	private static class ScanFailingStore extends MemoryStore
+	{
+		private final AtomicInteger m_scans = new AtomicInteger();
+		private volatile boolean m_failing = true;
+
+		@Override
+		public Iterator<Edge> scanEdges(TokenRange range)
+		{
+			final Iterator<Edge> edges = super.scanEdges(range);
+			if (!m_failing || m_scans.incrementAndGet() % 2 == 0)
+				return (edges);
+
+			return (new Iterator<Edge>()
+			{
+				private int m_read = 0;
+
+				@Override
+				public boolean hasNext()
+				{
+					if (m_read == 5)
+						throw new IllegalStateException("Scan failed");
+
+					return (edges.hasNext());
+				}
+
+				@Override
+				public Edge next()
+				{
+					m_read++;
+					return (edges.next());
+				}
+			});
+		}
+	}
+
+	@Test
+	public void test_supernodeTraversal() throws Exception
+	{
+		ByteBuffer a = ByteBuffer.wrap("a".getBytes());
+		ByteBuffer hub = ByteBuffer.wrap("hub".getBytes());
+		List<Edge> edges = new ArrayList<>();
+
+		edges.add(new Edge(a, hub, Direction.OUT, "knows"));
+		for (int i = 0; i < 10; i++)
+			edges.add(new Edge(hub, ByteBuffer.wrap(("spoke_" + i).getBytes()), Direction.OUT, "knows"));
+
+		m_store.addEdges(edges).get();
+
+		TraversalEngine engine = new TraversalEngine(m_store);
+		engine.setSupernodeDegree(5);
+
+		Expansion expansion = engine.expand(a, "knows", Direction.OUT, 2).get();
+		assertThat(expansion.getLevels().get(1), equalTo(Collections.singletonList(hub)));
+		assertThat(expansion.getSupernodes(), equalTo(Collections.singletonList(hub)));
+		assertThat(expansion.getLevels().get(2).isEmpty(), equalTo(true));
+	}
+}
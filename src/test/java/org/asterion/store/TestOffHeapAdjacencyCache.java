@@ -0,0 +1,80 @@
+package org.asterion.store;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TestOffHeapAdjacencyCache
+{
+	private static final long CACHE_BYTES = 64 * 1024;
+
+	private static List<ByteBuffer> neighbors(int count)
+	{
+		List<ByteBuffer> ret = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+			ret.add(ByteBuffer.wrap(("neighbor_" + i).getBytes()));
+
+		return (ret);
+	}
+
+	@Test
+	public void test_neighborsReadBack()
+	{
+		OffHeapAdjacencyCache cache = new OffHeapAdjacencyCache(CACHE_BYTES, 1000, 60000, new MetricRegistry());
+		ByteBuffer vertex = ByteBuffer.wrap("vertex".getBytes());
+
+		//Spans several pages
+		List<ByteBuffer> neighbors = neighbors(100);
+		cache.put(vertex, "knows", Direction.OUT, neighbors, cache.getStamp(vertex, "knows"));
+
+		assertThat(cache.get(vertex, "knows", Direction.OUT), equalTo(neighbors));
+		assertThat(cache.get(vertex, "knows", Direction.IN), nullValue());
+
+		cache.invalidate(vertex, "knows");
+		assertThat(cache.get(vertex, "knows", Direction.OUT), nullValue());
+	}
+
+	@Test
+	public void test_bytesBounded()
+	{
+		MetricRegistry registry = new MetricRegistry();
+		OffHeapAdjacencyCache cache = new OffHeapAdjacencyCache(CACHE_BYTES, 1000, 60000, registry);
+		String bytes = MetricRegistry.name(AdjacencyCache.class, "bytes");
+
+		for (int i = 0; i < 1000; i++)
+		{
+			ByteBuffer vertex = ByteBuffer.wrap(("vertex_" + i).getBytes());
+			cache.put(vertex, "knows", Direction.OUT, neighbors(20), cache.getStamp(vertex, "knows"));
+
+			assertThat((Long) registry.getGauges().get(bytes).getValue(), lessThanOrEqualTo(CACHE_BYTES));
+		}
+
+		//Evicted pages were reused for the latest lists
+		ByteBuffer last = ByteBuffer.wrap("vertex_999".getBytes());
+		assertThat(cache.get(last, "knows", Direction.OUT), notNullValue());
+		assertThat(registry.counter(MetricRegistry.name(AdjacencyCache.class, "evictions")).getCount(), greaterThan(0L));
+	}
+
+	@Test
+	public void test_arenaReusesFreedPages()
+	{
+		PageArena arena = new PageArena(4 * PageArena.PAGE_SIZE);
+
+		int[] pages = arena.allocate(3);
+		assertThat(arena.allocate(2), nullValue());
+
+		arena.free(pages);
+		assertThat(arena.allocate(4), notNullValue());
+		assertThat(arena.allocate(1), nullValue());
+	}
+}
@@ -0,0 +1,101 @@
+package org.asterion.store;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+public class TestTimedDataStore
+{
+	private static final ByteBuffer VERTEX = ByteBuffer.wrap("vertex_id".getBytes());
+
+	private MetricRegistry m_registry;
+
+	@Before
+	public void createRegistry()
+	{
+		m_registry = new MetricRegistry();
+	}
+
+	@Test
+	public void test_operationTimed() throws Exception
+	{
+		TimedDataStore store = new TimedDataStore(new MemoryStore(), m_registry);
+
+		store.updateVertex(VERTEX, ImmutableMap.of("name", "bob")).get();
+		assertThat(store.getVertexProperty(VERTEX, "name").get(), equalTo("bob"));
+
+		//Timers are named after the wrapped store
+		assertThat(m_registry.timer(MetricRegistry.name(MemoryStore.class, "updateVertex")).getCount(), equalTo(1L));
+		assertThat(m_registry.timer(MetricRegistry.name(MemoryStore.class, "getVertexProperty")).getCount(), equalTo(1L));
+		assertThat(m_registry.meter(MetricRegistry.name(MemoryStore.class, "updateVertex", "errors")).getCount(), equalTo(0L));
+	}
+
+	@Test
+	public void test_failuresMarked() throws Exception
+	{
+		TimedDataStore store = new TimedDataStore(new MemoryStore()
+		{
+			@Override
+			public CompletableFuture<Void> deleteVertex(ByteBuffer vertexId)
+			{
+				CompletableFuture<Void> ret = new CompletableFuture<>();
+				ret.completeExceptionally(new IllegalStateException("store is down"));
+				return (ret);
+			}
+
+			@Override
+			public CompletableFuture<Void> deleteProperty(ByteBuffer vertexId, String propertyName)
+			{
+				throw new IllegalArgumentException("bad property");
+			}
+		}, m_registry);
+
+		try
+		{
+			store.deleteVertex(VERTEX).get();
+			fail("The delete should have failed");
+		}
+		catch (ExecutionException e)
+		{
+			assertThat(e.getCause().getMessage(), equalTo("store is down"));
+		}
+
+		try
+		{
+			store.deleteProperty(VERTEX, "name");
+			fail("The delete should have thrown");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertThat(e.getMessage(), equalTo("bad property"));
+		}
+
+		assertThat(countErrors("deleteVertex"), equalTo(1L));
+		assertThat(countErrors("deleteProperty"), equalTo(1L));
+	}
+
+	/**
+	 The failing store is an anonymous class, its meters are found by the
+	 operation.
+	 */
+	private long countErrors(String operation)
+	{
+		long ret = 0;
+		for (String name : m_registry.getMeters().keySet())
+		{
+			if (name.endsWith("." + operation + ".errors"))
+				ret += m_registry.getMeters().get(name).getCount();
+		}
+
+		return (ret);
+	}
+}
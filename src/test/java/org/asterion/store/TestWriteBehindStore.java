@@ -0,0 +1,122 @@
+package org.asterion.store;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.asterion.Edge;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TestWriteBehindStore
+{
+	@Rule
+	public TemporaryFolder m_folder = new TemporaryFolder();
+
+	private WriteBehindStore createStore(DataStore dataStore, int segmentSize, long closeTimeout) throws Exception
+	{
+		return (new WriteBehindStore(dataStore, m_folder.getRoot().getPath(), segmentSize, 1, 100,
+				closeTimeout, new MetricRegistry()));
+	}
+
+	private static ByteBuffer id(String id)
+	{
+		return (ByteBuffer.wrap(id.getBytes()));
+	}
+
+	@Test
+	public void test_drainOnClose() throws Exception
+	{
+		MemoryStore memoryStore = new MemoryStore();
+		//Small segments so the log rolls several times
+		WriteBehindStore store = createStore(memoryStore, 4096, 0);
+
+		for (int i = 0; i < 500; i++)
+		{
+			store.updateVertex(id("vertex"), ImmutableMap.of("count", String.valueOf(i)));
+			store.addEdge(id("vertex"), id("edge_" + i), Direction.OUT, "knows");
+		}
+		store.deleteEdge(id("vertex"), id("edge_0"), "knows");
+		store.updateVertex(id("other"), ImmutableMap.of("name", "other")).get();
+
+		store.close();
+
+		assertThat(memoryStore.getVertexProperty(id("vertex"), "count").get(), equalTo("499"));
+		assertThat(memoryStore.getVertexProperty(id("other"), "name").get(), equalTo("other"));
+		assertThat(Lists.newArrayList(memoryStore.getEdges(id("vertex"), "knows")).size(), equalTo(499));
+
+		File[] segments = m_folder.getRoot().listFiles((dir, name) -> name.startsWith("segment-"));
+		assertThat(segments.length, equalTo(1));
+	}
+
+	@Test
+	public void test_replay() throws Exception
+	{
+		WriteBehindStore store = createStore(new FailingStore(), 1024 * 1024, 100);
+
+		List<CompletableFuture<Void>> writes = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			writes.add(store.addEdges(Collections.singletonList(new Edge(id("a"), id("b_" + i), Direction.OUT, "knows", i))));
+
+		//Acknowledged once logged even though the store rejects them
+		for (CompletableFuture<Void> write : writes)
+			write.get();
+
+		store.close();
+
+		MemoryStore memoryStore = new MemoryStore();
+		store = createStore(memoryStore, 1024 * 1024, 0);
+		store.close();
+
+		assertThat(Lists.newArrayList(memoryStore.getEdges(id("a"), "knows")).size(), equalTo(100));
+	}
+
+	@Test
+	public void test_damagedRecord() throws Exception
+	{
+		MutationLog log = new MutationLog(m_folder.getRoot(), 1024);
+		log.append("first".getBytes());
+		long end = log.append("second".getBytes());
+		log.close();
+
+		//Garble the second record's payload
+		try (RandomAccessFile file = new RandomAccessFile(new File(m_folder.getRoot(), "segment-00000000.log"), "rw"))
+		{
+			file.seek(MutationLog.offset(end) - 1);
+			file.write('X');
+		}
+
+		log = new MutationLog(m_folder.getRoot(), 1024);
+		List<MutationLog.Entry> entries = log.read(10);
+		assertThat(entries.size(), equalTo(1));
+		assertThat(new String(entries.get(0).getPayload()), equalTo("first"));
+
+		log.append("third".getBytes());
+		entries = log.read(10);
+		assertThat(entries.size(), equalTo(1));
+		assertThat(new String(entries.get(0).getPayload()), equalTo("third"));
+	}
+
+	private static class FailingStore extends MemoryStore
+	{
+		@Override
+		public CompletableFuture<Void> addEdges(Collection<Edge> edges)
+		{
+			CompletableFuture<Void> ret = new CompletableFuture<>();
+			ret.completeExceptionally(new IllegalStateException("Cluster is down"));
+			return (ret);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.asterion.store;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+public class TestWriteDeduplicator
+{
+	private static final ByteBuffer VERTEX = ByteBuffer.wrap("vertex_id".getBytes());
+
+	private WriteDeduplicator m_deduplicator;
+
+	@Before
+	public void createDeduplicator()
+	{
+		m_deduplicator = new WriteDeduplicator(1024, new MetricRegistry());
+	}
+
+	@Test
+	public void test_repeatedWriteSkipped()
+	{
+		long claim = m_deduplicator.claimWrite(VERTEX, "name", "A");
+		assertThat(claim, not(equalTo(WriteDeduplicator.DUPLICATE)));
+		m_deduplicator.recordWrite(VERTEX, "name", "A", claim);
+
+		assertThat(m_deduplicator.claimWrite(VERTEX, "name", "A"), equalTo(WriteDeduplicator.DUPLICATE));
+	}
+
+	/**
+	 A is acknowledged, B is issued and while B is in flight A is written
+	 again.  The second A has to go out, it is what the caller asked for
+	 last.
+	 */
+	@Test
+	public void test_writeBackWhileInFlight()
+	{
+		long a = m_deduplicator.claimWrite(VERTEX, "name", "A");
+		m_deduplicator.recordWrite(VERTEX, "name", "A", a);
+
+		long b = m_deduplicator.claimWrite(VERTEX, "name", "B");
+		long secondA = m_deduplicator.claimWrite(VERTEX, "name", "A");
+		assertThat(secondA, not(equalTo(WriteDeduplicator.DUPLICATE)));
+
+		//B lands after the second A was issued and must not be remembered
+		m_deduplicator.recordWrite(VERTEX, "name", "B", b);
+		assertThat(m_deduplicator.claimWrite(VERTEX, "name", "B"), not(equalTo(WriteDeduplicator.DUPLICATE)));
+	}
+
+	@Test
+	public void test_lastAcknowledgedClaimRecorded()
+	{
+		long b = m_deduplicator.claimWrite(VERTEX, "name", "B");
+		long a = m_deduplicator.claimWrite(VERTEX, "name", "A");
+
+		m_deduplicator.recordWrite(VERTEX, "name", "A", a);
+		m_deduplicator.recordWrite(VERTEX, "name", "B", b);
+
+		assertThat(m_deduplicator.claimWrite(VERTEX, "name", "A"), equalTo(WriteDeduplicator.DUPLICATE));
+	}
+
+	@Test
+	public void test_deleteWhileInFlight()
+	{
+		long a = m_deduplicator.claimWrite(VERTEX, "name", "A");
+		m_deduplicator.forget(VERTEX, "name");
+		m_deduplicator.recordWrite(VERTEX, "name", "A", a);
+
+		assertThat(m_deduplicator.claimWrite(VERTEX, "name", "A"), not(equalTo(WriteDeduplicator.DUPLICATE)));
+	}
+
+	@Test
+	public void test_failedWriteReleased()
+	{
+		long a = m_deduplicator.claimWrite(VERTEX, "name", "A");
+		m_deduplicator.recordWrite(VERTEX, "name", "A", a);
+
+		long b = m_deduplicator.claimWrite(VERTEX, "name", "B");
+		m_deduplicator.release(VERTEX, "name", b);
+
+		//The failed write may or may not have landed so A is written again
+		assertThat(m_deduplicator.claimWrite(VERTEX, "name", "A"), not(equalTo(WriteDeduplicator.DUPLICATE)));
+	}
+}